@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*********************************************************************************
+ * C L E A N   B E N C H M A R K
+ * -----------------------------
+ *
+ * Entrez.cleanPMC_XMLtags on PMC efetch XML: the original replaceAll chain
+ * (TagStripper.legacy) against the compiled single-pass stripper, plus the
+ * replaceAll chain of cleanPMCAbstractTags (PubmedPages.abstractTags).
+ ********************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CleanBench
+{
+  @Param({"small", "medium", "large"})
+  public String size;
+
+  private Object stripper;
+  private String text;
+
+
+  @Setup
+  public void setup() throws Throwable
+  {
+    stripper = (Object) Core.PMC_XML.invokeExact();
+    text     = Fixtures.load("jats", size);
+
+    // --- both must produce the same output, else the comparison is void
+    String legacy   = (String) Core.STRIP_LEGACY.invokeExact(stripper, text);
+    String compiled = (String) Core.STRIP.invokeExact(stripper, text);
+
+    if (!legacy.equals(compiled)) throw new IllegalStateException("cleanPMC_XMLtags: replaceAll chain and compiled stripper differ on jats-" + size);
+  }
+
+
+  @Benchmark
+  public String xmlTagsReplaceAll() throws Throwable
+  {
+    return (String) Core.STRIP_LEGACY.invokeExact(stripper, text);
+  }
+
+  @Benchmark
+  public String xmlTagsCompiled() throws Throwable
+  {
+    return (String) Core.STRIP.invokeExact(stripper, text);
+  }
+
+  @Benchmark
+  public String abstractTags() throws Throwable
+  {
+    return (String) Core.ABSTRACT_TAGS.invokeExact(text);
+  }
+
+}
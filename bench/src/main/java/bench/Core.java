@@ -0,0 +1,83 @@
+package bench;
+
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/*********************************************************************************
+ * C O R E   H A N D L E S
+ * -----------------------
+ *
+ * The core classes live in the default package, which code in a named package
+ * cannot import, and JMH refuses benchmarks in the default package. Both end
+ * up in the same unnamed module (benchmarks.jar), so the benchmarks reach the
+ * package-private core methods through method handles resolved once here.
+ * Receivers whose class cannot be named are typed Object; call the handles
+ * with invokeExact and the exact types below so they stay free of boxing
+ * and adapters once JIT-compiled.
+ ********************************************************************************/
+final class Core
+{
+  // --- TagStripper
+  static final MethodHandle PMC_XML         = find("TagStripper",  "pmcXml",         Object.class);
+  static final MethodHandle STRIP           = find("TagStripper",  "strip",          String.class, Object.class, String.class);
+  static final MethodHandle STRIP_LEGACY    = find("TagStripper",  "legacy",         String.class, Object.class, String.class);
+
+  // --- HtmlRewriter
+  static final MethodHandle PMC_HTML        = find("HtmlRewriter", "pmcHtml",        Object.class);
+  static final MethodHandle REWRITE         = find("HtmlRewriter", "rewrite",        String.class, Object.class, CharSequence.class);
+  static final MethodHandle REWRITE_LEGACY  = find("HtmlRewriter", "legacy",         String.class, CharSequence.class);
+
+  // --- JatsSections / PubmedPages
+  static final MethodHandle METHODS_STAX    = find("JatsSections", "methods",        String.class, Reader.class);
+  static final MethodHandle METHODS         = find("PubmedPages",  "methods",        String.class, String.class);
+  static final MethodHandle ABSTRACT_TAGS   = find("PubmedPages",  "abstractTags",   String.class, String.class);
+  static final MethodHandle SUMMARY_FIELDS  = find("PubmedPages",  "summaryFields",  String[].class, String.class);
+  static final MethodHandle ABSTRACT_FIELDS = find("PubmedPages",  "abstractFields", String.class, String.class);
+
+  private Core() {}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- handle for a static or instance method of a default-package class; for
+  //     an instance method the first of `params` stands for the receiver
+  // -----------------------------------------------------------------------------
+  private static MethodHandle find(String className, String method, Class<?> result, Class<?>... params)
+  {
+    try
+    {
+      Class<?>             owner  = Class.forName(className);
+      MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+      MethodType           wanted = MethodType.methodType(result, params);
+
+      for (Method m : owner.getDeclaredMethods())
+      {
+        if (!m.getName().equals(method)) continue;
+
+        boolean instance = !Modifier.isStatic(m.getModifiers());
+        if (m.getParameterCount() + (instance ? 1 : 0) != params.length) continue;
+
+        MethodHandle handle = lookup.unreflect(m);
+        if (sameErasure(handle.type(), wanted, instance)) return handle.asType(wanted);
+      }
+      throw new NoSuchMethodException(className + "." + method + wanted);
+    }
+    catch (ReflectiveOperationException e) {throw new ExceptionInInitializerError(e);}
+  }
+
+
+
+  // --- declared parameter types match `wanted`, the receiver aside
+  private static boolean sameErasure(MethodType declared, MethodType wanted, boolean instance)
+  {
+    for (int i = instance ? 1 : 0; i < wanted.parameterCount(); i++)
+      if (declared.parameterType(i) != wanted.parameterType(i)) return false;
+
+    return true;
+  }
+
+}
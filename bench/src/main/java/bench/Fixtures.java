@@ -0,0 +1,417 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*********************************************************************************
+ * F I X T U R E S
+ * ---------------
+ *
+ * Synthetic NCBI responses for the benchmarks, checked in gzipped under
+ * src/main/resources/fixtures as <kind>-<size>.gz:
+ *
+ *   jats      PMC efetch XML (what PMC_fetchFullPaper saves): front matter,
+ *             abstract, nested sections incl. Materials & Methods, figures,
+ *             inline markup, &#x..; entities, reference list
+ *   pmc       PMC article HTML page (cleanPMC_HTMLtags input): sidebar and
+ *             content cells, comments, scripts, tables, reference blocks
+ *   summary   PubMed summary page (getCitation): title / authors / source
+ *             paragraphs in the middle of navigation & similar-article lists
+ *   display   PubMed XML display page (getAbstract): escaped MEDLINE XML with
+ *             the title & abstract between author list and MeSH headings
+ *
+ * at three sizes: small (16 KB), medium (128 KB), large (1 MB). The text is
+ * made-up words from a fixed seed, no real article or person is in it. To
+ * regenerate (output is byte-identical for the same sizes):
+ *
+ *   java -cp bench/target/benchmarks.jar bench.Fixtures bench/src/main/resources/fixtures
+ ********************************************************************************/
+final class Fixtures
+{
+  static final String[] KINDS = {"jats", "pmc", "summary", "display"};
+  static final String[] SIZES = {"small", "medium", "large"};
+
+  private static final String[] WORDS =
+  {
+    "cell", "protein", "expression", "sample", "assay", "binding", "signal", "tissue",
+    "culture", "receptor", "analysis", "cohort", "mutant", "strain", "buffer", "domain",
+    "complex", "pathway", "response", "control", "increase", "reduced", "measured",
+    "observed", "incubated", "purified", "labelled", "treated", "isolated", "selected",
+    "significant", "relative", "previous", "standard", "minimal", "primary", "each",
+    "the", "of", "and", "in", "with", "for", "was", "were", "by", "after", "from"
+  };
+
+  private Fixtures() {}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- write all fixtures to the directory given as first argument
+  // -----------------------------------------------------------------------------
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length != 1)
+    {
+      System.out.println("usage: java -cp benchmarks.jar bench.Fixtures <directory>");
+      return;
+    }
+
+    Path dir = Paths.get(args[0]);
+    Files.createDirectories(dir);
+
+    for (String kind : KINDS)
+      for (String size : SIZES)
+      {
+        Path file = dir.resolve(kind + "-" + size + ".gz");
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file)))
+        {
+          out.write(generate(kind, bytes(size)).getBytes(StandardCharsets.UTF_8));
+        }
+        System.out.println(file + "  " + Files.size(file) + " bytes");
+      }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- checked-in fixture as text
+  // -----------------------------------------------------------------------------
+  static String load(String kind, String size)
+  {
+    String name = "/fixtures/" + kind + "-" + size + ".gz";
+
+    try (InputStream raw = Fixtures.class.getResourceAsStream(name))
+    {
+      if (raw == null) throw new IllegalArgumentException("no fixture " + name);
+
+      try (InputStream in = new GZIPInputStream(raw))
+      {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        in.transferTo(text);
+        return text.toString(StandardCharsets.UTF_8);
+      }
+    }
+    catch (IOException e) {throw new UncheckedIOException(name, e);}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- target size in bytes of one fixture
+  static int bytes(String size)
+  {
+    switch (size)
+    {
+      case "small":  return 16 << 10;
+      case "medium": return 128 << 10;
+      case "large":  return 1 << 20;
+      default:       throw new IllegalArgumentException("unknown fixture size " + size);
+    }
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- one document of `kind`, about `size` bytes
+  // -----------------------------------------------------------------------------
+  static String generate(String kind, int size)
+  {
+    Random random = new Random(kind.hashCode() * 31L + size);
+
+    switch (kind)
+    {
+      case "jats":    return jats(random, size);
+      case "pmc":     return pmc(random, size);
+      case "summary": return summary(random, size);
+      case "display": return display(random, size);
+      default:        throw new IllegalArgumentException("unknown fixture kind " + kind);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // * * * * * * * * * * * * * * *   J A T S   * * * * * * * * * * * * * * * * * * *
+
+  private static String jats(Random r, int size)
+  {
+    StringBuilder b = new StringBuilder(size + 4096);
+
+    b.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+     .append("<!DOCTYPE pmc-articleset PUBLIC \"-//NLM//DTD ARTICLE SET 2.0//EN\" \"http://dtd.nlm.nih.gov/ncbi/pmc/articleset/nlm-articleset-2.0.dtd\">\n")
+     .append("<pmc-articleset><article xmlns:xlink=\"http://www.w3.org/1999/xlink\" article-type=\"research-article\">\n")
+     .append("<front><journal-meta><journal-id journal-id-type=\"nlm-ta\">J Synth Biol</journal-id>")
+     .append("<journal-title>Journal of Synthetic Biology</journal-title><issn pub-type=\"epub\">0000-0000</issn>")
+     .append("<publisher><publisher-name>Example Press</publisher-name></publisher></journal-meta>\n")
+     .append("<article-meta><article-id pub-id-type=\"pmcid\">1000001</article-id>")
+     .append("<article-id pub-id-type=\"pmid\">10000001</article-id>")
+     .append("<title-group><article-title>").append(sentence(r, 12)).append("</article-title></title-group>\n<contrib-group>");
+
+    for (int i = 1; i <= 6; i++)
+      b.append("<contrib contrib-type=\"author\"><name><surname>").append(name(r)).append("</surname><given-names>")
+       .append((char) ('A' + r.nextInt(26))).append("</given-names></name><xref ref-type=\"aff\" rid=\"A1\">1</xref></contrib>");
+
+    b.append("</contrib-group>\n<aff id=\"A1\"><label>1</label>Department of ").append(name(r)).append(", Example University</aff>\n")
+     .append("<pub-date pub-type=\"epub\"><day>12</day><month>5</month><year>2008</year></pub-date><volume>3</volume><issue>2</issue>")
+     .append("<fpage>45</fpage><lpage>67</lpage>\n<abstract>");
+
+    for (String title : new String[] {"Background", "Methods", "Results", "Conclusions"})
+      b.append("<sec><title>").append(title).append("</title><p>").append(paragraph(r, 3)).append("</p></sec>");
+
+    b.append("</abstract></article-meta></front>\n<body>\n");
+
+    String[] types = {"intro", "methods", "results", "discussion"};
+    int      refs  = Math.max(10, size / 2000);
+    int      fig   = 0;
+
+    for (int s = 0; b.length() < size * 8 / 10; s++)
+    {
+      String type = types[s % types.length];
+
+      b.append("<sec sec-type=\"").append(s % 8 == 5 ? "materials|methods" : type).append("\" id=\"S").append(s).append("\">")
+       .append("<title>").append(sentence(r, 3)).append("</title>\n");
+
+      for (int sub = 0; sub < 2 + r.nextInt(3); sub++)
+      {
+        b.append("<sec id=\"S").append(s).append('.').append(sub).append("\"><title>").append(sentence(r, 4)).append("</title>\n");
+
+        for (int p = 0; p < 2 + r.nextInt(3); p++) b.append("<p>").append(inlineXml(r, refs)).append("</p>\n");
+
+        if (r.nextInt(4) == 0)
+        {
+          fig++;
+          b.append("<fig id=\"F").append(fig).append("\" position=\"float\"><label>Figure ").append(fig).append("</label>")
+           .append("<caption><title>").append(sentence(r, 5)).append("</title><p>").append(paragraph(r, 2)).append("</p></caption>")
+           .append("<graphic xlink:href=\"jsb-3-45-f").append(fig).append("\"/></fig>\n");
+        }
+        b.append("</sec>\n");
+      }
+      b.append("</sec>\n");
+    }
+
+    b.append("</body>\n<back><ack><p>").append(sentence(r, 15)).append("</p></ack><ref-list>\n");
+
+    for (int i = 1; b.length() < size - 200 || i <= refs; i++)
+      b.append("<ref id=\"B").append(i).append("\"><citation citation-type=\"journal\"><person-group person-group-type=\"author\">")
+       .append("<name><surname>").append(name(r)).append("</surname><given-names>").append((char) ('A' + r.nextInt(26)))
+       .append("</given-names></name></person-group><article-title>").append(sentence(r, 9)).append("</article-title>")
+       .append("<source>J ").append(name(r)).append("</source><year>").append(1980 + r.nextInt(28)).append("</year>")
+       .append("<volume>").append(1 + r.nextInt(40)).append("</volume><fpage>").append(1 + r.nextInt(900)).append("</fpage>")
+       .append("<pub-id pub-id-type=\"pmid\">").append(1000000 + r.nextInt(9000000)).append("</pub-id></citation></ref>\n");
+
+    return b.append("</ref-list></back></article></pmc-articleset>\n").toString();
+  }
+
+
+
+  // --- paragraph text with the inline markup PMC uses
+  private static String inlineXml(Random r, int refs)
+  {
+    StringBuilder b = new StringBuilder();
+
+    for (int i = 0; i < 4 + r.nextInt(4); i++)
+    {
+      b.append(sentence(r, 8 + r.nextInt(12)));
+
+      switch (r.nextInt(8))
+      {
+        case 0: b.append(" <italic>").append(word(r)).append(' ').append(word(r)).append("</italic>"); break;
+        case 1: b.append(" <bold>").append(word(r)).append("</bold>"); break;
+        case 2: b.append(" [<xref ref-type=\"bibr\" rid=\"B").append(1 + r.nextInt(refs)).append("\">").append(1 + r.nextInt(refs)).append("</xref>]"); break;
+        case 3: b.append(" 10&#x2013;").append(20 + r.nextInt(80)).append(" &#x003BC;M"); break;
+        case 4: b.append(" CO<sub>2</sub> at 37&#x000B0;C"); break;
+        case 5: b.append(" (<ext-link ext-link-type=\"uri\" xlink:href=\"http://example.org/").append(word(r)).append("\">example.org</ext-link>)"); break;
+        default: break;
+      }
+      b.append(". ");
+    }
+    return b.toString();
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   P M C   H T M L   * * * * * * * * * * * * * * *
+
+  private static String pmc(Random r, int size)
+  {
+    StringBuilder b = new StringBuilder(size + 4096);
+
+    b.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd\">\n")
+     .append("<html><head><title>").append(sentence(r, 8)).append("</title><script type=\"text/javascript\">var pmc = {};</script></head>\n")
+     .append("<body><table><tr><td class=\"sidebar-cell\">").append(sentence(r, 20)).append("</td><td class=\"content-cell\">\n")
+     .append("<div class=\"head1\">").append(sentence(r, 10)).append("</div>\n");
+
+    int refs = Math.max(10, size / 2000);
+
+    while (b.length() < size * 8 / 10)
+    {
+      switch (r.nextInt(10))
+      {
+        case 0:  b.append("<div class=\"head2\">").append(sentence(r, 4)).append("</div>\n"); break;
+        case 1:  b.append("<!-- section ").append(word(r)).append(" -->"); break;
+        case 2:  b.append("<table class=\"data\"><tr><td>").append(word(r)).append("</td><td>").append(r.nextInt(100)).append("</td></tr></table>\n"); break;
+        case 3:  b.append("<script type=\"text/javascript\">track('").append(word(r)).append("');</script>"); break;
+        case 4:  b.append("<div class=\"section-content\"><p>").append(paragraph(r, 2)).append("</p></div>\n"); break;
+        default: b.append("<p>").append(inlineHtml(r, refs)).append("</p>\n"); break;
+      }
+    }
+
+    b.append("<div class=\"back-matter-section\"><div class=\"head2\">References</div>\n");
+
+    for (int i = 1; b.length() < size - 200 || i <= refs; i++)
+      b.append("<div class=\"ref-cit-blk\" id=\"B").append(i).append("\"><div class=\"ref-label\">").append(i).append("</div>")
+       .append("<div class=\"ref-cit\">").append(name(r)).append(" ").append((char) ('A' + r.nextInt(26))).append(". ")
+       .append(sentence(r, 9)).append(". J ").append(name(r)).append(". ").append(1980 + r.nextInt(28)).append(";")
+       .append(1 + r.nextInt(40)).append(":").append(1 + r.nextInt(900)).append(". [<a class=\"ref-extlink\" href=\"/pubmed/")
+       .append(1000000 + r.nextInt(9000000)).append("\">PubMed</a>]</div></div>\n");
+
+    return b.append("</div><div class=\"footer-section\">").append(sentence(r, 12))
+            .append("</div></td></tr></table></body></html>\n").toString();
+  }
+
+
+
+  // --- paragraph text with the links & markup of a PMC article page
+  private static String inlineHtml(Random r, int refs)
+  {
+    StringBuilder b = new StringBuilder();
+
+    for (int i = 0; i < 4 + r.nextInt(4); i++)
+    {
+      b.append(sentence(r, 8 + r.nextInt(12)));
+
+      switch (r.nextInt(8))
+      {
+        case 0: b.append(" <em>").append(word(r)).append("</em>"); break;
+        case 1: b.append(" <span class=\"bold\">").append(word(r)).append("</span>"); break;
+        case 2: b.append(" [<a href=\"#B").append(1 + r.nextInt(refs)).append("\" class=\"cite-reflink\">").append(1 + r.nextInt(refs)).append("</a>]"); break;
+        case 3: b.append(" (<a href=\"articlerender.fcgi?artid=").append(1000000 + r.nextInt(9000000)).append("\">").append(word(r)).append("</a>)"); break;
+        case 4: b.append(" <a href=\"#E").append(1 + r.nextInt(9)).append("\">(").append(1 + r.nextInt(9)).append(")</a>"); break;
+        case 5: b.append("<br></br>\n"); break;
+        default: break;
+      }
+      b.append(". ");
+    }
+    return b.toString();
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   P U B M E D   * * * * * * * * * * * * * * * * *
+
+  private static String summary(Random r, int size)
+  {
+    StringBuilder b = new StringBuilder(size + 4096);
+
+    b.append("<!DOCTYPE html>\n<html><head><title>PubMed</title><script type=\"text/javascript\">var ncbi = {};</script></head>\n")
+     .append("<body><div class=\"header\"><a href=\"/\">PubMed</a></div>\n");
+
+    similar(r, b, size / 2);
+
+    b.append("<div class=\"rprt abstract\"><div class=\"cit\"><a href=\"#\">J Synth Biol.</a> 2008 May;3(2):45-67.</div>\n")
+     .append("<p class=\"title\"><a href=\"/pubmed?term=").append(word(r)).append("\">").append(sentence(r, 6)).append("</a> ")
+     .append(sentence(r, 5)).append(".</p>\n<p class=\"authors\">");
+
+    for (int i = 0; i < 6; i++)
+      b.append(i > 0 ? ", " : "").append("<a href=\"/pubmed?term=").append(name(r)).append("\">").append(name(r)).append(' ')
+       .append((char) ('A' + r.nextInt(26))).append("</a>");
+
+    b.append(".</p>\n<p class=\"source\"><span class=\"src\">J Synth Biol.</span> 2008 May;<span class=\"vol\">3</span>(2):45-67.</p>\n")
+     .append("<div class=\"abstr\"><p>").append(paragraph(r, 6)).append("</p></div></div>\n");
+
+    similar(r, b, size - 100);
+
+    return b.append("</body></html>\n").toString();
+  }
+
+
+
+  // --- "similar articles" list up to `until` chars
+  private static void similar(Random r, StringBuilder b, int until)
+  {
+    while (b.length() < until)
+      b.append("<div class=\"rslt\"><p class=\"title2\"><a href=\"/pubmed/").append(1000000 + r.nextInt(9000000)).append("\">")
+       .append(sentence(r, 9)).append("</a></p><p class=\"desc\">").append(name(r)).append(" ").append((char) ('A' + r.nextInt(26)))
+       .append(", ").append(name(r)).append(" ").append((char) ('A' + r.nextInt(26))).append("</p><p class=\"details\">J ")
+       .append(name(r)).append(". ").append(1980 + r.nextInt(28)).append("</p></div>\n");
+  }
+
+
+
+  private static String display(Random r, int size)
+  {
+    StringBuilder b = new StringBuilder(size + 4096);
+
+    b.append("<!DOCTYPE html>\n<html><head><title>PubMed</title></head><body><pre>\n")
+     .append("&lt;PubmedArticle&gt;\n    &lt;MedlineCitation Owner=\"NLM\" Status=\"MEDLINE\"&gt;\n")
+     .append("        &lt;PMID Version=\"1\"&gt;<font class=\"val\">10000001</font>&lt;/PMID&gt;\n        &lt;AuthorList&gt;\n");
+
+    while (b.length() < size / 2)
+      b.append("            &lt;Author ValidYN=\"Y\"&gt;\n                &lt;LastName&gt;<font class=\"val\">").append(name(r))
+       .append("</font>&lt;/LastName&gt;\n                &lt;Initials&gt;<font class=\"val\">").append((char) ('A' + r.nextInt(26)))
+       .append("</font>&lt;/Initials&gt;\n            &lt;/Author&gt;\n");
+
+    b.append("        &lt;/AuthorList&gt;\n        &lt;ArticleTitle&gt;<font class=\"val\">").append(sentence(r, 12))
+     .append(".</font>&lt;/ArticleTitle&gt;\n        &lt;Abstract&gt;\n            &lt;AbstractText&gt;<font class=\"val\">")
+     .append(paragraph(r, 8)).append("</font>&lt;/AbstractText&gt;\n        &lt;/Abstract&gt;\n        &lt;MeshHeadingList&gt;\n");
+
+    while (b.length() < size - 200)
+      b.append("            &lt;MeshHeading&gt;\n                &lt;DescriptorName MajorTopicYN=\"N\"&gt;<font class=\"val\">")
+       .append(word(r)).append(' ').append(word(r)).append("</font>&lt;/DescriptorName&gt;\n            &lt;/MeshHeading&gt;\n");
+
+    return b.append("        &lt;/MeshHeadingList&gt;\n    &lt;/MedlineCitation&gt;\n&lt;/PubmedArticle&gt;\n</pre></body></html>\n").toString();
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   T E X T   * * * * * * * * * * * * * * * * * * *
+
+  private static String word(Random r)
+  {
+    return WORDS[r.nextInt(WORDS.length)];
+  }
+
+  // --- capitalized made-up name, e.g. "Tolarin"
+  private static String name(Random r)
+  {
+    String[] syllables = {"ka", "to", "ri", "len", "mar", "so", "vi", "dan", "el", "bru", "ne", "lo"};
+    StringBuilder b = new StringBuilder();
+
+    for (int i = 0; i < 2 + r.nextInt(2); i++) b.append(syllables[r.nextInt(syllables.length)]);
+
+    b.setCharAt(0, Character.toUpperCase(b.charAt(0)));
+    return b.toString();
+  }
+
+  private static String sentence(Random r, int words)
+  {
+    StringBuilder b = new StringBuilder(word(r));
+    b.setCharAt(0, Character.toUpperCase(b.charAt(0)));
+
+    for (int i = 1; i < words; i++) b.append(' ').append(word(r));
+
+    return b.toString();
+  }
+
+  private static String paragraph(Random r, int sentences)
+  {
+    StringBuilder b = new StringBuilder();
+
+    for (int i = 0; i < sentences; i++) b.append(i > 0 ? " " : "").append(sentence(r, 8 + r.nextInt(12))).append('.');
+
+    return b.toString();
+  }
+
+}
@@ -0,0 +1,64 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*********************************************************************************
+ * H T M L   B E N C H M A R K
+ * ---------------------------
+ *
+ * Entrez.cleanPMC_HTMLtags on PMC article pages: the original StringBuffer /
+ * replaceAll code (HtmlRewriter.legacy) against the rule-table rewriter.
+ ********************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HtmlBench
+{
+  @Param({"small", "medium", "large"})
+  public String size;
+
+  private Object rewriter;
+  private String page;
+
+
+  @Setup
+  public void setup() throws Throwable
+  {
+    rewriter = (Object) Core.PMC_HTML.invokeExact();
+    page     = Fixtures.load("pmc", size);
+
+    // --- both must produce the same output, else the comparison is void
+    String legacy    = (String) Core.REWRITE_LEGACY.invokeExact((CharSequence) page);
+    String rewritten = (String) Core.REWRITE.invokeExact(rewriter, (CharSequence) page);
+
+    if (!legacy.equals(rewritten)) throw new IllegalStateException("cleanPMC_HTMLtags: original code and rewriter differ on pmc-" + size);
+  }
+
+
+  @Benchmark
+  public String htmlTagsOriginal() throws Throwable
+  {
+    return (String) Core.REWRITE_LEGACY.invokeExact((CharSequence) page);
+  }
+
+  @Benchmark
+  public String htmlTagsRewriter() throws Throwable
+  {
+    return (String) Core.REWRITE.invokeExact(rewriter, (CharSequence) page);
+  }
+
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*********************************************************************************
+ * P A G E S   B E N C H M A R K
+ * -----------------------------
+ *
+ * Field extraction of Entrez.getCitation (title / authors / source of a PubMed
+ * summary page, PubmedPages.summaryFields) and Entrez.getAbstract (title &
+ * abstract of a PubMed XML display page, PubmedPages.abstractFields).
+ ********************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PagesBench
+{
+  @Param({"small", "medium", "large"})
+  public String size;
+
+  private String summary;
+  private String display;
+
+
+  @Setup
+  public void setup() throws Throwable
+  {
+    summary = Fixtures.load("summary", size);
+    display = Fixtures.load("display", size);
+
+    if (summaryFields()[0].isEmpty() || abstractFields().length() <= 2)
+      throw new IllegalStateException("PubMed pages: fields not found in summary-" + size + " / display-" + size);
+  }
+
+
+  @Benchmark
+  public String[] summaryFields() throws Throwable
+  {
+    return (String[]) Core.SUMMARY_FIELDS.invokeExact(summary);
+  }
+
+  @Benchmark
+  public String abstractFields() throws Throwable
+  {
+    return (String) Core.ABSTRACT_FIELDS.invokeExact(display);
+  }
+
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*********************************************************************************
+ * S E C T I O N S   B E N C H M A R K
+ * -----------------------------------
+ *
+ * "Materials & Methods" extraction from PMC efetch XML: the indexOf scan of
+ * Entrez.MandM(String) (PubmedPages.methods) against the streaming StAX copy
+ * of JatsSections.methods(Reader). The outputs are equivalent, not identical
+ * (JatsSections re-serializes), so setup only checks that both find sections.
+ ********************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SectionsBench
+{
+  @Param({"small", "medium", "large"})
+  public String size;
+
+  private String paper;
+
+
+  @Setup
+  public void setup() throws Throwable
+  {
+    paper = Fixtures.load("jats", size);
+
+    if (methodsIndexOf().isEmpty() || methodsStax().isEmpty())
+      throw new IllegalStateException("MandM: no Materials & Methods section found in jats-" + size);
+  }
+
+
+  @Benchmark
+  public String methodsIndexOf() throws Throwable
+  {
+    return (String) Core.METHODS.invokeExact(paper);
+  }
+
+  @Benchmark
+  public String methodsStax() throws Throwable
+  {
+    return (String) Core.METHODS_STAX.invokeExact((Reader) new StringReader(paper));
+  }
+
+}
@@ -2,18 +2,126 @@ import gov.nih.nlm.ncbi.www.soap.eutils.*;
 import org.xml.sax.SAXParseException;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/*********************************************************************************
+ * An Entrez instance can be shared between threads: ESearch requests are built
+ * per call, each SOAP call borrows a stub from a small pool (Axis2 stubs are
+ * not thread-safe, and too heavy to build per call), and the HTTP transport is
+ * thread-safe. The *Async methods run the blocking
+ * calls on virtual threads where the JVM has them (Java 21+), otherwise on a
+ * cached pool of daemon threads.
+ *
+ * Calls are logged at debug level through EntrezLog and timed per method in
+ * EntrezMetrics (see ncbi_entrez_metrics.java); handled failures are logged
+ * as warnings and counted by exception type.
+ ********************************************************************************/
 public class Entrez
 {
-  private static EUtilsServiceStub service;
-  private static EUtilsServiceStub.ESearchRequest req;
+  // --- idle SOAP stubs; a call takes one or builds one, and gives it back
+  //     unless STUBS are idle already. Not per thread: virtual threads of the
+  //     *Async methods would never find theirs again.
+  private static final int STUBS = 16;
+
+  private final ArrayBlockingQueue<EUtilsServiceStub> stubs = new ArrayBlockingQueue<EUtilsServiceStub>(STUBS);
+
+  private static final EntrezLog LOG = EntrezLog.get("Entrez");
+
+  // --- default executor of the *Async methods
+  private static final ExecutorService ASYNC = asyncExecutor();
+
+  // --- compiled tag table used by cleanPMC_XMLtags (see ncbi_entrez_clean.java)
+  private static final TagStripper PMC_XML = TagStripper.pmcXml();
+
+  // --- compiled rule table used by cleanPMC_HTMLtags (see ncbi_entrez_html.java)
+  private static final HtmlRewriter PMC_HTML = HtmlRewriter.pmcHtml();
+
+  // --- E-utilities base URL
+  static final String EUTILS = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
+
+  // --- request header for fetches whose gzip body is kept as is
+  private static final java.util.Map<String, String> GZIP = java.util.Collections.singletonMap("Accept-Encoding", "gzip");
+
+  // --- all URL-based fetches go through this (see ncbi_entrez_transport.java);
+  //     by default paced by the shared rate governor (ncbi_entrez_ratelimit.java).
+  //     Slow requests are re-sent with HedgedTransport.governed(HttpTransport.shared(), key)
+  //     (ncbi_entrez_hedge.java); timeouts are set on the HttpTransport
+  private final EntrezTransport transport;
+  private final Executor        executor;
+
+  // --- optional on-disk cache of fetched documents (see ncbi_entrez_cache.java)
+  private volatile DocumentCache cache;
 
   public Entrez() throws Exception 
   {
-    service = new EUtilsServiceStub();
-    req = new EUtilsServiceStub.ESearchRequest();
+    this(RateLimitedTransport.shared());
   }
 
+  public Entrez(EntrezTransport transport) throws Exception 
+  {
+    this(transport, ASYNC);
+  }
+
+  public Entrez(EntrezTransport transport, Executor executor) throws Exception 
+  {
+    stubs.offer(new EUtilsServiceStub());
+    this.transport = transport;
+    this.executor  = executor;
+  }
+
+  // --- per-method latency & errors (endpoints are recorded by the transport)
+  private volatile EntrezMetrics metrics = EntrezMetrics.shared();
+
+  public void setMetrics(EntrezMetrics metrics) {this.metrics = metrics;}
+
+  public EntrezMetrics getMetrics() {return metrics;}
+
+  public void setCache(DocumentCache cache) {this.cache = cache;}
+
+  // --- documents larger than this (chars) are buffered on disk by textPMC
+  private volatile int spillThreshold = 2 * 1024 * 1024;
+
+  public void setSpillThreshold(int chars) {this.spillThreshold = chars;}
+
+  public DocumentCache getCache() {return cache;}
+
+  // --- optional local PMCID/PMID/DOI index (see ncbi_entrez_ids.java)
+  private volatile IdMapper ids;
+
+  public void setIdMapper(IdMapper ids) {this.ids = ids;}
+
+  public IdMapper getIdMapper() {return ids;}
+
+  // --- optional local full-text indexes per db (see ncbi_entrez_textindex.java):
+  //     search() & response() on such a db are answered offline, and fetched
+  //     citations (getCitation) & papers (getPaper) are added to them
+  private final java.util.Map<String, TextIndex> local = new java.util.concurrent.ConcurrentHashMap<String, TextIndex>();
+
+  public void setLocalIndex(String db, TextIndex index)
+  {
+    if (index == null) local.remove(db.toLowerCase());
+    else               local.put(db.toLowerCase(), index);
+  }
+
+  public TextIndex getLocalIndex(String db) {return local.get(db.toLowerCase());}
+
+  // --- concurrent fetches of the same (endpoint, db, id, format) share one
+  //     request (see ncbi_entrez_singleflight.java)
+  private final SingleFlight<String, String> flights = new SingleFlight<String, String>();
+
+  public SingleFlight<String, String> getSingleFlight() {return flights;}
+
+  // --- hit counts of count() / response() (see ncbi_entrez_counts.java)
+  private final CountCache counts = new CountCache();
+
+  public CountCache getCountCache() {return counts;}
+
 
 /*********************************************************************************
  * M E T H O D S
@@ -22,6 +130,22 @@ public class Entrez
  * SEARCH:
  * - int          response(String db, String query, String retMax)
  * - void         search(String db, String query, String retMax, String file_name)
+ *   (both answered offline when a local index is set for db, see setLocalIndex)
+ * - int          exportSearch(String db, String query, String retMax, Exporter out)
+ * - long         count(String db, String query)
+ * - Map<String, Long> counts(String db, Collection<String> queries)
+ * - SearchPager  searchAll(String db, String query)
+ *
+ * LINK:
+ * - LinkPipeline link(String dbfrom, Collection<String> ids)
+ * - LinkPipeline linkSearch(String db, String query)
+ *
+ * ASYNC:
+ * - CompletableFuture<Integer>  responseAsync(String db, String query, String retMax)
+ * - CompletableFuture<Void>     searchAsync(String db, String query, String retMax, String file_name)
+ * - CompletableFuture<Citation> getCitationAsync(String db, String id)
+ * - CompletableFuture<String>   getAbstractAsync(String pmid)
+ * - CompletableFuture<String>   getPaperAsync(String id)
  * 
  * MAP:
  * - String       PMID(String PMCID)
@@ -30,17 +154,31 @@ public class Entrez
  * 
  * FETCH:
  * - Citation     getCitation(String db, String id)
+ * - List<CitationBatch.Item> getCitations(String db, Collection<String> ids)
+ * - List<String> storeCitations(String db, Collection<String> ids, CitationStore store)
+ * - List<String> exportCitations(String db, Collection<String> ids, Exporter out)
+ * - List<String> fetchSequences(String db, Collection<String> ids, String rettype,
+ *                               Consumer<SequenceRecord> consumer)
  * - String       getAbstract(String pmid)
  * - String       getPaper(String id)
  * - void         PMC_fetchFullPaper(String pmc_id, String file_name)
  * - void         PMC_fetchPDF(String pmc_id, String file_name)
  * - StringBuffer bufferPMC(String PMCID)
+ * - SpillText    textPMC(String PMCID)
+ * - String       cleanPMC(String PMCID)
  *
  * PROCESS:
  * - String       cleanPMC_XMLtags(String text)
  * - String       cleanPMCAbstractTags(String text)
  * - String       cleanPMC_HTMLtags(StringBuffer target)
+ * - String       cleanPMC_HTMLtags(CharSequence target)
  * - String       MandM(String paper)
+ * - String       MandM(Reader paper)
+ * - String       fetchMandM(String id)
+ * - SectionIndex sections(String paper)
+ * - SectionIndex sections(String id, String paper)
+ * - int          exportSections(String id, String paper, Exporter out)
+ * - long         processArchives(Collection<Path> archives, Consumer<OaCorpus.Paper> sink)
  ********************************************************************************/
 
 
@@ -54,22 +192,25 @@ public class Entrez
   {
     int total = 0;
 
+    LOG.debug(() -> "response(db = " + db + ", query = " + query + ", retMax = " + retMax + ")");
+    EntrezMetrics.Span span = metrics.method("response");
+
     try
     {
-      System.out.println("\nEntrez.response(db, query, retMax):");
-      System.out.println("      db = " + db);
-      System.out.println("   query = " + query);
-      System.out.println("  retMax = " + retMax);
+      java.util.List<String> hits = searchLocal(db, query, retMax);
+      if (hits != null) return hits.size();
 
-      req.setDb(db);
-      req.setTerm(query);
-      req.setRetMax(retMax);
+      // --- ESearch returns min(Count, retMax) IDs: only the count is needed
+      int max = -1;
+      try {max = Integer.parseInt(retMax.trim());} catch (RuntimeException e) {}
+      if (max >= 0) return (int) Math.min(count(db, query), max);
 
-      EUtilsServiceStub.ESearchResult res = service.run_eSearch(req);
+      EUtilsServiceStub.ESearchResult res = eSearch(db, query, retMax);
 
       if (res.getIdList().getId() != null) total = res.getIdList().getId().length;
     }
-    catch (Exception e) {System.out.println(e.toString());}
+    catch (Exception e) {span.error(e); LOG.warn("response(" + db + ", " + query + ") failed", e);}
+    finally {span.close();}
 
     return total;
   }
@@ -82,33 +223,279 @@ public class Entrez
   // -----------------------------------------------------------------------------
   public void search(String db, String query, String retMax, String file_name)
   {
+    LOG.debug(() -> "search(db = " + db + ", query = " + query + ", retMax = " + retMax + ") -> " + file_name);
+    EntrezMetrics.Span span = metrics.method("search");
+
     try
     {
-      System.out.println("\nEntrez.search(db, query, retMax, file_name):");
-      System.out.println("      db = " + db);
-      System.out.println("   query = " + query);
-      System.out.println("  retMax = " + retMax);
+      String[] ids = searchIds(db, query, retMax);
 
-      req.setDb(db);
-      req.setTerm(query);
-      req.setRetMax(retMax);
+      // --- OUTPUT: IDs of the matching documents
+      try (Writer file_out = new BufferedWriter(new FileWriter(file_name), 1 << 16))
+      {
+        for (String id : ids) file_out.write(id + "\n");
+      }
+    }
+    catch (Exception e) {span.error(e); LOG.warn("search(" + db + ", " + query + ") failed", e);}
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
 
-      System.out.println("  Writing to file: " + file_name + " ...");
-      FileWriter file_out = new FileWriter(file_name);
 
-      // --- call NCBI ESearch utility
-      EUtilsServiceStub.ESearchResult res = service.run_eSearch(req);
 
-      // --- OUTPUT: IDs of the matching documents
-      if (res.getIdList() != null) if (res.getIdList().getId() != null)
+  // -----------------------------------------------------------------------------
+  // --- as search(), rows (db, query, id) to an exporter (see
+  //     ncbi_entrez_export.java, columns Exporter.IDS); returns the number of IDs
+  // -----------------------------------------------------------------------------
+  public int exportSearch(String db, String query, String retMax, Exporter out) throws Exception
+  {
+    LOG.debug(() -> "exportSearch(db = " + db + ", query = " + query + ", retMax = " + retMax + ")");
+    EntrezMetrics.Span span = metrics.method("exportSearch");
+
+    try
+    {
+      String[] ids = searchIds(db, query, retMax);
+      for (String id : ids) out.write(db, query, id);
+      return ids.length;
+    }
+    catch (Exception e) {span.error(e); throw e;}
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- IDs from the local index of db if there is one, else from ESearch
+  private String[] searchIds(String db, String query, String retMax) throws Exception
+  {
+    java.util.List<String> hits = searchLocal(db, query, retMax);
+    if (hits != null) return hits.toArray(new String[0]);
+
+    // --- call NCBI ESearch utility
+    EUtilsServiceStub.ESearchResult res = eSearch(db, query, retMax);
+
+    if (res.getIdList() != null && res.getIdList().getId() != null) return res.getIdList().getId();
+    return new String[0];
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- number of hits of a query, without the IDs: ESearch rettype=count,
+  //     cached per normalized query (see getCountCache), concurrent identical
+  //     requests coalesced; the local index of db answers if there is one
+  // -----------------------------------------------------------------------------
+  public long count(String db, String query) throws IOException
+  {
+    LOG.debug(() -> "count(" + db + ", " + query + ")");
+    EntrezMetrics.Span span = metrics.method("count");
+
+    try
+    {
+      TextIndex index = local.get(db.toLowerCase());
+      if (index != null)
       {
-        for(int i = 0; i < res.getIdList().getId().length; i++)
-          file_out.write(res.getIdList().getId()[i] + "\n");
+        try {return index.count(query);}
+        catch (IllegalArgumentException e) {LOG.debug(() -> "local index cannot count '" + query + "': " + e.getMessage());}
       }
 
-      file_out.close();
+      long n = counts.get(db, query);
+      if (n >= 0) return n;
+
+      String url = EUTILS + "esearch.fcgi?db=" + db + "&term=" + URLEncoder.encode(query, "UTF-8") + "&rettype=count";
+      String res = coalesce(url, CountCache.key(db, query) + "/count", () -> transport.get(url).text());
+      String c   = between(res, "<Count>", "</Count>");
+
+      if (c == null)
+      {
+        String error = between(res, "<ERROR>", "</ERROR>");
+        throw new IOException("esearch count failed: " + (error != null ? error : "no Count in response"));
+      }
+
+      counts.put(db, query, n = Long.parseLong(c));
+      return n;
+    }
+    catch (IOException | RuntimeException e) {span.error(e); throw e;}
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- counts of many queries at once, in query order: cached ones directly,
+  //     the others concurrently (one request per distinct normalized query,
+  //     paced by the transport); -1 for a query whose count failed
+  // -----------------------------------------------------------------------------
+  public java.util.Map<String, Long> counts(String db, java.util.Collection<String> queries)
+  {
+    java.util.Map<String, CompletableFuture<Long>> pending = new java.util.HashMap<String, CompletableFuture<Long>>();
+    java.util.Map<String, Long>                    result  = new java.util.LinkedHashMap<String, Long>();
+
+    for (String q : queries)
+      pending.computeIfAbsent(CountCache.key(db, q), k -> CompletableFuture.supplyAsync(() ->
+      {
+        try {return count(db, q);}
+        catch (IOException e) {LOG.warn("count(" + db + ", " + q + ") failed", e); return -1L;}
+      }, executor));
+
+    for (String q : queries)
+    {
+      try {result.put(q, pending.get(CountCache.key(db, q)).join());}
+      catch (CompletionException e) {LOG.warn("count(" + db + ", " + q + ") failed", e.getCause()); result.put(q, -1L);}
+    }
+
+    return result;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- matching IDs from the local index of db (at most retMax, default 20 as
+  //     ESearch); null if db has none or the query uses unindexed fields
+  // -----------------------------------------------------------------------------
+  private java.util.List<String> searchLocal(String db, String query, String retMax)
+  {
+    TextIndex index = local.get(db.toLowerCase());
+    if (index == null) return null;
+
+    int max = 20;
+    try {if (retMax != null) max = Integer.parseInt(retMax.trim());} catch (NumberFormatException e) {}
+
+    EntrezMetrics.Span span = metrics.stage("local_search");
+
+    try {return index.search(query, max);}
+    catch (IllegalArgumentException e)
+    {
+      LOG.debug(() -> "local index cannot answer '" + query + "': " + e.getMessage());
+      return null;
+    }
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- iterate over ALL matching IDs via the history server, page by page
+  //     (see ncbi_entrez_pager.java)
+  // -----------------------------------------------------------------------------
+  public SearchPager searchAll(String db, String query) throws IOException
+  {
+    LOG.debug(() -> "searchAll(" + db + ", " + query + ")");
+
+    try (EntrezMetrics.Span span = metrics.method("searchAll"))
+    {
+      try {return new SearchPager(transport, executor, db, query, 10000);}
+      catch (IOException | RuntimeException e) {span.error(e); throw e;}
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- elink chains kept on the history server, e.g.
+  //     link("nuccore", gis).link("protein").fetchSequences("fasta", 500, consumer)
+  //     (see ncbi_entrez_links.java)
+  // -----------------------------------------------------------------------------
+  public LinkPipeline link(String dbfrom, java.util.Collection<String> ids)
+  {
+    return new LinkPipeline(transport, executor, dbfrom, ids);
+  }
+
+  public LinkPipeline linkSearch(String db, String query)
+  {
+    return LinkPipeline.search(transport, executor, db, query);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- run ESearch with a request built for this call
+  // -----------------------------------------------------------------------------
+  private EUtilsServiceStub.ESearchResult eSearch(String db, String query, String retMax) throws Exception
+  {
+    EUtilsServiceStub.ESearchRequest req = new EUtilsServiceStub.ESearchRequest();
+    req.setDb(db);
+    req.setTerm(query);
+    req.setRetMax(retMax);
+
+    EUtilsServiceStub stub = borrow();
+
+    try (EntrezMetrics.Span span = metrics.soap("esearch"))
+    {
+      try {return stub.run_eSearch(req);}
+      catch (Exception e) {span.error(e); throw e;}
+    }
+    finally {stubs.offer(stub);}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- idle SOAP stub, or a new one when all are in use
+  private EUtilsServiceStub borrow() throws Exception
+  {
+    EUtilsServiceStub stub = stubs.poll();
+    return stub != null ? stub : new EUtilsServiceStub();
+  }
+
+
+  // * * * * * * * * * * * * * * * *   A S Y N C   * * * * * * * * * * * * * * * *
+
+
+  public CompletableFuture<Integer> responseAsync(String db, String query, String retMax)
+  {
+    return CompletableFuture.supplyAsync(() ->
+    {
+      try {return response(db, query, retMax);}
+      catch (Exception e) {throw new CompletionException(e);}
+    }, executor);
+  }
+
+  public CompletableFuture<Void> searchAsync(String db, String query, String retMax, String file_name)
+  {
+    return CompletableFuture.runAsync(() -> search(db, query, retMax, file_name), executor);
+  }
+
+  public CompletableFuture<Citation> getCitationAsync(String db, String id)
+  {
+    return CompletableFuture.supplyAsync(() -> getCitation(db, id), executor);
+  }
+
+  public CompletableFuture<String> getAbstractAsync(String pmid)
+  {
+    return CompletableFuture.supplyAsync(() -> getAbstract(pmid), executor);
+  }
+
+  public CompletableFuture<String> getPaperAsync(String id)
+  {
+    return CompletableFuture.supplyAsync(() -> getPaper(id), executor);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- virtual-thread-per-task executor on Java 21+, else cached daemon threads
+  // -----------------------------------------------------------------------------
+  private static ExecutorService asyncExecutor()
+  {
+    try
+    {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (Exception e)
+    {
+      return Executors.newCachedThreadPool(r ->
+      {
+        Thread t = new Thread(r, "entrez-async");
+        t.setDaemon(true);
+        return t;
+      });
     }
-    catch (Exception e) {System.out.println(e.toString());}
   }
   // -----------------------------------------------------------------------------
 
@@ -121,7 +508,20 @@ public class Entrez
   // -----------------------------------------------------------------------------
   public String PMID(String PMCID)
   {
-    System.out.print("Entrez.PMID(" + PMCID + ") = ");
+    EntrezMetrics.Span span = metrics.method("PMID");
+
+    IdMapper mapper = ids;
+    if (mapper != null)
+    {
+      try
+      {
+        String PMID = mapper.pmid(PMCID);
+        LOG.debug(() -> "PMID(" + PMCID + ") = " + PMID);
+        return PMID;
+      }
+      catch (RuntimeException e) {span.error(e); throw e;}
+      finally {span.close();}
+    }
 
     String PMID = "";
 
@@ -130,9 +530,7 @@ public class Entrez
       // --- download XML page ---
       String base = "http://www.ncbi.nlm.nih.gov/sites/entrez?db=pmc&cmd=DetailsSearch&term=";
       String url  = base + PMCID + "[uid]&dopt=XML";
-      URL            u = new URL(url);
-      InputStream    is  = u.openStream();
-      BufferedReader dis = new BufferedReader(new InputStreamReader(is));
+      BufferedReader dis = new BufferedReader(new StringReader(coalesce(url, "pmc/" + PMCID + "/pmid", () -> transport.get(url).text())));
       String         s, anchor = "&lt;article-id pub-id-type=&quot;pmid&quot;&gt;";
       int            i, len = anchor.length();
 
@@ -143,12 +541,15 @@ public class Entrez
           s = s.substring(i+len);
           i = s.indexOf("&lt;/article-id&gt;");
           PMID = s.substring(0, i);
-          System.out.println(PMID);
           break;
         }
       }
     }
-    catch (Exception e) {System.out.println(e.toString());}
+    catch (Exception e) {span.error(e); LOG.warn("PMID(" + PMCID + ") failed", e);}
+    finally {span.close();}
+
+    final String found = PMID;
+    LOG.debug(() -> "PMID(" + PMCID + ") = " + found);
 
     return PMID;
   }
@@ -188,7 +589,8 @@ public class Entrez
   // -----------------------------------------------------------------------------
   public Citation getCitation(String db, String id)
   {
-    System.out.println("\nEntrez.getCitation(" + db + ", " + id + "): fetch citation details");
+    LOG.debug(() -> "getCitation(" + db + ", " + id + "): fetch citation details");
+    EntrezMetrics.Span span = metrics.method("getCitation");
 
     String title = "";
     String authors = "";
@@ -204,53 +606,21 @@ public class Entrez
       // --- download the summary page from PubMed
       String base = "http://www.ncbi.nlm.nih.gov/pubmed/";   // --- PubMed URL
       String url = base + pmid + "?dopt=Summary";            // --- display option: Summary
-      URL            u = new URL(url);
-      InputStream    is  = u.openStream();
-      BufferedReader dis = new BufferedReader(new InputStreamReader(is));
-      String         s, download = "";
-      while ( (s = dis.readLine()) != null ) download += s;
-
-      // --- extract TITLE ---
-      int b = 0, e = 0, offset = 0;
-      String anchor = "<p class=\"title\">";
-      if ( (b = download.indexOf(anchor)) >= 0)
-      {
-        b += anchor.length();
-        anchor = "</p>";
-        e = download.indexOf(anchor, b);
-        title = download.substring(b, e);
-        title = title.replaceAll("<a[^>]*>", "");
-        title = title.replaceAll("</a>", "");
-      }
-
-      // --- extract AUTHORS ---
-      b = 0; e = 0; offset = 0;
-      anchor = "<p class=\"authors\">";
-      if ( (b = download.indexOf(anchor)) >= 0)
-      {
-        b += anchor.length();
-        anchor = "</p>";
-        e = download.indexOf(anchor, b);
-        authors = download.substring(b, e);
-      }
+      String download = joinLines(fetch("pubmed", pmid, "summary", url));
 
-      // --- extract SOURCE ---
-      b = 0; e = 0; offset = 0;
-      anchor = "<p class=\"source\">";
-      if ( (b = download.indexOf(anchor)) >= 0)
-      {
-        b += anchor.length();
-        anchor = "</p>";
-        e = download.indexOf(anchor, b);
-        source = download.substring(b, e);
-        source = source.replaceAll("<span[^>]*>", "");
-        source = source.replaceAll("</span>", "");
-      }
+      String[] fields = PubmedPages.summaryFields(download);
+      title   = fields[0];
+      authors = fields[1];
+      source  = fields[2];
 
       // --- extract abstract TEXT ---
       abstractText = getAbstract(pmid);
+
+      TextIndex index = local.get(db.toLowerCase());
+      if (index != null && !title.isEmpty()) index.add(id, title, abstractText, null);
     }
-    catch (Exception e) {System.out.println(e.toString());}
+    catch (Exception e) {span.error(e); LOG.warn("getCitation(" + db + ", " + id + ") failed", e);}
+    finally {span.close();}
 
     return new Citation(id, authors, title, source, abstractText);
   }
@@ -258,12 +628,96 @@ public class Entrez
 
 
 
+  // -----------------------------------------------------------------------------
+  // --- retrieve citation details for many articles at once via EPost & the
+  //     history server (see ncbi_entrez_citations.java); results in input order,
+  //     failed IDs carry an error instead of a Citation
+  // -----------------------------------------------------------------------------
+  public java.util.List<CitationBatch.Item> getCitations(String db, java.util.Collection<String> ids)
+  {
+    LOG.debug(() -> "getCitations(" + db + ", " + ids.size() + " IDs): fetch citation details");
+
+    EntrezMetrics.Span span = metrics.method("getCitations");
+
+    try     {return new CitationBatch(transport).ids(this.ids).fetch(db, ids);}
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- fetch the citations of the IDs not yet in the store into it (see
+  //     ncbi_entrez_citestore.java); returns the IDs that failed
+  // -----------------------------------------------------------------------------
+  public java.util.List<String> storeCitations(String db, java.util.Collection<String> ids, CitationStore store)
+  {
+    java.util.List<String> missing = new java.util.ArrayList<String>(), failed = new java.util.ArrayList<String>();
+    for (String id : ids) if (!store.contains(id)) missing.add(id);
+
+    LOG.debug(() -> "storeCitations(" + db + ", " + ids.size() + " IDs): " + missing.size() + " to fetch");
+    EntrezMetrics.Span span = metrics.method("storeCitations");
+
+    try
+    {
+      if (!missing.isEmpty())
+        for (CitationBatch.Item item : new CitationBatch(transport).ids(this.ids).store(store).fetch(db, missing))
+          if (item.citation == null) failed.add(item.id);
+    }
+    finally {span.close();}
+
+    return failed;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- citations as rows (id, authors, title, source, abstract) to an exporter
+  //     (columns Exporter.CITATIONS), in input order; returns the IDs that failed
+  // -----------------------------------------------------------------------------
+  public java.util.List<String> exportCitations(String db, java.util.Collection<String> ids, Exporter out) throws IOException
+  {
+    CitationStore          store  = new CitationStore();
+    java.util.List<String> failed = storeCitations(db, ids, store);
+
+    for (String id : ids)
+    {
+      int row = store.row(id);
+      if (row >= 0) out.write(id, store.authors(row), store.title(row), store.source(row), store.abstractText(row));
+    }
+    return failed;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- fetch GenBank / FASTA records (db "nucleotide", "protein", ...; rettype
+  //     "gbwithparts", "gb" or "fasta") in concurrent batches, streamed to the
+  //     consumer one record at a time (see ncbi_entrez_sequences.java); returns
+  //     the IDs of failed batches
+  // -----------------------------------------------------------------------------
+  public java.util.List<String> fetchSequences(String db, java.util.Collection<String> ids, String rettype,
+                                               java.util.function.Consumer<SequenceRecord> consumer)
+  {
+    LOG.debug(() -> "fetchSequences(" + db + ", " + ids.size() + " IDs, " + rettype + ")");
+    EntrezMetrics.Span span = metrics.method("fetchSequences");
+
+    try     {return new SequenceFetch(transport).fetch(db, ids, rettype, consumer);}
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
   // -----------------------------------------------------------------------------
   // --- get the text of an abstract from PubMed
   // -----------------------------------------------------------------------------
   public String getAbstract(String pmid)
   {
-    System.out.println("\nEntrez.getAbstract(" + pmid + ")\n");
+    LOG.debug(() -> "getAbstract(" + pmid + ")");
+    EntrezMetrics.Span span = metrics.method("getAbstract");
 
     String output = "";
 
@@ -273,38 +727,12 @@ public class Entrez
       String url  = base + pmid + "?dopt=XML";
 
       // --- download abstract page
-      URL            u = new URL(url);
-      InputStream    is  = u.openStream();
-      BufferedReader dis = new BufferedReader(new InputStreamReader(is));
-      String         s, download = "";
-      while ( (s = dis.readLine()) != null ) download += s;
-
-      // --- extract article TITLE ---
-      String articleTitle = "";
-      int b = 0, e = 0, offset = 0;
-      String anchor = "&lt;ArticleTitle&gt;<font class=\"val\">";
-      if ( (b = download.indexOf(anchor)) >= 0)
-      {
-        b += anchor.length();
-        anchor = "</font>&lt;/ArticleTitle&gt;";
-        e = download.indexOf(anchor);
-        articleTitle = download.substring(b, e);
-      }
-
-      // --- extract abstract TEXT ---
-      String abstractText = "";
-      anchor = "&lt;AbstractText&gt;<font class=\"val\">";
-      if ( (b = download.indexOf(anchor)) >= 0)
-      {
-        b += anchor.length();
-        anchor = "</font>&lt;/AbstractText&gt;";
-        e = download.indexOf(anchor);
-        abstractText = download.substring(b, e);
-      }
+      String download = joinLines(fetch("pubmed", pmid, "xml-page", url));
 
-      output = articleTitle + "\n\n" + abstractText;
+      output = PubmedPages.abstractFields(download);
     }
-    catch (Exception e) {System.out.println(e.toString());}
+    catch (Exception e) {span.error(e); LOG.warn("getAbstract(" + pmid + ") failed", e);}
+    finally {span.close();}
 
     return output;
   }
@@ -317,23 +745,22 @@ public class Entrez
   // -----------------------------------------------------------------------------
   public String getPaper(String id)
   {
-    System.out.println("Entrez.getPaper(" + id + "): fetch paper from PubMed Central");
+    LOG.debug(() -> "getPaper(" + id + "): fetch paper from PubMed Central");
+    EntrezMetrics.Span span = metrics.method("getPaper");
 
     String doc = "";
 
     try
     {
-      java.net.URL   u;
-      InputStream    ins = null;
-      BufferedReader dis;
-      String         s;
-      u   = new java.net.URL("http://www.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=pmc&id=" + id);
-      ins = u.openStream();  // --- throws an IOException
-      dis = new BufferedReader(new InputStreamReader(ins));
-      while ( (s = dis.readLine()) != null ) doc += s;
+      String url = "http://www.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=pmc&id=" + id;
+      doc = joinLines(fetch("pmc", id, "xml", url));  // --- throws an IOException
       if (doc.compareTo("") == 0) doc = null;
+
+      TextIndex index = local.get("pmc");
+      if (doc != null && index != null && !index.contains(id)) indexPaper(index, id, doc);
     }
-    catch (Exception e) {System.out.println(e.toString());}
+    catch (Exception e) {span.error(e); LOG.warn("getPaper(" + id + ") failed", e);}
+    finally {span.close();}
 
     return doc;
   }
@@ -341,30 +768,47 @@ public class Entrez
 
 
 
+  // --- title, abstract & cleaned text of a JATS paper into the local index
+  private void indexPaper(TextIndex index, String id, String doc)
+  {
+    String title = between(doc, "<article-title>", "</article-title>");
+    int    b     = doc.indexOf("<abstract"), e = b < 0 ? -1 : doc.indexOf("</abstract>", b);
+
+    index.add(id, title == null ? null : cleanPMC_XMLtags(title),
+                  e < 0 ? null : cleanPMCAbstractTags(doc.substring(b, e + 11)),
+                  cleanPMC_XMLtags(doc));
+  }
+
+
+
   // -----------------------------------------------------------------------------
   // --- fetch full-text article from PubMed Central & save to file
   // -----------------------------------------------------------------------------
   public void PMC_fetchFullPaper(String pmc_id, String file_name)
   {
-    System.out.println("Entrez.PMC_fetchFullPaper(" + pmc_id + ", " + file_name + "): download PMC paper in XML format");
+    LOG.debug(() -> "PMC_fetchFullPaper(" + pmc_id + ", " + file_name + "): download PMC paper in XML format");
+    EntrezMetrics.Span span = metrics.method("PMC_fetchFullPaper");
 
     try
     {
-      java.net.URL   u;
-      InputStream    is = null;
-      BufferedReader dis;
-      String         s;
-      u  = new java.net.URL("http://www.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=pmc&id=" + pmc_id);
-      is = u.openStream();
-      dis = new BufferedReader(new InputStreamReader(is));
-      FileWriter pmc_out = new FileWriter(file_name);
-      while ( (s = dis.readLine()) != null ) pmc_out.write(s + "\n");
-      pmc_out.close();
-      is.close();
+      // --- "*.gz": keep the document gzip-compressed on disk
+      if (file_name.endsWith(".gz"))
+      {
+        String url = "http://www.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=pmc&id=" + pmc_id;
+        new FileDownload(transport).compressed(true).download(url, java.nio.file.Paths.get(file_name));
+        return;
+      }
+
+      try (InputStream    is      = transport.open("http://www.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=pmc&id=" + pmc_id);
+           BufferedReader dis     = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16);
+           Writer         pmc_out = java.nio.file.Files.newBufferedWriter(java.nio.file.Paths.get(file_name), StandardCharsets.UTF_8))
+      {
+        String s;
+        while ( (s = dis.readLine()) != null ) pmc_out.write(s + "\n");
+      }
     }
-    catch (MalformedURLException mue) {mue.printStackTrace();} 
-    catch (IOException ioe)           {ioe.printStackTrace();}
-    catch (Exception e)               {System.out.println(e.toString());}
+    catch (Exception e) {span.error(e); LOG.warn("PMC_fetchFullPaper(" + pmc_id + ", " + file_name + ") failed", e);}
+    finally {span.close();}
   }
   // -----------------------------------------------------------------------------
 
@@ -375,78 +819,92 @@ public class Entrez
   // -----------------------------------------------------------------------------
   public void PMC_fetchPDF(String pmc_id, String file_name)
   {
-    System.out.println("Entrez.PMC_fetchPDF(" + pmc_id + ", " + file_name + "): download PMC paper in PDF format");
+    LOG.debug(() -> "PMC_fetchPDF(" + pmc_id + ", " + file_name + "): download PMC paper in PDF format");
+    EntrezMetrics.Span span = metrics.method("PMC_fetchPDF");
 
     try
     {
-      java.io.BufferedInputStream  bin  = new java.io.BufferedInputStream(new java.net.URL("http://www.pubmedcentral.nih.gov/picrender.fcgi?tool=pmcentrez&artid=" + pmc_id + "&blobtype=pdf").openStream());
-      java.io.FileOutputStream     fos  = new java.io.FileOutputStream(file_name);
-      java.io.BufferedOutputStream bout = new BufferedOutputStream(fos, 1024);
-      byte data[] = new byte[1];
-      while(bin.read(data, 0, 1) >= 0) bout.write(data);
-      bout.close(); fos.close(); bin.close();
+      String url = "http://www.pubmedcentral.nih.gov/picrender.fcgi?tool=pmcentrez&artid=" + pmc_id + "&blobtype=pdf";
+      new FileDownload(transport).download(url, java.nio.file.Paths.get(file_name));
     }
-    catch(EOFException eof) {System.out.println("EOFException: " + eof.getMessage());} 
-    catch(IOException  ioe) {System.out.println("IOException: "  + ioe.getMessage());} 
-    catch(Exception    e)   {System.out.println("Exception: "    + e.getMessage());  }
+    catch (Exception e) {span.error(e); LOG.warn("PMC_fetchPDF(" + pmc_id + ", " + file_name + ") failed", e);}
+    finally {span.close();}
   }
   // -----------------------------------------------------------------------------
 
 
 
   // -----------------------------------------------------------------------------
-  // --- buffer HTML version of full-text article from PubMed Central
+  // --- stream HTML version of full-text article from PubMed Central in large
+  //     blocks; documents above spillThreshold chars are kept in a memory-mapped
+  //     temp file instead of the heap (see ncbi_entrez_spill.java)
   // -----------------------------------------------------------------------------
-  public StringBuffer bufferPMC(String PMCID)
+  public SpillText textPMC(String PMCID) throws IOException
   {
-    System.out.println("Entrez.bufferPMC(" + PMCID + "): download PMC paper in HTML format");
-
-    try
+    try (EntrezMetrics.Span span = metrics.method("textPMC");
+         Reader in = new InputStreamReader(transport.open(urlPMC(PMCID)), StandardCharsets.UTF_8))
     {
-      java.net.URL   u;
-      InputStream    ins = null;
-      BufferedReader dis;
-      int            c;
-      StringBuffer   doc = new StringBuffer();
-      u   = new java.net.URL(urlPMC(PMCID));
-      ins = u.openStream();
-      dis = new BufferedReader(new InputStreamReader(ins));
+      try {return SpillText.read(in, spillThreshold, null);}
+      catch (IOException | RuntimeException e) {span.error(e); throw e;}
+    }
+  }
+  // -----------------------------------------------------------------------------
 
-      int size = 0;
 
-      while ( (c = dis.read()) >= 0 )
+
+  // -----------------------------------------------------------------------------
+  // --- cleaned HTML version of full-text article from PubMed Central: the
+  //     (possibly spilled) document goes straight into the rewriter, so only
+  //     the cleaned text is ever on the heap
+  // -----------------------------------------------------------------------------
+  public String cleanPMC(String PMCID) throws IOException
+  {
+    LOG.debug(() -> "cleanPMC(" + PMCID + "): download & clean PMC paper in HTML format");
+
+    return coalesce(urlPMC(PMCID), "pmc/" + PMCID + "/clean-html", () ->
+    {
+      try (SpillText doc = textPMC(PMCID))
       {
-        if (size > 2 * 1024 * 1024) 
-        {
-          System.out.println("Warning: HTML file is too BIG to download!");
-          doc = null;
-          Runtime runtime = Runtime.getRuntime();
-          runtime.gc();
-          return new StringBuffer("Document size exceeding 2MB! Click on the link above to see the document at the PubMed Central.");
-        }
-        doc.append((char) c);
-        size++;
+        return cleanPMC_HTMLtags(doc);
       }
+    });
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- buffer HTML version of full-text article from PubMed Central; the
+  //     document is copied onto the heap once (cleanPMC(PMCID) does not copy)
+  // -----------------------------------------------------------------------------
+  public StringBuffer bufferPMC(String PMCID)
+  {
+    LOG.debug(() -> "bufferPMC(" + PMCID + "): download PMC paper in HTML format");
+    EntrezMetrics.Span span = metrics.method("bufferPMC");
 
-      return doc;
+    try (SpillText doc = textPMC(PMCID))
+    {
+      if (doc.spilled()) LOG.info(() -> "bufferPMC(" + PMCID + "): large HTML file (" + doc.length() + " chars) was buffered on disk");
+      return new StringBuffer(doc);
     }
     catch (MalformedURLException mue)
     {
-      mue.printStackTrace();
-      System.out.println("Warning: Document not downloaded due to an MalformedURLException!");
+      span.error(mue);
+      LOG.warn("bufferPMC(" + PMCID + "): document not downloaded due to an MalformedURLException", mue);
       return new StringBuffer("Document not downloaded due to an MalformedURLException.");
      } 
     catch (IOException ioe)
     {
-      ioe.printStackTrace();
-      System.out.println("Warning: Document not downloaded due to an IOException!");
+      span.error(ioe);
+      LOG.warn("bufferPMC(" + PMCID + "): document not downloaded due to an IOException", ioe);
       return new StringBuffer("Document not downloaded due to an IOException.");
     }
     catch (Exception ex)
     {
-      System.out.println("Warning: An exception occurred during the download.");
-      ex.printStackTrace();
+      span.error(ex);
+      LOG.warn("bufferPMC(" + PMCID + "): an exception occurred during the download", ex);
     }
+    finally {span.close();}
 
     return new StringBuffer("");
   }
@@ -461,228 +919,10 @@ public class Entrez
   // -----------------------------------------------------------------------------
   public String cleanPMC_XMLtags(String text)
   {
-    String clean = text;
-
-    clean = clean.replaceAll("</abstract>", "");
-    clean = clean.replaceAll("<abstract[^>]*>", "");
-    clean = clean.replaceAll("</ack>", "");
-    clean = clean.replaceAll("<ack[^>]*>", "");
-    clean = clean.replaceAll("</addr-line>", "");
-    clean = clean.replaceAll("<addr-line[^>]*>", "");
-    clean = clean.replaceAll("</aff>", "");
-    clean = clean.replaceAll("<aff[^>]*>", "");
-    clean = clean.replaceAll("</alt-title>", "");
-    clean = clean.replaceAll("<alt-title[^>]*>", "");
-    clean = clean.replaceAll("</article>", "");
-    clean = clean.replaceAll("<article[^>]*>", "");
-    clean = clean.replaceAll("</article-categories>", "");
-    clean = clean.replaceAll("<article-categories[^>]*>", "");
-    clean = clean.replaceAll("</article-id>", "");
-    clean = clean.replaceAll("<article-id[^>]*>", "");
-    clean = clean.replaceAll("</article-meta>", "");
-    clean = clean.replaceAll("<article-meta[^>]*>", "");
-    clean = clean.replaceAll("</article-title>", "");
-    clean = clean.replaceAll("<article-title[^>]*>", "");
-    clean = clean.replaceAll("</author-notes>", "");
-    clean = clean.replaceAll("<author-notes[^>]*>", "");
-    clean = clean.replaceAll("</back>", "");
-    clean = clean.replaceAll("<back[^>]*>", "");
-    clean = clean.replaceAll("</body>", "");
-    clean = clean.replaceAll("<body[^>]*>", "");
-    clean = clean.replaceAll("</bold>", "");
-    clean = clean.replaceAll("<bold[^>]*>", "");
-    clean = clean.replaceAll("</caption>", "");
-    clean = clean.replaceAll("<caption[^>]*>", "");
-    clean = clean.replaceAll("</citation>", "");
-    clean = clean.replaceAll("<citation[^>]*>", "");
-    clean = clean.replaceAll("</contract-num>", "");
-    clean = clean.replaceAll("<contract-num[^>]*>", "");
-    clean = clean.replaceAll("</contract-sponsor>", "");
-    clean = clean.replaceAll("<contract-sponsor[^>]*>", "");
-    clean = clean.replaceAll("</contrib>", "");
-    clean = clean.replaceAll("<contrib[^>]*>", "");
-    clean = clean.replaceAll("</contrib-group>", "");
-    clean = clean.replaceAll("<contrib-group[^>]*>", "");
-    clean = clean.replaceAll("</copyright-holder>", "");
-    clean = clean.replaceAll("<copyright-holder[^>]*>", "");
-    clean = clean.replaceAll("</copyright-statement>", "");
-    clean = clean.replaceAll("<copyright-statement[^>]*>", "");
-    clean = clean.replaceAll("</copyright-year>", "");
-    clean = clean.replaceAll("<copyright-year[^>]*>", "");
-    clean = clean.replaceAll("</corresp>", "");
-    clean = clean.replaceAll("<corresp[^>]*>", "");
-    clean = clean.replaceAll("</counts>", "");
-    clean = clean.replaceAll("<counts[^>]*>", "");
-    clean = clean.replaceAll("</custom-meta>", "");
-    clean = clean.replaceAll("<custom-meta[^>]*>", "");
-    clean = clean.replaceAll("</custom-meta-wrap>", "");
-    clean = clean.replaceAll("<custom-meta-wrap[^>]*>", "");
-    clean = clean.replaceAll("</date>", "");
-    clean = clean.replaceAll("<date[^>]*>", "");
-    clean = clean.replaceAll("</day>", "");
-    clean = clean.replaceAll("<day[^>]*>", "");
-    clean = clean.replaceAll("</dc:author>", "");
-    clean = clean.replaceAll("<dc:author[^>]*>", "");
-    clean = clean.replaceAll("</dc:date>", "");
-    clean = clean.replaceAll("<dc:date[^>]*>", "");
-    clean = clean.replaceAll("</dc:identifier>", "");
-    clean = clean.replaceAll("<dc:identifier[^>]*>", "");
-    clean = clean.replaceAll("</dcterms:bibliographicCitation>", "");
-    clean = clean.replaceAll("<dcterms:bibliographicCitation[^>]*>", "");
-    clean = clean.replaceAll("</dcterms:isPartOf>", "");
-    clean = clean.replaceAll("<dcterms:isPartOf[^>]*>", "");
-    clean = clean.replaceAll("</dc:title>", "");
-    clean = clean.replaceAll("<dc:title[^>]*>", "");
-    clean = clean.replaceAll("</dc:type>", "");
-    clean = clean.replaceAll("<dc:type[^>]*>", "");
-    clean = clean.replaceAll("</degrees>", "");
-    clean = clean.replaceAll("<degrees[^>]*>", "");
-    clean = clean.replaceAll("</edition>", "");
-    clean = clean.replaceAll("<edition[^>]*>", "");
-    clean = clean.replaceAll("</email>", "");
-    clean = clean.replaceAll("<email[^>]*>", "");
-    clean = clean.replaceAll("</ext-link>", "");
-    clean = clean.replaceAll("<ext-link[^>]*>", "");
-    clean = clean.replaceAll("</fig>", "");
-    clean = clean.replaceAll("<fig[^>]*>", "");
-    clean = clean.replaceAll("</fig-count>", "");
-    clean = clean.replaceAll("<fig-count[^>]*>", "");
-    clean = clean.replaceAll("</fn>", "");
-    clean = clean.replaceAll("<fn[^>]*>", "");
-    clean = clean.replaceAll("</fn-group>", "");
-    clean = clean.replaceAll("<fn-group[^>]*>", "");
-    clean = clean.replaceAll("</fpage>", "");
-    clean = clean.replaceAll("<fpage[^>]*>", "");
-    clean = clean.replaceAll("</front>", "");
-    clean = clean.replaceAll("<front[^>]*>", "");
-    clean = clean.replaceAll("</given-names>", "");
-    clean = clean.replaceAll("<given-names[^>]*>", "");
-    clean = clean.replaceAll("</graphic>", "");
-    clean = clean.replaceAll("<graphic[^>]*>", "");
-    clean = clean.replaceAll("</history>", "");
-    clean = clean.replaceAll("<history[^>]*>", "");
-    clean = clean.replaceAll("</issn>", "");
-    clean = clean.replaceAll("<issn[^>]*>", "");
-    clean = clean.replaceAll("</issue>", "");
-    clean = clean.replaceAll("<issue[^>]*>", "");
-    clean = clean.replaceAll("</italic>", "");
-    clean = clean.replaceAll("<italic[^>]*>", "");
-    clean = clean.replaceAll("</journal-id>", "");
-    clean = clean.replaceAll("<journal-id[^>]*>", "");
-    clean = clean.replaceAll("</journal-meta>", "");
-    clean = clean.replaceAll("<journal-meta[^>]*>", "");
-    clean = clean.replaceAll("</journal-title>", "");
-    clean = clean.replaceAll("<journal-title[^>]*>", "");
-    clean = clean.replaceAll("</kwd>", "");
-    clean = clean.replaceAll("<kwd[^>]*>", "");
-    clean = clean.replaceAll("</kwd-group>", "");
-    clean = clean.replaceAll("<kwd-group[^>]*>", "");
-    clean = clean.replaceAll("</label>", "");
-    clean = clean.replaceAll("<label[^>]*>", "");
-    clean = clean.replaceAll("</license>", "");
-    clean = clean.replaceAll("<license[^>]*>", "");
-    clean = clean.replaceAll("</License>", "");
-    clean = clean.replaceAll("<License[^>]*>", "");
-    clean = clean.replaceAll("</lpage>", "");
-    clean = clean.replaceAll("<lpage[^>]*>", "");
-    clean = clean.replaceAll("</meta-name>", "");
-    clean = clean.replaceAll("<meta-name[^>]*>", "");
-    clean = clean.replaceAll("</meta-value>", "");
-    clean = clean.replaceAll("<meta-value[^>]*>", "");
-    clean = clean.replaceAll("</month>", "");
-    clean = clean.replaceAll("<month[^>]*>", "");
-    clean = clean.replaceAll("</name>", "");
-    clean = clean.replaceAll("<name[^>]*>", "");
-    clean = clean.replaceAll("</notes>", "");
-    clean = clean.replaceAll("<notes[^>]*>", "");
-    clean = clean.replaceAll("</p>", "");
-    clean = clean.replaceAll("<p[^>]*>", "");
-    clean = clean.replaceAll("</page-count>", "");
-    clean = clean.replaceAll("<page-count[^>]*>", "");
-    clean = clean.replaceAll("</permissions>", "");
-    clean = clean.replaceAll("<permissions[^>]*>", "");
-    clean = clean.replaceAll("</permits>", "");
-    clean = clean.replaceAll("<permits[^>]*>", "");
-    clean = clean.replaceAll("</person-group>", "");
-    clean = clean.replaceAll("<person-group[^>]*>", "");
-    clean = clean.replaceAll("</pmc-articleset>", "");
-    clean = clean.replaceAll("<pmc-articleset[^>]*>", "");
-    clean = clean.replaceAll("</pub-date>", "");
-    clean = clean.replaceAll("<pub-date[^>]*>", "");
-    clean = clean.replaceAll("</pub-id>", "");
-    clean = clean.replaceAll("<pub-id[^>]*>", "");
-    clean = clean.replaceAll("</publisher>", "");
-    clean = clean.replaceAll("<publisher[^>]*>", "");
-    clean = clean.replaceAll("</publisher-loc>", "");
-    clean = clean.replaceAll("<publisher-loc[^>]*>", "");
-    clean = clean.replaceAll("</publisher-name>", "");
-    clean = clean.replaceAll("<publisher-name[^>]*>", "");
-    clean = clean.replaceAll("</ref>", "");
-    clean = clean.replaceAll("<ref[^>]*>", "");
-    clean = clean.replaceAll("</ref-count>", "");
-    clean = clean.replaceAll("<ref-count[^>]*>", "");
-    clean = clean.replaceAll("</ref-list>", "");
-    clean = clean.replaceAll("<ref-list[^>]*>", "");
-    clean = clean.replaceAll("</requires>", "");
-    clean = clean.replaceAll("<requires[^>]*>", "");
-    clean = clean.replaceAll("</role>", "");
-    clean = clean.replaceAll("<role[^>]*>", "");
-    clean = clean.replaceAll("</sc>", "");
-    clean = clean.replaceAll("<sc[^>]*>", "");
-    clean = clean.replaceAll("</sec>", "");
-    clean = clean.replaceAll("<sec[^>]*>", "");
-    clean = clean.replaceAll("</self-uri>", "");
-    clean = clean.replaceAll("<self-uri[^>]*>", "");
-    clean = clean.replaceAll("</series-title>", "");
-    clean = clean.replaceAll("<series-title[^>]*>", "");
-    clean = clean.replaceAll("</source>", "");
-    clean = clean.replaceAll("<source[^>]*>", "");
-    clean = clean.replaceAll("</sub>", "");
-    clean = clean.replaceAll("<sub[^>]*>", "");
-    clean = clean.replaceAll("</subject>", "");
-    clean = clean.replaceAll("<subject[^>]*>", "");
-    clean = clean.replaceAll("</subj-group>", "");
-    clean = clean.replaceAll("<subj-group[^>]*>", "");
-    clean = clean.replaceAll("</suffix>", "");
-    clean = clean.replaceAll("<suffix[^>]*>", "");
-    clean = clean.replaceAll("</sup>", "");
-    clean = clean.replaceAll("<sup[^>]*>", "");
-    clean = clean.replaceAll("</surname>", "");
-    clean = clean.replaceAll("<surname[^>]*>", "");
-    clean = clean.replaceAll("</table>", "");
-    clean = clean.replaceAll("<table[^>]*>", "");
-    clean = clean.replaceAll("</table-count>", "");
-    clean = clean.replaceAll("<table-count[^>]*>", "");
-    clean = clean.replaceAll("</table-wrap>", "");
-    clean = clean.replaceAll("<table-wrap[^>]*>", "");
-    clean = clean.replaceAll("</table-wrap-foot>", "");
-    clean = clean.replaceAll("<table-wrap-foot[^>]*>", "");
-    clean = clean.replaceAll("</tbody>", "");
-    clean = clean.replaceAll("<tbody[^>]*>", "");
-    clean = clean.replaceAll("</td>", "");
-    clean = clean.replaceAll("<td[^>]*>", "");
-    clean = clean.replaceAll("</thead>", "");
-    clean = clean.replaceAll("<thead[^>]*>", "");
-    clean = clean.replaceAll("</title>", ". ");
-    clean = clean.replaceAll("<title[^>]*>", "");
-    clean = clean.replaceAll("</title-group>", "");
-    clean = clean.replaceAll("<title-group[^>]*>", "");
-    clean = clean.replaceAll("</tr>", "");
-    clean = clean.replaceAll("<tr[^>]*>", "");
-    clean = clean.replaceAll("</uri>", "");
-    clean = clean.replaceAll("<uri[^>]*>", "");
-    clean = clean.replaceAll("</volume>", "");
-    clean = clean.replaceAll("<volume[^>]*>", "");
-    clean = clean.replaceAll("</Work>", "");
-    clean = clean.replaceAll("<Work[^>]*>", "");
-    clean = clean.replaceAll("</xref>", "");
-    clean = clean.replaceAll("<xref[^>]*>", "");
-    clean = clean.replaceAll("</year>", "");
-    clean = clean.replaceAll("<year[^>]*>", "");
-    clean = clean.replaceAll("<inline-graphic[^>]*>", "");
-    clean = clean.replaceAll("&#x[^;]*;", "");
-
-    return clean;
+    EntrezMetrics.Span span = metrics.method("cleanPMC_XMLtags");
+
+    try     {return PMC_XML.strip(text);}
+    finally {span.close();}
   }
   // -----------------------------------------------------------------------------
 
@@ -693,243 +933,300 @@ public class Entrez
   // -----------------------------------------------------------------------------
   public String cleanPMCAbstractTags(String text)
   {
-    String clean = text;
+    return PubmedPages.abstractTags(text);
+  }
+  // -----------------------------------------------------------------------------
 
-    // --- remove HTML tags
-    clean = clean.replaceAll("</abstract>", "");
-    clean = clean.replaceAll("<abstract[^>]*>", "");
-    clean = clean.replaceAll("</p>", "");
-    clean = clean.replaceAll("<p>", "");
-    clean = clean.replaceAll("</sec>", "");
-    clean = clean.replaceAll("<sec[^>]*>", "");
-    clean = clean.replaceAll("</ext-link>", "");
-    clean = clean.replaceAll("<ext-link[^>]*>", "");
 
-    // --- remove HTML elements
-    clean = clean.replaceAll("<fig[^>]*>[^<]*</fig>", "");
-    clean = clean.replaceAll("<label[^>]*>[^<]*</label>", "");
-    clean = clean.replaceAll("<graphic[^>]*>", "");
-    clean = clean.replaceAll("<title>Images</title>", "");
 
-    // --- translate HTML tags
-    clean = clean.replaceAll("<italic>", "<em>");
-    clean = clean.replaceAll("</italic>", "</em>");
-    clean = clean.replaceAll("<bold>", "<strong>");
-    clean = clean.replaceAll("</bold>", "</strong>");
-    clean = clean.replaceAll("<title>", " <strong>");
-    clean = clean.replaceAll("</title>", "</strong>. ");
+  // -----------------------------------------------------------------------------
+  // --- clean the text from PubMed Central HTML tags
+  // -----------------------------------------------------------------------------
+  public String cleanPMC_HTMLtags(StringBuffer target)
+  {
+    return cleanPMC_HTMLtags((CharSequence) target);
+  }
 
-    return clean;
+  // --- any text, e.g. a SpillText from textPMC: read in place, not copied
+  public String cleanPMC_HTMLtags(CharSequence target)
+  {
+    EntrezMetrics.Span span = metrics.method("cleanPMC_HTMLtags");
+
+    try     {return PMC_HTML.rewrite(target);}
+    finally {span.close();}
   }
+
   // -----------------------------------------------------------------------------
 
 
 
   // -----------------------------------------------------------------------------
-  // --- clean the text from PubMed Central HTML tags
+  // --- extract the "Materials & Methods" section from the full-text article
   // -----------------------------------------------------------------------------
-  public String cleanPMC_HTMLtags(StringBuffer target)
+  public String MandM(String paper)
   {
-    int   copyFrom,   copyTo;
-    int deleteFrom, deleteTo;
-
-    copyFrom = target.indexOf("class=\"content-cell\"");
-    while (target.charAt(copyFrom) != '<') copyFrom--;
-    StringBuffer input = new StringBuffer();
-    input.append(target.substring(copyFrom));
+    return PubmedPages.methods(paper);
+  }
+  // -----------------------------------------------------------------------------
 
-    StringBuffer buffer = new StringBuffer();
 
-    // --- remove sidebar cells
-    copyFrom = 0;
-    copyTo   = input.indexOf("class=\"sidebar-cell\"");
 
-    while (copyTo >= 0)
-    {
-      while (input.charAt(copyTo) != '<') copyTo--;
-      buffer.append(input.substring(copyFrom, copyTo));
-      copyFrom = input.indexOf("</td>", copyTo) + 5;
-      copyTo   = input.indexOf("class=\"sidebar-cell\"", copyFrom);
-    }
+  // -----------------------------------------------------------------------------
+  // --- run call unless the same request is already in flight, else share its
+  //     result; key is prefixed with the endpoint of url
+  // -----------------------------------------------------------------------------
+  private String coalesce(String url, String key, SingleFlight.Call<String> call) throws IOException
+  {
+    boolean[] ran   = {false};
+    String    value = flights.run(EntrezMetrics.endpointName(url) + " " + key, () -> {ran[0] = true; return call.call();});
 
-    copyTo = input.length();
+    if (!ran[0]) metrics.coalesced(url);
+    return value;
+  }
+  // -----------------------------------------------------------------------------
 
-    buffer.append(input.substring(copyFrom, copyTo));
 
 
-    // --- remove comments
-    input = buffer;
-    buffer = new StringBuffer();
+  // -----------------------------------------------------------------------------
+  // --- GET url, going through the document cache (if any) keyed by
+  //     (db, id, format); cache errors never fail the fetch; concurrent
+  //     identical fetches are coalesced
+  // -----------------------------------------------------------------------------
+  private String fetch(String db, String id, String format, String url) throws IOException
+  {
+    return coalesce(url, db + "/" + id + "/" + format, () -> fetchOnce(db, id, format, url));
+  }
 
-    copyFrom = 0;
-    copyTo   = input.indexOf("<!--");
+  private String fetchOnce(String db, String id, String format, String url) throws IOException
+  {
+    DocumentCache c = cache;
 
-    while (copyTo >= 0)
+    if (c != null)
     {
-      buffer.append(input.substring(copyFrom, copyTo));
-      copyFrom = input.indexOf("-->", copyTo) + 3;
-      copyTo   = input.indexOf("<!--", copyFrom);
+      try (EntrezMetrics.Span span = metrics.stage("cache_get"))
+      {
+        try
+        {
+          byte[] cached = c.get(db, id, format);
+          if (cached != null) return new String(cached, StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {span.error(e); LOG.warn("cache: get " + db + "/" + id + " failed", e);}
+      }
     }
 
-    copyTo = input.length();
-
-    buffer.append(input.substring(copyFrom, copyTo));
-
+    if (c == null) return transport.get(url).text();
 
-    // --- remove scripts
-    input = buffer;
-    buffer = new StringBuffer();
+    // --- ask for gzip and keep the bytes as sent: the cache stores gzip anyway
+    byte[]  body, data;
+    boolean gzip;
 
-    copyFrom = 0;
-    copyTo   = input.indexOf("<script");
+    try (EntrezStream s = transport.request(url, GZIP))
+    {
+      body = s.body.readAllBytes();
+      gzip = "gzip".equalsIgnoreCase(s.header("Content-Encoding"));
+      data = gzip ? DocumentCache.gunzip(body, 0, body.length)
+                  : HttpTransport.decode(new ByteArrayInputStream(body), s.header("Content-Encoding")).readAllBytes();
+    }
 
-    while (copyTo >= 0)
+    if (data.length > 0)
     {
-      buffer.append(input.substring(copyFrom, copyTo));
-      copyFrom = input.indexOf("</script>", copyTo) + 9;
-      copyTo   = input.indexOf("<script", copyFrom);
+      try (EntrezMetrics.Span span = metrics.stage("cache_put"))
+      {
+        try
+        {
+          if (gzip) c.putGzip(db, id, format, body, data.length);
+          else      c.put(db, id, format, data);
+        }
+        catch (IOException e) {span.error(e); LOG.warn("cache: put " + db + "/" + id + " failed", e);}
+      }
     }
 
-    copyTo = input.length();
+    return new String(data, StandardCharsets.UTF_8);
+  }
+  // -----------------------------------------------------------------------------
 
-    buffer.append(input.substring(copyFrom, copyTo));
 
 
-    // --- remove footer
-    deleteFrom = buffer.indexOf("<div class=\"footer-section\">");
-    deleteTo   = buffer.indexOf("</td></tr></table></body></html>");
-    buffer.delete(deleteFrom, deleteTo);
+  // -----------------------------------------------------------------------------
+  // --- trimmed text between the first open tag and the following close tag
+  // -----------------------------------------------------------------------------
+  static String between(String text, String open, String close)
+  {
+    int b = text.indexOf(open);
+    if (b < 0) return null;
+    b += open.length();
+    int e = text.indexOf(close, b);
+    return e < 0 ? null : text.substring(b, e).trim();
+  }
+  // -----------------------------------------------------------------------------
 
-    deleteFrom = buffer.indexOf("</table></body></html>");
-    deleteTo   = buffer.indexOf("</body></html>");
-    buffer.delete(deleteFrom, deleteTo);
 
-    // --- delete tables
-    input = buffer;
-    buffer = new StringBuffer();
 
-    copyFrom = 0;
-    copyTo   = input.indexOf("<table");
+  // -----------------------------------------------------------------------------
+  // --- drop line breaks, as reading with readLine() and concatenating did
+  // -----------------------------------------------------------------------------
+  static String joinLines(String text)
+  {
+    StringBuilder joined = new StringBuilder(text.length());
 
-    while (copyTo >= 0)
+    for (int i = 0; i < text.length(); i++)
     {
-      buffer.append(input.substring(copyFrom, copyTo));
-      copyFrom = input.indexOf("</table>", copyTo) + 8;
-      copyTo   = input.indexOf("<table", copyFrom);
+      char c = text.charAt(i);
+      if (c != '\n' && c != '\r') joined.append(c);
     }
 
-    copyTo = input.length();
+    return joined.toString();
+  }
+  // -----------------------------------------------------------------------------
+
 
-    buffer.append(input.substring(copyFrom, copyTo));
 
+  // -----------------------------------------------------------------------------
+  // --- extract the "Materials & Methods" section from a streamed article
+  //     (single pass, see ncbi_entrez_sections.java)
+  // -----------------------------------------------------------------------------
+  public String MandM(Reader paper)
+  {
+    String section = "";
+    EntrezMetrics.Span span = metrics.method("MandM");
 
-    String clean = buffer.toString();
+    try {section = JatsSections.methods(paper);}
+    catch (Exception e) {span.error(e); LOG.warn("MandM(Reader) failed", e);}
+    finally {span.close();}
 
-    clean = clean.replaceAll("[\\xC2\\xA0]", "");
-    clean = clean.replaceAll("<img src=\"corehtml/pmc/pmcgifs/rt-arrow.gif\" alt=\"Small right arrow pointing to:\" style=\"vertical-align: middle;\">", "");
-    clean = clean.replaceAll("<a[^>]*><img[^>]*></a>", "");
-    clean = clean.replaceAll("</td>", "");
-    clean = clean.replaceAll("<td[^>]*>", "");
-    clean = clean.replaceAll("</tr>", "");
-    clean = clean.replaceAll("<tr[^>]*>", "");
-    clean = clean.replaceAll("<br>", "");
-    clean = clean.replaceAll(" class=\"cite-reflink\"", "");
-    clean = clean.replaceAll("<span[^>]*>", "");
-    clean = clean.replaceAll("</span>", "");
-    clean = clean.replaceAll("<ul[^>]*>", "<ul>");
+    return section;
+  }
+  // -----------------------------------------------------------------------------
 
-    clean = clean.replaceAll("<div class=\"back-matter-section\">", "");
 
-    clean = clean.replaceAll("<div class=\"ref-cit-blk\"", "<a");
-    clean = clean.replaceAll("<div class=\"ref-label\">", "</a>");
-    clean = clean.replaceAll("</div><div class=\"ref-cit\">", " ");
-    clean = clean.replaceAll("articlerender.fcgi",   "http://www.pubmedcentral.nih.gov/articlerender.fcgi");
-    clean = clean.replaceAll("pagerender.fcgi",      "http://www.pubmedcentral.nih.gov/pagerender.fcgi");
-    clean = clean.replaceAll("picrender.fcgi",       "http://www.pubmedcentral.nih.gov/picrender.fcgi");
-    clean = clean.replaceAll("tocrender.fcgi",       "http://www.pubmedcentral.nih.gov/tocrender.fcgi");
-    clean = clean.replaceAll("about/copyright.html", "http://www.pubmedcentral.nih.gov/about/copyright.html");
 
-    String id = "";
-    String artid = "articlerender.fcgi?artid=";
-    int i = clean.indexOf(artid);
-    if (i >=0 )
+  // -----------------------------------------------------------------------------
+  // --- offsets, nesting, type & title of every <sec> (and abstract, fig, ...)
+  //     of a paper, for slicing out any section later (see ncbi_entrez_secindex.java)
+  // -----------------------------------------------------------------------------
+  public SectionIndex sections(String paper)
+  {
+    EntrezMetrics.Span span = metrics.method("sections");
+
+    try {return SectionIndex.build(paper);}
+    catch (RuntimeException e) {span.error(e); throw e;}
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- as above for the paper getPaper(id) returned; the index is kept in the
+  //     document cache (if any) next to the paper and rebuilt when stale
+  // -----------------------------------------------------------------------------
+  public SectionIndex sections(String id, String paper)
+  {
+    DocumentCache c = cache;
+
+    if (c != null)
     {
-      i+= artid.length();
-      char digit = clean.charAt(i);
-      while ('0' <= digit && digit <= '9')
+      try
       {
-        id +=digit;
-        digit = clean.charAt(++i);
+        byte[] stored = c.get("pmc", id, "sec-index");
+        if (stored != null)
+        {
+          SectionIndex index = SectionIndex.fromBytes(stored);
+          if (index.matches(paper)) return index;
+        }
       }
+      catch (IOException e) {LOG.warn("cache: get section index " + id + " failed", e);}
     }
-    clean = clean.replaceAll("<a href=\"#E", "<a href=\"http://www.pubmedcentral.nih.gov/articlerender.fcgi?artid=" + id + "#E");
-    clean = clean.replaceAll("<a id=\"F[^>]*></a>", "");
-    clean = clean.replaceAll("<a id=\"T[^>]*></a>", "");
-    clean = clean.replaceAll("class=\"fig-table-link\" [^>]*>", ">");
-    clean = clean.replaceAll("<div style=\"clear:both;\"></div>", "");
-    clean = clean.replaceAll("<div class=\"section-content\">", "");
-    clean = clean.replaceAll("<div class=\"head[^>]*>", "");
-    clean = clean.replaceAll("<div style=\"margin[^>]*>", "");
-    clean = clean.replaceAll("<div style=\"border[^>]*>", "");
-    clean = clean.replaceAll("\\[<a class=\"ref-extlink\"[^>]*>PubMed</a>\\]", "");
-    clean = clean.replaceAll("<div[^>]*>", "\n\n");
-    clean = clean.replaceAll("</div></div>", "</div>");
-    clean = clean.replaceAll("</div>", "\n<br></br>\n");
-    clean = clean.replaceAll( "<p>", "\n<br></br>\n");
-    clean = clean.replaceAll("</p>", "\n<br></br>\n");
 
-    clean = clean.replaceAll("<body[^>]*>", "");
-    clean = clean.replaceAll("</body>", "");
-    clean = clean.replaceAll("<!DOCTYPE[^>]*>", "");
-    clean = clean.replaceAll("</html>", "");
-    clean = clean.replaceAll("<html>", "");
+    SectionIndex index = sections(paper);
 
-    clean = clean.replaceAll("</br>\\s*<br>", "");
-    clean = clean.replaceAll("</br>\\s*<br>", "");
-    clean = clean.replaceAll("<br></br>\\s*<a href=\"http://www.pubmedcentral.nih.gov/pagerender.fcgi", "\n<a href=\"http://www.pubmedcentral.nih.gov/pagerender.fcgi");
-    clean = clean.replaceAll("or click on a page below to browse page by page.", "or click on a page below to browse page by page.<br></br>");
+    if (c != null)
+    {
+      try {c.put("pmc", id, "sec-index", index.toBytes());}
+      catch (IOException e) {LOG.warn("cache: put section index " + id + " failed", e);}
+    }
 
-    return clean;
+    return index;
   }
   // -----------------------------------------------------------------------------
 
 
 
   // -----------------------------------------------------------------------------
-  // --- extract the "Materials & Methods" section from the full-text article
+  // --- abstracts & top-level sections of a paper as rows (id, kind, sec_type,
+  //     title, cleaned text) to an exporter (columns Exporter.SECTIONS);
+  //     returns the number of rows
   // -----------------------------------------------------------------------------
-  public String MandM(String paper)
+  public int exportSections(String id, String paper, Exporter out) throws IOException
   {
-    String section = "";
-
-    int b, e = 0;
+    SectionIndex index = sections(id, paper);
+    int          rows  = 0;
 
-    while ((b = paper.indexOf("<sec sec-type", e)) >= 0)
+    for (int i = 0; i < index.size(); i++)
     {
-      int type_b = paper.indexOf('"', b);
-      int type_e = paper.indexOf('"', ++type_b);
-      String sec_type = paper.substring(type_b, type_e);
+      boolean top = index.kind(i).equals("sec") && (index.parent(i) < 0 || !index.kind(index.parent(i)).equals("sec"));
+      if (!top && !index.kind(i).endsWith("abstract")) continue;   // --- abstract, trans-abstract
+
+      out.write(id, index.kind(i), index.type(i), cleanPMC_XMLtags(index.title(i)), cleanPMC_XMLtags(index.slice(paper, i)));
+      rows++;
+    }
+    return rows;
+  }
+  // -----------------------------------------------------------------------------
 
-      e = b+1;
 
-      if (sec_type.compareTo("methods")           == 0 || 
-          sec_type.compareTo("materials")         == 0 || 
-          sec_type.compareTo("materials|methods") == 0 || 
-          sec_type.compareTo("methods|materials") == 0)
+
+  // -----------------------------------------------------------------------------
+  // --- clean text, abstract & "Materials & Methods" of every article in local
+  //     PMC OA packages (.tar.gz), on all cores, results in archive order (see
+  //     ncbi_entrez_corpus.java); returns the number of articles
+  // -----------------------------------------------------------------------------
+  public long processArchives(java.util.Collection<java.nio.file.Path> archives,
+                              java.util.function.Consumer<OaCorpus.Paper> sink) throws IOException
+  {
+    LOG.debug(() -> "processArchives(" + archives.size() + " archives)");
+    EntrezMetrics.Span span = metrics.method("processArchives");
+
+    try
+    {
+      return new OaCorpus().process(archives, a ->
       {
-        int stack = 1;
+        String xml = a.text();
+        int    b   = xml.indexOf("<abstract"), e = b < 0 ? -1 : xml.indexOf("</abstract>", b);
+        String abs = e < 0 ? "" : cleanPMCAbstractTags(xml.substring(b, e + 11));
 
-        while (stack > 0)
-        {
-          int e1 = paper.indexOf("<sec",   e);
-          int e2 = paper.indexOf("</sec>", e);
+        return new OaCorpus.Paper(a.pmcid(), a.path, cleanPMC_XMLtags(xml), abs, MandM(xml));
+      }, sink);
+    }
+    catch (IOException | RuntimeException e) {span.error(e); throw e;}
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
 
-          if (e1 > 0 && e1 < e2) {stack++; e = e1 + 1;}
-          else                   {stack--; e = e2 + 6;}
-        }
 
-        section = section + paper.substring(b, e);
-      }
+
+  // -----------------------------------------------------------------------------
+  // --- fetch full-text article from PubMed Central & extract "Materials & Methods"
+  //     straight off the network stream
+  // -----------------------------------------------------------------------------
+  public String fetchMandM(String id)
+  {
+    LOG.debug(() -> "fetchMandM(" + id + "): extract methods from PMC paper");
+    EntrezMetrics.Span span = metrics.method("fetchMandM");
+
+    String section = "";
+    InputStream is = null;
+
+    try
+    {
+      is = transport.open("http://www.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=pmc&id=" + id);
+      section = JatsSections.methods(is);
+    }
+    catch (Exception e) {span.error(e); LOG.warn("fetchMandM(" + id + ") failed", e);}
+    finally
+    {
+      try {if (is != null) is.close();} catch (IOException ioe) {}
+      span.close();
     }
 
     return section;
@@ -0,0 +1,539 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*********************************************************************************
+ * D O C U M E N T   C A C H E
+ * ---------------------------
+ *
+ * Persistent cache of fetched documents keyed by (db, id, format):
+ *
+ *   <dir>/index          memory-mapped open-addressing hash table of slots
+ *   <dir>/seg-000001     append-only segment files of gzip-compressed records
+ *   <dir>/lock           file lock shared by all JVMs using the directory
+ *
+ * Slot  (48 bytes): hash, segment, length, offset, created, lastAccess,
+ *                   rawLength, state
+ * Record:           keyLength, key (UTF-8), gzip payload
+ *
+ * Every index change happens under the file lock (plus an in-JVM lock, since
+ * a FileLock cannot be taken twice by one JVM), so several processes on one
+ * host can share a directory. Records are immutable, so payloads are read
+ * outside the lock; a record whose segment vanished is a miss.
+ *
+ * When the live payload exceeds maxBytes the least recently used entries are
+ * dropped; segments left without live records are deleted and sparse ones are
+ * compacted into the active segment. Entries older than the optional TTL are
+ * misses.
+ ********************************************************************************/
+class DocumentCache implements Closeable
+{
+  private static final int  MAGIC        = 0x454e5443;   // --- "ENTC"
+  private static final int  HEADER       = 64;
+  private static final int  SLOT         = 48;
+
+  // --- header fields
+  private static final int H_CAPACITY = 8, H_LIVE = 12, H_USED = 16, H_BYTES = 24, H_SEGMENT = 32, H_SEGSIZE = 40;
+
+  // --- slot fields
+  private static final int S_HASH = 0, S_SEGMENT = 8, S_LENGTH = 12, S_OFFSET = 16, S_CREATED = 24,
+                           S_ACCESS = 32, S_RAW = 40, S_STATE = 44;
+  private static final int EMPTY = 0, LIVE = 1, DELETED = 2;
+
+  // --- one in-JVM lock per directory, FileLocks are per JVM
+  private static final Map<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<Path, ReentrantLock>();
+
+  private final Path             dir;
+  private final long             maxBytes;
+  private final long             segmentSize;             // --- maxBytes / 8, 1..64 MB
+  private final int              capacity;
+  private final FileChannel      indexChannel;
+  private final MappedByteBuffer index;
+  private final FileChannel      lockChannel;
+  private final ReentrantLock    lock;
+  private FileLock               fileLock;
+  private final Map<Integer, FileChannel> segments = new HashMap<Integer, FileChannel>();
+  private long                   ttl = 0;                 // --- ms, 0: none
+
+  private final AtomicLong hits      = new AtomicLong();
+  private final AtomicLong misses    = new AtomicLong();
+  private final AtomicLong puts      = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+
+  // -----------------------------------------------------------------------------
+  // --- open (or create) the cache in dir; capacity = number of index slots
+  // -----------------------------------------------------------------------------
+  public static DocumentCache open(Path dir, long maxBytes) throws IOException
+  {
+    return new DocumentCache(dir, maxBytes, 1 << 18);
+  }
+
+  public DocumentCache(Path dir, long maxBytes, int capacity) throws IOException
+  {
+    Files.createDirectories(dir);
+
+    this.dir         = dir.toAbsolutePath().normalize();
+    this.maxBytes    = maxBytes;
+    this.segmentSize = Math.max(1L << 20, Math.min(64L << 20, maxBytes / 8));
+    this.lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    this.lock        = LOCKS.computeIfAbsent(this.dir, p -> new ReentrantLock());
+
+    lock();
+    try
+    {
+      indexChannel = FileChannel.open(dir.resolve("index"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                      StandardOpenOption.WRITE);
+      if (indexChannel.size() >= HEADER)
+      {
+        ByteBuffer h = ByteBuffer.allocate(HEADER);
+        indexChannel.read(h, 0);
+        if (h.getInt(0) != MAGIC) throw new IOException("not a document cache index: " + dir.resolve("index"));
+        capacity = h.getInt(H_CAPACITY);
+      }
+      else capacity = Integer.highestOneBit(Math.max(1024, capacity));
+
+      this.capacity = capacity;
+      this.index    = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+
+      if (index.getInt(0) != MAGIC)
+      {
+        index.putInt(4, 1);                    // --- version
+        index.putInt(H_CAPACITY, capacity);
+        index.putInt(H_SEGMENT, 1);
+        index.putInt(0, MAGIC);
+      }
+    }
+    finally {unlock();}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  public DocumentCache ttl(long millis) {this.ttl = millis; return this;}
+
+  // --- counters (this JVM)
+  public long hits()      {return hits.get();}
+  public long misses()    {return misses.get();}
+  public long puts()      {return puts.get();}
+  public long evictions() {return evictions.get();}
+
+  // --- shared state (all JVMs)
+  public int  size()      {lock(); try {return index.getInt(H_LIVE);}   finally {unlock();}}
+  public long bytes()     {lock(); try {return index.getLong(H_BYTES);} finally {unlock();}}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- cached document, or null
+  // -----------------------------------------------------------------------------
+  public byte[] get(String db, String id, String format) throws IOException
+  {
+    byte[] key  = key(db, id, format);
+    long   hash = hash(key);
+    int    segment, length;
+    long   offset;
+
+    lock();
+    try
+    {
+      int slot = find(hash);
+      if (slot < 0) {misses.incrementAndGet(); return null;}
+
+      long now = System.currentTimeMillis();
+      if (ttl > 0 && index.getLong(slotAt(slot) + S_CREATED) + ttl < now)
+      {
+        delete(slot);
+        misses.incrementAndGet();
+        return null;
+      }
+
+      index.putLong(slotAt(slot) + S_ACCESS, now);
+      segment = index.getInt(slotAt(slot) + S_SEGMENT);
+      length  = index.getInt(slotAt(slot) + S_LENGTH);
+      offset  = index.getLong(slotAt(slot) + S_OFFSET);
+    }
+    finally {unlock();}
+
+    byte[] record;
+    try {record = read(segment, offset, length);}
+    catch (IOException e) {misses.incrementAndGet(); return null;}   // --- evicted meanwhile
+
+    ByteBuffer r = ByteBuffer.wrap(record);
+    int keyLength = r.getInt();
+    if (keyLength != key.length || !Arrays.equals(key, Arrays.copyOfRange(record, 4, 4 + keyLength)))
+    {
+      misses.incrementAndGet();                 // --- 64-bit hash collision
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return gunzip(record, 4 + keyLength, record.length - 4 - keyLength);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- store (or replace) a document
+  // -----------------------------------------------------------------------------
+  public void put(String db, String id, String format, byte[] data) throws IOException
+  {
+    putRecord(key(db, id, format), gzip(data), data.length);
+  }
+
+  // --- store an already gzip-compressed document as is
+  public void putGzip(String db, String id, String format, byte[] gzipped, int rawLength) throws IOException
+  {
+    putRecord(key(db, id, format), gzipped, rawLength);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private void putRecord(byte[] key, byte[] payload, int rawLength) throws IOException
+  {
+    long hash = hash(key);
+
+    ByteBuffer record = ByteBuffer.allocate(4 + key.length + payload.length);
+    record.putInt(key.length).put(key).put(payload).flip();
+
+    lock();
+    try
+    {
+      int old = find(hash);
+      if (old >= 0) delete(old);
+
+      long[] at = append(record);
+
+      if (index.getInt(H_USED) + 1 > capacity * 3 / 4) rehash();
+
+      int slot = (int) (hash & (capacity - 1));
+      while (index.getInt(slotAt(slot) + S_STATE) == LIVE) slot = (slot + 1) & (capacity - 1);
+
+      int  p   = slotAt(slot);
+      long now = System.currentTimeMillis();
+      if (index.getInt(p + S_STATE) == EMPTY) index.putInt(H_USED, index.getInt(H_USED) + 1);
+      index.putLong(p + S_HASH,    hash);
+      index.putInt (p + S_SEGMENT, (int) at[0]);
+      index.putInt (p + S_LENGTH,  record.limit());
+      index.putLong(p + S_OFFSET,  at[1]);
+      index.putLong(p + S_CREATED, now);
+      index.putLong(p + S_ACCESS,  now);
+      index.putInt (p + S_RAW,     rawLength);
+      index.putInt (p + S_STATE,   LIVE);
+
+      index.putInt (H_LIVE,  index.getInt(H_LIVE) + 1);
+      index.putLong(H_BYTES, index.getLong(H_BYTES) + record.limit());
+      puts.incrementAndGet();
+
+      if (index.getLong(H_BYTES) > maxBytes) evict();
+    }
+    finally {unlock();}
+  }
+
+
+
+  // --- append a record to the active segment; returns {segment, offset}
+  private long[] append(ByteBuffer record) throws IOException
+  {
+    int  segment = index.getInt(H_SEGMENT);
+    long size    = index.getLong(H_SEGSIZE);
+
+    if (size > 0 && size + record.remaining() > segmentSize)
+    {
+      segment++;
+      size = 0;
+      index.putInt(H_SEGMENT, segment);
+    }
+
+    FileChannel ch = channel(segment, true);
+    long at = size;
+    while (record.hasRemaining()) size += ch.write(record, size);
+    index.putLong(H_SEGSIZE, size);
+
+    return new long[] {segment, at};
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- drop least recently used entries down to 90% of maxBytes, then delete /
+  //     compact segments
+  // -----------------------------------------------------------------------------
+  private void evict() throws IOException
+  {
+    List<long[]> live = new ArrayList<long[]>();   // --- {lastAccess, slot}
+    for (int s = 0; s < capacity; s++)
+      if (index.getInt(slotAt(s) + S_STATE) == LIVE) live.add(new long[] {index.getLong(slotAt(s) + S_ACCESS), s});
+
+    live.sort((a, b) -> Long.compare(a[0], b[0]));
+
+    long target = maxBytes / 10 * 9;
+    for (int i = 0; i < live.size() && index.getLong(H_BYTES) > target; i++)
+    {
+      delete((int) live.get(i)[1]);
+      evictions.incrementAndGet();
+    }
+
+    sweep();
+  }
+
+
+
+  // --- delete sealed segments without live records, compact sparse ones.
+  //     Compaction appends to the active segment and may roll it, so the
+  //     segments are listed first and anything from the current active one
+  //     on is skipped, with live sizes recounted after every compaction
+  private void sweep() throws IOException
+  {
+    List<Integer> sealed = new ArrayList<Integer>();
+    try (java.util.stream.Stream<Path> files = Files.list(dir))
+    {
+      for (Path f : (Iterable<Path>) files::iterator)
+      {
+        String name = f.getFileName().toString();
+        if (name.startsWith("seg-")) sealed.add(Integer.parseInt(name.substring(4)));
+      }
+    }
+    sealed.sort(null);
+
+    Map<Integer, Long> liveBytes = liveBytes();
+
+    for (int segment : sealed)
+    {
+      if (segment >= index.getInt(H_SEGMENT)) continue;
+
+      long used = liveBytes.containsKey(segment) ? liveBytes.get(segment) : 0;
+      if (used == 0) {drop(segment); continue;}
+
+      if (used < Files.size(segmentPath(segment)) / 4)
+      {
+        compact(segment);
+        liveBytes = liveBytes();
+      }
+    }
+  }
+
+  // --- bytes of live records per segment
+  private Map<Integer, Long> liveBytes()
+  {
+    Map<Integer, Long> liveBytes = new HashMap<Integer, Long>();
+    for (int s = 0; s < capacity; s++)
+      if (index.getInt(slotAt(s) + S_STATE) == LIVE)
+        liveBytes.merge(index.getInt(slotAt(s) + S_SEGMENT), (long) index.getInt(slotAt(s) + S_LENGTH), Long::sum);
+    return liveBytes;
+  }
+
+
+
+  // --- move the live records of a segment to the active segment
+  private void compact(int segment) throws IOException
+  {
+    for (int s = 0; s < capacity; s++)
+    {
+      int p = slotAt(s);
+      if (index.getInt(p + S_STATE) != LIVE || index.getInt(p + S_SEGMENT) != segment) continue;
+
+      byte[] record = read(segment, index.getLong(p + S_OFFSET), index.getInt(p + S_LENGTH));
+      long[] at     = append(ByteBuffer.wrap(record));
+      index.putInt (p + S_SEGMENT, (int) at[0]);
+      index.putLong(p + S_OFFSET,  at[1]);
+    }
+    drop(segment);
+  }
+
+
+
+  private void drop(int segment) throws IOException
+  {
+    FileChannel ch = segments.remove(segment);
+    if (ch != null) ch.close();
+    Files.deleteIfExists(segmentPath(segment));
+  }
+
+
+
+  private void delete(int slot)
+  {
+    int p = slotAt(slot);
+    index.putInt (p + S_STATE, DELETED);
+    index.putInt (H_LIVE,  index.getInt(H_LIVE) - 1);
+    index.putLong(H_BYTES, index.getLong(H_BYTES) - index.getInt(p + S_LENGTH));
+  }
+
+
+
+  // --- rebuild the table without tombstones (evicting if it is too full)
+  private void rehash() throws IOException
+  {
+    if (index.getInt(H_LIVE) > capacity / 2)
+    {
+      List<long[]> live = new ArrayList<long[]>();
+      for (int s = 0; s < capacity; s++)
+        if (index.getInt(slotAt(s) + S_STATE) == LIVE) live.add(new long[] {index.getLong(slotAt(s) + S_ACCESS), s});
+      live.sort((a, b) -> Long.compare(a[0], b[0]));
+      for (int i = 0; index.getInt(H_LIVE) > capacity / 2; i++) {delete((int) live.get(i)[1]); evictions.incrementAndGet();}
+    }
+
+    List<byte[]> keep = new ArrayList<byte[]>();
+    for (int s = 0; s < capacity; s++)
+    {
+      int p = slotAt(s);
+      if (index.getInt(p + S_STATE) == LIVE)
+      {
+        byte[] slot = new byte[SLOT];
+        index.get(p, slot);
+        keep.add(slot);
+      }
+      index.putInt(p + S_STATE, EMPTY);
+    }
+
+    for (byte[] slot : keep)
+    {
+      int s = (int) (ByteBuffer.wrap(slot).getLong(S_HASH) & (capacity - 1));
+      while (index.getInt(slotAt(s) + S_STATE) != EMPTY) s = (s + 1) & (capacity - 1);
+      index.put(slotAt(s), slot);
+    }
+    index.putInt(H_USED, keep.size());
+  }
+
+
+
+  // --- slot holding hash, or -1
+  private int find(long hash)
+  {
+    int s = (int) (hash & (capacity - 1));
+
+    for (int probes = 0; probes < capacity; probes++, s = (s + 1) & (capacity - 1))
+    {
+      int p     = slotAt(s);
+      int state = index.getInt(p + S_STATE);
+      if (state == EMPTY) return -1;
+      if (state == LIVE && index.getLong(p + S_HASH) == hash) return s;
+    }
+    return -1;
+  }
+
+  private static int slotAt(int slot) {return HEADER + slot * SLOT;}
+
+
+
+  private byte[] read(int segment, long offset, int length) throws IOException
+  {
+    FileChannel ch;
+    synchronized (segments) {ch = channel(segment, false);}
+
+    ByteBuffer buf = ByteBuffer.allocate(length);
+    while (buf.hasRemaining())
+      if (ch.read(buf, offset + buf.position()) < 0) throw new IOException("truncated segment " + segment);
+    return buf.array();
+  }
+
+  private FileChannel channel(int segment, boolean create) throws IOException
+  {
+    synchronized (segments)
+    {
+      FileChannel ch = segments.get(segment);
+      if (ch == null)
+      {
+        // --- always read-write: a segment first read here may become the one we append to
+        ch = create ? FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(segmentPath(segment), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(segment, ch);
+      }
+      return ch;
+    }
+  }
+
+  private Path segmentPath(int segment) {return dir.resolve(String.format("seg-%06d", segment));}
+
+
+
+  private void lock()
+  {
+    lock.lock();
+    try {fileLock = lockChannel.lock();}
+    catch (IOException e) {lock.unlock(); throw new IllegalStateException("cannot lock " + dir, e);}
+  }
+
+  private void unlock()
+  {
+    try {fileLock.release();}
+    catch (IOException e) {}
+    finally {lock.unlock();}
+  }
+
+
+
+  public void close() throws IOException
+  {
+    lock();
+    try
+    {
+      index.force();
+      synchronized (segments)
+      {
+        for (FileChannel ch : segments.values()) ch.close();
+        segments.clear();
+      }
+      indexChannel.close();
+    }
+    finally
+    {
+      unlock();
+      lockChannel.close();
+    }
+  }
+
+
+
+  // --- helpers
+  private static byte[] key(String db, String id, String format)
+  {
+    return (db.toLowerCase() + '\u0000' + id + '\u0000' + format).getBytes(StandardCharsets.UTF_8);
+  }
+
+  // --- FNV-1a, 64 bit
+  private static long hash(byte[] key)
+  {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : key) {h ^= (b & 0xff); h *= 0x100000001b3L;}
+    return h;
+  }
+
+  static byte[] gzip(byte[] data) throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+    try (GZIPOutputStream gz = new GZIPOutputStream(out, 8192)) {gz.write(data);}
+    return out.toByteArray();
+  }
+
+  static byte[] gunzip(byte[] data, int offset, int length) throws IOException
+  {
+    try (InputStream in = new GZIPInputStream(new java.io.ByteArrayInputStream(data, offset, length), 8192))
+    {
+      return in.readAllBytes();
+    }
+  }
+
+}
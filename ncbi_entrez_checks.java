@@ -0,0 +1,532 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*********************************************************************************
+ * C H E C K S
+ * -----------
+ *
+ * Self-checks of the concurrency & I/O behaviour that needs no NCBI server:
+ * every check runs against mock streams / transports and either passes or
+ * fails with a message.
+ *
+ *   java EntrezChecks              all checks
+ *   java EntrezChecks name ...     the named ones
+ *
+ *   slow-consumer   a healthy body read by a consumer slower than the read
+ *                   timeout is not cut off (the timeout only runs inside read)
+ *   stalled-read    a read blocked longer than the read timeout fails with
+ *                   HttpTimeoutException
+ *   bad-encoding    a body that cannot be decoded fails get() & request()
+ *                   without leaking the connection or the metrics span
+ *                   (local HTTP server on a free port)
+ *   throttle        RateLimitedTransport retries 429s with backoff, holds other
+ *                   callers back during it, gives up after maxRetries and does
+ *                   not retry a 404; counters & metrics agree (mock transport)
+ *   resume          FileDownload resumes a .part file only while its If-Range
+ *                   validator holds, and finishes a complete one on 416
+ *                   without fetching it again; a parallel download with a
+ *                   failed chunk leaves only a valid prefix (local HTTP server)
+ *   async-stress    2000 concurrent getPaperAsync calls (500 distinct papers,
+ *                   so coalesced ones too) on one shared Entrez all return
+ *                   their own paper
+ *
+ * Exit status 1 if any check failed.
+ ********************************************************************************/
+class EntrezChecks
+{
+  private interface Check {void run() throws Exception;}
+
+  private static final String[] NAMES  = {"slow-consumer", "stalled-read", "bad-encoding", "throttle", "resume",
+                                          "async-stress"};
+  private static final Check[]  CHECKS = {EntrezChecks::slowConsumer, EntrezChecks::stalledRead, EntrezChecks::badEncoding,
+                                          EntrezChecks::throttle, EntrezChecks::resume, EntrezChecks::asyncStress};
+
+
+  public static void main(String[] args) throws Exception
+  {
+    boolean ok = true;
+
+    for (int i = 0; i < NAMES.length; i++)
+    {
+      if (args.length > 0 && !Arrays.asList(args).contains(NAMES[i])) continue;
+
+      long t0 = System.nanoTime();
+      try
+      {
+        CHECKS[i].run();
+        System.out.printf("%-20s ok     %8.1f ms%n", NAMES[i], (System.nanoTime() - t0) / 1e6);
+      }
+      catch (Exception | AssertionError e)
+      {
+        ok = false;
+        System.out.printf("%-20s FAIL   %s%n", NAMES[i], e);
+      }
+    }
+
+    if (!ok) System.exit(1);
+  }
+
+
+
+  private static void check(boolean condition, String message)
+  {
+    if (!condition) throw new AssertionError(message);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- transport answering every URL with body.of(url) after 0..maxDelay ms;
+  //     counts the calls
+  // -----------------------------------------------------------------------------
+  static class MockTransport implements EntrezTransport
+  {
+    interface Body {String of(String url) throws IOException;}
+
+    final AtomicInteger calls = new AtomicInteger();
+
+    private final Body body;
+    private final int  maxDelay;
+
+    MockTransport(Body body, int maxDelay)
+    {
+      this.body     = body;
+      this.maxDelay = maxDelay;
+    }
+
+    public EntrezResponse get(String url) throws IOException
+    {
+      calls.incrementAndGet();
+      if (maxDelay > 0)
+      {
+        try {Thread.sleep(ThreadLocalRandom.current().nextInt(maxDelay + 1));}
+        catch (InterruptedException e) {Thread.currentThread().interrupt(); throw new InterruptedIOException();}
+      }
+
+      byte[] b = body.of(url).getBytes(StandardCharsets.UTF_8);
+      return new EntrezResponse(url, 200, b, b.length, b.length, 0, 0);
+    }
+
+    public EntrezResponse post(String url, String form) throws IOException
+    {
+      return get(url + (url.indexOf('?') < 0 ? "?" : "&") + form);
+    }
+
+    public InputStream open(String url) throws IOException
+    {
+      return new ByteArrayInputStream(get(url).bytes());
+    }
+
+    public EntrezStream request(String url, Map<String, String> headers) throws IOException
+    {
+      return new EntrezStream(200, Collections.<String, List<String>>emptyMap(), open(url));
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- value of parameter `name` in url, or null
+  static String param(String url, String name)
+  {
+    for (String p : url.substring(url.indexOf('?') + 1).split("&"))
+      if (p.startsWith(name + "=")) return p.substring(name.length() + 1);
+    return null;
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   T I M E O U T S   * * * * * * * * * * * * * * *
+
+  // --- body of `chunks` x 1 KB, all available at once; after `stallAfter`
+  //     chunks read() blocks until the stream is closed, then reports EOF
+  //     (as the HttpClient body stream does when closed under a reader)
+  private static final class MockBody extends InputStream
+  {
+    private final int            chunks, stallAfter;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private int                  sent;
+
+    MockBody(int chunks, int stallAfter)
+    {
+      this.chunks     = chunks;
+      this.stallAfter = stallAfter;
+    }
+
+    @Override public int read() throws IOException
+    {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (sent == stallAfter)
+      {
+        try {closed.await();}
+        catch (InterruptedException e) {Thread.currentThread().interrupt();}
+        return -1;
+      }
+      if (sent == chunks) return -1;
+
+      sent++;
+      int n = Math.min(len, 1024);
+      Arrays.fill(b, off, off + n, (byte) 'x');
+      return n;
+    }
+
+    @Override public void close() {closed.countDown();}
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- consumer pauses 3x the read timeout between reads: no timeout
+  // -----------------------------------------------------------------------------
+  private static void slowConsumer() throws Exception
+  {
+    HttpTransport transport = new HttpTransport();
+    transport.setMetrics(new EntrezMetrics());
+
+    HttpTransport.Timeouts t = new HttpTransport.Timeouts(0, 100, 0);
+    long bytes = 0;
+
+    try (InputStream in = transport.watch("http://mock/efetch.fcgi", new MockBody(8, -1), t, System.nanoTime()))
+    {
+      byte[] buf = new byte[1024];
+      for (int n; (n = in.read(buf)) >= 0; )
+      {
+        bytes += n;
+        Thread.sleep(300);   // --- e.g. a consumer callback writing to disk
+      }
+    }
+
+    check(bytes == 8 * 1024, "read " + bytes + " bytes of " + 8 * 1024);
+    check(transport.timeouts() == 0, transport.timeouts() + " timeouts on a healthy stream");
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- body stalls after two chunks: read fails after about the read timeout
+  // -----------------------------------------------------------------------------
+  private static void stalledRead() throws Exception
+  {
+    HttpTransport transport = new HttpTransport();
+    transport.setMetrics(new EntrezMetrics());
+
+    HttpTransport.Timeouts t  = new HttpTransport.Timeouts(0, 200, 0);
+    long                   t0 = System.nanoTime();
+
+    try (InputStream in = transport.watch("http://mock/efetch.fcgi", new MockBody(8, 2), t, t0))
+    {
+      byte[] buf = new byte[1024];
+      while (in.read(buf) >= 0) Thread.sleep(300);
+      throw new AssertionError("stalled body read to the end");
+    }
+    catch (HttpTimeoutException e)
+    {
+      long ms = (System.nanoTime() - t0) / 1000000;
+      check(ms >= 200 + 2 * 300 && ms < 2000, "timed out after " + ms + " ms");
+      check(transport.timeouts() == 1, transport.timeouts() + " timeouts counted instead of 1");
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- "Content-Encoding: gzip" on a body that is not gzip: both calls fail,
+  //     and no call is left in flight
+  // -----------------------------------------------------------------------------
+  private static void badEncoding() throws Exception
+  {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange ->
+    {
+      byte[] body = "not gzip at all".getBytes(StandardCharsets.US_ASCII);
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    server.start();
+
+    try
+    {
+      EntrezMetrics metrics   = new EntrezMetrics();
+      HttpTransport transport = new HttpTransport();
+      transport.setMetrics(metrics);
+
+      String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/entrez/eutils/efetch.fcgi";
+
+      for (int i = 0; i < 2; i++)
+      {
+        try
+        {
+          if (i == 0) transport.get(url);
+          else        transport.request(url, Collections.<String, String>emptyMap()).close();
+          throw new AssertionError((i == 0 ? "get" : "request") + " decoded a broken gzip body");
+        }
+        catch (IOException e) {}
+      }
+
+      String inFlight = metrics.prometheus().lines().filter(l -> l.startsWith("entrez_in_flight{") && l.contains("\"efetch\""))
+                                            .findFirst().orElse("none");
+      check(inFlight.endsWith(" 0"), "efetch still in flight: " + inFlight);
+    }
+    finally {server.stop(0);}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+
+  // * * * * * * * * * * * * * * *   T H R O T T L I N G   * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- "A" is answered 429 three times, then served; "B" starts once A's
+  //     first retry is scheduled and must not be sent before it (the 429
+  //     pushes the whole bucket back). "404" fails at once; "hammered" is
+  //     always 429 and fails after maxRetries.
+  // -----------------------------------------------------------------------------
+  private static void throttle() throws Exception
+  {
+    final AtomicInteger           throttles = new AtomicInteger(3);
+    final Map<String, List<Long>> sent      = new ConcurrentHashMap<String, List<Long>>();
+
+    MockTransport inner = new MockTransport(url ->
+    {
+      String id = param(url, "id");
+      sent.computeIfAbsent(id, k -> Collections.synchronizedList(new ArrayList<Long>())).add(System.nanoTime());
+
+      if (id.equals("404"))                                   throw new EntrezHttpException(404, url);
+      if (id.equals("hammered"))                              throw new EntrezHttpException(429, url);
+      if (id.equals("A") && throttles.getAndDecrement() > 0) throw new EntrezHttpException(429, url);
+      return "ok " + id;
+    }, 0);
+
+    EntrezMetrics              metrics  = new EntrezMetrics();
+    final RateLimitedTransport governor = new RateLimitedTransport(inner, null).rate(1000).retries(3, 400, 2000).metrics(metrics);
+    final String               base     = "http://eutils.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=pmc&id=";
+
+    CompletableFuture<String> b = CompletableFuture.supplyAsync(() ->
+    {
+      try
+      {
+        while (governor.retries() == 0) Thread.sleep(1);
+        return governor.get(base + "B").text();
+      }
+      catch (Exception e) {throw new CompletionException(e);}
+    });
+
+    check(governor.get(base + "A").text().equals("ok A"), "A not served after its 429s");
+    check(b.join().equals("ok B"), "B not served");
+
+    List<Long> a = sent.get("A");
+    check(a.size() == 4, "A sent " + a.size() + " times instead of 4");
+    check(sent.get("B").get(0) >= a.get(1) - 20000000L,
+          "B sent " + (a.get(1) - sent.get("B").get(0)) / 1000000 + " ms before A's first retry");
+
+    try {governor.get(base + "404"); throw new AssertionError("404 answered");}
+    catch (EntrezHttpException e) {check(e.status == 404 && sent.get("404").size() == 1, "404 retried");}
+
+    governor.retries(2, 1, 5);
+    try {governor.get(base + "hammered"); throw new AssertionError("always-429 answered");}
+    catch (EntrezHttpException e)
+    {
+      check(e.status == 429, "always-429 failed with " + e.status);
+      check(sent.get("hammered").size() == 3, "always-429 sent " + sent.get("hammered").size() + " times instead of 3");
+    }
+
+    // --- 3 for A, 2 for hammered (the last 429 is thrown, not retried)
+    check(governor.throttled() == 5 && governor.retries() == 5,
+          governor.throttled() + " throttled, " + governor.retries() + " retries instead of 5 / 5");
+    for (String family : new String[] {"entrez_throttled_total{", "entrez_retries_total{"})
+    {
+      String line = metrics.prometheus().lines().filter(l -> l.startsWith(family) && l.contains("\"efetch\""))
+                                        .findFirst().orElse("none");
+      check(line.endsWith(" 5"), "metrics: " + line);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+
+  // * * * * * * * * * * * * * * * *   R E S U M E   * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- a 100 KB document with ETag "v1"; Range & If-Range as in RFC 9110.
+  //     Complete .part: finished on 416 without a body. Stale .part (validator
+  //     "v0"): replaced by the whole document. Current .part: resumed.
+  // -----------------------------------------------------------------------------
+  private static void resume() throws Exception
+  {
+    final byte[]        doc     = new byte[100 * 1024];
+    final AtomicInteger sent    = new AtomicInteger();
+    final AtomicBoolean failing = new AtomicBoolean();
+    for (int i = 0; i < doc.length; i++) doc[i] = (byte) (i % 251);
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/", exchange ->
+    {
+      String range   = exchange.getRequestHeaders().getFirst("Range");
+      String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+      exchange.getResponseHeaders().set("ETag", "\"v1\"");
+
+      boolean ranged = range != null && (ifRange == null || ifRange.equals("\"v1\""));
+      long    from   = ranged ? Long.parseLong(range.substring(6, range.indexOf('-'))) : -1;
+      String  end    = ranged ? range.substring(range.indexOf('-') + 1) : "";
+      int     to     = end.isEmpty() ? doc.length - 1 : Integer.parseInt(end);
+
+      if (from >= doc.length)
+      {
+        exchange.getResponseHeaders().set("Content-Range", "bytes */" + doc.length);
+        exchange.sendResponseHeaders(416, -1);
+      }
+      else if (failing.get() && from == 2 * 16 * 1024 && !end.isEmpty())
+      {
+        exchange.sendResponseHeaders(500, -1);
+      }
+      else
+      {
+        int off = (int) Math.max(0, from), half = (to + 1 - off) / 2;
+        if (from >= 0) exchange.getResponseHeaders().set("Content-Range", "bytes " + off + "-" + to + "/" + doc.length);
+        exchange.sendResponseHeaders(from >= 0 ? 206 : 200, to + 1 - off);
+        try
+        {
+          exchange.getResponseBody().write(doc, off, half);
+          exchange.getResponseBody().flush();
+          // --- chunk 1 stalls mid-body while chunk 2 fails
+          if (failing.get() && from == 16 * 1024 && !end.isEmpty()) Thread.sleep(500);
+          exchange.getResponseBody().write(doc, off + half, to + 1 - off - half);
+          sent.addAndGet(to + 1 - off);
+        }
+        catch (IOException | InterruptedException e) {}
+      }
+      exchange.close();
+    });
+    server.start();
+
+    Path dir = Files.createTempDirectory("entrez-resume");
+    try
+    {
+      HttpTransport transport = new HttpTransport();
+      transport.setMetrics(new EntrezMetrics());
+
+      String url       = "http://127.0.0.1:" + server.getAddress().getPort() + "/pmc/file.tar.gz";
+      Path   target    = dir.resolve("file.tar.gz");
+      Path   part      = dir.resolve("file.tar.gz.part");
+      Path   validator = dir.resolve("file.tar.gz.part.validator");
+
+      byte[] stale = doc.clone();
+      stale[0]++;
+
+      String[] labels     = {"complete", "stale", "current"};
+      byte[][] parts      = {doc, Arrays.copyOf(stale, 40 * 1024), Arrays.copyOf(doc, 40 * 1024)};
+      String[] validators = {"\"v1\"", "\"v0\"", "\"v1\""};
+      int[]    expected   = {0, doc.length, doc.length - 40 * 1024};
+
+      for (int i = 0; i < labels.length; i++)
+      {
+        Files.deleteIfExists(target);
+        Files.write(part, parts[i]);
+        Files.writeString(validator, validators[i]);
+        sent.set(0);
+
+        new FileDownload(transport).download(url, target);
+
+        check(Arrays.equals(Files.readAllBytes(target), doc), labels[i] + " .part: wrong file");
+        check(sent.get() == expected[i], labels[i] + " .part: " + sent.get() + " bytes sent instead of " + expected[i]);
+        check(!Files.exists(part) && !Files.exists(validator), labels[i] + " .part: .part / validator file left behind");
+      }
+
+      // --- 16 KB chunks, 4 at a time: chunk 2 fails while chunk 1 is mid-body
+      Files.deleteIfExists(target);
+      failing.set(true);
+      FileDownload chunked = new FileDownload(transport).chunkSize(16 * 1024).parallelism(4);
+      try {chunked.download(url, target); throw new AssertionError("failed chunk ignored");}
+      catch (IOException e) {}
+
+      Thread.sleep(600);   // --- the stalled chunk's body has been sent by now
+      byte[] left = Files.exists(part) ? Files.readAllBytes(part) : new byte[0];
+      check(Arrays.equals(left, Arrays.copyOf(doc, left.length)),
+            "failed parallel download left " + left.length + " bytes that are not a prefix");
+
+      failing.set(false);
+      chunked.download(url, target);
+      check(Arrays.equals(Files.readAllBytes(target), doc), "resumed parallel download: wrong file");
+    }
+    finally
+    {
+      server.stop(0);
+      ((ExecutorService) server.getExecutor()).shutdownNow();
+      try (java.util.stream.Stream<Path> files = Files.list(dir)) {for (Path f : (Iterable<Path>) files::iterator) Files.delete(f);}
+      Files.delete(dir);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+
+  // * * * * * * * * * * * * * *   C O N C U R R E N C Y   * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- 2000 getPaperAsync calls at once over 500 papers, each asked for by 4
+  //     calls in a row: every future holds the paper it asked for
+  // -----------------------------------------------------------------------------
+  private static void asyncStress() throws Exception
+  {
+    MockTransport transport = new MockTransport(url ->
+      "<article><article-title>Paper " + param(url, "id") + "</article-title><body><p>text of " + param(url, "id") + "</p></body></article>", 50);
+
+    Entrez entrez = new Entrez(transport);
+    entrez.setMetrics(new EntrezMetrics());
+
+    int                             calls   = 2000, papers = 500;
+    List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>(calls);
+
+    for (int i = 0; i < calls; i++) futures.add(entrez.getPaperAsync("PMC" + (i / (calls / papers))));
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+    for (int i = 0; i < calls; i++)
+    {
+      String doc = futures.get(i).join();
+      check(doc != null && doc.contains("<article-title>Paper PMC" + (i / (calls / papers)) + "</article-title>"),
+            "getPaperAsync(PMC" + (i / (calls / papers)) + ") returned " + doc);
+    }
+
+    check(transport.calls.get() <= calls, transport.calls.get() + " requests for " + calls + " calls");
+    System.out.printf("%-20s        %d calls, %d requests, %d coalesced%n", "", calls, transport.calls.get(),
+                      entrez.getSingleFlight().coalesced());
+  }
+  // -----------------------------------------------------------------------------
+
+}
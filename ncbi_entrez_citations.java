@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/*********************************************************************************
+ * C I T A T I O N   B A T C H
+ * ---------------------------
+ *
+ * Bulk counterpart of Entrez.getCitation(db, id). For every batch of IDs:
+ *
+ *   1. (db=pmc only) elink pmc -> pubmed, one request for the whole batch
+ *   2. epost the PMIDs to the history server        -> WebEnv, QueryKey
+ *   3. efetch db=pubmed&retmode=xml by WebEnv/QueryKey, parsed with StAX as the
+ *      response streams in
+ *
+ * Batches run concurrently on a small pool. Results come back in input order,
+ * one Item per ID, carrying either the Citation or the reason it failed.
+ * With a CitationStore set, fetched citations are also added to it.
+ ********************************************************************************/
+class CitationBatch
+{
+  // --- result for one requested ID
+  static final class Item
+  {
+    final String   id;
+    final Citation citation;   // --- null on failure
+    final String   error;      // --- null on success
+
+    Item(String id, Citation citation, String error)
+    {
+      this.id       = id;
+      this.citation = citation;
+      this.error    = error;
+    }
+  }
+
+  private static final XMLInputFactory XML = XMLInputFactory.newInstance();
+
+  static
+  {
+    XML.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private final EntrezTransport transport;
+  private int                   batchSize   = 500;
+  private int                   parallelism = 3;
+  private IdMapper              ids;         // --- PMC -> PMID; null: elink per batch
+  private CitationStore         store;
+
+
+  public CitationBatch(EntrezTransport transport)
+  {
+    this.transport = transport;
+  }
+
+  public CitationBatch batchSize(int n)   {this.batchSize = Math.max(1, n); return this;}
+
+  public CitationBatch parallelism(int n) {this.parallelism = Math.max(1, n); return this;}
+
+  public CitationBatch ids(IdMapper ids)  {this.ids = ids; return this;}
+
+  public CitationBatch store(CitationStore store) {this.store = store; return this;}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- citations for the IDs (db "pubmed" or "pmc"), in input order
+  // -----------------------------------------------------------------------------
+  public List<Item> fetch(final String db, Collection<String> ids)
+  {
+    final List<String> all   = new ArrayList<String>(ids);
+    final Item[]       items = new Item[all.size()];
+
+    ExecutorService pool  = Executors.newFixedThreadPool(parallelism);
+    List<Future<?>> tasks = new ArrayList<Future<?>>();
+
+    try
+    {
+      for (int b = 0; b < all.size(); b += batchSize)
+      {
+        final int from = b;
+        final int to   = Math.min(all.size(), b + batchSize);
+
+        tasks.add(pool.submit(() -> {batch(db, all, from, to, items); return null;}));
+      }
+
+      for (int t = 0; t < tasks.size(); t++)
+      {
+        try {tasks.get(t).get();}
+        catch (InterruptedException e) {Thread.currentThread().interrupt(); break;}
+        catch (ExecutionException e)
+        {
+          // --- whole batch failed: every ID in it not yet resolved gets the error
+          int from = t * batchSize, to = Math.min(all.size(), from + batchSize);
+          for (int i = from; i < to; i++)
+            if (items[i] == null) items[i] = new Item(all.get(i), null, e.getCause().toString());
+        }
+      }
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+
+    List<Item> result = new ArrayList<Item>(items.length);
+    for (int i = 0; i < items.length; i++)
+      result.add(items[i] != null ? items[i] : new Item(all.get(i), null, "not fetched"));
+    return result;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- resolve ids[from, to) into items[from, to)
+  private void batch(String db, List<String> ids, int from, int to, Item[] items) throws IOException, XMLStreamException
+  {
+    // --- PMID -> positions in the input that want it
+    Map<String, List<Integer>> wanted = new HashMap<String, List<Integer>>();
+
+    Map<String, String> pmids = null;
+    if (db.equalsIgnoreCase("pmc")) pmids = this.ids != null ? this.ids.pmids(ids.subList(from, to))
+                                                              : pmcToPubmed(ids.subList(from, to));
+
+    for (int i = from; i < to; i++)
+    {
+      String pmid = pmids == null ? ids.get(i).trim() : pmids.get(pmcNumber(ids.get(i)));
+      if (pmid == null || pmid.length() == 0) {items[i] = new Item(ids.get(i), null, "no PubMed ID for " + ids.get(i)); continue;}
+
+      List<Integer> at = wanted.get(pmid);
+      if (at == null) wanted.put(pmid, at = new ArrayList<Integer>());
+      at.add(i);
+    }
+
+    if (wanted.isEmpty()) return;
+
+    // --- post the batch to the history server
+    String posted = transport.post(Entrez.EUTILS + "epost.fcgi", "db=pubmed&id=" + join(wanted.keySet())).text();
+    String webEnv = Entrez.between(posted, "<WebEnv>", "</WebEnv>");
+    String key    = Entrez.between(posted, "<QueryKey>", "</QueryKey>");
+    if (webEnv == null || key == null) throw new IOException("epost failed: " + Entrez.between(posted, "<ERROR>", "</ERROR>"));
+
+    // --- fetch & parse as the response streams in
+    String url = Entrez.EUTILS + "efetch.fcgi?db=pubmed&retmode=xml&retmax=" + wanted.size()
+               + "&query_key=" + key + "&WebEnv=" + URLEncoder.encode(webEnv, "UTF-8");
+
+    try (InputStream in = transport.open(url))
+    {
+      XMLStreamReader xml = XML.createXMLStreamReader(in);
+
+      while (xml.hasNext())
+      {
+        if (xml.next() != XMLStreamConstants.START_ELEMENT || !xml.getLocalName().equals("PubmedArticle")) continue;
+
+        String[] fields = article(xml);
+        List<Integer> at = wanted.remove(fields[0]);
+        if (at == null) continue;
+
+        for (int i : at)
+        {
+          items[i] = new Item(ids.get(i), new Citation(ids.get(i), fields[1], fields[2], fields[3], fields[4]), null);
+          if (store != null) store.add(ids.get(i), fields[1], fields[2], fields[3], fields[4]);
+        }
+      }
+      xml.close();
+    }
+
+    for (Map.Entry<String, List<Integer>> missing : wanted.entrySet())
+      for (int i : missing.getValue())
+        items[i] = new Item(ids.get(i), null, "PMID " + missing.getKey() + " not returned by efetch");
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- one <PubmedArticle>: {pmid, authors, title, source, abstract}; the
+  //     authors / source / abstract follow getCitation & getAbstract
+  // -----------------------------------------------------------------------------
+  static String[] article(XMLStreamReader xml) throws XMLStreamException
+  {
+    String        pmid = "", title = "", journal = "", volume = "", issue = "", pages = "";
+    StringBuilder date     = new StringBuilder();
+    StringBuilder authors  = new StringBuilder();
+    StringBuilder abstr    = new StringBuilder();
+    String        last = "", initials = "";
+    int           depth = 1;
+
+    while (depth > 0 && xml.hasNext())
+    {
+      int event = xml.next();
+
+      if (event == XMLStreamConstants.END_ELEMENT)
+      {
+        depth--;
+        if (xml.getLocalName().equals("Author") && last.length() > 0)
+        {
+          if (authors.length() > 0) authors.append(", ");
+          authors.append(last);
+          if (initials.length() > 0) authors.append(' ').append(initials);
+          last = ""; initials = "";
+        }
+        continue;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) continue;
+
+      String name = xml.getLocalName();
+
+      // --- text() consumes the end tag, so depth is unchanged for these
+      if      (name.equals("PMID") && pmid.length() == 0) pmid    = text(xml);
+      else if (name.equals("ArticleTitle"))               title   = text(xml);
+      else if (name.equals("ISOAbbreviation"))            journal = text(xml);
+      else if (name.equals("Title") && journal.length() == 0) journal = text(xml);
+      else if (name.equals("Volume"))                     volume  = text(xml);
+      else if (name.equals("Issue"))                      issue   = text(xml);
+      else if (name.equals("MedlinePgn"))                 pages   = text(xml);
+      else if (name.equals("LastName") || name.equals("CollectiveName")) last = text(xml);
+      else if (name.equals("Initials"))                   initials = text(xml);
+      else if (name.equals("AbstractText"))
+      {
+        String label = xml.getAttributeValue(null, "Label");
+        if (abstr.length() > 0) abstr.append(' ');
+        if (label != null) abstr.append(label).append(": ");
+        abstr.append(text(xml));
+      }
+      else if (name.equals("PubDate"))
+      {
+        // --- Year Month Day or MedlineDate
+        int d = 1;
+        while (d > 0)
+        {
+          int e = xml.next();
+          if (e == XMLStreamConstants.START_ELEMENT)
+          {
+            if (date.length() > 0) date.append(' ');
+            date.append(text(xml));
+          }
+          else if (e == XMLStreamConstants.END_ELEMENT) d--;
+        }
+      }
+      else depth++;
+    }
+
+    // --- e.g. "J Biol Chem. 2008 Jan 4;283(1):123-30."
+    StringBuilder source = new StringBuilder(journal).append('.');
+    if (date.length() > 0)   source.append(' ').append(date);
+    if (volume.length() > 0) source.append(';').append(volume);
+    if (issue.length() > 0)  source.append('(').append(issue).append(')');
+    if (pages.length() > 0)  source.append(':').append(pages);
+    if (date.length() > 0 || volume.length() > 0) source.append('.');
+
+    if (authors.length() > 0) authors.append('.');
+
+    return new String[] {pmid, authors.toString(), title, source.toString(), title + "\n\n" + abstr};
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- all character data up to the matching end tag (mixed content allowed)
+  static String text(XMLStreamReader xml) throws XMLStreamException
+  {
+    StringBuilder text  = new StringBuilder();
+    int           depth = 1;
+
+    while (depth > 0)
+    {
+      int event = xml.next();
+      if      (event == XMLStreamConstants.START_ELEMENT) depth++;
+      else if (event == XMLStreamConstants.END_ELEMENT)   depth--;
+      else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)
+        text.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+    }
+
+    return text.toString().trim();
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- map PMC IDs to PMIDs with one elink request (one LinkSet per id=)
+  // -----------------------------------------------------------------------------
+  private Map<String, String> pmcToPubmed(List<String> ids) throws IOException, XMLStreamException
+  {
+    StringBuilder form = new StringBuilder("dbfrom=pmc&db=pubmed&linkname=pmc_pubmed");
+    for (String id : ids) form.append("&id=").append(pmcNumber(id));
+
+    Map<String, String> map = new HashMap<String, String>();
+    String              res = transport.post(Entrez.EUTILS + "elink.fcgi", form.toString()).text();
+    XMLStreamReader     xml = XML.createXMLStreamReader(new StringReader(res));
+    String  from = null;
+    boolean link = false;
+
+    while (xml.hasNext())
+    {
+      int event = xml.next();
+
+      if (event == XMLStreamConstants.START_ELEMENT)
+      {
+        String name = xml.getLocalName();
+        if      (name.equals("LinkSet"))    {from = null; link = false;}
+        else if (name.equals("LinkSetDb"))  link = true;
+        else if (name.equals("Id"))
+        {
+          String id = text(xml);
+          if      (!link)                     from = id;
+          else if (from != null && !map.containsKey(from)) map.put(from, id);
+        }
+      }
+    }
+    xml.close();
+
+    return map;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- "PMC123456" -> "123456"
+  static String pmcNumber(String id)
+  {
+    id = id.trim();
+    return id.regionMatches(true, 0, "PMC", 0, 3) ? id.substring(3) : id;
+  }
+
+  static String join(Collection<String> ids)
+  {
+    StringBuilder joined = new StringBuilder();
+    for (String id : ids)
+    {
+      if (joined.length() > 0) joined.append(',');
+      joined.append(id);
+    }
+    return joined.toString();
+  }
+
+}
@@ -0,0 +1,554 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*********************************************************************************
+ * C I T A T I O N   S T O R E
+ * ---------------------------
+ *
+ * Millions of citations as columns instead of Citation objects:
+ *
+ *   id, title, abstract   UTF-8 text: start (long) & length per row into a
+ *                         byte heap of 1 GB chunks
+ *   authors               "Smith J, Doe A." split at ", " into a dictionary of
+ *                         names; per row a run of name ids
+ *   source                "J Biol Chem. 2008 Jan 4;283(1):123-30." split into
+ *                         the journal (dictionary) and the rest (text)
+ *   flags                 trailing '.' of the author list; abstract starting
+ *                         with "<title>\n\n" (as getCitation builds it) is
+ *                         stored without the title
+ *   id table              open addressing on the id bytes -> row
+ *
+ * All columns live outside the Java heap (direct buffers); save() writes them
+ * as they are and load() maps the file, so loading costs no parsing and no
+ * copying: pages come in as rows are read. A loaded store can still grow;
+ * a column is copied into a direct buffer the first time it is written.
+ *
+ * Every value comes back exactly as it was added. Rows are in insertion order;
+ * an id already present is not added again (first one wins). add() may be
+ * called from several threads; reads must not overlap with adds.
+ ********************************************************************************/
+class CitationStore implements Closeable
+{
+  private static final long MAGIC = 0x4349544553543031L;   // --- "CITEST01"
+  private static final int  CHUNK = 1 << 30;
+
+  private static final int  AUTHORS_DOT    = 1;   // --- author list ended with '.'
+  private static final int  ABSTRACT_TITLE = 2;   // --- abstract = title + "\n\n" + stored text
+
+  // --- rows
+  private final Text   ids       = new Text();
+  private final Text   titles    = new Text();
+  private final Text   abstracts = new Text();
+  private final Text   rests     = new Text();      // --- source after the journal
+  private final Column journal   = new Column(4);   // --- journal dictionary id
+  private final Column authorAt  = new Column(4);   // --- first entry in authorIds; size + 1 entries
+  private final Column authorIds = new Column(4);
+  private final Column flags     = new Column(1);
+
+  // --- dictionaries
+  private final Dictionary journals = new Dictionary();
+  private final Dictionary authors  = new Dictionary();
+
+  // --- id -> row + 1 (0: empty), power-of-two capacity
+  private Column table = new Column(4);
+
+  private int rows;
+
+
+  public CitationStore()
+  {
+    authorAt.addInt(0);
+    table.fill(1024);
+  }
+
+  public int size() {return rows;}
+
+
+
+  // * * * * * * * * * * * * * * *   W R I T E   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- add a citation (fields as for new Citation(..)); its row, or the row
+  //     the id already has
+  // -----------------------------------------------------------------------------
+  public synchronized int add(String id, String authorList, String title, String source, String abstractText)
+  {
+    byte[] key = utf8(id);
+    int    row = find(key);
+    if (row >= 0) return row;
+
+    authorList   = authorList   == null ? "" : authorList;
+    title        = title        == null ? "" : title;
+    source       = source       == null ? "" : source;
+    abstractText = abstractText == null ? "" : abstractText;
+
+    int flag = 0;
+
+    // --- authors: names between ", ", a trailing '.' as a flag
+    if (authorList.endsWith(".")) {flag |= AUTHORS_DOT; authorList = authorList.substring(0, authorList.length() - 1);}
+    if (!authorList.isEmpty() || (flag & AUTHORS_DOT) != 0)
+      for (String name : authorList.split(", ", -1)) authorIds.addInt(authors.id(name));
+    authorAt.addInt(authorIds.size);
+
+    // --- source: journal up to the first ". <digit>", the rest as text
+    int split = journalEnd(source);
+    journal.addInt(journals.id(source.substring(0, split)));
+    rests.add(utf8(source.substring(split)));
+
+    // --- abstract without the title getCitation puts in front
+    if (!title.isEmpty() && abstractText.startsWith(title + "\n\n"))
+    {
+      flag |= ABSTRACT_TITLE;
+      abstractText = abstractText.substring(title.length() + 2);
+    }
+
+    ids.add(key);
+    titles.add(utf8(title));
+    abstracts.add(utf8(abstractText));
+    flags.addByte(flag);
+
+    insert(key, rows);
+    return rows++;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- "J Biol Chem. 2008 ..." -> length of "J Biol Chem."; whole source if no date follows
+  static int journalEnd(String source)
+  {
+    for (int i = source.indexOf(". "); i >= 0; i = source.indexOf(". ", i + 1))
+      if (i + 2 < source.length() && Character.isDigit(source.charAt(i + 2))) return i + 1;
+    return source.length();
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   R E A D   * * * * * * * * * * * * * * * * * * *
+
+  // --- row of an id, -1 if absent
+  public int row(String id) {return find(utf8(id));}
+
+  public boolean contains(String id) {return row(id) >= 0;}
+
+  public String id(int row)      {return ids.get(row);}
+  public String title(int row)   {return titles.get(row);}
+  public String journal(int row) {return journals.get(journal.getInt(row));}
+  public String source(int row)  {return journal(row) + rests.get(row);}
+
+  public String abstractText(int row)
+  {
+    String text = abstracts.get(row);
+    return (flags.getByte(row) & ABSTRACT_TITLE) != 0 ? title(row) + "\n\n" + text : text;
+  }
+
+  public String authors(int row)
+  {
+    StringBuilder list = new StringBuilder();
+    for (int a = authorAt.getInt(row); a < authorAt.getInt(row + 1); a++)
+    {
+      if (a > authorAt.getInt(row)) list.append(", ");
+      list.append(authors.get(authorIds.getInt(a)));
+    }
+    if ((flags.getByte(row) & AUTHORS_DOT) != 0) list.append('.');
+    return list.toString();
+  }
+
+  // --- dictionary ids, for grouping & joins without building strings
+  public int    journalId(int row)         {return journal.getInt(row);}
+  public int    authorCount(int row)       {return authorAt.getInt(row + 1) - authorAt.getInt(row);}
+  public int    authorId(int row, int k)   {return authorIds.getInt(authorAt.getInt(row) + k);}
+  public String journalName(int journalId) {return journals.get(journalId);}
+  public String authorName(int authorId)   {return authors.get(authorId);}
+  public int    journals()                 {return journals.size();}
+  public int    authorNames()              {return authors.size();}
+
+  public Citation citation(int row)
+  {
+    return new Citation(id(row), authors(row), title(row), source(row), abstractText(row));
+  }
+
+  // --- citation of an id, null if absent
+  public Citation get(String id)
+  {
+    int row = row(id);
+    return row < 0 ? null : citation(row);
+  }
+
+  // --- bytes held in columns & dictionaries (off-heap or mapped)
+  public long bytes()
+  {
+    long n = journal.bytes() + authorAt.bytes() + authorIds.bytes() + flags.bytes() + table.bytes();
+    for (Text t : texts()) n += t.bytes();
+    return n + journals.tableBytes() + authors.tableBytes();
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   I D   T A B L E   * * * * * * * * * * * * * * *
+
+  private int find(byte[] key)
+  {
+    int mask = table.size - 1;
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask)
+    {
+      int v = table.getInt(slot);
+      if (v == 0) return -1;
+      if (ids.equals(v - 1, key)) return v - 1;
+    }
+  }
+
+  private void insert(byte[] key, int row)
+  {
+    if (4L * (rows + 1) > 3L * table.size) rehash(2 * table.size);
+
+    int mask = table.size - 1, slot = hash(key) & mask;
+    while (table.getInt(slot) != 0) slot = (slot + 1) & mask;
+    table.setInt(slot, row + 1);
+  }
+
+  private void rehash(int capacity)
+  {
+    Column next = new Column(4);
+    next.fill(capacity);
+
+    for (int r = 0; r < rows; r++)
+    {
+      int slot = hash(ids.bytes(r)) & (capacity - 1);
+      while (next.getInt(slot) != 0) slot = (slot + 1) & (capacity - 1);
+      next.setInt(slot, r + 1);
+    }
+    table = next;
+  }
+
+  // --- FNV-1a, stable across runs (the table is saved)
+  private static int hash(byte[] key)
+  {
+    int h = 0x811C9DC5;
+    for (byte b : key) h = (h ^ (b & 0xFF)) * 0x01000193;
+    return h ^ (h >>> 16);
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   S T O R E   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- write all columns to a file (replaced atomically)
+  // -----------------------------------------------------------------------------
+  public synchronized void save(Path file) throws IOException
+  {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      ByteBuffer header = ByteBuffer.allocate(12).putLong(MAGIC).putInt(rows);
+      header.flip();
+      while (header.hasRemaining()) out.write(header);
+
+      for (Text t : texts())     t.write(out);
+      for (Column c : columns()) c.write(out);
+      out.force(true);
+    }
+    try {Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);}
+    catch (AtomicMoveNotSupportedException e) {Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- map a saved store; the file must not change while the store is used
+  // -----------------------------------------------------------------------------
+  static CitationStore load(Path file) throws IOException
+  {
+    CitationStore store = new CitationStore();
+
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      ByteBuffer header = ByteBuffer.allocate(12);
+      while (header.hasRemaining()) if (in.read(header, header.position()) < 0) throw new IOException(file + ": truncated");
+      header.flip();
+      if (header.getLong() != MAGIC) throw new IOException(file + ": not a citation store");
+
+      store.rows = header.getInt();
+
+      long at = 12;
+      for (Text t : store.texts())     at = t.map(in, at);
+      for (Column c : store.columns()) at = c.map(in, at);
+    }
+
+    return store;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- text & fixed-width columns, in file order
+  private Text[] texts() {return new Text[] {ids, titles, abstracts, rests, journals.names, authors.names};}
+
+  private List<Column> columns() {return Arrays.asList(journal, authorAt, authorIds, flags, table);}
+
+  // --- drops the buffers; mapped pages are released when they are collected.
+  //     Any later read or add fails with IllegalStateException
+  public synchronized void close()
+  {
+    for (Text t : texts())     t.release();
+    for (Column c : columns()) c.release();
+    journals.release();
+    authors.release();
+  }
+
+
+
+  private static byte[] utf8(String s) {return s.getBytes(StandardCharsets.UTF_8);}
+
+
+
+  // * * * * * * * * * * * * * * *   C O L U M N S   * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- fixed-width values (1, 4 or 8 bytes) in a direct or mapped buffer
+  // -----------------------------------------------------------------------------
+  private static final class Column
+  {
+    final int  width;
+    ByteBuffer data = ByteBuffer.allocateDirect(0);
+    int        size;
+
+    Column(int width) {this.width = width;}
+
+    int  getByte(int i) {return data().get(i);}
+    int  getInt(int i)  {return data().getInt(i * 4);}
+    long getLong(int i) {return data().getLong(i * 8);}
+
+    void addByte(int v)  {ensure(size + 1); data().put(size++, (byte) v);}
+    void addInt(int v)   {ensure(size + 1); data().putInt(4 * size++, v);}
+    void addLong(long v) {ensure(size + 1); data().putLong(8 * size++, v);}
+
+    void setInt(int i, int v) {ensure(size); data().putInt(4 * i, v);}
+
+    // --- the buffer; fails once the store is closed
+    ByteBuffer data()
+    {
+      if (data == null) throw new IllegalStateException("citation store closed");
+      return data;
+    }
+
+    void release() {data = null;}
+
+    long bytes() {return (long) width * size;}
+
+    // --- size zeros
+    void fill(int n)
+    {
+      data = ByteBuffer.allocateDirect(width * n);
+      size = n;
+    }
+
+    // --- room for n values in a writable buffer
+    void ensure(int n)
+    {
+      if (n <= data().capacity() / width && !data().isReadOnly()) return;
+
+      long       capacity = Math.max(n, Math.max(16, 2L * data().capacity() / width));
+      ByteBuffer next     = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE - 8, capacity * width));
+      ByteBuffer old      = data().duplicate();
+      old.position(0).limit(size * width);
+      next.put(old);
+      data = next;
+    }
+
+    void write(FileChannel out) throws IOException
+    {
+      ByteBuffer length = ByteBuffer.allocate(4).putInt(size);
+      length.flip();
+      while (length.hasRemaining()) out.write(length);
+
+      ByteBuffer b = data().duplicate();
+      b.position(0).limit(size * width);
+      while (b.hasRemaining()) out.write(b);
+    }
+
+    // --- map the column stored at `at`; position after it
+    long map(FileChannel in, long at) throws IOException
+    {
+      ByteBuffer length = ByteBuffer.allocate(4);
+      while (length.hasRemaining()) if (in.read(length, at + length.position()) < 0) throw new IOException("truncated column");
+      size = length.getInt(0);
+
+      long bytes = (long) size * width;
+      data = bytes == 0 ? ByteBuffer.allocateDirect(0) : in.map(FileChannel.MapMode.READ_ONLY, at + 4, bytes);
+      return at + 4 + bytes;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- UTF-8 values: start (chunk << 30 | offset) & length per value, bytes in
+  //     1 GB chunks; a value never crosses a chunk
+  // -----------------------------------------------------------------------------
+  private static final class Text
+  {
+    final Column       start  = new Column(8);
+    final Column       length = new Column(4);
+    final List<Column> chunks = new ArrayList<Column>();
+
+    void add(byte[] value)
+    {
+      Column chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+      if (chunk == null || (long) chunk.size + value.length > CHUNK)
+        chunks.add(chunk = new Column(1));
+
+      chunk.ensure(chunk.size + value.length);
+      ByteBuffer b = chunk.data().duplicate();
+      b.position(chunk.size);
+      b.put(value);
+
+      start.addLong((long) (chunks.size() - 1) << 30 | chunk.size);
+      length.addInt(value.length);
+      chunk.size += value.length;
+    }
+
+    byte[] bytes(int i)
+    {
+      long       s = start.getLong(i);
+      byte[]     v = new byte[length.getInt(i)];
+      ByteBuffer b = chunks.get((int) (s >>> 30)).data().duplicate();
+      b.position((int) (s & (CHUNK - 1)));
+      b.get(v);
+      return v;
+    }
+
+    String get(int i) {return new String(bytes(i), StandardCharsets.UTF_8);}
+
+    boolean equals(int i, byte[] value)
+    {
+      if (length.getInt(i) != value.length) return false;
+
+      long       s  = start.getLong(i);
+      ByteBuffer b  = chunks.get((int) (s >>> 30)).data();
+      int        at = (int) (s & (CHUNK - 1));
+      for (int k = 0; k < value.length; k++) if (b.get(at + k) != value[k]) return false;
+      return true;
+    }
+
+    int size() {return length.size;}
+
+    void release()
+    {
+      start.release();
+      length.release();
+      for (Column c : chunks) c.release();
+    }
+
+    long bytes()
+    {
+      long n = start.bytes() + length.bytes();
+      for (Column c : chunks) n += c.bytes();
+      return n;
+    }
+
+    // --- number of chunks, starts, lengths, chunks
+    void write(FileChannel out) throws IOException
+    {
+      ByteBuffer n = ByteBuffer.allocate(4).putInt(chunks.size());
+      n.flip();
+      while (n.hasRemaining()) out.write(n);
+
+      start.write(out);
+      length.write(out);
+      for (Column c : chunks) c.write(out);
+    }
+
+    long map(FileChannel in, long at) throws IOException
+    {
+      ByteBuffer n = ByteBuffer.allocate(4);
+      while (n.hasRemaining()) if (in.read(n, at + n.position()) < 0) throw new IOException("truncated text column");
+
+      at = length.map(in, start.map(in, at + 4));
+      for (int c = n.getInt(0); c > 0; c--)
+      {
+        Column chunk = new Column(1);
+        at = chunk.map(in, at);
+        chunks.add(chunk);
+      }
+      return at;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- distinct strings, numbered in order of first use; found by open
+  //     addressing (as the id table) on the name bytes, so no name is held on
+  //     the heap. The table is not saved: a loaded store builds it on first use
+  // -----------------------------------------------------------------------------
+  private static final class Dictionary
+  {
+    final Text     names = new Text();
+    private Column table;                // --- name -> id + 1 (0: empty), power-of-two capacity
+
+    int id(String name)
+    {
+      if (table == null) rehash(capacity(names.size() + 1));
+
+      byte[] key  = utf8(name);
+      int    mask = table.size - 1, slot = hash(key) & mask;
+      for (int v; (v = table.getInt(slot)) != 0; slot = (slot + 1) & mask)
+        if (names.equals(v - 1, key)) return v - 1;
+
+      int id = names.size();
+      names.add(key);
+      table.setInt(slot, id + 1);
+      if (4L * names.size() > 3L * table.size) rehash(2 * table.size);
+      return id;
+    }
+
+    String get(int id) {return names.get(id);}
+
+    int size() {return names.size();}
+
+    long tableBytes() {return table == null ? 0 : table.bytes();}
+
+    void release() {if (table != null) table.release();}
+
+    // --- smallest power of two holding n names at <= 3/4 load
+    private static int capacity(int n)
+    {
+      int capacity = 16;
+      while (4L * n > 3L * capacity) capacity *= 2;
+      return capacity;
+    }
+
+    private void rehash(int capacity)
+    {
+      Column next = new Column(4);
+      next.fill(capacity);
+
+      for (int i = 0; i < names.size(); i++)
+      {
+        int slot = hash(names.bytes(i)) & (capacity - 1);
+        while (next.getInt(slot) != 0) slot = (slot + 1) & (capacity - 1);
+        next.setInt(slot, i + 1);
+      }
+      table = next;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+}
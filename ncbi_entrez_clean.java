@@ -0,0 +1,298 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/*********************************************************************************
+ * T A G   S T R I P P E R
+ * -----------------------
+ *
+ * Compiled replacement for a chain of
+ *
+ *   clean = clean.replaceAll("</tag>",      close_replacement);
+ *   clean = clean.replaceAll("<tag[^>]*>",  open_replacement);
+ *   ...
+ *   clean = clean.replaceAll("&#x[^;]*;",   "");
+ *
+ * The rules are compiled once into two tries (open-tag prefixes and close-tag
+ * names); a document is then cleaned in a single left-to-right scan into a
+ * reusable buffer, followed by an in-place compaction for the &#x..; entities.
+ *
+ * As long as no '<' occurs between a '<' and the next '>' the result is the
+ * same as running the chain: every match of every rule is then a whole tag,
+ * removing a tag never creates a new match, and the first rule that matches a
+ * tag decides its replacement. For input that breaks this (stray '<' inside a
+ * tag) the original regex chain is run instead, so the output is identical.
+ ********************************************************************************/
+class TagStripper
+{
+  private static final class Node
+  {
+    final Node[] next = new Node[128];
+    int          rule = -1;   // --- index of the first rule ending here
+  }
+
+  private final Node          openTrie  = new Node();
+  private final Node          closeTrie = new Node();
+  private final List<String>  replacements = new ArrayList<String>();
+  private final List<Pattern> chain        = new ArrayList<Pattern>();
+  private boolean             hexEntities  = false;
+
+  private final ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>()
+  {
+    @Override protected StringBuilder initialValue() {return new StringBuilder(64 * 1024);}
+  };
+
+
+  // -----------------------------------------------------------------------------
+  // --- rule table: "</name>" -> replacement
+  // -----------------------------------------------------------------------------
+  public TagStripper close(String name, String replacement)
+  {
+    add(closeTrie, name, replacement);
+    chain.add(Pattern.compile("</" + name + ">"));
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- rule table: "<name[^>]*>" -> replacement
+  // -----------------------------------------------------------------------------
+  public TagStripper open(String name, String replacement)
+  {
+    add(openTrie, name, replacement);
+    chain.add(Pattern.compile("<" + name + "[^>]*>"));
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- rule table: both "</name>" and "<name[^>]*>" are removed
+  // -----------------------------------------------------------------------------
+  public TagStripper tag(String name)
+  {
+    return close(name, "").open(name, "");
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- rule table: finally remove "&#x[^;]*;" entities
+  // -----------------------------------------------------------------------------
+  public TagStripper stripHexEntities()
+  {
+    hexEntities = true;
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private void add(Node root, String name, String replacement)
+  {
+    if (replacement.indexOf('<') >= 0)
+      throw new IllegalArgumentException("replacement must not contain '<': " + replacement);
+
+    Node node = root;
+    for (int i = 0; i < name.length(); i++)
+    {
+      char c = name.charAt(i);
+      if (c >= 128 || c == '>' || c == '<')
+        throw new IllegalArgumentException("unsupported tag name: " + name);
+      if (node.next[c] == null) node.next[c] = new Node();
+      node = node.next[c];
+    }
+    if (node.rule < 0) node.rule = replacements.size();
+    replacements.add(replacement);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- clean the text, reusing a per-thread buffer
+  // -----------------------------------------------------------------------------
+  public String strip(String text)
+  {
+    StringBuilder out = buffer.get();
+    out.setLength(0);
+    strip(text, out);
+    String clean = out.toString();
+    if (out.capacity() > 16 * 1024 * 1024) buffer.remove();
+    return clean;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- clean the text & append the result to out
+  // -----------------------------------------------------------------------------
+  public void strip(CharSequence text, StringBuilder out)
+  {
+    int start = out.length();
+
+    if (!scan(text, out))
+    {
+      out.setLength(start);
+      out.append(legacy(text.toString()));
+      return;
+    }
+
+    if (hexEntities) dropHexEntities(out, start);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- single pass over the tags; false if a tag contains a stray '<'
+  private boolean scan(CharSequence text, StringBuilder out)
+  {
+    int n = text.length();
+    int copyFrom = 0;
+    int i = 0;
+
+    while (i < n)
+    {
+      if (text.charAt(i) != '<') {i++; continue;}
+
+      // --- find the end of the tag
+      int j = i + 1;
+      char c = 0;
+      while (j < n && (c = text.charAt(j)) != '>' && c != '<') j++;
+      if (j == n)  break;          // --- no '>' left: nothing else can match
+      if (c == '<') return false;
+
+      int rule = (i + 1 < j && text.charAt(i + 1) == '/') ? matchClose(text, i + 2, j)
+                                                          : matchOpen(text, i + 1, j);
+      if (rule >= 0)
+      {
+        out.append(text, copyFrom, i);
+        out.append(replacements.get(rule));
+        copyFrom = j + 1;
+      }
+      i = j + 1;
+    }
+
+    out.append(text, copyFrom, n);
+    return true;
+  }
+
+
+
+  // --- "<" + prefix + [^>]* + ">": first rule along the path wins
+  private int matchOpen(CharSequence text, int from, int to)
+  {
+    Node node = openTrie;
+    int  rule = -1;
+
+    for (int k = from; k < to; k++)
+    {
+      char c = text.charAt(k);
+      if (c >= 128 || (node = node.next[c]) == null) break;
+      if (node.rule >= 0 && (rule < 0 || node.rule < rule)) rule = node.rule;
+    }
+    return rule;
+  }
+
+
+
+  // --- "</" + name + ">": exact match only
+  private int matchClose(CharSequence text, int from, int to)
+  {
+    Node node = closeTrie;
+
+    for (int k = from; k < to; k++)
+    {
+      char c = text.charAt(k);
+      if (c >= 128 || (node = node.next[c]) == null) return -1;
+    }
+    return node.rule;
+  }
+
+
+
+  // --- in-place equivalent of replaceAll("&#x[^;]*;", "") from offset start
+  private static void dropHexEntities(StringBuilder out, int start)
+  {
+    int n = out.length();
+    int r = start, w = start;
+    boolean more = true;
+
+    while (r < n)
+    {
+      char c = out.charAt(r);
+      if (more && c == '&' && r + 2 < n && out.charAt(r + 1) == '#' && out.charAt(r + 2) == 'x')
+      {
+        int semi = r + 3;
+        while (semi < n && out.charAt(semi) != ';') semi++;
+        if (semi < n) {r = semi + 1; continue;}
+        more = false;              // --- no ';' left: no further matches
+      }
+      out.setCharAt(w++, c);
+      r++;
+    }
+    out.setLength(w);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- the original replaceAll chain (precompiled), used as fallback
+  // -----------------------------------------------------------------------------
+  String legacy(String text)
+  {
+    String clean = text;
+
+    for (int i = 0; i < chain.size(); i++)
+      clean = chain.get(i).matcher(clean).replaceAll(replacements.get(i));
+
+    if (hexEntities) clean = clean.replaceAll("&#x[^;]*;", "");
+
+    return clean;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- rule table of Entrez.cleanPMC_XMLtags, in the original order
+  // -----------------------------------------------------------------------------
+  static TagStripper pmcXml()
+  {
+    String[] tags =
+    {
+      "abstract", "ack", "addr-line", "aff", "alt-title", "article", "article-categories",
+      "article-id", "article-meta", "article-title", "author-notes", "back", "body", "bold",
+      "caption", "citation", "contract-num", "contract-sponsor", "contrib", "contrib-group",
+      "copyright-holder", "copyright-statement", "copyright-year", "corresp", "counts",
+      "custom-meta", "custom-meta-wrap", "date", "day", "dc:author", "dc:date", "dc:identifier",
+      "dcterms:bibliographicCitation", "dcterms:isPartOf", "dc:title", "dc:type", "degrees",
+      "edition", "email", "ext-link", "fig", "fig-count", "fn", "fn-group", "fpage", "front",
+      "given-names", "graphic", "history", "issn", "issue", "italic", "journal-id",
+      "journal-meta", "journal-title", "kwd", "kwd-group", "label", "license", "License",
+      "lpage", "meta-name", "meta-value", "month", "name", "notes", "p", "page-count",
+      "permissions", "permits", "person-group", "pmc-articleset", "pub-date", "pub-id",
+      "publisher", "publisher-loc", "publisher-name", "ref", "ref-count", "ref-list",
+      "requires", "role", "sc", "sec", "self-uri", "series-title", "source", "sub", "subject",
+      "subj-group", "suffix", "sup", "surname", "table", "table-count", "table-wrap",
+      "table-wrap-foot", "tbody", "td", "thead", "title", "title-group", "tr", "uri", "volume",
+      "Work", "xref", "year"
+    };
+
+    TagStripper stripper = new TagStripper();
+
+    for (String tag : tags)
+    {
+      if (tag.equals("title")) stripper.close(tag, ". ").open(tag, "");
+      else                     stripper.tag(tag);
+    }
+
+    return stripper.open("inline-graphic", "").stripHexEntities();
+  }
+  // -----------------------------------------------------------------------------
+
+}
@@ -0,0 +1,458 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/*********************************************************************************
+ * O A   C O R P U S
+ * -----------------
+ *
+ * Offline processing of PMC Open Access bulk packages (oa_comm_xml.*.tar.gz,
+ * oa_noncomm_xml.*.tar.gz, ...) on local disk, no network:
+ *
+ * - archives (.tar, .tar.gz, .tgz) are read sequentially through a FileChannel
+ *   with 4 MB direct buffers; tar entries (ustar, GNU long names, pax paths)
+ *   ending in .nxml / .xml become Articles
+ * - every article is one task on a ForkJoinPool (work stealing across all
+ *   cores by default)
+ * - results reach the sink one at a time, in archive order; at most `window`
+ *   articles are read, in work or waiting for their turn, so memory stays
+ *   bounded however large the corpus is
+ *
+ * Articles whose work throws are skipped (logged, counted in failures()).
+ ********************************************************************************/
+class OaCorpus
+{
+  private static final EntrezLog LOG = EntrezLog.get("OaCorpus");
+
+  // --- one article file from an archive
+  static final class Article
+  {
+    final Path   archive;
+    final String path;       // --- path inside the archive
+    final byte[] xml;
+
+    Article(Path archive, String path, byte[] xml)
+    {
+      this.archive = archive;
+      this.path    = path;
+      this.xml     = xml;
+    }
+
+    public String text() {return new String(xml, StandardCharsets.UTF_8);}
+
+    // --- "PMC1234567" from the file name, if it has one
+    public String pmcid()
+    {
+      int    slash = path.lastIndexOf('/');
+      String name  = path.substring(slash + 1);
+      int    dot   = name.indexOf('.');
+      return dot < 0 ? name : name.substring(0, dot);
+    }
+  }
+
+  // --- result of Entrez.processArchives for one article
+  static final class Paper
+  {
+    final String pmcid, path;
+    final String text;            // --- cleanPMC_XMLtags
+    final String abstractText;    // --- cleanPMCAbstractTags of <abstract>, "" if none
+    final String methods;         // --- MandM
+
+    Paper(String pmcid, String path, String text, String abstractText, String methods)
+    {
+      this.pmcid        = pmcid;
+      this.path         = path;
+      this.text         = text;
+      this.abstractText = abstractText;
+      this.methods      = methods;
+    }
+  }
+
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private int window      = 0;                     // --- 0: 8 per worker
+
+  private final AtomicLong failures = new AtomicLong();
+
+
+  public OaCorpus parallelism(int n) {this.parallelism = Math.max(1, n); return this;}
+
+  // --- articles held at once (read, in work or waiting for the sink)
+  public OaCorpus window(int n)      {this.window = Math.max(1, n); return this;}
+
+  public long failures() {return failures.get();}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- run work on every article of the archives; results to sink in order;
+  //     returns the number of articles processed
+  // -----------------------------------------------------------------------------
+  public <R> long process(Collection<Path> archives, final Function<Article, R> work, Consumer<? super R> sink)
+    throws IOException
+  {
+    final int                window  = this.window > 0 ? this.window : 8 * parallelism;
+    final Semaphore          permits = new Semaphore(window);
+    final OrderedSink<R>     ordered = new OrderedSink<R>(sink, window, permits);
+    final ForkJoinPool       pool    = new ForkJoinPool(parallelism);
+    long                     seq     = 0;
+
+    try
+    {
+      for (Path archive : archives)
+      {
+        try (TarReader tar = new TarReader(archive))
+        {
+          Article article;
+          while ((article = tar.next()) != null)
+          {
+            acquire(permits);
+            ordered.check();
+
+            final Article a = article;
+            final long    n = seq++;
+
+            pool.execute(() ->
+            {
+              R result = null;
+              try {result = work.apply(a);}
+              catch (RuntimeException e)
+              {
+                failures.incrementAndGet();
+                LOG.warn(a.archive.getFileName() + ":" + a.path + " failed", e);
+              }
+              finally {ordered.put(n, result);}
+            });
+          }
+        }
+      }
+
+      // --- wait until every result has been handed to the sink
+      acquire(permits, window);
+      ordered.check();
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+
+    return seq;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private static void acquire(Semaphore permits) throws IOException {acquire(permits, 1);}
+
+  private static void acquire(Semaphore permits, int n) throws IOException
+  {
+    try {permits.acquire(n);}
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new java.io.InterruptedIOException("interrupted while processing the corpus");
+    }
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   S I N K   * * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- reorder buffer: results arrive in any order, leave in sequence order;
+  //     whichever worker completes the next expected result drains the run of
+  //     ready results (one at a time, under the lock). A permit is released for
+  //     every result handed over (or skipped: null)
+  // -----------------------------------------------------------------------------
+  static final class OrderedSink<R>
+  {
+    private final Consumer<? super R> sink;
+    private final Object[]            ready;      // --- ring, indexed by seq % size
+    private final boolean[]           done;
+    private final Semaphore           permits;
+    private long                      next = 0;
+    private RuntimeException          failed;
+
+    OrderedSink(Consumer<? super R> sink, int window, Semaphore permits)
+    {
+      this.sink    = sink;
+      this.ready   = new Object[window];
+      this.done    = new boolean[window];
+      this.permits = permits;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized void put(long seq, R result)
+    {
+      int slot = (int) (seq % ready.length);
+      ready[slot] = result;
+      done[slot]  = true;
+
+      while (done[slot = (int) (next % ready.length)])
+      {
+        R r = (R) ready[slot];
+        ready[slot] = null;
+        done[slot]  = false;
+        next++;
+
+        try {if (r != null && failed == null) sink.accept(r);}
+        catch (RuntimeException e) {failed = e;}
+        finally {permits.release();}
+      }
+    }
+
+    // --- rethrow a failure of the sink in the reading thread
+    synchronized void check()
+    {
+      if (failed != null) throw failed;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // * * * * * * * * * * * * * * *   T A R   * * * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- sequential tar reader: 512-byte headers, data padded to 512; gzip
+  //     detected by its magic bytes
+  // -----------------------------------------------------------------------------
+  static final class TarReader implements java.io.Closeable
+  {
+    private final Path        archive;
+    private final InputStream in;
+    private final byte[]      header = new byte[512];
+    private String            longName;        // --- from a GNU 'L' or pax 'x' entry
+
+    TarReader(Path archive) throws IOException
+    {
+      this.archive = archive;
+
+      FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+      ByteBuffer  magic   = ByteBuffer.allocate(2);
+      while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {}
+
+      InputStream raw = new ChannelInput(channel, 4 << 20);
+      boolean     gzip = magic.position() == 2 && (magic.get(0) & 0xff) == 0x1f && (magic.get(1) & 0xff) == 0x8b;
+
+      this.in = gzip ? new GZIPInputStream(raw, 1 << 20) : raw;
+    }
+
+    // --- next .xml / .nxml article, null at the end of the archive
+    Article next() throws IOException
+    {
+      for (;;)
+      {
+        if (!readFully(header, 0, 512)) return null;
+        if (zero(header)) return null;                       // --- end-of-archive blocks
+
+        long   size = octal(header, 124, 12);
+        char   type = (char) header[156];
+        String name = longName != null ? longName : name(header);
+        longName = null;
+
+        if (type == 'L')                 // --- GNU long name for the next entry
+        {
+          longName = cString(data(size), 0, (int) size);
+          continue;
+        }
+        if (type == 'x')                 // --- pax extended header: path=...
+        {
+          byte[] pax = data(size);
+          longName = paxPath(pax);
+          continue;
+        }
+
+        boolean file = type == '0' || type == '\0' || type == '7';
+        if (file && (name.endsWith(".nxml") || name.endsWith(".xml")))
+          return new Article(archive, name, data(size));
+
+        skip(size + padding(size));
+      }
+    }
+
+    // --- entry data of `size` bytes, then the padding
+    private byte[] data(long size) throws IOException
+    {
+      if (size > Integer.MAX_VALUE - 8) throw new IOException("tar entry too large: " + size + " bytes in " + archive);
+      byte[] data = new byte[(int) size];
+      if (!readFully(data, 0, data.length)) throw new EOFException("truncated tar entry in " + archive);
+      skip(padding(size));
+      return data;
+    }
+
+    // --- skip exactly `bytes` bytes
+    private void skip(long bytes) throws IOException
+    {
+      long left = bytes;
+      while (left > 0)
+      {
+        long n = in.skip(left);
+        if (n <= 0)
+        {
+          if (in.read() < 0) throw new EOFException("truncated tar entry in " + archive);
+          n = 1;
+        }
+        left -= n;
+      }
+    }
+
+    private static long padding(long size) {return (512 - size % 512) % 512;}
+
+    private boolean readFully(byte[] b, int off, int len) throws IOException
+    {
+      int read = 0;
+      while (read < len)
+      {
+        int n = in.read(b, off + read, len - read);
+        if (n < 0)
+        {
+          if (read == 0) return false;
+          throw new EOFException("truncated tar archive " + archive);
+        }
+        read += n;
+      }
+      return true;
+    }
+
+    public void close() throws IOException {in.close();}
+
+    // --- ustar: prefix (345, 155) + "/" + name (0, 100)
+    private static String name(byte[] h)
+    {
+      String name = cString(h, 0, 100);
+      boolean ustar = h[257] == 'u' && h[258] == 's' && h[259] == 't' && h[260] == 'a' && h[261] == 'r';
+      String prefix = ustar ? cString(h, 345, 155) : "";
+      return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String cString(byte[] b, int off, int len)
+    {
+      int e = off;
+      while (e < off + len && b[e] != 0) e++;
+      return new String(b, off, e - off, StandardCharsets.UTF_8);
+    }
+
+    // --- octal number, or base-256 when the high bit of the first byte is set
+    private static long octal(byte[] b, int off, int len)
+    {
+      if ((b[off] & 0x80) != 0)
+      {
+        long v = b[off] & 0x7f;
+        for (int i = off + 1; i < off + len; i++) v = (v << 8) | (b[i] & 0xff);
+        return v;
+      }
+
+      int i = off, end = off + len;
+      while (i < end && b[i] == ' ') i++;
+
+      long v = 0;
+      for (; i < end && b[i] >= '0' && b[i] <= '7'; i++) v = v * 8 + (b[i] - '0');
+      return v;
+    }
+
+    private static boolean zero(byte[] b)
+    {
+      for (byte x : b) if (x != 0) return false;
+      return true;
+    }
+
+    // --- "<len> path=<value>\n" records
+    private static String paxPath(byte[] pax)
+    {
+      int i = 0;
+      while (i < pax.length)
+      {
+        int space = i;
+        while (space < pax.length && pax[space] != ' ') space++;
+        int len;
+        try {len = Integer.parseInt(new String(pax, i, space - i, StandardCharsets.US_ASCII));}
+        catch (NumberFormatException e) {return null;}
+        if (len <= 0 || i + len > pax.length) return null;
+
+        String record = new String(pax, space + 1, i + len - space - 2, StandardCharsets.UTF_8);
+        if (record.startsWith("path=")) return record.substring(5);
+        i += len;
+      }
+      return null;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- InputStream over a FileChannel, refilled in large direct-buffer reads
+  // -----------------------------------------------------------------------------
+  static final class ChannelInput extends InputStream
+  {
+    private final FileChannel channel;
+    private final ByteBuffer  buffer;
+
+    ChannelInput(FileChannel channel, int bufferSize)
+    {
+      this.channel = channel;
+      this.buffer  = ByteBuffer.allocateDirect(bufferSize);
+      buffer.flip();
+    }
+
+    private boolean fill() throws IOException
+    {
+      if (buffer.hasRemaining()) return true;
+      buffer.clear();
+      int n;
+      while ((n = channel.read(buffer)) == 0) {}
+      buffer.flip();
+      return n > 0;
+    }
+
+    @Override public int read() throws IOException
+    {
+      return fill() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (len == 0) return 0;
+      if (!fill()) return -1;
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override public long skip(long n) throws IOException
+    {
+      if (n <= 0) return 0;
+      if (n <= buffer.remaining())
+      {
+        buffer.position(buffer.position() + (int) n);
+        return n;
+      }
+
+      // --- beyond the buffer: move the channel position instead of reading
+      long skipped = buffer.remaining();
+      long target  = Math.min(channel.size(), channel.position() + (n - skipped));
+      skipped += target - channel.position();
+      channel.position(target);
+      buffer.clear().flip();
+      return skipped;
+    }
+
+    @Override public int available() {return buffer.remaining();}
+
+    @Override public void close() throws IOException {channel.close();}
+  }
+  // -----------------------------------------------------------------------------
+
+}
@@ -0,0 +1,118 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*********************************************************************************
+ * C O U N T   C A C H E
+ * ---------------------
+ *
+ * Hit counts of ESearch queries (rettype=count) for Entrez.count() /
+ * response(), kept for ttl milliseconds (default 10 minutes).
+ *
+ * Queries are normalized before lookup, so spellings PubMed treats alike
+ * share an entry:
+ *
+ *   "Breast  Cancer[TIAB] AND ( Tamoxifen )"  ->  "breast cancer[tiab] AND (tamoxifen)"
+ *
+ * (whitespace collapsed, blanks inside parentheses dropped, everything but
+ * the AND / OR / NOT operators lower-cased). With more than maxEntries
+ * entries, expired ones are dropped first, then arbitrary ones.
+ ********************************************************************************/
+class CountCache
+{
+  private static final class Entry
+  {
+    final long count, expires;
+
+    Entry(long count, long expires) {this.count = count; this.expires = expires;}
+  }
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final LongAdder          hits    = new LongAdder();
+  private final LongAdder          misses  = new LongAdder();
+
+  private volatile long ttl        = 10 * 60 * 1000L;
+  private volatile int  maxEntries = 100000;
+
+
+  public CountCache ttl(long millis)    {this.ttl = millis;        return this;}
+  public CountCache maxEntries(int n)   {this.maxEntries = n;      return this;}
+
+  public long hits()   {return hits.sum();}
+  public long misses() {return misses.sum();}
+  public int  size()   {return entries.size();}
+
+  public void clear()  {entries.clear();}
+
+
+
+  // --- cached count, -1 if absent or expired
+  public long get(String db, String query)
+  {
+    String key = key(db, query);
+    Entry  e   = entries.get(key);
+
+    if (e != null && e.expires > System.currentTimeMillis()) {hits.increment(); return e.count;}
+    if (e != null) entries.remove(key, e);
+    misses.increment();
+    return -1;
+  }
+
+  public void put(String db, String query, long count)
+  {
+    if (ttl <= 0) return;
+    entries.put(key(db, query), new Entry(count, System.currentTimeMillis() + ttl));
+    if (entries.size() > maxEntries) trim();
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- drop expired entries, then any until below maxEntries
+  // -----------------------------------------------------------------------------
+  private void trim()
+  {
+    long now = System.currentTimeMillis();
+    entries.values().removeIf(e -> e.expires <= now);
+
+    for (Iterator<String> i = entries.keySet().iterator(); entries.size() > maxEntries && i.hasNext(); )
+    {
+      i.next();
+      i.remove();
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  static String key(String db, String query)
+  {
+    return db.toLowerCase() + '\t' + normalize(query);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- canonical spelling of an ESearch term (see above)
+  // -----------------------------------------------------------------------------
+  static String normalize(String query)
+  {
+    StringBuilder out = new StringBuilder(query.length());
+
+    for (String word : query.trim().split("\\s+"))
+    {
+      if (word.isEmpty()) continue;
+
+      boolean operator = word.equals("AND") || word.equals("OR") || word.equals("NOT");
+      char    last     = out.length() == 0 ? '(' : out.charAt(out.length() - 1);
+
+      if (last != '(' && word.charAt(0) != ')') out.append(' ');
+      out.append(operator ? word : word.toLowerCase());
+    }
+
+    return out.toString();
+  }
+  // -----------------------------------------------------------------------------
+
+}
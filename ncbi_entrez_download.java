@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/*********************************************************************************
+ * F I L E   D O W N L O A D
+ * -------------------------
+ *
+ * Downloads a URL into a file through the EntrezTransport:
+ *
+ * - the body is written in 64 KB blocks to a FileChannel at explicit offsets
+ * - data goes to "<target>.part"; only a complete file is renamed to target
+ *   (atomically where the file system allows it)
+ * - an existing .part file is resumed with "Range: bytes=<size>-" and
+ *   "If-Range: <validator>": the strong ETag (else Last-Modified) of the
+ *   response that started it, kept in "<target>.part.validator"; a changed
+ *   document comes back whole (200) and replaces the .part file
+ * - a 416 for a .part file that already holds the whole document (the total
+ *   length in the 416's Content-Range) just finishes it
+ * - large files are fetched as parallel Range chunks; after a failure the .part
+ *   file is cut back to the completed prefix, so the next call resumes there
+ * - servers that ignore Range (200 instead of 206) get a plain full download
+ *
+ * With compressed(true) the file is always gzip: the body is requested with
+ * "Accept-Encoding: gzip" and written as received, or compressed locally if
+ * the server sent it plain. Such downloads are single requests (no Range:
+ * offsets into a server-compressed body are not stable across requests).
+ ********************************************************************************/
+class FileDownload
+{
+  private static final long WRITER_WAIT = 30;   // --- s to wait for chunk writers after a failure
+
+  private final EntrezTransport transport;
+  private long                  chunkSize   = 8L * 1024 * 1024;
+  private int                   parallelism = 4;
+  private boolean               compressed  = false;
+
+
+  public FileDownload(EntrezTransport transport)
+  {
+    this.transport = transport;
+  }
+
+  public FileDownload chunkSize(long bytes) {this.chunkSize = bytes; return this;}
+
+  public FileDownload parallelism(int n)    {this.parallelism = Math.max(1, n); return this;}
+
+  public FileDownload compressed(boolean on) {this.compressed = on; return this;}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- download url to target; returns the number of bytes in the file
+  // -----------------------------------------------------------------------------
+  public long download(String url, Path target) throws IOException
+  {
+    Path part = target.resolveSibling(target.getFileName() + ".part");
+    if (compressed) return gzip(url, part, target);
+
+    Path   validatorFile = target.resolveSibling(target.getFileName() + ".part.validator");
+    long   have          = Files.exists(part) ? Files.size(part) : 0;
+    String validator     = have > 0 && Files.exists(validatorFile) ? Files.readString(validatorFile).trim() : null;
+
+    EntrezStream first;
+
+    try {first = transport.request(url, range("bytes=" + have + "-", validator));}
+    catch (EntrezHttpException e)
+    {
+      if (e.status != 416) throw e;
+
+      // --- unchanged (If-Range held) & nothing beyond the .part file: done
+      if (validator != null && total(e.header("Content-Range")) == have)
+      {
+        Files.deleteIfExists(validatorFile);
+        return rename(part, target);
+      }
+
+      // --- .part file longer than the document, or of unknown origin: restart
+      have      = 0;
+      validator = null;
+      first     = transport.request(url, Collections.<String, String>emptyMap());
+    }
+
+    try (EntrezStream response = first;
+         FileChannel  channel  = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+    {
+      // --- a new document starts here: remember what it was
+      if (have == 0 || response.status != 206)
+      {
+        validator = validator(response);
+        if (validator != null) Files.writeString(validatorFile, validator);
+        else                   Files.deleteIfExists(validatorFile);
+      }
+
+      long total;
+
+      if (response.status == 206)
+      {
+        total = total(response.header("Content-Range"));
+
+        if (have == 0 && total > 2 * chunkSize && parallelism > 1)
+          parallel(url, channel, response, total, validator, part, validatorFile);
+        else
+          have += copy(response.body, channel, have, -1);
+      }
+      else
+      {
+        // --- Range not supported (or If-Range failed): full body from offset 0
+        channel.truncate(0);
+        have  = copy(response.body, channel, 0, -1);
+        total = have;
+      }
+
+      if (total < 0) total = channel.size();
+      if (channel.size() != total)
+        throw new IOException("incomplete download: " + channel.size() + " of " + total + " bytes from " + url);
+
+      channel.force(false);
+    }
+
+    Files.deleteIfExists(validatorFile);
+    return rename(part, target);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- Range header, made conditional on validator when there is one
+  private static Map<String, String> range(String bytes, String validator)
+  {
+    if (validator == null) return Collections.singletonMap("Range", bytes);
+
+    Map<String, String> headers = new LinkedHashMap<String, String>();
+    headers.put("Range",    bytes);
+    headers.put("If-Range", validator);
+    return headers;
+  }
+
+  // --- If-Range validator of a response: strong ETag, else Last-Modified, else null
+  static String validator(EntrezStream s)
+  {
+    String etag = s.header("ETag");
+    if (etag != null && !etag.startsWith("W/")) return etag;
+    return s.header("Last-Modified");
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- download url to target as gzip, keeping the server's compression
+  // -----------------------------------------------------------------------------
+  private long gzip(String url, Path part, Path target) throws IOException
+  {
+    try (EntrezStream s = transport.request(url, Collections.singletonMap("Accept-Encoding", "gzip"));
+         FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      String encoding = s.header("Content-Encoding");
+
+      if ("gzip".equalsIgnoreCase(encoding))
+        copy(s.body, channel, 0, -1);
+      else
+      {
+        // --- finish(), not close(): the channel is still needed for force()
+        GZIPOutputStream out = new GZIPOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+        HttpTransport.decode(s.body, encoding).transferTo(out);
+        out.finish();
+      }
+
+      channel.force(false);
+    }
+
+    return rename(part, target);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private static long rename(Path part, Path target) throws IOException
+  {
+    try {Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);}
+    catch (AtomicMoveNotSupportedException e) {Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);}
+
+    return Files.size(target);
+  }
+
+
+
+  // --- fetch [0, total) as chunks; the open first response serves chunk 0.
+  //     On failure the chunk bodies are closed (writers are not interrupted:
+  //     that would close the shared channel), the writers are waited for and
+  //     part is cut back to the finished prefix, or deleted if that fails
+  private void parallel(final String url, final FileChannel channel, EntrezStream first, long total,
+                        final String validator, Path part, Path validatorFile) throws IOException
+  {
+    int                      chunks  = (int) ((total + chunkSize - 1) / chunkSize);
+    final boolean[]          done    = new boolean[chunks];
+    final List<EntrezStream> open    = Collections.synchronizedList(new ArrayList<EntrezStream>());
+    final AtomicBoolean      aborted = new AtomicBoolean();
+    ExecutorService          pool    = Executors.newFixedThreadPool(Math.min(parallelism, chunks) - 1);
+    List<Future<?>>          tasks   = new ArrayList<Future<?>>();
+    boolean                  ok      = false;
+
+    try
+    {
+      for (int c = 1; c < chunks; c++)
+      {
+        final int  chunk = c;
+        final long from  = c * chunkSize;
+        final long to    = Math.min(total, from + chunkSize) - 1;
+
+        tasks.add(pool.submit(() ->
+        {
+          if (aborted.get()) return null;
+          try (EntrezStream s = transport.request(url, range("bytes=" + from + "-" + to, validator)))
+          {
+            open.add(s);
+            if (aborted.get()) return null;
+            if (s.status != 206) throw new IOException("Range not honoured for chunk " + chunk + " of " + url);
+            copy(s.body, channel, from, to - from + 1);
+          }
+          synchronized (done) {done[chunk] = true;}
+          return null;
+        }));
+      }
+
+      copy(first.body, channel, 0, Math.min(total, chunkSize));
+      synchronized (done) {done[0] = true;}
+
+      for (Future<?> t : tasks)
+      {
+        try {t.get();}
+        catch (InterruptedException e) {Thread.currentThread().interrupt(); throw new IOException("interrupted: " + url);}
+        catch (ExecutionException e)
+        {
+          if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+          throw new IOException(e.getCause());
+        }
+      }
+      ok = true;
+    }
+    finally
+    {
+      if (!ok)
+      {
+        aborted.set(true);
+        for (Future<?> t : tasks) t.cancel(false);
+        synchronized (open) {for (EntrezStream s : open) discard(s);}
+      }
+
+      pool.shutdown();
+      boolean stopped = awaitTermination(pool);
+
+      if (!ok)
+      {
+        // --- keep only the contiguous prefix of finished chunks for resume
+        long keep = 0;
+        synchronized (done) {for (int c = 0; c < chunks && done[c]; c++) keep = Math.min(total, (c + 1) * chunkSize);}
+
+        try
+        {
+          if (!stopped) throw new IOException("chunk writers still running");
+          channel.truncate(keep);
+        }
+        catch (IOException e) {delete(part, validatorFile);}   // --- no trustworthy prefix: start over next time
+      }
+    }
+  }
+
+
+
+  private static boolean awaitTermination(ExecutorService pool)
+  {
+    try {return pool.awaitTermination(WRITER_WAIT, TimeUnit.SECONDS);}
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static void discard(EntrezStream s)
+  {
+    try {s.close();} catch (IOException e) {}
+  }
+
+  private static void delete(Path... files)
+  {
+    for (Path f : files) try {Files.deleteIfExists(f);} catch (IOException e) {}
+  }
+
+
+
+  // --- copy up to limit bytes (-1: all) to the channel at offset; returns the count
+  private static long copy(InputStream in, FileChannel channel, long offset, long limit) throws IOException
+  {
+    byte[]     data   = new byte[64 * 1024];
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    long       copied = 0;
+    int        n;
+
+    while (limit < 0 || copied < limit)
+    {
+      int want = limit < 0 ? data.length : (int) Math.min(data.length, limit - copied);
+      if ((n = in.read(data, 0, want)) < 0) break;
+
+      buffer.clear().limit(n);
+      while (buffer.hasRemaining()) copied += channel.write(buffer, offset + copied);
+    }
+
+    if (limit >= 0 && copied < limit) throw new IOException("connection closed after " + copied + " of " + limit + " bytes");
+    return copied;
+  }
+
+
+
+  // --- total length from "bytes a-b/total" (-1 if unknown)
+  static long total(String contentRange)
+  {
+    if (contentRange == null) return -1;
+    int slash = contentRange.lastIndexOf('/');
+    if (slash < 0) return -1;
+    String t = contentRange.substring(slash + 1).trim();
+    return t.equals("*") ? -1 : Long.parseLong(t);
+  }
+
+}
@@ -0,0 +1,696 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPOutputStream;
+
+/*********************************************************************************
+ * E X P O R T E R
+ * ---------------
+ *
+ * Rows of strings (search IDs, citations, sections, ...) written to a file in
+ * a format Spark / pandas read as is:
+ *
+ *   JSONL   one {"column": "value", ...} object per line
+ *           pandas.read_json(f, lines=True), spark.read.json(f)
+ *   CSV     RFC 4180, header line, "\n" line ends
+ *           pandas.read_csv(f), spark.read.option("header", true).csv(f)
+ *   ARROW   Arrow IPC file (Feather v2), utf8 columns, record batches of up to
+ *           batchRows rows; pandas.read_feather(f), pyarrow.ipc.open_file(f)
+ *
+ * JSONL & CSV can be gzip-compressed (both readers detect ".gz"); Arrow files
+ * are written uncompressed, as Arrow body compression needs LZ4 / ZSTD codecs
+ * the JDK does not have, and the file would no longer be mappable.
+ *
+ * write() only hands the row to a bounded queue; a background thread encodes
+ * it into 1 MB buffered writes. Producers wait only when the queue is full,
+ * i.e. when the disk keeps up less than the producers for longer than the
+ * queue lasts. The file is written as "<name>.part" and renamed on close(),
+ * so a reader never sees a partial file. An encoding or disk failure is
+ * reported by the next write() and by close().
+ *
+ * write() may be called from several threads. A write() racing close() is
+ * either queued before the end of the file or fails with "exporter closed";
+ * no accepted row is dropped.
+ ********************************************************************************/
+class Exporter implements Closeable
+{
+  enum Format {JSONL, CSV, ARROW}
+
+  // --- column sets used by Entrez
+  static final String[] IDS       = {"db", "query", "id"};
+  static final String[] CITATIONS = {"id", "authors", "title", "source", "abstract"};
+  static final String[] SECTIONS  = {"id", "kind", "sec_type", "title", "text"};
+
+  private static final String[] END    = new String[0];
+  private static final int      BUFFER = 1 << 20;
+
+  private static final EntrezLog LOG = EntrezLog.get("Exporter");
+
+  private final String[]                columns;
+  private final Path                    file, part;
+  private final BlockingQueue<String[]> queue;
+  private final Thread                  worker;
+  private volatile Throwable            failure;
+  private final LongAdder               rows = new LongAdder();
+  private volatile boolean              closed;
+
+  // --- writers hold the read lock while queueing, close() takes the write
+  //     lock to stop them before it queues END
+  private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+
+
+  // -----------------------------------------------------------------------------
+  // --- open file for rows with the given columns; queueRows rows may be
+  //     pending before write() waits
+  // -----------------------------------------------------------------------------
+  static Exporter open(Path file, Format format, boolean gzip, int queueRows, String... columns) throws IOException
+  {
+    if (gzip && format == Format.ARROW) throw new IllegalArgumentException("Arrow files are written uncompressed");
+    return new Exporter(file, format, gzip, queueRows, columns);
+  }
+
+  static Exporter open(Path file, Format format, boolean gzip, String... columns) throws IOException
+  {
+    return open(file, format, gzip, 1 << 16, columns);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private Exporter(Path file, Format format, boolean gzip, int queueRows, String[] columns) throws IOException
+  {
+    this.columns = columns.clone();
+    this.file    = file;
+    this.part    = file.resolveSibling(file.getFileName() + ".part");
+    this.queue   = new ArrayBlockingQueue<String[]>(Math.max(1, queueRows));
+
+    // --- opened here, so that a bad path fails the caller
+    OutputStream raw = Files.newOutputStream(part);
+    OutputStream out = gzip ? new BufferedOutputStream(new GZIPOutputStream(raw, 1 << 16), BUFFER)
+                            : new BufferedOutputStream(raw, BUFFER);
+
+    Encoder encoder = format == Format.JSONL ? new JsonLines()
+                    : format == Format.CSV   ? new Csv()
+                    :                          new ArrowFile();
+
+    worker = new Thread(() -> run(encoder, out), "entrez-export");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- queue one row (one value per column; null allowed)
+  // -----------------------------------------------------------------------------
+  public void write(String... values) throws IOException
+  {
+    if (values.length != columns.length) throw new IllegalArgumentException(values.length + " values for " + columns.length + " columns");
+    check();
+
+    gate.readLock().lock();
+    try
+    {
+      if (closed) throw new IOException("exporter closed");
+      queue.put(values.clone());
+      rows.increment();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while queueing a row");
+    }
+    finally
+    {
+      gate.readLock().unlock();
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  public long rows() {return rows.sum();}
+
+  private void check() throws IOException
+  {
+    Throwable t = failure;
+    if (t != null) throw new IOException("export to " + file + " failed", t);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- write what is queued, finish the file & move it into place
+  // -----------------------------------------------------------------------------
+  public void close() throws IOException
+  {
+    gate.writeLock().lock();
+    try
+    {
+      if (closed) return;
+      closed = true;
+    }
+    finally
+    {
+      gate.writeLock().unlock();
+    }
+
+    try
+    {
+      queue.put(END);
+      worker.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while closing " + file);
+    }
+
+    if (failure != null)
+    {
+      Files.deleteIfExists(part);
+      check();
+    }
+    try {Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);}
+    catch (AtomicMoveNotSupportedException e) {Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- background thread: encode rows until END; after a failure keep taking
+  //     rows so that producers never hang on a full queue
+  // -----------------------------------------------------------------------------
+  private void run(Encoder encoder, OutputStream out)
+  {
+    List<String[]> batch = new ArrayList<String[]>(1024);
+
+    try (OutputStream o = out)
+    {
+      encoder.begin(o, columns);
+
+      while (true)
+      {
+        batch.add(queue.take());
+        queue.drainTo(batch, 1023);
+
+        for (String[] row : batch)
+        {
+          if (row == END) {encoder.end(); return;}
+          encoder.row(row);
+        }
+        batch.clear();
+      }
+    }
+    catch (Throwable t)
+    {
+      failure = t;
+      LOG.warn("export to " + file + " failed", t);
+
+      try {while (!batch.contains(END)) {batch.clear(); batch.add(queue.take());}}
+      catch (InterruptedException e) {}
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // * * * * * * * * * * * * * * *   F O R M A T S   * * * * * * * * * * * * * * * *
+
+  private interface Encoder
+  {
+    void begin(OutputStream out, String[] columns) throws IOException;
+
+    void row(String[] values) throws IOException;
+
+    void end() throws IOException;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- JSON Lines
+  // -----------------------------------------------------------------------------
+  private static final class JsonLines implements Encoder
+  {
+    private OutputStream  out;
+    private String[]      keys;
+    private StringBuilder line = new StringBuilder(1024);
+
+    public void begin(OutputStream out, String[] columns)
+    {
+      this.out  = out;
+      this.keys = new String[columns.length];
+      for (int c = 0; c < columns.length; c++) keys[c] = quote(columns[c]) + ":";
+    }
+
+    public void row(String[] values) throws IOException
+    {
+      line.setLength(0);
+      line.append('{');
+      for (int c = 0; c < values.length; c++)
+      {
+        if (c > 0) line.append(',');
+        line.append(keys[c]);
+        if (values[c] == null) line.append("null");
+        else                   escape(line, values[c]);
+      }
+      line.append("}\n");
+      out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void end() {}
+
+    private static String quote(String s)
+    {
+      StringBuilder b = new StringBuilder();
+      escape(b, s);
+      return b.toString();
+    }
+
+    static void escape(StringBuilder out, String s)
+    {
+      out.append('"');
+      for (int i = 0; i < s.length(); i++)
+      {
+        char c = s.charAt(i);
+        switch (c)
+        {
+          case '"':  out.append("\\\""); break;
+          case '\\': out.append("\\\\"); break;
+          case '\n': out.append("\\n");  break;
+          case '\r': out.append("\\r");  break;
+          case '\t': out.append("\\t");  break;
+          default:
+            if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+            else          out.append(c);
+        }
+      }
+      out.append('"');
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- CSV: fields with , " CR LF or outer blanks are quoted; null is empty
+  // -----------------------------------------------------------------------------
+  private static final class Csv implements Encoder
+  {
+    private OutputStream  out;
+    private StringBuilder line = new StringBuilder(1024);
+
+    public void begin(OutputStream out, String[] columns) throws IOException
+    {
+      this.out = out;
+      row(columns);
+    }
+
+    public void row(String[] values) throws IOException
+    {
+      line.setLength(0);
+      for (int c = 0; c < values.length; c++)
+      {
+        if (c > 0) line.append(',');
+        String v = values[c];
+        if (v == null) continue;
+
+        boolean quote = !v.isEmpty() && (v.charAt(0) == ' ' || v.charAt(v.length() - 1) == ' ');
+        for (int i = 0; i < v.length() && !quote; i++)
+        {
+          char ch = v.charAt(i);
+          quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+        }
+
+        if (quote) line.append('"').append(v.replace("\"", "\"\"")).append('"');
+        else       line.append(v);
+      }
+      line.append('\n');
+      out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void end() {}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- Arrow IPC file:
+  //
+  //     "ARROW1\0\0"
+  //     schema message, record batch messages      (each: 0xFFFFFFFF, metadata
+  //     0xFFFFFFFF 0                                length, Message flatbuffer,
+  //     Footer flatbuffer, int32 length, "ARROW1"   8-aligned body)
+  //
+  //     every column utf8 & nullable: validity bitmap (omitted without nulls),
+  //     int32 offsets, UTF-8 data, each buffer padded to 8 bytes
+  // -----------------------------------------------------------------------------
+  private static final class ArrowFile implements Encoder
+  {
+    private static final byte[] MAGIC   = {'A', 'R', 'R', 'O', 'W', '1', 0, 0};
+    private static final short  V5      = 4;   // --- MetadataVersion
+    private static final int    SCHEMA  = 1, RECORD_BATCH = 3, UTF8 = 5;
+
+    static int batchRows  = 1 << 16;
+    static int batchBytes = 64 << 20;
+
+    private OutputStream out;
+    private long         position;
+    private String[]     names;
+    private final List<long[]> blocks = new ArrayList<long[]>();   // --- {offset, metadata length, body length}
+
+    // --- current batch, per column
+    private int      n;
+    private int[][]  offsets;
+    private byte[][] data, valid;
+    private int[]    nulls;
+    private long     bytes;
+
+    public void begin(OutputStream out, String[] columns) throws IOException
+    {
+      this.out   = out;
+      this.names = columns;
+
+      offsets = new int[columns.length][16];
+      data    = new byte[columns.length][256];
+      valid   = new byte[columns.length][2];
+      nulls   = new int[columns.length];
+
+      write(MAGIC, MAGIC.length);
+      message(new Flat.Table().add(0, 2, V5).add(1, 1, SCHEMA).ref(2, schema()).add(3, 8, 0), new byte[0], false);
+    }
+
+    public void row(String[] values) throws IOException
+    {
+      for (int c = 0; c < values.length; c++)
+      {
+        if (n + 2 > offsets[c].length) offsets[c] = Arrays.copyOf(offsets[c], 2 * offsets[c].length);
+        if (n / 8 + 1 > valid[c].length) valid[c] = Arrays.copyOf(valid[c], 2 * valid[c].length);
+
+        int end = offsets[c][n];
+        if (values[c] == null) nulls[c]++;
+        else
+        {
+          byte[] v = values[c].getBytes(StandardCharsets.UTF_8);
+          if (end + v.length > data[c].length) data[c] = Arrays.copyOf(data[c], Math.max(2 * data[c].length, end + v.length));
+          System.arraycopy(v, 0, data[c], end, v.length);
+          valid[c][n / 8] |= 1 << (n % 8);
+          end   += v.length;
+          bytes += v.length;
+        }
+        offsets[c][n + 1] = end;
+      }
+
+      if (++n >= batchRows || bytes >= batchBytes) batch();
+    }
+
+    public void end() throws IOException
+    {
+      if (n > 0) batch();
+
+      // --- end-of-stream marker, footer
+      writeInt(-1);
+      writeInt(0);
+
+      Flat.Structs recordBatches = new Flat.Structs(blocks.size(), 24);
+      for (long[] b : blocks) recordBatches.putLong(b[0]).putInt((int) b[1]).putInt(0).putLong(b[2]);
+
+      byte[] footer = Flat.finish(new Flat.Table().add(0, 2, V5).ref(1, schema())
+                                                  .ref(2, new Flat.Structs(0, 24)).ref(3, recordBatches));
+      write(footer, footer.length);
+      writeInt(footer.length);
+      write(MAGIC, 6);
+    }
+
+    private Flat.Table schema()
+    {
+      Flat.Table[] fields = new Flat.Table[names.length];
+      for (int c = 0; c < names.length; c++)
+        fields[c] = new Flat.Table().ref(0, names[c]).add(1, 1, 1).add(2, 1, UTF8).ref(3, new Flat.Table()).ref(5, new Flat.Table[0]);
+
+      return new Flat.Table().add(0, 2, 0).ref(1, fields);   // --- little endian
+    }
+
+
+
+    // --- the pending rows as one record batch
+    private void batch() throws IOException
+    {
+      int          k       = names.length;
+      Flat.Structs nodes   = new Flat.Structs(k, 16);
+      Flat.Structs buffers = new Flat.Structs(3 * k, 16);
+      long         body    = 0;
+
+      for (int c = 0; c < k; c++)
+      {
+        long validity = nulls[c] == 0 ? 0 : (n + 7) / 8;
+
+        nodes.putLong(n).putLong(nulls[c]);
+        buffers.putLong(body).putLong(validity);                                  body += pad(validity);
+        buffers.putLong(body).putLong(4L * (n + 1));                              body += pad(4L * (n + 1));
+        buffers.putLong(body).putLong(offsets[c][n]);                             body += pad(offsets[c][n]);
+      }
+
+      ByteBuffer bodyBytes = ByteBuffer.allocate((int) body).order(ByteOrder.LITTLE_ENDIAN);
+      for (int c = 0; c < k; c++)
+      {
+        if (nulls[c] > 0)
+        {
+          bodyBytes.put(valid[c], 0, (n + 7) / 8);
+          bodyBytes.position((int) pad(bodyBytes.position()));
+        }
+        for (int i = 0; i <= n; i++) bodyBytes.putInt(offsets[c][i]);
+        bodyBytes.position((int) pad(bodyBytes.position()));
+        bodyBytes.put(data[c], 0, offsets[c][n]);
+        bodyBytes.position((int) pad(bodyBytes.position()));
+      }
+
+      Flat.Table batch = new Flat.Table().add(0, 8, n).ref(1, nodes).ref(2, buffers);
+      message(new Flat.Table().add(0, 2, V5).add(1, 1, RECORD_BATCH).ref(2, batch).add(3, 8, body), bodyBytes.array(), true);
+
+      // --- reset
+      for (int c = 0; c < k; c++)
+      {
+        Arrays.fill(valid[c], (byte) 0);
+        nulls[c] = 0;
+      }
+      n     = 0;
+      bytes = 0;
+    }
+
+    // --- encapsulated message: continuation, metadata length, metadata, body;
+    //     record batches are listed in the footer
+    private void message(Flat.Table message, byte[] body, boolean recordBatch) throws IOException
+    {
+      byte[] meta  = Flat.finish(message);
+      long   start = position;
+
+      writeInt(-1);
+      writeInt(meta.length);
+      write(meta, meta.length);
+      write(body, body.length);
+
+      if (recordBatch) blocks.add(new long[] {start, 8 + meta.length, body.length});
+    }
+
+    private static long pad(long length) {return (length + 7) & ~7L;}
+
+    private void writeInt(int v) throws IOException
+    {
+      write(new byte[] {(byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24)}, 4);
+    }
+
+    private void write(byte[] b, int length) throws IOException
+    {
+      out.write(b, 0, length);
+      position += length;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- minimal FlatBuffers writer for the Arrow metadata. Objects are laid out
+  //     front to back, every child after the field referring to it, so all
+  //     uoffsets point forward. Tables start at 4 mod 8 so that 8-byte fields
+  //     right after the vtable offset are aligned; struct vectors start their
+  //     elements at 0 mod 8. Output is padded to 8 bytes.
+  // -----------------------------------------------------------------------------
+  static final class Flat
+  {
+    // --- table: {field id, size (1, 2, 4, 8; 0: reference), value / child}
+    static final class Table
+    {
+      final List<Object[]> fields = new ArrayList<Object[]>();
+
+      Table add(int id, int size, long value) {fields.add(new Object[] {id, size, value}); return this;}
+
+      // --- child: Table, String, Table[] or Structs
+      Table ref(int id, Object child) {fields.add(new Object[] {id, 0, child}); return this;}
+    }
+
+    // --- vector of structs, little endian
+    static final class Structs
+    {
+      final int        count;
+      final ByteBuffer bytes;
+
+      Structs(int count, int size)
+      {
+        this.count = count;
+        this.bytes = ByteBuffer.allocate(count * size).order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      Structs putLong(long v) {bytes.putLong(v); return this;}
+      Structs putInt(int v)   {bytes.putInt(v);  return this;}
+    }
+
+    private ByteBuffer buf = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+    private int        pos;
+
+    static byte[] finish(Table root)
+    {
+      Flat f = new Flat();
+      f.pos = 4;
+      int at = f.table(root);
+      f.ensure(0);
+      f.buf.putInt(0, at);
+
+      int length = (f.pos + 7) & ~7;
+      f.ensure(length - f.pos);
+      return Arrays.copyOf(f.buf.array(), length);
+    }
+
+    private void ensure(int more)
+    {
+      if (pos + more <= buf.capacity()) return;
+      ByteBuffer next = ByteBuffer.allocate(Math.max(2 * buf.capacity(), pos + more)).order(ByteOrder.LITTLE_ENDIAN);
+      next.put(buf.array(), 0, buf.capacity());
+      buf = next;
+    }
+
+    private int table(Table t)
+    {
+      int slots = 0;
+      for (Object[] f : t.fields) slots = Math.max(slots, (Integer) f[0] + 1);
+
+      // --- inline order: 8, 4 (references too), 2, 1 byte fields
+      List<Object[]> order = new ArrayList<Object[]>(t.fields);
+      order.sort((a, b) -> Integer.compare(width(b), width(a)));
+
+      int vtable = (pos + 1) & ~1;
+      int start  = vtable + 4 + 2 * slots;
+      while (start % 8 != 4) start++;
+
+      int[] at     = new int[order.size()];
+      int   cursor = start + 4;
+      for (int i = 0; i < at.length; i++)
+      {
+        int w = width(order.get(i));
+        cursor = (cursor + w - 1) / w * w;
+        at[i]  = cursor;
+        cursor += w;
+      }
+
+      pos = cursor;
+      ensure(0);
+
+      buf.putShort(vtable, (short) (4 + 2 * slots));
+      buf.putShort(vtable + 2, (short) (cursor - start));
+      for (int i = 0; i < at.length; i++) buf.putShort(vtable + 4 + 2 * (Integer) order.get(i)[0], (short) (at[i] - start));
+      buf.putInt(start, start - vtable);
+
+      for (int i = 0; i < at.length; i++)
+      {
+        Object[] f = order.get(i);
+        long     v = (Integer) f[1] == 0 ? 0 : (Long) f[2];
+        switch ((Integer) f[1])
+        {
+          case 1: buf.put(at[i], (byte) v);       break;
+          case 2: buf.putShort(at[i], (short) v); break;
+          case 4: buf.putInt(at[i], (int) v);     break;
+          case 8: buf.putLong(at[i], v);          break;
+          default: break;
+        }
+      }
+
+      // --- children after the table
+      for (int i = 0; i < at.length; i++)
+        if ((Integer) order.get(i)[1] == 0)
+        {
+          int child = object(order.get(i)[2]);
+          buf.putInt(at[i], child - at[i]);
+        }
+
+      return start;
+    }
+
+    private static int width(Object[] field) {return (Integer) field[1] == 0 ? 4 : (Integer) field[1];}
+
+    private int object(Object child)
+    {
+      if (child instanceof Table) return table((Table) child);
+
+      if (child instanceof String)
+      {
+        byte[] s = ((String) child).getBytes(StandardCharsets.UTF_8);
+        pos = (pos + 3) & ~3;
+        ensure(4 + s.length + 1);
+        int at = pos;
+        buf.putInt(at, s.length);
+        for (int i = 0; i < s.length; i++) buf.put(at + 4 + i, s[i]);
+        buf.put(at + 4 + s.length, (byte) 0);
+        pos = at + 4 + s.length + 1;
+        return at;
+      }
+
+      if (child instanceof Table[])
+      {
+        Table[] tables = (Table[]) child;
+        pos = (pos + 3) & ~3;
+        ensure(4 + 4 * tables.length);
+        int at = pos;
+        buf.putInt(at, tables.length);
+        pos = at + 4 + 4 * tables.length;
+        for (int i = 0; i < tables.length; i++)
+        {
+          int slot = at + 4 + 4 * i;
+          int t    = table(tables[i]);
+          buf.putInt(slot, t - slot);
+        }
+        return at;
+      }
+
+      Structs s = (Structs) child;
+      while (pos % 8 != 4) pos++;
+      ensure(4 + s.bytes.capacity());
+      int at = pos;
+      buf.putInt(at, s.count);
+      for (int i = 0; i < s.bytes.capacity(); i++) buf.put(at + 4 + i, s.bytes.get(i));
+      pos = at + 4 + s.bytes.capacity();
+      return at;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+}
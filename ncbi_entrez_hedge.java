@@ -0,0 +1,358 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*********************************************************************************
+ * H E D G E D   R E Q U E S T S
+ * -----------------------------
+ *
+ * EntrezTransport decorator against tail latency: a request that has not
+ * answered after the q-th percentile (default 95th) of recent latencies of
+ * its endpoint is sent a second time, and whichever answer comes first is
+ * used; the other request is cancelled (a late stream is closed).
+ *
+ * - latencies are learned per endpoint from the last 256 answers (get / post
+ *   until the body is read, open / request until the headers); no hedging
+ *   before 20 of them, nor earlier than minDelay (default 50 ms)
+ * - hedges are capped at `budget` of the requests (default 5%), so a slow
+ *   NCBI never sees more than 5% extra load
+ * - with permits(governor) a hedge is only sent if the rate governor has a
+ *   token free right now: hedges use spare rate and never delay the queue
+ * - a request failing before its hedge is sent fails as before (so the
+ *   governor still retries 429 / 5xx); once hedged, it fails if both do
+ * - hedged(), wins() (the second request answered first) & hedgeRate() are
+ *   counted here and per endpoint in EntrezMetrics
+ *
+ * It belongs below the governor, which then paces first requests as before:
+ *
+ *   Entrez -> RateLimitedTransport -> HedgedTransport -> HttpTransport
+ *
+ * governed(inner, apiKey) builds that stack.
+ ********************************************************************************/
+class HedgedTransport implements EntrezTransport
+{
+  private interface Call<T> {T run() throws IOException;}
+
+  private final EntrezTransport inner;
+  private final ExecutorService executor;
+
+  private volatile double quantile   = 0.95;
+  private volatile double budget     = 0.05;   // --- hedges per request
+  private volatile int    window     = 256;    // --- latencies kept per endpoint
+  private volatile int    minSamples = 20;
+  private volatile long   minDelay   = 50;     // --- ms
+
+  private volatile RateLimitedTransport governor;
+  private volatile EntrezMetrics        metrics = EntrezMetrics.shared();
+
+  private final Map<String, Latencies> latencies = new ConcurrentHashMap<String, Latencies>();
+
+  private double credit = 1;                   // --- hedges that may be sent now
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder hedged   = new LongAdder();
+  private final LongAdder wins     = new LongAdder();
+
+
+  public HedgedTransport(EntrezTransport inner)
+  {
+    this(inner, Executors.newCachedThreadPool(r ->
+    {
+      Thread t = new Thread(r, "entrez-hedge");
+      t.setDaemon(true);
+      return t;
+    }));
+  }
+
+  // --- requests run on executor (both of them: the caller only waits)
+  public HedgedTransport(EntrezTransport inner, ExecutorService executor)
+  {
+    this.inner    = inner;
+    this.executor = executor;
+  }
+
+  // --- Entrez -> governor -> hedging -> inner, hedges paid from spare tokens
+  static RateLimitedTransport governed(EntrezTransport inner, String apiKey)
+  {
+    HedgedTransport      hedging  = new HedgedTransport(inner);
+    RateLimitedTransport governor = new RateLimitedTransport(hedging, apiKey);
+    hedging.permits(governor);
+    return governor;
+  }
+
+  // --- hedge after this percentile of recent latencies (0 < q < 1)
+  public HedgedTransport quantile(double q)
+  {
+    this.quantile = q;
+    return this;
+  }
+
+  // --- at most this fraction of requests is hedged (0 = never)
+  public HedgedTransport budget(double fraction)
+  {
+    this.budget = fraction;
+    return this;
+  }
+
+  // --- latencies kept per endpoint, and needed before the first hedge
+  public HedgedTransport window(int samples, int min)
+  {
+    this.window     = Math.max(1, samples);
+    this.minSamples = Math.max(1, Math.min(min, samples));
+    latencies.clear();
+    return this;
+  }
+
+  public HedgedTransport minDelay(long millis)
+  {
+    this.minDelay = millis;
+    return this;
+  }
+
+  // --- hedges take a free token of this governor, or are not sent
+  public HedgedTransport permits(RateLimitedTransport governor)
+  {
+    this.governor = governor;
+    return this;
+  }
+
+  public HedgedTransport metrics(EntrezMetrics metrics)
+  {
+    this.metrics = metrics;
+    return this;
+  }
+
+  // --- metrics
+  public long   requests()  {return requests.sum();}
+  public long   hedged()    {return hedged.sum();}
+  public long   wins()      {return wins.sum();}
+  public double hedgeRate() {long n = requests.sum(); return n == 0 ? 0 : (double) hedged.sum() / n;}
+
+  // --- current hedge delay (ms) for url's buffered requests, -1 while still learning
+  public double delayMillis(String url)
+  {
+    long d = delay(key(url, false));
+    return d < 0 ? -1 : d / 1e6;
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   T R A N S P O R T   * * * * * * * * * * * * * *
+
+  public EntrezResponse get(final String url) throws IOException
+  {
+    return hedge(url, false, () -> inner.get(url));
+  }
+
+  public EntrezResponse post(final String url, final String form) throws IOException
+  {
+    return hedge(url, false, () -> inner.post(url, form));
+  }
+
+  public InputStream open(final String url) throws IOException
+  {
+    return hedge(url, true, () -> inner.open(url));
+  }
+
+  public EntrezStream request(final String url, final Map<String, String> headers) throws IOException
+  {
+    return hedge(url, true, () -> inner.request(url, headers));
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- run call; if it has not answered after the learned delay, run it once
+  //     more and return the first answer
+  // -----------------------------------------------------------------------------
+  private <T> T hedge(String url, boolean stream, Call<T> call) throws IOException
+  {
+    requests.increment();
+    synchronized (this) {credit = Math.min(credit + budget, 10);}
+
+    String  key   = key(url, stream);
+    long    delay = delay(key);
+    Race<T> race  = new Race<T>(key);
+
+    race.start(call);
+    try
+    {
+      if (delay >= 0)
+      {
+        try {return race.first.get(delay, TimeUnit.NANOSECONDS);}
+        catch (TimeoutException e)
+        {
+          if (permit())
+          {
+            hedged.increment();
+            metrics.hedged(url);
+            race.start(call);
+          }
+        }
+      }
+
+      T value = race.first.get();
+      if (race.winner.get() == 1)
+      {
+        wins.increment();
+        metrics.hedgeWon(url);
+      }
+      return value;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for " + url);
+    }
+    catch (ExecutionException e)
+    {
+      // --- rethrown as is: the governor retries by EntrezHttpException status
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)      throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw (Error) cause;
+    }
+    finally
+    {
+      race.first.cancel(false);
+      race.cancelLosers();
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- budget left & (behind a governor) a free token
+  private synchronized boolean permit()
+  {
+    if (credit < 1) return false;
+
+    RateLimitedTransport g = governor;
+    if (g != null && !g.tryAcquire()) return false;
+
+    credit -= 1;
+    return true;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- the first request (0) and its hedge (1): first completes with the first
+  //     answer, or with the first request's failure once both have failed
+  // -----------------------------------------------------------------------------
+  private final class Race<T>
+  {
+    final CompletableFuture<T> first  = new CompletableFuture<T>();
+    final AtomicInteger        winner = new AtomicInteger(-1);
+
+    private final String      key;
+    private final Future<?>[] runs = new Future<?>[2];
+    private int               started, failed;
+    private Throwable         failure;
+
+    Race(String key) {this.key = key;}
+
+    synchronized void start(final Call<T> call)
+    {
+      final int i = started++;
+      runs[i] = executor.submit(() ->
+      {
+        long t0 = System.nanoTime();
+        try
+        {
+          T value = call.run();
+          record(key, System.nanoTime() - t0);
+          // --- winner decided before the caller can see the answer
+          if (!winner.compareAndSet(-1, i) || !first.complete(value)) discard(value);
+        }
+        catch (Throwable e) {fail(i, e);}
+      });
+    }
+
+    private synchronized void fail(int i, Throwable e)
+    {
+      if (failure == null || i == 0) failure = e;
+      if (++failed == started) first.completeExceptionally(failure);
+    }
+
+    // --- a hedge may still be started by the caller: decided under the lock
+    synchronized void cancelLosers()
+    {
+      for (int i = 0; i < started; i++) if (i != winner.get()) runs[i].cancel(true);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- a stream that lost the race (or came after the caller gave up)
+  private static void discard(Object value)
+  {
+    if (!(value instanceof Closeable)) return;
+    try {((Closeable) value).close();} catch (IOException e) {}
+  }
+
+
+
+  // * * * * * * * * * * * * * *   L A T E N C I E S   * * * * * * * * * * * * * * *
+
+  private static String key(String url, boolean stream)
+  {
+    String endpoint = EntrezMetrics.endpointName(url);
+    return stream ? endpoint + "/headers" : endpoint;
+  }
+
+  private void record(String key, long nanos)
+  {
+    latencies.computeIfAbsent(key, k -> new Latencies(window)).add(nanos);
+  }
+
+  // --- hedge delay (ns) for key, -1 while fewer than minSamples are known
+  private long delay(String key)
+  {
+    Latencies l = latencies.get(key);
+    long      q = l == null ? -1 : l.quantile(quantile, minSamples);
+    return q < 0 ? -1 : Math.max(q, minDelay * 1000000L);
+  }
+
+
+
+  // --- ring of the most recent latencies (ns) of one endpoint
+  private static final class Latencies
+  {
+    private final long[] ring;
+    private int          next, size;
+
+    Latencies(int capacity) {ring = new long[capacity];}
+
+    synchronized void add(long nanos)
+    {
+      ring[next] = nanos;
+      next       = (next + 1) % ring.length;
+      size       = Math.min(size + 1, ring.length);
+    }
+
+    synchronized long quantile(double q, int min)
+    {
+      if (size < min) return -1;
+
+      long[] sorted = Arrays.copyOf(ring, size);
+      Arrays.sort(sorted);
+      return sorted[Math.max(0, Math.min(size - 1, (int) Math.ceil(q * size) - 1))];
+    }
+  }
+
+}
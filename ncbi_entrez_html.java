@@ -0,0 +1,1275 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*********************************************************************************
+ * H T M L   R E W R I T E R
+ * -------------------------
+ *
+ * Single-pass replacement for the region cutting and the ~45 replaceAll calls
+ * of the original Entrez.cleanPMC_HTMLtags (kept below as legacy()).
+ *
+ * The page is cut into tokens (text runs and tags) in one left-to-right scan.
+ * Regions that are dropped as a whole (comments, scripts, sidebar cells, the
+ * footer, tables) are skipped by the scanner itself; every other token flows
+ * through a chain of stages in the order of the rule table (consecutive
+ * one-tag rules share a stage) into a reusable output buffer. Rules:
+ *
+ *   drop / replace   one tag             "<td[^>]*>"             -> ""
+ *   drop / replace   run of tags         "</br>", "\\s*", "<br>" -> ""
+ *   rename           start of a tag      "<div class=\"ref-cit-blk\"" -> "<a"
+ *   cut              attribute up to '>' "class=\"fig-table-link\" " -> ">"
+ *   substitute       text & attributes   "articlerender.fcgi" -> base + ...
+ *
+ * Tag patterns are written like the regexes they replace: "<name[^>]*>" matches
+ * every tag starting with "<name", anything else matches one tag exactly, and
+ * '.' matches any character but a line terminator. Unchanged tokens are passed
+ * on as ranges of the input, so nothing is copied unless a rule rewrites it.
+ *
+ * As long as every '<' starts a tag that ends at the next '>' and the sidebar
+ * marker only occurs inside a tag, the output is the same as the original
+ * code's. For input that breaks this the original code (legacy) is run.
+ ********************************************************************************/
+class HtmlRewriter
+{
+  private static final String WS = "\\s*";        // --- whitespace between tags of a run
+  private static final char   ID = '\uFFFF';      // --- placeholder for a not yet known article id
+
+  private static final int EMIT = 0, TABLE = 1, FOOTER = 2;
+
+  private interface Rule {Stage stage(Doc doc);}
+
+  private final List<Rule> rules  = new ArrayList<Rule>();
+  private TagRules         last;              // --- one-tag rules added right before
+  private String           filter = "";
+
+  // --- page layout: content start, dropped cells, dropped footer
+  private String content, cells, footer, footerEnd;
+
+  private final ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>()
+  {
+    @Override protected StringBuilder initialValue() {return new StringBuilder(64 * 1024);}
+  };
+
+  // --- thrown by the scanner when the input is outside what the stages model
+  private static final class Fallback extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+
+    Fallback() {super(null, null, false, false);}
+  }
+  private static final Fallback FALLBACK = new Fallback();
+
+  // --- per-document state shared by the stages
+  private static final class Doc
+  {
+    String id;
+    int    placeholders;
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   R U L E   T A B L E   * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- page layout: output starts at the tag holding `content`; cells whose tag
+  //     holds `cells` are dropped up to their "</td>"; everything from the
+  //     `footer` tag up to `footerEnd` is dropped
+  // -----------------------------------------------------------------------------
+  public HtmlRewriter page(String content, String cells, String footer, String footerEnd)
+  {
+    this.content   = content;
+    this.cells     = cells;
+    this.footer    = footer;
+    this.footerEnd = footerEnd;
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- characters removed everywhere, before any rule sees the text
+  public HtmlRewriter removeChars(String chars)
+  {
+    this.filter = chars;
+    return this;
+  }
+
+
+
+  // --- one tag, or a run of adjacent tags ("\\s*": optional whitespace), is removed
+  public HtmlRewriter drop(String... run)
+  {
+    return replaceRun("", run);
+  }
+
+  // --- one tag is replaced by markup
+  public HtmlRewriter replace(String tag, String with)
+  {
+    return replaceRun(with, tag);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- a run of adjacent tags is replaced by markup
+  // -----------------------------------------------------------------------------
+  public HtmlRewriter replaceRun(final String with, String... run)
+  {
+    final Tag[]  tags = tags(run);
+    final Markup m    = new Markup(with);
+
+    if (tags.length == 1) return table().add(tags[0], m, null);
+
+    rules.add(doc -> new Run(tags, m, false));
+    last = null;
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- a run of adjacent tags is replaced by markup followed by its last tag
+  //     (whose matched prefix is written out literally, as a regex would)
+  // -----------------------------------------------------------------------------
+  public HtmlRewriter replaceBefore(final String with, String... run)
+  {
+    final Tag[]  tags = tags(run);
+    final Markup m    = new Markup(with);
+
+    rules.add(doc -> new Run(tags, m, true));
+    last = null;
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- tags starting with `prefix` start with `with` instead
+  public HtmlRewriter rename(String prefix, String with)
+  {
+    return table().add(new Tag(prefix, true), null, with);
+  }
+
+  // --- in a tag, everything from `attribute` up to the '>' is replaced by `with`
+  public HtmlRewriter cut(final String attribute, final String with)
+  {
+    rules.add(doc -> new Cut(attribute, with));
+    last = null;
+    return this;
+  }
+
+  // --- literal replacement in text and inside tags
+  public HtmlRewriter substitute(String text, String with)
+  {
+    final String[] from = {text}, to = {with};
+    rules.add(doc -> new Substitute(from, to));
+    last = null;
+    return this;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- relative links (text or attributes) are prefixed with base
+  // -----------------------------------------------------------------------------
+  public HtmlRewriter absolutize(String base, String... paths)
+  {
+    final String[] from = paths.clone(), to = new String[paths.length];
+    for (int i = 0; i < paths.length; i++) to[i] = base + paths[i];
+
+    rules.add(doc -> new Substitute(from, to));
+    last = null;
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- tags starting with `prefix` ("<a href=\"#E") point into the article:
+  //     prefix becomes url + id + tail, where id is the number after the first
+  //     `marker` ("articlerender.fcgi?artid=") anywhere in the page
+  // -----------------------------------------------------------------------------
+  public HtmlRewriter anchors(final String prefix, final String tail, final String marker, final String url)
+  {
+    rules.add(doc -> new Anchors(doc, prefix, tail, marker, url));
+    last = null;
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- "[" open text close "]" is removed, e.g. [<a ..>PubMed</a>]
+  // -----------------------------------------------------------------------------
+  public HtmlRewriter dropBracketed(String open, final String text, String close)
+  {
+    final Tag o = Tag.parse(open), c = Tag.parse(close);
+    rules.add(doc -> new Bracketed(o, text, c));
+    last = null;
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- the one-tag rule group to add to, started if the last rule was another kind
+  private TagRules table()
+  {
+    if (last == null)
+    {
+      final TagRules group = last = new TagRules(this);
+      rules.add(doc -> new TagTable(group));
+    }
+    return last;
+  }
+
+
+
+  private static Tag[] tags(String[] run)
+  {
+    if (run.length == 0 || run[0].equals(WS) || run[run.length - 1].equals(WS))
+      throw new IllegalArgumentException("a run must start and end with a tag: " + Arrays.toString(run));
+
+    Tag[] tags = new Tag[run.length];
+    for (int i = 0; i < run.length; i++) tags[i] = run[i].equals(WS) ? null : Tag.parse(run[i]);
+    return tags;
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   R E W R I T E   * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- rewrite a page, reusing a per-thread buffer
+  // -----------------------------------------------------------------------------
+  public String rewrite(CharSequence text)
+  {
+    // --- tokens are ranges of the input: it must not change (and charAt on a
+    //     StringBuffer is synchronized)
+    CharSequence  in  = (text instanceof StringBuffer || text instanceof StringBuilder) ? text.toString() : text;
+    StringBuilder out = buffer.get();
+    Doc           doc = new Doc();
+
+    out.setLength(0);
+
+    Stage chain = new Out(out);
+    for (int i = rules.size() - 1; i >= 0; i--)
+    {
+      Stage stage = rules.get(i).stage(doc);
+      stage.next  = chain;
+      chain       = stage;
+    }
+
+    try
+    {
+      scan(in, chain);
+    }
+    catch (Fallback e)
+    {
+      out.setLength(0);
+      return legacy(in);
+    }
+
+    String clean = out.toString();
+    if (doc.placeholders > 0) clean = clean.replace(String.valueOf(ID), doc.id == null ? "" : doc.id);
+    if (out.capacity() > 16 * 1024 * 1024) buffer.remove();
+    return clean;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- cut the page into tokens, skipping dropped regions
+  // -----------------------------------------------------------------------------
+  private void scan(CharSequence in, Stage out)
+  {
+    int n     = in.length();
+    int start = content == null ? -1 : indexOf(in, content, 0);
+
+    if (start < 0) start = 0;
+    else while (start > 0 && in.charAt(start) != '<') start--;
+
+    int     cell       = cells == null ? -1 : indexOf(in, cells, start);
+    int     mode       = EMIT;
+    boolean footerDone = footer == null;
+    boolean tailDone   = footerEnd == null;
+    boolean dirty      = false;        // --- token holds characters to filter
+    int     text       = start;
+    int     i          = start;
+
+    while (i < n)
+    {
+      char c = in.charAt(i);
+
+      if (c != '<')
+      {
+        if (c >= 0xA0) dirty |= dirty(c);
+        i++;
+        continue;
+      }
+
+      // --- a sidebar marker outside a tag (text, dropped region)
+      if (cell >= 0 && cell < i) throw FALLBACK;
+
+      if (mode == EMIT) token(false, in, text, i, dirty, out);
+      dirty = false;
+
+      if (mode == FOOTER && startsWith(in, i, footerEnd))
+      {
+        mode       = EMIT;
+        footerDone = true;
+      }
+
+      if (startsWith(in, i, "<!--"))
+      {
+        int end = indexOf(in, "-->", i);
+        i = text = end < 0 ? n : end + 3;
+        continue;
+      }
+      if (startsWith(in, i, "<script"))
+      {
+        i = text = endOfScript(in, i);
+        continue;
+      }
+
+      int j = i + 1;
+      while (j < n && (c = in.charAt(j)) != '>')
+      {
+        if (c == '<') throw FALLBACK;
+        if (c >= 0xA0) dirty |= dirty(c);
+        j++;
+      }
+      if (j == n) throw FALLBACK;
+      j++;
+
+      if (cell >= i && cell < j)
+      {
+        // --- sidebar cell: up to the next "</td>", whatever is inside
+        int end = indexOf(in, "</td>", i);
+        if (end < 0) throw FALLBACK;
+        i = text = end + 5;
+        cell  = indexOf(in, cells, i);
+        dirty = false;
+        continue;
+      }
+
+      if (mode == EMIT)
+      {
+        if (!footerDone && startsWith(in, i, footer))
+          mode = FOOTER;
+        else if (startsWith(in, i, "<table"))
+          mode = TABLE;
+        else if (!tailDone && startsWith(in, i, "</table>") && startsWith(in, j, "</body></html>"))
+          tailDone = true;                     // --- the footer's "</table>" goes as well
+        else
+          token(true, in, i, j, dirty, out);
+      }
+      else if (mode == TABLE)
+      {
+        // --- the footer & its "</table>" were cut before the tables
+        if (!footerDone && startsWith(in, i, footer)) throw FALLBACK;
+        if (startsWith(in, i, "</table>"))
+        {
+          if (!tailDone && startsWith(in, j, "</body></html>")) throw FALLBACK;
+          mode = EMIT;
+        }
+      }
+
+      dirty = false;
+      i = text = j;
+    }
+
+    if (cell >= 0 || mode == FOOTER) throw FALLBACK;
+    if (mode == EMIT) token(false, in, text, n, dirty, out);
+
+    out.end();
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- end of a script starting at i; comments inside are skipped first
+  private static int endOfScript(CharSequence in, int i)
+  {
+    int n = in.length();
+
+    for (i += 7; i < n; i++)
+    {
+      if (in.charAt(i) != '<') continue;
+      if (startsWith(in, i, "</script>")) return i + 9;
+      if (startsWith(in, i, "<!--"))
+      {
+        int end = indexOf(in, "-->", i);
+        if (end < 0) return n;
+        i = end + 2;
+      }
+    }
+    return n;
+  }
+
+
+
+  private boolean dirty(char c)
+  {
+    if (c == ID) throw FALLBACK;
+    return filter.indexOf(c) >= 0;
+  }
+
+
+
+  // --- pass a token on, without the filtered characters if it holds any
+  private void token(boolean tag, CharSequence in, int b, int e, boolean dirty, Stage out)
+  {
+    if (dirty)
+    {
+      StringBuilder s = new StringBuilder(e - b);
+      for (int k = b; k < e; k++)
+        if (filter.indexOf(in.charAt(k)) < 0) s.append(in.charAt(k));
+      in = s.toString();
+      b  = 0;
+      e  = s.length();
+    }
+    out.emit(tag, in, b, e);
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   M A T C H I N G   * * * * * * * * * * * * * * *
+
+  // --- s[b..] starts with p; '.' in p matches any character but a line terminator
+  static boolean at(CharSequence s, int b, int e, String p)
+  {
+    if (e - b < p.length()) return false;
+
+    for (int k = 0; k < p.length(); k++)
+    {
+      char c = p.charAt(k), d = s.charAt(b + k);
+      if (c != d && (c != '.' || d == '\n' || d == '\r' || d == '\u0085' || d == '\u2028' || d == '\u2029'))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean startsWith(CharSequence s, int b, String p)
+  {
+    if (s.length() - b < p.length()) return false;
+    for (int k = 0; k < p.length(); k++)
+      if (s.charAt(b + k) != p.charAt(k)) return false;
+    return true;
+  }
+
+  private static int indexOf(CharSequence s, String p, int from)
+  {
+    if (s instanceof String) return ((String) s).indexOf(p, from);
+
+    char first = p.charAt(0);
+    for (int i = Math.max(from, 0), last = s.length() - p.length(); i <= last; i++)
+      if (s.charAt(i) == first && startsWith(s, i, p)) return i;
+    return -1;
+  }
+
+  private static boolean blank(CharSequence s, int b, int e)
+  {
+    for (int k = b; k < e; k++)
+    {
+      char c = s.charAt(k);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') return false;
+    }
+    return true;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- tag pattern: "<name[^>]*>" any tag starting with "<name", else one tag
+  // -----------------------------------------------------------------------------
+  private static final class Tag
+  {
+    final String  literal;
+    final boolean prefix;
+
+    Tag(String literal, boolean prefix)
+    {
+      this.literal = literal;
+      this.prefix  = prefix;
+
+      if (literal.length() < 2 || literal.charAt(0) != '<' || literal.indexOf('>') != (prefix ? -1 : literal.length() - 1))
+        throw new IllegalArgumentException("not a tag pattern: " + literal);
+    }
+
+    static Tag parse(String pattern)
+    {
+      boolean prefix = pattern.endsWith("[^>]*>");
+      return new Tag(prefix ? pattern.substring(0, pattern.length() - 6) : pattern, prefix);
+    }
+
+    boolean matches(CharSequence s, int b, int e)
+    {
+      return (prefix || e - b == literal.length()) && at(s, b, e, literal);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- replacement markup, cut into tokens once
+  // -----------------------------------------------------------------------------
+  private static final class Markup
+  {
+    final List<String>  parts = new ArrayList<String>();
+    final List<Boolean> tags  = new ArrayList<Boolean>();
+
+    Markup(String s)
+    {
+      int b = 0;
+      while (b < s.length())
+      {
+        int lt = s.indexOf('<', b), gt = lt < 0 ? -1 : s.indexOf('>', lt);
+        if (gt < 0) {add(false, s.substring(b)); break;}
+        add(false, s.substring(b, lt));
+        add(true,  s.substring(lt, gt + 1));
+        b = gt + 1;
+      }
+    }
+
+    private void add(boolean tag, String part)
+    {
+      if (part.length() == 0) return;
+      parts.add(part);
+      tags.add(tag);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // * * * * * * * * * * * * * * *   S T A G E S   * * * * * * * * * * * * * * * * *
+
+  private static abstract class Stage
+  {
+    Stage next;
+
+    abstract void token(boolean tag, CharSequence s, int b, int e);
+
+    void end() {next.end();}
+
+    final void emit(boolean tag, CharSequence s, int b, int e)
+    {
+      if (b < e) token(tag, s, b, e);
+    }
+
+    final void emitNext(boolean tag, CharSequence s, int b, int e)
+    {
+      if (b < e) next.token(tag, s, b, e);
+    }
+
+    final void emitNext(Markup m)
+    {
+      for (int k = 0; k < m.parts.size(); k++)
+        next.token(m.tags.get(k), m.parts.get(k), 0, m.parts.get(k).length());
+    }
+  }
+
+
+
+  // --- appends to the output buffer
+  private static final class Out extends Stage
+  {
+    private final StringBuilder out;
+
+    Out(StringBuilder out) {this.out = out;}
+
+    void token(boolean tag, CharSequence s, int b, int e) {out.append(s, b, e);}
+
+    void end() {}
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- consecutive one-tag rules (tag -> markup, tag prefix -> other prefix),
+  //     indexed by the character after '<' so a tag is only tried against
+  //     rules that can match it
+  // -----------------------------------------------------------------------------
+  private static final class TagRules
+  {
+    private final HtmlRewriter owner;
+    final List<Tag>            tags   = new ArrayList<Tag>();
+    final List<Markup>         with   = new ArrayList<Markup>();
+    final List<String>         rename = new ArrayList<String>();
+    int[][]                    byChar = new int[129][];    // --- [128]: any other character
+
+    TagRules(HtmlRewriter owner) {this.owner = owner;}
+
+    HtmlRewriter add(Tag tag, Markup m, String prefix)
+    {
+      tags.add(tag);
+      with.add(m);
+      rename.add(prefix);
+
+      int[][] index = new int[129][];
+      for (int c = 0; c < index.length; c++)
+      {
+        int[] rules = new int[tags.size()];
+        int   n     = 0;
+        for (int r = 0; r < tags.size(); r++)
+        {
+          char second = tags.get(r).literal.charAt(1);
+          if (second == '.' || second == c || (c == 128 && second >= 128)) rules[n++] = r;
+        }
+        index[c] = Arrays.copyOf(rules, n);
+      }
+      byChar = index;
+
+      return owner;
+    }
+  }
+
+  private static final class TagTable extends Stage
+  {
+    private final TagRules rules;
+
+    TagTable(TagRules rules) {this.rules = rules;}
+
+    void token(boolean t, CharSequence s, int b, int e)
+    {
+      if (t) apply(0, s, b, e);
+      else   next.token(false, s, b, e);
+    }
+
+    // --- first rule from `first` on that matches; what it writes goes on to the rules after it
+    private void apply(int first, CharSequence s, int b, int e)
+    {
+      char c = s.charAt(b + 1);
+
+      for (int r : rules.byChar[Math.min(c, 128)])
+      {
+        if (r < first || !rules.tags.get(r).matches(s, b, e)) continue;
+
+        String prefix = rules.rename.get(r);
+        if (prefix != null)
+        {
+          String tag = prefix + s.subSequence(b + rules.tags.get(r).literal.length(), e);
+          apply(r + 1, tag, 0, tag.length());
+          return;
+        }
+
+        Markup m = rules.with.get(r);
+        for (int k = 0; k < m.parts.size(); k++)
+        {
+          String part = m.parts.get(k);
+          if (m.tags.get(k)) apply(r + 1, part, 0, part.length());
+          else next.token(false, part, 0, part.length());
+        }
+        return;
+      }
+
+      next.token(true, s, b, e);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- attribute up to the end of the tag -> replacement
+  private static final class Cut extends Stage
+  {
+    private final String attribute, with;
+
+    Cut(String attribute, String with) {this.attribute = attribute; this.with = with;}
+
+    void token(boolean t, CharSequence s, int b, int e)
+    {
+      if (t)
+        for (int k = b + 1; k < e; k++)
+          if (s.charAt(k) == attribute.charAt(0) && at(s, k, e, attribute))
+          {
+            String tag = s.subSequence(b, k) + with;
+            next.token(true, tag, 0, tag.length());
+            return;
+          }
+      next.token(t, s, b, e);
+    }
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- run of adjacent tags (null: whitespace-only text) -> markup
+  // -----------------------------------------------------------------------------
+  private static final class Run extends Stage
+  {
+    private final Tag[]   tags;
+    private final Markup  with;
+    private final boolean keepLast;
+
+    // --- tokens held while they match the start of the run
+    private boolean[]      held = new boolean[8];
+    private CharSequence[] src  = new CharSequence[8];
+    private int[]          from = new int[8], to = new int[8];
+    private int            n, pos;
+
+    Run(Tag[] tags, Markup with, boolean keepLast)
+    {
+      this.tags     = tags;
+      this.with     = with;
+      this.keepLast = keepLast;
+    }
+
+    void token(boolean t, CharSequence s, int b, int e)
+    {
+      if (n == 0)
+      {
+        if (t && tags[0].matches(s, b, e)) {hold(t, s, b, e); pos = 1;}
+        else next.token(t, s, b, e);
+        return;
+      }
+
+      Tag want = tags[pos];
+      if (want == null)
+      {
+        if (!t && blank(s, b, e)) {hold(t, s, b, e); return;}
+        want = t ? tags[++pos] : null;
+      }
+
+      if (t && want != null && want.matches(s, b, e))
+      {
+        hold(t, s, b, e);
+        if (++pos == tags.length) complete();
+      }
+      else fail(t, s, b, e);
+    }
+
+    void end()
+    {
+      for (int k = 0; k < n; k++) next.token(held[k], src[k], from[k], to[k]);
+      n = pos = 0;
+      next.end();
+    }
+
+    private void hold(boolean t, CharSequence s, int b, int e)
+    {
+      if (n == held.length)
+      {
+        held = Arrays.copyOf(held, 2 * n);
+        src  = Arrays.copyOf(src,  2 * n);
+        from = Arrays.copyOf(from, 2 * n);
+        to   = Arrays.copyOf(to,   2 * n);
+      }
+      held[n] = t; src[n] = s; from[n] = b; to[n] = e;
+      n++;
+    }
+
+    private void complete()
+    {
+      emitNext(with);
+      if (keepLast)
+      {
+        // --- the regex wrote its pattern back, so '.' comes out literally
+        int    k   = n - 1;
+        String lit = tags[tags.length - 1].literal;
+        String tag = lit + src[k].subSequence(from[k] + lit.length(), to[k]);
+        next.token(true, tag, 0, tag.length());
+      }
+      n = pos = 0;
+    }
+
+    // --- no run starts at the first held token: pass it on, rescan the rest
+    private void fail(boolean t, CharSequence s, int b, int e)
+    {
+      int k = 1;
+      while (k < n && !(held[k] && tags[0].matches(src[k], from[k], to[k]))) k++;
+
+      for (int i = 0; i < k; i++) next.token(held[i], src[i], from[i], to[i]);
+
+      if (k == n)
+      {
+        n = pos = 0;
+        token(t, s, b, e);
+        return;
+      }
+
+      int            rest = n - k;
+      boolean[]      rt   = Arrays.copyOfRange(held, k, n);
+      CharSequence[] rs   = Arrays.copyOfRange(src,  k, n);
+      int[]          rb   = Arrays.copyOfRange(from, k, n);
+      int[]          re   = Arrays.copyOfRange(to,   k, n);
+
+      n = pos = 0;
+      for (int i = 0; i < rest; i++) token(rt[i], rs[i], rb[i], re[i]);
+      token(t, s, b, e);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- joins adjacent text tokens (left by dropped tags) before looking at them
+  // -----------------------------------------------------------------------------
+  private static abstract class Coalescing extends Stage
+  {
+    private CharSequence  src;
+    private int           from, to;
+    private StringBuilder joined;
+
+    abstract void text(CharSequence s, int b, int e);
+    abstract void tag(CharSequence s, int b, int e);
+
+    void token(boolean t, CharSequence s, int b, int e)
+    {
+      if (t)
+      {
+        flush();
+        tag(s, b, e);
+      }
+      else if (src == null && joined == null)
+      {
+        src = s; from = b; to = e;
+      }
+      else
+      {
+        if (joined == null) {joined = new StringBuilder().append(src, from, to); src = null;}
+        joined.append(s, b, e);
+      }
+    }
+
+    void end()
+    {
+      flush();
+      done();
+      next.end();
+    }
+
+    void done() {}
+
+    private void flush()
+    {
+      if (joined != null)
+      {
+        String s = joined.toString();
+        joined = null;
+        text(s, 0, s.length());
+      }
+      else if (src != null)
+      {
+        CharSequence s = src;
+        src = null;
+        text(s, from, to);
+      }
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- literal replacements; patterns never overlap one another
+  private static final class Substitute extends Coalescing
+  {
+    private final String[]  from, to;
+    private final boolean[] first;   // --- by character: some pattern starts with it
+
+    Substitute(String[] from, String[] to)
+    {
+      this.from = from;
+      this.to   = to;
+
+      char max = 0;
+      for (String p : from) max = (char) Math.max(max, p.charAt(0));
+      first = new boolean[max + 1];
+      for (String p : from) first[p.charAt(0)] = true;
+    }
+
+    void text(CharSequence s, int b, int e) {replace(false, s, b, e);}
+
+    void tag(CharSequence s, int b, int e)  {replace(true, s, b, e);}
+
+    private void replace(boolean tag, CharSequence s, int b, int e)
+    {
+      StringBuilder out    = null;
+      int           copied = b;
+      int           i      = b;
+
+      while (i < e)
+      {
+        char c = s.charAt(i);
+        if (c >= first.length || !first[c]) {i++; continue;}
+
+        int r = 0;
+        while (r < from.length && !(c == from[r].charAt(0) && at(s, i, e, from[r]))) r++;
+
+        if (r == from.length) {i++; continue;}
+
+        if (out == null) out = new StringBuilder(e - b + 64);
+        out.append(s, copied, i).append(to[r]);
+        i = copied = i + from[r].length();
+      }
+
+      if (out == null) {next.token(tag, s, b, e); return;}
+
+      out.append(s, copied, e);
+      emitNext(tag, out.toString(), 0, out.length());
+    }
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- in-page links: prefix -> url + id + tail; the id may only turn up later
+  //     in the page, then a placeholder is written & replaced at the end
+  // -----------------------------------------------------------------------------
+  private static final class Anchors extends Coalescing
+  {
+    private final Doc    doc;
+    private final String prefix, tail, marker, url;
+
+    Anchors(Doc doc, String prefix, String tail, String marker, String url)
+    {
+      this.doc = doc; this.prefix = prefix; this.tail = tail; this.marker = marker; this.url = url;
+    }
+
+    void text(CharSequence s, int b, int e)
+    {
+      find(s, b, e);
+      next.token(false, s, b, e);
+    }
+
+    void tag(CharSequence s, int b, int e)
+    {
+      find(s, b, e);
+      if (!at(s, b, e, prefix)) {next.token(true, s, b, e); return;}
+
+      String id = doc.id;
+      if (id == null) {id = String.valueOf(ID); doc.placeholders++;}
+
+      String tag = url + id + tail + s.subSequence(b + prefix.length(), e);
+      next.token(true, tag, 0, tag.length());
+    }
+
+    // --- digits after the first marker of the page
+    private void find(CharSequence s, int b, int e)
+    {
+      if (doc.id != null) return;
+
+      int i = b, last = e - marker.length();
+      while (i <= last && !(s.charAt(i) == marker.charAt(0) && startsWith(s, i, marker))) i++;
+      if (i > last) return;
+
+      int d = i + marker.length(), k = d;
+      while (k < e && '0' <= s.charAt(k) && s.charAt(k) <= '9') k++;
+      doc.id = s.subSequence(d, k).toString();
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- "[" open text close "]" -> nothing; text & tags alternate after joining
+  // -----------------------------------------------------------------------------
+  private static final class Bracketed extends Coalescing
+  {
+    private final Tag    open, close;
+    private final String text;
+
+    // --- held: text ending in '[' / open tag / text / close tag
+    private final CharSequence[] src  = new CharSequence[4];
+    private final int[]          from = new int[4], to = new int[4];
+    private int                  n;
+
+    Bracketed(Tag open, String text, Tag close) {this.open = open; this.text = text; this.close = close;}
+
+    void text(CharSequence s, int b, int e)
+    {
+      if (n == 4)
+      {
+        // --- complete if the text after the close tag starts with ']'
+        if (s.charAt(b) == ']')
+        {
+          emitNext(false, src[0], from[0], to[0] - 1);
+          n = 0;
+          b++;
+        }
+        else flush();
+      }
+      else if (n == 2)
+      {
+        if (e - b == text.length() && at(s, b, e, text)) {hold(s, b, e); return;}
+        flush();
+      }
+
+      if (b < e && s.charAt(e - 1) == '[') hold(s, b, e);
+      else emitNext(false, s, b, e);
+    }
+
+    void tag(CharSequence s, int b, int e)
+    {
+      if ((n == 1 && open.matches(s, b, e)) || (n == 3 && close.matches(s, b, e)))
+      {
+        hold(s, b, e);
+        return;
+      }
+      flush();
+      next.token(true, s, b, e);
+    }
+
+    void done() {flush();}
+
+    private void hold(CharSequence s, int b, int e)
+    {
+      src[n] = s; from[n] = b; to[n] = e;
+      n++;
+    }
+
+    private void flush()
+    {
+      for (int k = 0; k < n; k++) emitNext(k % 2 == 1, src[k], from[k], to[k]);
+      n = 0;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // * * * * * * * * * * * * * * *   P M C   * * * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- rule table of Entrez.cleanPMC_HTMLtags, in the original order
+  // -----------------------------------------------------------------------------
+  static HtmlRewriter pmcHtml()
+  {
+    String base = "http://www.pubmedcentral.nih.gov/";
+    String br   = "\n<br></br>\n";
+
+    return new HtmlRewriter()
+      .page("class=\"content-cell\"", "class=\"sidebar-cell\"",
+            "<div class=\"footer-section\">", "</td></tr></table></body></html>")
+
+      .removeChars("\u00C2\u00A0")
+      .drop("<img src=\"corehtml/pmc/pmcgifs/rt-arrow.gif\" alt=\"Small right arrow pointing to:\" style=\"vertical-align: middle;\">")
+      .drop("<a[^>]*>", "<img[^>]*>", "</a>")
+      .drop("</td>")
+      .drop("<td[^>]*>")
+      .drop("</tr>")
+      .drop("<tr[^>]*>")
+      .drop("<br>")
+      .substitute(" class=\"cite-reflink\"", "")
+      .drop("<span[^>]*>")
+      .drop("</span>")
+      .replace("<ul[^>]*>", "<ul>")
+
+      .drop("<div class=\"back-matter-section\">")
+
+      .rename("<div class=\"ref-cit-blk\"", "<a")
+      .replace("<div class=\"ref-label\">", "</a>")
+      .replaceRun(" ", "</div>", "<div class=\"ref-cit\">")
+      .absolutize(base, "articlerender.fcgi", "pagerender.fcgi", "picrender.fcgi", "tocrender.fcgi", "about/copyright.html")
+
+      .anchors("<a href=\"#E", "#E", "articlerender.fcgi?artid=", "<a href=\"" + base + "articlerender.fcgi?artid=")
+      .drop("<a id=\"F[^>]*>", "</a>")
+      .drop("<a id=\"T[^>]*>", "</a>")
+      .cut("class=\"fig-table-link\" ", ">")
+      .drop("<div style=\"clear:both;\">", "</div>")
+      .drop("<div class=\"section-content\">")
+      .drop("<div class=\"head[^>]*>")
+      .drop("<div style=\"margin[^>]*>")
+      .drop("<div style=\"border[^>]*>")
+      .dropBracketed("<a class=\"ref-extlink\"[^>]*>", "PubMed", "</a>")
+      .replace("<div[^>]*>", "\n\n")
+      .replaceRun("</div>", "</div>", "</div>")
+      .replace("</div>", br)
+      .replace("<p>",    br)
+      .replace("</p>",   br)
+
+      .drop("<body[^>]*>")
+      .drop("</body>")
+      .drop("<!DOCTYPE[^>]*>")
+      .drop("</html>")
+      .drop("<html>")
+
+      .drop("</br>", WS, "<br>")
+      .drop("</br>", WS, "<br>")
+      .replaceBefore("\n", "<br>", "</br>", WS, "<a href=\"http://www.pubmedcentral.nih.gov/pagerender.fcgi[^>]*>")
+      .substitute("or click on a page below to browse page by page.", "or click on a page below to browse page by page.<br></br>");
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- the original Entrez.cleanPMC_HTMLtags, used as fallback
+  // -----------------------------------------------------------------------------
+  static String legacy(CharSequence page)
+  {
+    int   copyFrom,   copyTo;
+    int deleteFrom, deleteTo;
+
+    StringBuffer target = new StringBuffer(page);
+
+    copyFrom = target.indexOf("class=\"content-cell\"");
+    while (target.charAt(copyFrom) != '<') copyFrom--;
+    StringBuffer input = new StringBuffer();
+    input.append(target.substring(copyFrom));
+
+    StringBuffer buffer = new StringBuffer();
+
+    // --- remove sidebar cells
+    copyFrom = 0;
+    copyTo   = input.indexOf("class=\"sidebar-cell\"");
+
+    while (copyTo >= 0)
+    {
+      while (input.charAt(copyTo) != '<') copyTo--;
+      buffer.append(input.substring(copyFrom, copyTo));
+      copyFrom = input.indexOf("</td>", copyTo) + 5;
+      copyTo   = input.indexOf("class=\"sidebar-cell\"", copyFrom);
+    }
+
+    copyTo = input.length();
+
+    buffer.append(input.substring(copyFrom, copyTo));
+
+
+    // --- remove comments
+    input = buffer;
+    buffer = new StringBuffer();
+
+    copyFrom = 0;
+    copyTo   = input.indexOf("<!--");
+
+    while (copyTo >= 0)
+    {
+      buffer.append(input.substring(copyFrom, copyTo));
+      copyFrom = input.indexOf("-->", copyTo) + 3;
+      copyTo   = input.indexOf("<!--", copyFrom);
+    }
+
+    copyTo = input.length();
+
+    buffer.append(input.substring(copyFrom, copyTo));
+
+
+    // --- remove scripts
+    input = buffer;
+    buffer = new StringBuffer();
+
+    copyFrom = 0;
+    copyTo   = input.indexOf("<script");
+
+    while (copyTo >= 0)
+    {
+      buffer.append(input.substring(copyFrom, copyTo));
+      copyFrom = input.indexOf("</script>", copyTo) + 9;
+      copyTo   = input.indexOf("<script", copyFrom);
+    }
+
+    copyTo = input.length();
+
+    buffer.append(input.substring(copyFrom, copyTo));
+
+
+    // --- remove footer
+    deleteFrom = buffer.indexOf("<div class=\"footer-section\">");
+    deleteTo   = buffer.indexOf("</td></tr></table></body></html>");
+    buffer.delete(deleteFrom, deleteTo);
+
+    deleteFrom = buffer.indexOf("</table></body></html>");
+    deleteTo   = buffer.indexOf("</body></html>");
+    buffer.delete(deleteFrom, deleteTo);
+
+    // --- delete tables
+    input = buffer;
+    buffer = new StringBuffer();
+
+    copyFrom = 0;
+    copyTo   = input.indexOf("<table");
+
+    while (copyTo >= 0)
+    {
+      buffer.append(input.substring(copyFrom, copyTo));
+      copyFrom = input.indexOf("</table>", copyTo) + 8;
+      copyTo   = input.indexOf("<table", copyFrom);
+    }
+
+    copyTo = input.length();
+
+    buffer.append(input.substring(copyFrom, copyTo));
+
+
+    String clean = buffer.toString();
+
+    clean = clean.replaceAll("[\\xC2\\xA0]", "");
+    clean = clean.replaceAll("<img src=\"corehtml/pmc/pmcgifs/rt-arrow.gif\" alt=\"Small right arrow pointing to:\" style=\"vertical-align: middle;\">", "");
+    clean = clean.replaceAll("<a[^>]*><img[^>]*></a>", "");
+    clean = clean.replaceAll("</td>", "");
+    clean = clean.replaceAll("<td[^>]*>", "");
+    clean = clean.replaceAll("</tr>", "");
+    clean = clean.replaceAll("<tr[^>]*>", "");
+    clean = clean.replaceAll("<br>", "");
+    clean = clean.replaceAll(" class=\"cite-reflink\"", "");
+    clean = clean.replaceAll("<span[^>]*>", "");
+    clean = clean.replaceAll("</span>", "");
+    clean = clean.replaceAll("<ul[^>]*>", "<ul>");
+
+    clean = clean.replaceAll("<div class=\"back-matter-section\">", "");
+
+    clean = clean.replaceAll("<div class=\"ref-cit-blk\"", "<a");
+    clean = clean.replaceAll("<div class=\"ref-label\">", "</a>");
+    clean = clean.replaceAll("</div><div class=\"ref-cit\">", " ");
+    clean = clean.replaceAll("articlerender.fcgi",   "http://www.pubmedcentral.nih.gov/articlerender.fcgi");
+    clean = clean.replaceAll("pagerender.fcgi",      "http://www.pubmedcentral.nih.gov/pagerender.fcgi");
+    clean = clean.replaceAll("picrender.fcgi",       "http://www.pubmedcentral.nih.gov/picrender.fcgi");
+    clean = clean.replaceAll("tocrender.fcgi",       "http://www.pubmedcentral.nih.gov/tocrender.fcgi");
+    clean = clean.replaceAll("about/copyright.html", "http://www.pubmedcentral.nih.gov/about/copyright.html");
+
+    String id = "";
+    String artid = "articlerender.fcgi?artid=";
+    int i = clean.indexOf(artid);
+    if (i >=0 )
+    {
+      i+= artid.length();
+      char digit = clean.charAt(i);
+      while ('0' <= digit && digit <= '9')
+      {
+        id +=digit;
+        digit = clean.charAt(++i);
+      }
+    }
+    clean = clean.replaceAll("<a href=\"#E", "<a href=\"http://www.pubmedcentral.nih.gov/articlerender.fcgi?artid=" + id + "#E");
+    clean = clean.replaceAll("<a id=\"F[^>]*></a>", "");
+    clean = clean.replaceAll("<a id=\"T[^>]*></a>", "");
+    clean = clean.replaceAll("class=\"fig-table-link\" [^>]*>", ">");
+    clean = clean.replaceAll("<div style=\"clear:both;\"></div>", "");
+    clean = clean.replaceAll("<div class=\"section-content\">", "");
+    clean = clean.replaceAll("<div class=\"head[^>]*>", "");
+    clean = clean.replaceAll("<div style=\"margin[^>]*>", "");
+    clean = clean.replaceAll("<div style=\"border[^>]*>", "");
+    clean = clean.replaceAll("\\[<a class=\"ref-extlink\"[^>]*>PubMed</a>\\]", "");
+    clean = clean.replaceAll("<div[^>]*>", "\n\n");
+    clean = clean.replaceAll("</div></div>", "</div>");
+    clean = clean.replaceAll("</div>", "\n<br></br>\n");
+    clean = clean.replaceAll( "<p>", "\n<br></br>\n");
+    clean = clean.replaceAll("</p>", "\n<br></br>\n");
+
+    clean = clean.replaceAll("<body[^>]*>", "");
+    clean = clean.replaceAll("</body>", "");
+    clean = clean.replaceAll("<!DOCTYPE[^>]*>", "");
+    clean = clean.replaceAll("</html>", "");
+    clean = clean.replaceAll("<html>", "");
+
+    clean = clean.replaceAll("</br>\\s*<br>", "");
+    clean = clean.replaceAll("</br>\\s*<br>", "");
+    clean = clean.replaceAll("<br></br>\\s*<a href=\"http://www.pubmedcentral.nih.gov/pagerender.fcgi", "\n<a href=\"http://www.pubmedcentral.nih.gov/pagerender.fcgi");
+    clean = clean.replaceAll("or click on a page below to browse page by page.", "or click on a page below to browse page by page.<br></br>");
+
+    return clean;
+  }
+  // -----------------------------------------------------------------------------
+
+}
@@ -0,0 +1,824 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/*********************************************************************************
+ * I D   M A P P E R
+ * -----------------
+ *
+ * PMCID <-> PMID <-> DOI mapping without a request per ID. The index is built
+ * from the PMC ID mapping file (PMC-ids.csv[.gz] from the PMC FTP site), or
+ * memory-mapped from a snapshot written by save():
+ *
+ *   pmc  -> pmid     open-addressing long -> long maps (key 0: empty slot);
+ *   pmid -> pmc      every PMC ID of the file is in pmc -> pmid, -1 if it has
+ *                    no PMID, so its missing PMID / DOI is known locally
+ *   pmc  -> doi      value: 1 + index into the DOI dictionary
+ *   doi  -> pmc      dictionary: lower-cased UTF-8 DOIs packed into one byte
+ *                    array, offsets, open-addressing table of indexes
+ *
+ * A snapshot is one file of aligned sections; open() maps every section and
+ * answers lookups straight from the page cache, so startup does not depend
+ * on the size of the index.
+ *
+ * IDs missing from the index are resolved through the PMC ID converter
+ * (pmc/utils/idconv), 200 IDs per request; answers are remembered in a small
+ * in-memory overlay, and so are IDs the converter does not know and the
+ * fields it has no value for (PMID -1, DOI ""), so no ID is asked twice.
+ ********************************************************************************/
+class IdMapper implements Closeable
+{
+  private static final long MAGIC = 0x504d434944533032L;   // --- "PMCIDS02": PMID -1 entries
+  private static final int  BATCH = 200;
+
+  private static final String IDCONV = "https://www.ncbi.nlm.nih.gov/pmc/utils/idconv/v1.0/?tool=query_NCBIentrez&format=xml&ids=";
+
+  private static final XMLInputFactory XML = XMLInputFactory.newInstance();
+
+  private static final EntrezLog LOG = EntrezLog.get("IdMapper");
+
+  static
+  {
+    XML.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  // --- bulk index (read-only once built or mapped)
+  private final LongMap    pmcToPmid, pmidToPmc, pmcToDoi;
+  private final Dictionary dois;
+  private final FileChannel channel;            // --- snapshot, null if built in memory
+
+  // --- learned from the network
+  private final LongMap     learnedPmid  = new LongMap(16), learnedPmc = new LongMap(16);
+  private final Map<Long, String> learnedDoi = new ConcurrentHashMap<Long, String>();
+  private final Map<String, Long> learnedDoiPmc = new ConcurrentHashMap<String, Long>();
+  private final Set<String> unknown      = ConcurrentHashMap.newKeySet();
+
+  private volatile EntrezTransport transport = RateLimitedTransport.shared();
+
+
+  private IdMapper(LongMap pmcToPmid, LongMap pmidToPmc, LongMap pmcToDoi, Dictionary dois, FileChannel channel)
+  {
+    this.pmcToPmid = pmcToPmid;
+    this.pmidToPmc = pmidToPmc;
+    this.pmcToDoi  = pmcToDoi;
+    this.dois      = dois;
+    this.channel   = channel;
+  }
+
+  // --- no bulk index: every ID goes to the network once
+  static IdMapper empty()
+  {
+    return new IdMapper(new LongMap(16), new LongMap(16), new LongMap(16), new Dictionary(16), null);
+  }
+
+  // --- network fallback for unknown IDs (null: none)
+  public IdMapper transport(EntrezTransport transport)
+  {
+    this.transport = transport;
+    return this;
+  }
+
+  // --- entries in the bulk index
+  public int size() {return pmcToPmid.size();}
+
+
+
+  // * * * * * * * * * * * * * * *   L O O K U P   * * * * * * * * * * * * * * * * *
+
+  // --- local only; 0 / null if unknown or there is none
+  public long pmidOf(long pmc)
+  {
+    return Math.max(0, pmidEntry(pmc));
+  }
+
+  public long pmcOf(long pmid)
+  {
+    long pmc = pmidToPmc.get(pmid);
+    return pmc != 0 ? pmc : learned(learnedPmc, pmid);
+  }
+
+  public String doiOf(long pmc)
+  {
+    String doi = doiEntry(pmc);
+    return doi == null || doi.isEmpty() ? null : doi;
+  }
+
+  public long pmcOfDoi(String doi)
+  {
+    doi = normalizeDoi(doi);
+    int i = dois.find(doi.getBytes(StandardCharsets.UTF_8));
+    if (i >= 0) return dois.pmc(i);
+
+    Long pmc = learnedDoiPmc.get(doi);
+    return pmc == null ? 0 : pmc;
+  }
+
+  private static long learned(LongMap map, long key)
+  {
+    synchronized (map) {return map.get(key);}
+  }
+
+  // --- PMID, -1 if known to have none, 0 if not known
+  private long pmidEntry(long pmc)
+  {
+    long pmid = pmcToPmid.get(pmc);
+    return pmid != 0 ? pmid : learned(learnedPmid, pmc);
+  }
+
+  // --- DOI, "" if known to have none (in the bulk index or learned), null if not known
+  private String doiEntry(long pmc)
+  {
+    long i = pmcToDoi.get(pmc);
+    if (i != 0)                  return dois.get((int) i - 1);
+    if (pmcToPmid.get(pmc) != 0) return "";
+    return learnedDoi.get(pmc);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- PMID of one PMC ID ("PMC123" or "123"); "" if there is none
+  // -----------------------------------------------------------------------------
+  public String pmid(String pmcid)
+  {
+    List<String> one = new ArrayList<String>(1);
+    one.add(pmcid);
+    String pmid = pmids(one).get(CitationBatch.pmcNumber(pmcid));
+    return pmid == null ? "" : pmid;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- PMC number -> PMID for the PMC IDs that have one; unknown IDs are
+  //     looked up on the network in batches
+  // -----------------------------------------------------------------------------
+  public Map<String, String> pmids(Collection<String> pmcids)
+  {
+    Map<String, String> found   = new LinkedHashMap<String, String>();
+    List<String>        missing = new ArrayList<String>();
+
+    for (String id : pmcids)
+    {
+      String number = CitationBatch.pmcNumber(id);
+      long   pmc    = parse(number);
+      long   pmid   = pmc > 0 ? pmidEntry(pmc) : -1;
+
+      if (pmid > 0)                                         found.put(number, Long.toString(pmid));
+      else if (pmid == 0 && !unknown.contains("PMC" + pmc)) missing.add("PMC" + pmc);
+    }
+
+    resolve(missing);
+
+    for (String id : missing)
+    {
+      long pmid = pmidOf(parse(id.substring(3)));
+      if (pmid != 0) found.put(id.substring(3), Long.toString(pmid));
+    }
+    return found;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- "PMC123" for a PMID, "" if there is none
+  public String pmcid(String pmid)
+  {
+    long id = parse(pmid.trim());
+    if (id <= 0) return "";
+
+    if (pmcOf(id) == 0 && !unknown.contains(pmid.trim()))
+    {
+      List<String> one = new ArrayList<String>(1);
+      one.add(pmid.trim());
+      resolve(one);
+    }
+
+    long pmc = pmcOf(id);
+    return pmc == 0 ? "" : "PMC" + pmc;
+  }
+
+  // --- DOI for a PMC ID, "" if there is none
+  public String doi(String pmcid)
+  {
+    long pmc = parse(CitationBatch.pmcNumber(pmcid));
+    if (pmc <= 0) return "";
+
+    if (doiEntry(pmc) == null && !unknown.contains("PMC" + pmc))
+    {
+      List<String> one = new ArrayList<String>(1);
+      one.add("PMC" + pmc);
+      resolve(one);
+    }
+
+    String doi = doiOf(pmc);
+    return doi == null ? "" : doi;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- ask the ID converter about IDs (PMCIDs, PMIDs or DOIs), 200 per request;
+  //     failures are reported and leave the IDs unresolved
+  // -----------------------------------------------------------------------------
+  private void resolve(List<String> ids)
+  {
+    EntrezTransport t = transport;
+    if (t == null || ids.isEmpty()) return;
+
+    for (int from = 0; from < ids.size(); from += BATCH)
+    {
+      List<String> batch = ids.subList(from, Math.min(ids.size(), from + BATCH));
+
+      try
+      {
+        String res = t.get(IDCONV + URLEncoder.encode(CitationBatch.join(batch), "UTF-8")).text();
+        Set<String> answered = records(res);
+
+        for (String id : batch)
+          if (!answered.contains(id.toLowerCase(Locale.ROOT))) unknown.add(id);
+      }
+      catch (IOException | XMLStreamException e)
+      {
+        LOG.warn("ID conversion of " + batch.size() + " IDs failed", e);
+      }
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- <record requested-id=".." pmcid="PMC.." pmid=".." doi=".."/>; returns the
+  //     requested IDs that mapped to something. A missing pmid / doi is
+  //     learned too (-1 / ""): the converter has nothing more to tell
+  private Set<String> records(String res) throws XMLStreamException
+  {
+    Set<String>     answered = new java.util.HashSet<String>();
+    XMLStreamReader xml      = XML.createXMLStreamReader(new StringReader(res));
+
+    while (xml.hasNext())
+    {
+      if (xml.next() != XMLStreamConstants.START_ELEMENT || !xml.getLocalName().equals("record")) continue;
+
+      String requested = xml.getAttributeValue(null, "requested-id");
+      long   pmc       = parse(CitationBatch.pmcNumber(value(xml.getAttributeValue(null, "pmcid"))));
+      long   pmid      = parse(value(xml.getAttributeValue(null, "pmid")));
+      String doi       = value(xml.getAttributeValue(null, "doi"));
+
+      if (pmc <= 0) continue;
+      if (requested != null) answered.add(requested.toLowerCase(Locale.ROOT));
+
+      synchronized (learnedPmid) {learnedPmid.put(pmc, pmid > 0 ? pmid : -1);}
+      if (pmid > 0) synchronized (learnedPmc) {learnedPmc.put(pmid, pmc);}
+
+      learnedDoi.put(pmc, doi);
+      if (doi.length() > 0) learnedDoiPmc.put(normalizeDoi(doi), pmc);
+    }
+    xml.close();
+
+    return answered;
+  }
+
+  private static String value(String s) {return s == null ? "" : s.trim();}
+
+
+
+  // * * * * * * * * * * * * * * *   B U I L D   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- build the index from PMC-ids.csv (gzip if the name ends in .gz); columns
+  //     are found by header name (PMCID, PMID, DOI)
+  // -----------------------------------------------------------------------------
+  static IdMapper load(Path csv) throws IOException
+  {
+    InputStream in = Files.newInputStream(csv);
+    if (csv.getFileName().toString().endsWith(".gz")) in = new GZIPInputStream(in, 64 * 1024);
+
+    LongMap    pmcToPmid = new LongMap(1 << 16), pmidToPmc = new LongMap(1 << 16), pmcToDoi = new LongMap(1 << 16);
+    Dictionary dois      = new Dictionary(1 << 16);
+
+    try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16))
+    {
+      String header = r.readLine();
+      if (header == null) throw new IOException("empty mapping file: " + csv);
+
+      List<String> names = fields(header, new ArrayList<String>());
+      int cPmc = names.indexOf("PMCID"), cPmid = names.indexOf("PMID"), cDoi = names.indexOf("DOI");
+      if (cPmc < 0) throw new IOException("no PMCID column in " + csv);
+
+      List<String> row = new ArrayList<String>();
+      String       line;
+
+      while ((line = r.readLine()) != null)
+      {
+        fields(line, row);
+        if (row.size() <= cPmc) continue;
+
+        long pmc = parse(CitationBatch.pmcNumber(row.get(cPmc)));
+        if (pmc <= 0) continue;
+
+        long pmid = cPmid >= 0 && cPmid < row.size() ? parse(row.get(cPmid)) : 0;
+        if (pmid > 0 || pmcToPmid.get(pmc) == 0) pmcToPmid.put(pmc, pmid > 0 ? pmid : -1);
+        if (pmid > 0) pmidToPmc.put(pmid, pmc);
+
+        String doi = cDoi >= 0 && cDoi < row.size() ? row.get(cDoi).trim() : "";
+        if (doi.length() > 0 && pmcToDoi.get(pmc) == 0)
+        {
+          int i = dois.add(normalizeDoi(doi).getBytes(StandardCharsets.UTF_8), pmc);
+          pmcToDoi.put(pmc, i + 1);
+        }
+      }
+    }
+
+    return new IdMapper(pmcToPmid, pmidToPmc, pmcToDoi, dois, null);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- split one CSV line (double quotes, "" inside quotes) into row
+  static List<String> fields(String line, List<String> row)
+  {
+    row.clear();
+    StringBuilder field  = new StringBuilder();
+    boolean       quoted = false;
+
+    for (int i = 0; i < line.length(); i++)
+    {
+      char c = line.charAt(i);
+      if (quoted)
+      {
+        if (c != '"')                                           field.append(c);
+        else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {field.append('"'); i++;}
+        else                                                    quoted = false;
+      }
+      else if (c == '"') quoted = true;
+      else if (c == ',') {row.add(field.toString()); field.setLength(0);}
+      else field.append(c);
+    }
+    row.add(field.toString());
+    return row;
+  }
+
+
+
+  // --- decimal ID, 0 if it is not one
+  static long parse(String s)
+  {
+    if (s == null || s.length() == 0 || s.length() > 18) return 0;
+
+    long n = 0;
+    for (int i = 0; i < s.length(); i++)
+    {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') return 0;
+      n = n * 10 + (c - '0');
+    }
+    return n;
+  }
+
+  // --- DOIs are case-insensitive; "doi:" and resolver prefixes are dropped
+  static String normalizeDoi(String doi)
+  {
+    String d = doi.trim().toLowerCase(Locale.ROOT);
+    if (d.startsWith("https://doi.org/"))   d = d.substring(16);
+    else if (d.startsWith("http://dx.doi.org/")) d = d.substring(18);
+    else if (d.startsWith("doi:"))          d = d.substring(4);
+    return d;
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   S N A P S H O T   * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- write the bulk index (not the learned overlay) to file, atomically
+  // -----------------------------------------------------------------------------
+  public void save(Path file) throws IOException
+  {
+    Path part = file.resolveSibling(file.getFileName() + ".part");
+
+    try (FileChannel ch = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      ByteBuffer header = ByteBuffer.allocate(64);
+      header.putLong(MAGIC)
+            .putLong(pmcToPmid.capacity()).putLong(pmcToPmid.size())
+            .putLong(pmidToPmc.size())
+            .putLong(pmcToDoi.size())
+            .putLong(dois.count).putLong(dois.length).putLong(dois.slotCapacity());
+      header.flip();
+      write(ch, header);
+
+      pmcToPmid.write(ch);
+      pmidToPmc.write(ch);
+      pmcToDoi.write(ch);
+      dois.write(ch);
+
+      ch.force(true);
+    }
+
+    try {Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);}
+    catch (AtomicMoveNotSupportedException e) {Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- map a snapshot written by save()
+  // -----------------------------------------------------------------------------
+  static IdMapper open(Path file) throws IOException
+  {
+    FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+
+    try
+    {
+      ByteBuffer header = ByteBuffer.allocate(64);
+      while (header.hasRemaining() && ch.read(header, header.position()) > 0) {}
+      header.flip();
+      if (header.remaining() < 64 || header.getLong() != MAGIC) throw new IOException("not an ID snapshot, or one of an older format (rebuild it): " + file);
+
+      header.getLong();                       // --- pmcToPmid capacity, also in its section
+      long pmids = header.getLong(), pmcs = header.getLong(), withDoi = header.getLong();
+      long count = header.getLong(), length = header.getLong(), slots = header.getLong();
+
+      long[] at = {64};
+      LongMap    pmcToPmid = LongMap.map(ch, at, (int) pmids);
+      LongMap    pmidToPmc = LongMap.map(ch, at, (int) pmcs);
+      LongMap    pmcToDoi  = LongMap.map(ch, at, (int) withDoi);
+      Dictionary dois      = Dictionary.map(ch, at, (int) count, (int) length, slots);
+
+      return new IdMapper(pmcToPmid, pmidToPmc, pmcToDoi, dois, ch);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      ch.close();
+      throw e;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- the mappings stay valid until they are collected; this only drops the file
+  public void close() throws IOException
+  {
+    if (channel != null) channel.close();
+  }
+
+
+
+  private static void write(FileChannel ch, ByteBuffer b) throws IOException
+  {
+    while (b.hasRemaining()) ch.write(b);
+  }
+
+  // --- map `bytes` at *at (padded to 8), advance *at
+  private static ByteBuffer section(FileChannel ch, long[] at, long bytes) throws IOException
+  {
+    if (bytes > Integer.MAX_VALUE) throw new IOException("snapshot section too large: " + bytes);
+    ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, at[0], bytes);
+    at[0] += (bytes + 7) & ~7L;
+    return b;
+  }
+
+  // --- copy a heap buffer's content to the channel through a bounded direct buffer
+  private static void copy(FileChannel ch, LongBuffer src, int n) throws IOException
+  {
+    ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+    for (int i = 0; i < n; )
+    {
+      out.clear();
+      int k = Math.min(n - i, out.capacity() / 8);
+      for (int j = 0; j < k; j++) out.putLong(src.get(i + j));
+      out.flip();
+      write(ch, out);
+      i += k;
+    }
+  }
+
+  private static void copy(FileChannel ch, IntBuffer src, int n) throws IOException
+  {
+    ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+    for (int i = 0; i < n; )
+    {
+      out.clear();
+      int k = Math.min(n - i, out.capacity() / 4);
+      for (int j = 0; j < k; j++) out.putInt(src.get(i + j));
+      out.flip();
+      write(ch, out);
+      i += k;
+    }
+    pad(ch, 4L * n);
+  }
+
+  private static void pad(FileChannel ch, long written) throws IOException
+  {
+    int n = (int) (((written + 7) & ~7L) - written);
+    if (n > 0) write(ch, ByteBuffer.allocate(n));
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   L O N G   M A P   * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- open addressing, linear probing, power-of-two capacity, load <= 0.6;
+  //     keys > 0 (0 marks an empty slot); backed by heap or mapped buffers
+  // -----------------------------------------------------------------------------
+  static final class LongMap
+  {
+    private LongBuffer keys, values;
+    private int        mask, size;
+    private final boolean mapped;
+
+    LongMap(int expected)
+    {
+      int capacity = Integer.highestOneBit(Math.max(16, (int) (expected / 0.6)) - 1) << 1;
+      keys   = LongBuffer.allocate(capacity);
+      values = LongBuffer.allocate(capacity);
+      mask   = capacity - 1;
+      mapped = false;
+    }
+
+    private LongMap(LongBuffer keys, LongBuffer values, int size)
+    {
+      this.keys   = keys;
+      this.values = values;
+      this.mask   = keys.capacity() - 1;
+      this.size   = size;
+      this.mapped = true;
+    }
+
+    int size()     {return size;}
+
+    int capacity() {return mask + 1;}
+
+    long get(long key)
+    {
+      if (key <= 0) return 0;
+      for (int i = slot(key); ; i = (i + 1) & mask)
+      {
+        long k = keys.get(i);
+        if (k == key) return values.get(i);
+        if (k == 0)   return 0;
+      }
+    }
+
+    void put(long key, long value)
+    {
+      if (mapped) throw new UnsupportedOperationException("mapped index is read-only");
+      if (key <= 0) throw new IllegalArgumentException("key must be > 0: " + key);
+
+      if (size + 1 > capacity() * 0.6) grow();
+
+      int i = slot(key);
+      for (long k; (k = keys.get(i)) != 0 && k != key; i = (i + 1) & mask) {}
+      if (keys.get(i) == 0) size++;
+      keys.put(i, key);
+      values.put(i, value);
+    }
+
+    private void grow()
+    {
+      LongBuffer oldKeys = keys, oldValues = values;
+      int        capacity = 2 * capacity();
+
+      if (capacity <= 0) throw new IllegalStateException("ID map full");
+      keys   = LongBuffer.allocate(capacity);
+      values = LongBuffer.allocate(capacity);
+      mask   = capacity - 1;
+
+      for (int j = 0; j < oldKeys.capacity(); j++)
+      {
+        long k = oldKeys.get(j);
+        if (k == 0) continue;
+        int i = slot(k);
+        while (keys.get(i) != 0) i = (i + 1) & mask;
+        keys.put(i, k);
+        values.put(i, oldValues.get(j));
+      }
+    }
+
+    private int slot(long key)
+    {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    // --- section: capacity (long), keys, values
+    void write(FileChannel ch) throws IOException
+    {
+      ByteBuffer b = ByteBuffer.allocate(8).putLong(capacity());
+      b.flip();
+      IdMapper.write(ch, b);
+      copy(ch, keys, capacity());
+      copy(ch, values, capacity());
+    }
+
+    static LongMap map(FileChannel ch, long[] at, int size) throws IOException
+    {
+      long capacity = section(ch, at, 8).getLong(0);
+      if (capacity <= 0 || Long.bitCount(capacity) != 1) throw new IOException("corrupt ID snapshot");
+
+      LongBuffer keys   = section(ch, at, 8 * capacity).asLongBuffer();
+      LongBuffer values = section(ch, at, 8 * capacity).asLongBuffer();
+      return new LongMap(keys, values, size);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // * * * * * * * * * * * * * * *   D O I S   * * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- DOI i is bytes[offsets[i], offsets[i + 1]) and belongs to pmc[i];
+  //     slots hold 1 + i, hashed on the bytes (FNV-1a)
+  // -----------------------------------------------------------------------------
+  static final class Dictionary
+  {
+    private ByteBuffer bytes;
+    private IntBuffer  offsets, slots;
+    private LongBuffer pmc;
+    private int        count, length, mask;
+
+    Dictionary(int expected)
+    {
+      bytes   = ByteBuffer.allocate(Math.max(1024, expected * 24));
+      offsets = IntBuffer.allocate(expected + 1);
+      pmc     = LongBuffer.allocate(expected);
+      int capacity = Integer.highestOneBit(Math.max(16, (int) (expected / 0.6)) - 1) << 1;
+      slots   = IntBuffer.allocate(capacity);
+      mask    = capacity - 1;
+    }
+
+    private Dictionary(ByteBuffer bytes, IntBuffer offsets, IntBuffer slots, LongBuffer pmc, int count, int length)
+    {
+      this.bytes   = bytes;
+      this.offsets = offsets;
+      this.slots   = slots;
+      this.pmc     = pmc;
+      this.count   = count;
+      this.length  = length;
+      this.mask    = slots.capacity() - 1;
+    }
+
+    int slotCapacity() {return mask + 1;}
+
+    long pmc(int i) {return pmc.get(i);}
+
+    String get(int i)
+    {
+      int    b = offsets.get(i), e = offsets.get(i + 1);
+      byte[] s = new byte[e - b];
+      for (int k = 0; k < s.length; k++) s[k] = bytes.get(b + k);
+      return new String(s, StandardCharsets.UTF_8);
+    }
+
+    int find(byte[] doi)
+    {
+      for (int s = hash(doi) & mask; ; s = (s + 1) & mask)
+      {
+        int i = slots.get(s) - 1;
+        if (i < 0)           return -1;
+        if (equal(i, doi))   return i;
+      }
+    }
+
+    private boolean equal(int i, byte[] doi)
+    {
+      int b = offsets.get(i), e = offsets.get(i + 1);
+      if (e - b != doi.length) return false;
+      for (int k = 0; k < doi.length; k++)
+        if (bytes.get(b + k) != doi[k]) return false;
+      return true;
+    }
+
+    // --- index of the DOI, added if new
+    int add(byte[] doi, long owner)
+    {
+      int found = find(doi);
+      if (found >= 0) return found;
+
+      if (count + 1 >= offsets.capacity()) offsets = grow(offsets);
+      if (count >= pmc.capacity())         pmc     = grow(pmc);
+      if (length + doi.length > bytes.capacity())
+      {
+        ByteBuffer b = ByteBuffer.allocate(Math.max(2 * bytes.capacity(), length + doi.length));
+        bytes.position(0).limit(length);
+        b.put(bytes);
+        bytes.clear();
+        bytes = b;
+      }
+      if (count + 1 > slotCapacity() * 0.6) rehash();
+
+      for (int k = 0; k < doi.length; k++) bytes.put(length + k, doi[k]);
+      offsets.put(count, length);
+      length += doi.length;
+      offsets.put(count + 1, length);
+      pmc.put(count, owner);
+
+      int s = hash(doi) & mask;
+      while (slots.get(s) != 0) s = (s + 1) & mask;
+      slots.put(s, count + 1);
+
+      return count++;
+    }
+
+    private void rehash()
+    {
+      slots = IntBuffer.allocate(2 * slotCapacity());
+      mask  = slots.capacity() - 1;
+
+      for (int i = 0; i < count; i++)
+      {
+        int    b = offsets.get(i);
+        byte[] d = new byte[offsets.get(i + 1) - b];
+        for (int k = 0; k < d.length; k++) d[k] = bytes.get(b + k);
+
+        int s = hash(d) & mask;
+        while (slots.get(s) != 0) s = (s + 1) & mask;
+        slots.put(s, i + 1);
+      }
+    }
+
+    private static IntBuffer grow(IntBuffer b)
+    {
+      IntBuffer g = IntBuffer.allocate(2 * b.capacity());
+      for (int i = 0; i < b.capacity(); i++) g.put(i, b.get(i));
+      return g;
+    }
+
+    private static LongBuffer grow(LongBuffer b)
+    {
+      LongBuffer g = LongBuffer.allocate(2 * b.capacity());
+      for (int i = 0; i < b.capacity(); i++) g.put(i, b.get(i));
+      return g;
+    }
+
+    private static int hash(byte[] s)
+    {
+      int h = 0x811c9dc5;
+      for (byte c : s) h = (h ^ (c & 0xff)) * 0x01000193;
+      return h ^ (h >>> 16);
+    }
+
+    // --- sections: bytes, offsets (count + 1), slots, pmc (count)
+    void write(FileChannel ch) throws IOException
+    {
+      ByteBuffer b = bytes.duplicate();
+      b.position(0).limit(length);
+      IdMapper.write(ch, b);
+      pad(ch, length);
+
+      copy(ch, offsets, count + 1);
+      copy(ch, slots, slotCapacity());
+      copy(ch, pmc, count);
+    }
+
+    static Dictionary map(FileChannel ch, long[] at, int count, int length, long slots) throws IOException
+    {
+      if (slots <= 0 || Long.bitCount(slots) != 1) throw new IOException("corrupt ID snapshot");
+
+      ByteBuffer bytes   = section(ch, at, length);
+      IntBuffer  offsets = section(ch, at, 4L * (count + 1)).asIntBuffer();
+      IntBuffer  table   = section(ch, at, 4 * slots).asIntBuffer();
+      LongBuffer pmc     = section(ch, at, 8L * count).asLongBuffer();
+
+      return new Dictionary(bytes, offsets, table, pmc, count, length);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+}
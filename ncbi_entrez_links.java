@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/*********************************************************************************
+ * L I N K   P I P E L I N E
+ * -------------------------
+ *
+ * ELink -> EFetch chains that stay on the history server, following
+ * ncbi_entrez_cgi_elink.pl:
+ *
+ *   epost.fcgi  db=nuccore&id=..                              -> WebEnv, query_key 1
+ *   (or esearch.fcgi?db=..&term=..&usehistory=y)
+ *   elink.fcgi?dbfrom=nuccore&db=protein&linkname=nuccore_protein
+ *             &cmd=neighbor_history&query_key=1&WebEnv=..     -> query_key 2
+ *   elink ...                                                 -> query_key 3 ...
+ *   efetch.fcgi?db=protein&query_key=3&WebEnv=..&retstart=..&retmax=..
+ *
+ * Linked IDs never come to the client: a chain costs one request per step, an
+ * esearch for the size of the final set, and one request per result page.
+ * Independent chains run concurrently with runAsync(); all requests share
+ * the transport (and with it the rate limit).
+ ********************************************************************************/
+class LinkPipeline
+{
+  // --- a result set on the history server
+  static final class History
+  {
+    final String db, webEnv, queryKey;   // --- queryKey null: empty set
+    final long   count;
+
+    History(String db, String webEnv, String queryKey, long count)
+    {
+      this.db       = db;
+      this.webEnv   = webEnv;
+      this.queryKey = queryKey;
+      this.count    = count;
+    }
+  }
+
+  // --- one streamed efetch page; the stream is closed after accept() returns
+  interface Page
+  {
+    void accept(long retStart, InputStream body) throws IOException;
+  }
+
+  private final EntrezTransport transport;
+  private final Executor        executor;
+  private final String          db;
+  private final List<String>    ids;        // --- start from IDs (epost) ...
+  private final String          term;       // --- ... or from a search
+  private final List<String[]>  steps = new ArrayList<String[]>();   // --- {db, linkname}
+
+
+  public LinkPipeline(EntrezTransport transport, Executor executor, String db, Collection<String> ids)
+  {
+    this(transport, executor, db, new ArrayList<String>(ids), null);
+  }
+
+  private LinkPipeline(EntrezTransport transport, Executor executor, String db, List<String> ids, String term)
+  {
+    this.transport = transport;
+    this.executor  = executor;
+    this.db        = db;
+    this.ids       = ids;
+    this.term      = term;
+  }
+
+  // --- start from the result of an ESearch query
+  static LinkPipeline search(EntrezTransport transport, Executor executor, String db, String term)
+  {
+    return new LinkPipeline(transport, executor, db, null, term);
+  }
+
+  // --- follow links into db ("<from>_<db>" link unless linkname is given)
+  public LinkPipeline link(String db, String linkname)
+  {
+    steps.add(new String[] {db, linkname});
+    return this;
+  }
+
+  public LinkPipeline link(String db) {return link(db, null);}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- run the chain; the final set stays on the history server
+  // -----------------------------------------------------------------------------
+  public History run() throws IOException
+  {
+    String res = ids != null
+               ? transport.post(Entrez.EUTILS + "epost.fcgi", "db=" + db + "&id=" + URLEncoder.encode(CitationBatch.join(ids), "UTF-8")).text()
+               : transport.get(Entrez.EUTILS + "esearch.fcgi?db=" + db + "&term=" + URLEncoder.encode(term, "UTF-8")
+                               + "&usehistory=y&retmax=0").text();
+
+    String webEnv   = Entrez.between(res, "<WebEnv>", "</WebEnv>");
+    String queryKey = Entrez.between(res, "<QueryKey>", "</QueryKey>");
+    if (webEnv == null || queryKey == null) throw new IOException((ids != null ? "epost" : "esearch") + " failed: " + error(res));
+
+    String from = db;
+
+    for (String[] step : steps)
+    {
+      String linkname = step[1] != null ? step[1] : from + "_" + step[0];
+
+      res = transport.get(Entrez.EUTILS + "elink.fcgi?dbfrom=" + from + "&db=" + step[0] + "&linkname=" + linkname
+                          + "&cmd=neighbor_history&query_key=" + queryKey + "&WebEnv=" + URLEncoder.encode(webEnv, "UTF-8")).text();
+
+      if (res.contains("<ERROR>")) throw new IOException("elink " + linkname + " failed: " + error(res));
+
+      // --- no LinkSetDbHistory: nothing is linked, the chain ends empty
+      String key = Entrez.between(res, "<QueryKey>", "</QueryKey>");
+      String env = Entrez.between(res, "<WebEnv>", "</WebEnv>");
+      if (key == null) return new History(steps.get(steps.size() - 1)[0], webEnv, null, 0);
+
+      queryKey = key;
+      if (env != null) webEnv = env;
+      from = step[0];
+    }
+
+    return new History(from, webEnv, queryKey, count(from, webEnv, queryKey));
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  public CompletableFuture<History> runAsync()
+  {
+    return CompletableFuture.supplyAsync(() ->
+    {
+      try {return run();}
+      catch (IOException e) {throw new CompletionException(e);}
+    }, executor);
+  }
+
+
+
+  // --- size of a history set: esearch on "#<query_key>"
+  private long count(String db, String webEnv, String queryKey) throws IOException
+  {
+    String res = transport.get(Entrez.EUTILS + "esearch.fcgi?db=" + db + "&term=%23" + queryKey
+                               + "&WebEnv=" + URLEncoder.encode(webEnv, "UTF-8") + "&usehistory=y&retmax=0").text();
+    String c = Entrez.between(res, "<Count>", "</Count>");
+    if (c == null) throw new IOException("esearch #" + queryKey + " failed: " + error(res));
+    return Long.parseLong(c);
+  }
+
+  private static String error(String res)
+  {
+    String e = Entrez.between(res, "<ERROR>", "</ERROR>");
+    return e != null ? e : "no WebEnv/QueryKey in response";
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   F E T C H   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- efetch the set page by page (rettype/retmode as for efetch, e.g. "fasta",
+  //     "text"); each page is streamed to `page`; returns the number of pages
+  // -----------------------------------------------------------------------------
+  public long fetch(History h, String rettype, String retmode, int pageSize, Page page) throws IOException
+  {
+    long pages = 0;
+
+    for (long start = 0; h.queryKey != null && start < h.count; start += pageSize, pages++)
+    {
+      String url = Entrez.EUTILS + "efetch.fcgi?db=" + h.db + "&query_key=" + h.queryKey
+                 + "&WebEnv=" + URLEncoder.encode(h.webEnv, "UTF-8")
+                 + "&retstart=" + start + "&retmax=" + pageSize + "&rettype=" + rettype + "&retmode=" + retmode;
+
+      try (InputStream in = transport.open(url)) {page.accept(start, in);}
+    }
+
+    return pages;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- run the chain & stream the records of a sequence database (rettype
+  //     "fasta", "gb", "gbwithparts") to the consumer; returns their number
+  // -----------------------------------------------------------------------------
+  public long fetchSequences(String rettype, int pageSize, final Consumer<SequenceRecord> consumer) throws IOException
+  {
+    final long[] n = {0};
+
+    fetch(run(), rettype, "text", pageSize, (start, body) -> n[0] += new SequenceReader(body).forEach(consumer));
+
+    return n[0];
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- IDs of the set, fetched lazily page by page
+  public SearchPager ids(History h, int pageSize)
+  {
+    return new SearchPager(transport, executor, h.db, h.webEnv, h.queryKey, h.queryKey == null ? 0 : h.count, pageSize);
+  }
+
+}
@@ -0,0 +1,45 @@
+import java.util.function.Supplier;
+
+/*********************************************************************************
+ * L O G
+ * -----
+ *
+ * Level-checked logging facade over System.Logger (java.util.logging unless
+ * the application installs another LoggerFinder, e.g. an SLF4J bridge):
+ *
+ *   debug   method calls & arguments (formerly printed on every call)
+ *   info    notable events (document spilled to disk, ...)
+ *   warn    failures that are handled (fetch failed, cache error, ...)
+ *
+ * Messages are only built when the level is enabled: use the Supplier forms,
+ * or guard with isDebug() on hot paths.
+ ********************************************************************************/
+final class EntrezLog
+{
+  private final System.Logger logger;
+
+
+  private EntrezLog(String name)
+  {
+    this.logger = System.getLogger("query_NCBIentrez." + name);
+  }
+
+  static EntrezLog get(String name) {return new EntrezLog(name);}
+
+
+
+  public boolean isDebug() {return logger.isLoggable(System.Logger.Level.DEBUG);}
+  public boolean isInfo()  {return logger.isLoggable(System.Logger.Level.INFO);}
+
+  public void debug(String message)           {if (isDebug()) logger.log(System.Logger.Level.DEBUG, message);}
+  public void debug(Supplier<String> message) {if (isDebug()) logger.log(System.Logger.Level.DEBUG, message.get());}
+
+  public void info(String message)            {if (isInfo()) logger.log(System.Logger.Level.INFO, message);}
+  public void info(Supplier<String> message)  {if (isInfo()) logger.log(System.Logger.Level.INFO, message.get());}
+
+  public void warn(String message, Throwable e)
+  {
+    if (logger.isLoggable(System.Logger.Level.WARNING)) logger.log(System.Logger.Level.WARNING, message, e);
+  }
+
+}
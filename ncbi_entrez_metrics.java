@@ -0,0 +1,453 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*********************************************************************************
+ * M E T R I C S
+ * -------------
+ *
+ * Counters, latency histograms & in-flight gauges for three kinds of series:
+ *
+ *   endpoint   one per E-utility / NCBI service (efetch, esearch, elink, ...),
+ *              recorded by HttpTransport (time on the wire, bytes,
+ *              timeouts), RateLimitedTransport (retries, 429s),
+ *              HedgedTransport (hedges sent & won) and Entrez (requests
+ *              saved by coalescing, see ncbi_entrez_singleflight.java)
+ *   method     one per public Entrez method, wall time including rate-limit
+ *              waits, parsing & disk
+ *   stage      local work inside a method (document cache reads & writes)
+ *
+ * so a slow batch shows whether the time went to NCBI (endpoint), to waiting
+ * for the rate limit (method minus endpoint) or to the cache (stage).
+ *
+ * Recording is lock-free (LongAdder); each span costs two nanoTime() calls.
+ * The same data can be read in two ways:
+ *
+ * - prometheus()   Prometheus text exposition format (version 0.0.4)
+ * - registerJmx()  one DynamicMBean per series,
+ *                  "query_NCBIentrez:type=<kind>,name=<name>"
+ ********************************************************************************/
+class EntrezMetrics
+{
+  private static final EntrezMetrics SHARED = new EntrezMetrics();
+
+  // --- histogram bucket upper bounds (seconds), Prometheus "le"
+  private static final double[] BOUNDS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+  private final Map<String, Series> series = new ConcurrentHashMap<String, Series>();
+  private volatile MBeanServer      jmx;
+
+
+  // --- the registry used by Entrez & the transports unless another one is given
+  static EntrezMetrics shared() {return SHARED;}
+
+
+
+  // * * * * * * * * * * * * * * *   R E C O R D   * * * * * * * * * * * * * * * * *
+
+  // --- request to the NCBI service behind url
+  public Span endpoint(String url) {return new Span(series("endpoint", endpointName(url)));}
+
+  // --- SOAP operation (the SOAP client does not go through a transport)
+  public Span soap(String operation) {return new Span(series("endpoint", "soap/" + operation));}
+
+  // --- call of an Entrez method
+  public Span method(String name)  {return new Span(series("method", name));}
+
+  // --- local step (cache, parsing, disk)
+  public Span stage(String name)   {return new Span(series("stage", name));}
+
+  public void retry(String url)     {series("endpoint", endpointName(url)).retries.increment();}
+
+  public void throttled(String url) {series("endpoint", endpointName(url)).throttled.increment();}
+
+  public void coalesced(String url) {series("endpoint", endpointName(url)).coalesced.increment();}
+
+  public void timeout(String url)   {series("endpoint", endpointName(url)).timeouts.increment();}
+
+  public void hedged(String url)    {series("endpoint", endpointName(url)).hedged.increment();}
+
+  public void hedgeWon(String url)  {series("endpoint", endpointName(url)).hedgeWins.increment();}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- one timed operation: in flight from creation until close(); errors &
+  //     bytes are added to its series
+  // -----------------------------------------------------------------------------
+  static final class Span implements AutoCloseable
+  {
+    private final Series series;
+    private final long   start = System.nanoTime();
+    private boolean      closed;
+
+    private Span(Series series)
+    {
+      this.series = series;
+      series.inFlight.incrementAndGet();
+    }
+
+    public Span bytes(long wire, long decoded)
+    {
+      series.wireBytes.add(wire);
+      series.bytes.add(decoded);
+      return this;
+    }
+
+    public Span error(Throwable e)
+    {
+      series.errors.increment();
+      series.errorTypes.computeIfAbsent(e.getClass().getSimpleName(), t -> new LongAdder()).increment();
+      return this;
+    }
+
+    public void close()
+    {
+      if (closed) return;
+      closed = true;
+      series.inFlight.decrementAndGet();
+      series.record(System.nanoTime() - start);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private Series series(String kind, String name)
+  {
+    String key = kind + '\u0000' + name;
+    Series s   = series.get(key);
+    if (s != null) return s;
+
+    Series created = new Series(kind, name);
+    s = series.putIfAbsent(key, created);
+    if (s != null) return s;
+
+    register(created);
+    return created;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- stable, low-cardinality endpoint name for a URL:
+  //     ".../eutils/efetch.fcgi?.."  -> "efetch"
+  //     ".../pmc/utils/idconv/v1.0/" -> "pmc/utils"
+  //     other                        -> first two alphabetic path segments
+  // -----------------------------------------------------------------------------
+  static String endpointName(String url)
+  {
+    int q = url.indexOf('?');
+    String path = q < 0 ? url : url.substring(0, q);
+
+    int scheme = path.indexOf("://");
+    int slash  = path.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+    path = slash < 0 ? "" : path.substring(slash + 1);
+
+    StringBuilder name = new StringBuilder();
+    int           used = 0;
+
+    for (String segment : path.split("/"))
+    {
+      if (segment.endsWith(".fcgi") || segment.endsWith(".cgi")) return segment.substring(0, segment.lastIndexOf('.'));
+      if (used < 2 && segment.length() > 0 && segment.chars().allMatch(c -> Character.isLetter(c) || c == '_' || c == '-'))
+      {
+        if (used++ > 0) name.append('/');
+        name.append(segment);
+      }
+    }
+    return name.length() == 0 ? "other" : name.toString();
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // * * * * * * * * * * * * * * *   S E R I E S   * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- counters of one (kind, name); also its JMX view
+  // -----------------------------------------------------------------------------
+  static final class Series implements DynamicMBean
+  {
+    final String kind, name;
+
+    final LongAdder     count     = new LongAdder();
+    final LongAdder     errors    = new LongAdder();
+    final LongAdder     sumNanos  = new LongAdder();
+    final AtomicLong    maxNanos  = new AtomicLong();
+    final AtomicInteger inFlight  = new AtomicInteger();
+    final LongAdder     wireBytes = new LongAdder();
+    final LongAdder     bytes     = new LongAdder();
+    final LongAdder     retries   = new LongAdder();
+    final LongAdder     throttled = new LongAdder();
+    final LongAdder     coalesced = new LongAdder();
+    final LongAdder     timeouts  = new LongAdder();
+    final LongAdder     hedged    = new LongAdder();
+    final LongAdder     hedgeWins = new LongAdder();
+    final LongAdder[]   buckets   = new LongAdder[BOUNDS.length + 1];   // --- last: +Inf
+
+    final Map<String, LongAdder> errorTypes = new ConcurrentHashMap<String, LongAdder>();
+
+    Series(String kind, String name)
+    {
+      this.kind = kind;
+      this.name = name;
+      for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    void record(long nanos)
+    {
+      count.increment();
+      sumNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+
+      double seconds = nanos / 1e9;
+      int    b       = 0;
+      while (b < BOUNDS.length && seconds > BOUNDS[b]) b++;
+      buckets[b].increment();
+    }
+
+    // --- upper bound (ms) of the bucket holding quantile q; max if beyond the last
+    double quantileMillis(double q)
+    {
+      long[] n     = new long[buckets.length];
+      long   total = 0;
+      for (int i = 0; i < n.length; i++) total += (n[i] = buckets[i].sum());
+      if (total == 0) return 0;
+
+      long rank = (long) Math.ceil(q * total), seen = 0;
+      for (int i = 0; i < BOUNDS.length; i++)
+        if ((seen += n[i]) >= rank) return BOUNDS[i] * 1000;
+      return maxNanos.get() / 1e6;
+    }
+
+    String errorsByType()
+    {
+      StringBuilder s = new StringBuilder();
+      for (Map.Entry<String, LongAdder> e : new TreeMap<String, LongAdder>(errorTypes).entrySet())
+        s.append(s.length() == 0 ? "" : ", ").append(e.getKey()).append('=').append(e.getValue().sum());
+      return s.toString();
+    }
+
+
+
+    // --- JMX
+
+    private static final String[][] ATTRIBUTES =
+    {
+      {"Requests",      "long",             "completed calls"},
+      {"Errors",        "long",             "calls that failed"},
+      {"ErrorsByType",  "java.lang.String", "failed calls per exception type"},
+      {"InFlight",      "int",              "calls in progress"},
+      {"MeanMillis",    "double",           "mean latency"},
+      {"MaxMillis",     "double",           "maximum latency"},
+      {"P50Millis",     "double",           "median latency (bucket upper bound)"},
+      {"P95Millis",     "double",           "95th percentile latency (bucket upper bound)"},
+      {"P99Millis",     "double",           "99th percentile latency (bucket upper bound)"},
+      {"WireBytes",     "long",             "body bytes received, as sent by the server"},
+      {"Bytes",         "long",             "body bytes after decoding"},
+      {"Retries",       "long",             "requests repeated after 429 / 5xx"},
+      {"Throttled",     "long",             "429 responses"},
+      {"Coalesced",     "long",             "requests answered by a concurrent identical request"},
+      {"Timeouts",      "long",             "requests failed by a connect, read or total timeout"},
+      {"Hedged",        "long",             "slow requests sent a second time"},
+      {"HedgeWins",     "long",             "hedged requests where the second one answered first"},
+    };
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException
+    {
+      long n = count.sum();
+
+      switch (attribute)
+      {
+        case "Requests":     return n;
+        case "Errors":       return errors.sum();
+        case "ErrorsByType": return errorsByType();
+        case "InFlight":     return inFlight.get();
+        case "MeanMillis":   return n == 0 ? 0.0 : sumNanos.sum() / 1e6 / n;
+        case "MaxMillis":    return maxNanos.get() / 1e6;
+        case "P50Millis":    return quantileMillis(0.50);
+        case "P95Millis":    return quantileMillis(0.95);
+        case "P99Millis":    return quantileMillis(0.99);
+        case "WireBytes":    return wireBytes.sum();
+        case "Bytes":        return bytes.sum();
+        case "Retries":      return retries.sum();
+        case "Throttled":    return throttled.sum();
+        case "Coalesced":    return coalesced.sum();
+        case "Timeouts":     return timeouts.sum();
+        case "Hedged":       return hedged.sum();
+        case "HedgeWins":    return hedgeWins.sum();
+        default:             throw new AttributeNotFoundException(attribute);
+      }
+    }
+
+    public AttributeList getAttributes(String[] attributes)
+    {
+      AttributeList list = new AttributeList();
+      for (String a : attributes)
+      {
+        try {list.add(new Attribute(a, getAttribute(a)));}
+        catch (AttributeNotFoundException e) {}
+      }
+      return list;
+    }
+
+    public MBeanInfo getMBeanInfo()
+    {
+      MBeanAttributeInfo[] info = new MBeanAttributeInfo[ATTRIBUTES.length];
+      for (int i = 0; i < info.length; i++)
+        info[i] = new MBeanAttributeInfo(ATTRIBUTES[i][0], ATTRIBUTES[i][1], ATTRIBUTES[i][2], true, false, false);
+      return new MBeanInfo(Series.class.getName(), kind + " " + name, info, null, null, null);
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+    {
+      throw new AttributeNotFoundException("read-only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {return new AttributeList();}
+
+    public Object invoke(String action, Object[] params, String[] signature)
+    {
+      throw new UnsupportedOperationException(action);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // * * * * * * * * * * * * * * *   J M X   * * * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- publish all series (present & future) on the platform MBean server
+  // -----------------------------------------------------------------------------
+  public synchronized EntrezMetrics registerJmx()
+  {
+    if (jmx != null) return this;
+    jmx = ManagementFactory.getPlatformMBeanServer();
+    for (Series s : series.values()) register(s);
+    return this;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private void register(Series s)
+  {
+    MBeanServer server = jmx;
+    if (server == null) return;
+
+    try
+    {
+      ObjectName name = new ObjectName("query_NCBIentrez:type=" + s.kind + ",name=" + ObjectName.quote(s.name));
+      if (!server.isRegistered(name)) server.registerMBean(s, name);
+    }
+    catch (JMException e) {EntrezLog.get("EntrezMetrics").warn("JMX registration of " + s.name + " failed", e);}
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   P R O M E T H E U S   * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- all series in Prometheus text format
+  // -----------------------------------------------------------------------------
+  public String prometheus()
+  {
+    List<Series> all = new ArrayList<Series>(series.values());
+    Collections.sort(all, (a, b) -> a.kind.equals(b.kind) ? a.name.compareTo(b.name) : a.kind.compareTo(b.kind));
+
+    StringBuilder out = new StringBuilder(4096);
+
+    family(out, "entrez_duration_seconds", "histogram", "Latency of Entrez endpoints, methods & stages.");
+    for (Series s : all)
+    {
+      long cumulative = 0;
+      for (int i = 0; i < s.buckets.length; i++)
+      {
+        cumulative += s.buckets[i].sum();
+        sample(out, "entrez_duration_seconds_bucket", s, "le", i < BOUNDS.length ? Double.toString(BOUNDS[i]) : "+Inf", cumulative);
+      }
+      sample(out, "entrez_duration_seconds_sum",   s, null, null, s.sumNanos.sum() / 1e9);
+      sample(out, "entrez_duration_seconds_count", s, null, null, s.count.sum());
+    }
+
+    family(out, "entrez_in_flight", "gauge", "Calls in progress.");
+    for (Series s : all) sample(out, "entrez_in_flight", s, null, null, s.inFlight.get());
+
+    family(out, "entrez_errors_total", "counter", "Failed calls by exception type.");
+    for (Series s : all)
+      for (Map.Entry<String, LongAdder> e : new TreeMap<String, LongAdder>(s.errorTypes).entrySet())
+        sample(out, "entrez_errors_total", s, "type", e.getKey(), e.getValue().sum());
+
+    family(out, "entrez_bytes_total", "counter", "Response body bytes, on the wire and decoded.");
+    for (Series s : all)
+      if (s.kind.equals("endpoint"))
+      {
+        sample(out, "entrez_bytes_total", s, "encoding", "wire",    s.wireBytes.sum());
+        sample(out, "entrez_bytes_total", s, "encoding", "decoded", s.bytes.sum());
+      }
+
+    family(out, "entrez_retries_total", "counter", "Requests repeated after HTTP 429 / 5xx.");
+    for (Series s : all) if (s.kind.equals("endpoint")) sample(out, "entrez_retries_total", s, null, null, s.retries.sum());
+
+    family(out, "entrez_throttled_total", "counter", "HTTP 429 responses.");
+    for (Series s : all) if (s.kind.equals("endpoint")) sample(out, "entrez_throttled_total", s, null, null, s.throttled.sum());
+
+    family(out, "entrez_coalesced_total", "counter", "Requests answered by a concurrent identical request.");
+    for (Series s : all) if (s.kind.equals("endpoint")) sample(out, "entrez_coalesced_total", s, null, null, s.coalesced.sum());
+
+    family(out, "entrez_timeouts_total", "counter", "Requests failed by a connect, read or total timeout.");
+    for (Series s : all) if (s.kind.equals("endpoint")) sample(out, "entrez_timeouts_total", s, null, null, s.timeouts.sum());
+
+    family(out, "entrez_hedged_total", "counter", "Slow requests sent a second time.");
+    for (Series s : all) if (s.kind.equals("endpoint")) sample(out, "entrez_hedged_total", s, null, null, s.hedged.sum());
+
+    family(out, "entrez_hedge_wins_total", "counter", "Hedged requests where the second one answered first.");
+    for (Series s : all) if (s.kind.equals("endpoint")) sample(out, "entrez_hedge_wins_total", s, null, null, s.hedgeWins.sum());
+
+    return out.toString();
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private static void family(StringBuilder out, String name, String type, String help)
+  {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String metric, Series s, String label, String value, double v)
+  {
+    out.append(metric).append("{kind=\"").append(s.kind).append("\",name=\"").append(escape(s.name)).append('"');
+    if (label != null) out.append(',').append(label).append("=\"").append(escape(value)).append('"');
+    out.append("} ");
+
+    if (v == Math.rint(v) && Math.abs(v) < 1e15) out.append((long) v);
+    else                                         out.append(v);
+    out.append('\n');
+  }
+
+  private static String escape(String s)
+  {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+}
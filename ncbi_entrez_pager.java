@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*********************************************************************************
+ * S E A R C H   P A G E R
+ * -----------------------
+ *
+ * Lazy iterator over the complete result set of an ESearch query, following
+ * ncbi_entrez_cgi_esearch.pl:
+ *
+ *   esearch.fcgi?db=..&term=..&usehistory=y&retmax=0     -> Count, WebEnv, QueryKey
+ *   efetch.fcgi?db=..&WebEnv=..&query_key=..&retstart=..&retmax=..&rettype=uilist
+ *
+ * IDs are fetched page by page (efetch, since esearch stops at retstart 9999
+ * for PubMed); while one page is consumed the next one is already requested.
+ * At most two pages are held, whatever the size of the result set.
+ ********************************************************************************/
+class SearchPager implements Iterator<String>
+{
+  private final EntrezTransport transport;
+  private final Executor        executor;
+  private final String          db;
+  private final int             pageSize;
+  private final long            count;
+  private final String          webEnv;
+  private final String          queryKey;
+
+  private List<String>                     page = new ArrayList<String>();
+  private int                              next = 0;
+  private long                             retStart = 0;   // --- start of the page after `page`
+  private CompletableFuture<List<String>>  prefetch;
+
+
+  // -----------------------------------------------------------------------------
+  // --- run the search on the history server
+  // -----------------------------------------------------------------------------
+  public SearchPager(EntrezTransport transport, Executor executor, String db, String term, int pageSize) throws IOException
+  {
+    this.transport = transport;
+    this.executor  = executor;
+    this.db        = db;
+    this.pageSize  = pageSize;
+
+    String url = Entrez.EUTILS + "esearch.fcgi?db=" + db + "&term=" + URLEncoder.encode(term, "UTF-8")
+               + "&usehistory=y&retmax=0";
+    String res = transport.get(url).text();
+
+    String c = Entrez.between(res, "<Count>", "</Count>");
+    webEnv   = Entrez.between(res, "<WebEnv>", "</WebEnv>");
+    queryKey = Entrez.between(res, "<QueryKey>", "</QueryKey>");
+    if (c == null || webEnv == null || queryKey == null)
+      throw new IOException("esearch failed: " + Entrez.between(res, "<ERROR>", "</ERROR>"));
+
+    count = Long.parseLong(c);
+    if (count > 0) prefetch = fetch(0);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- page through a set already on the history server (e.g. a LinkPipeline
+  //     result, see ncbi_entrez_links.java)
+  // -----------------------------------------------------------------------------
+  SearchPager(EntrezTransport transport, Executor executor, String db, String webEnv, String queryKey, long count, int pageSize)
+  {
+    this.transport = transport;
+    this.executor  = executor;
+    this.db        = db;
+    this.pageSize  = pageSize;
+    this.webEnv    = webEnv;
+    this.queryKey  = queryKey;
+    this.count     = count;
+
+    if (count > 0) prefetch = fetch(0);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- total number of matching records
+  public long count() {return count;}
+
+
+
+  public boolean hasNext()
+  {
+    if (next < page.size()) return true;
+    if (prefetch == null)   return false;
+
+    try {page = prefetch.join();}
+    catch (CompletionException e)
+    {
+      prefetch = null;
+      if (e.getCause() instanceof IOException) throw new UncheckedIOException((IOException) e.getCause());
+      throw e;
+    }
+
+    next      = 0;
+    retStart += pageSize;
+    prefetch  = (retStart < count && !page.isEmpty()) ? fetch(retStart) : null;
+
+    return next < page.size();
+  }
+
+  public String next()
+  {
+    if (!hasNext()) throw new NoSuchElementException();
+    return page.get(next++);
+  }
+
+
+
+  // --- all IDs as a sequential stream
+  public Stream<String> stream()
+  {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- request one page of IDs in the background
+  // -----------------------------------------------------------------------------
+  private CompletableFuture<List<String>> fetch(final long start)
+  {
+    return CompletableFuture.supplyAsync(() ->
+    {
+      try
+      {
+        String url = Entrez.EUTILS + "efetch.fcgi?db=" + db + "&query_key=" + queryKey
+                   + "&WebEnv=" + URLEncoder.encode(webEnv, "UTF-8")
+                   + "&retstart=" + start + "&retmax=" + pageSize + "&rettype=uilist&retmode=text";
+        return ids(transport.get(url).text());
+      }
+      catch (IOException e) {throw new CompletionException(e);}
+    }, executor);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- one ID per line, or <Id>..</Id> for databases that answer in XML
+  static List<String> ids(String text)
+  {
+    List<String> ids = new ArrayList<String>();
+
+    if (text.indexOf("<Id>") >= 0)
+    {
+      int b = 0, e;
+      while ((b = text.indexOf("<Id>", b)) >= 0 && (e = text.indexOf("</Id>", b)) >= 0)
+      {
+        ids.add(text.substring(b + 4, e).trim());
+        b = e + 5;
+      }
+      return ids;
+    }
+
+    for (String line : text.split("\n"))
+    {
+      line = line.trim();
+      if (line.length() > 0) ids.add(line);
+    }
+    return ids;
+  }
+
+}
@@ -0,0 +1,180 @@
+/*********************************************************************************
+ * P U B M E D   P A G E S
+ * -----------------------
+ *
+ * Text extraction behind Entrez.getCitation, getAbstract, cleanPMCAbstractTags
+ * and MandM(String), kept out of ncbi_entrez.java so that it compiles without
+ * the EUtils SOAP stubs: the core module of the Maven build holds it and the
+ * JMH benchmarks in bench/ measure it.
+ *
+ *   summaryFields    title, authors & source of a PubMed summary page
+ *   abstractFields   "title\n\nabstract" of a PubMed XML display page
+ *   abstractTags     abstract from PMC XML, tags translated to HTML
+ *   methods          "Materials & Methods" sections of a PMC XML paper
+ ********************************************************************************/
+class PubmedPages
+{
+
+  // -----------------------------------------------------------------------------
+  // --- title, authors & source from a PubMed summary page (line breaks dropped)
+  // -----------------------------------------------------------------------------
+  static String[] summaryFields(String download)
+  {
+    String title = "", authors = "", source = "";
+
+    // --- extract TITLE ---
+    int b = 0, e = 0;
+    String anchor = "<p class=\"title\">";
+    if ( (b = download.indexOf(anchor)) >= 0)
+    {
+      b += anchor.length();
+      anchor = "</p>";
+      e = download.indexOf(anchor, b);
+      title = download.substring(b, e);
+      title = title.replaceAll("<a[^>]*>", "");
+      title = title.replaceAll("</a>", "");
+    }
+
+    // --- extract AUTHORS ---
+    b = 0; e = 0;
+    anchor = "<p class=\"authors\">";
+    if ( (b = download.indexOf(anchor)) >= 0)
+    {
+      b += anchor.length();
+      anchor = "</p>";
+      e = download.indexOf(anchor, b);
+      authors = download.substring(b, e);
+    }
+
+    // --- extract SOURCE ---
+    b = 0; e = 0;
+    anchor = "<p class=\"source\">";
+    if ( (b = download.indexOf(anchor)) >= 0)
+    {
+      b += anchor.length();
+      anchor = "</p>";
+      e = download.indexOf(anchor, b);
+      source = download.substring(b, e);
+      source = source.replaceAll("<span[^>]*>", "");
+      source = source.replaceAll("</span>", "");
+    }
+
+    return new String[] {title, authors, source};
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- "title\n\nabstract" from a PubMed XML display page (line breaks dropped)
+  // -----------------------------------------------------------------------------
+  static String abstractFields(String download)
+  {
+    // --- extract article TITLE ---
+    String articleTitle = "";
+    int b = 0, e = 0;
+    String anchor = "&lt;ArticleTitle&gt;<font class=\"val\">";
+    if ( (b = download.indexOf(anchor)) >= 0)
+    {
+      b += anchor.length();
+      anchor = "</font>&lt;/ArticleTitle&gt;";
+      e = download.indexOf(anchor);
+      articleTitle = download.substring(b, e);
+    }
+
+    // --- extract abstract TEXT ---
+    String abstractText = "";
+    anchor = "&lt;AbstractText&gt;<font class=\"val\">";
+    if ( (b = download.indexOf(anchor)) >= 0)
+    {
+      b += anchor.length();
+      anchor = "</font>&lt;/AbstractText&gt;";
+      e = download.indexOf(anchor);
+      abstractText = download.substring(b, e);
+    }
+
+    return articleTitle + "\n\n" + abstractText;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- clean the abstract from PubMed Central XML tags
+  // -----------------------------------------------------------------------------
+  static String abstractTags(String text)
+  {
+    String clean = text;
+
+    // --- remove HTML tags
+    clean = clean.replaceAll("</abstract>", "");
+    clean = clean.replaceAll("<abstract[^>]*>", "");
+    clean = clean.replaceAll("</p>", "");
+    clean = clean.replaceAll("<p>", "");
+    clean = clean.replaceAll("</sec>", "");
+    clean = clean.replaceAll("<sec[^>]*>", "");
+    clean = clean.replaceAll("</ext-link>", "");
+    clean = clean.replaceAll("<ext-link[^>]*>", "");
+
+    // --- remove HTML elements
+    clean = clean.replaceAll("<fig[^>]*>[^<]*</fig>", "");
+    clean = clean.replaceAll("<label[^>]*>[^<]*</label>", "");
+    clean = clean.replaceAll("<graphic[^>]*>", "");
+    clean = clean.replaceAll("<title>Images</title>", "");
+
+    // --- translate HTML tags
+    clean = clean.replaceAll("<italic>", "<em>");
+    clean = clean.replaceAll("</italic>", "</em>");
+    clean = clean.replaceAll("<bold>", "<strong>");
+    clean = clean.replaceAll("</bold>", "</strong>");
+    clean = clean.replaceAll("<title>", " <strong>");
+    clean = clean.replaceAll("</title>", "</strong>. ");
+
+    return clean;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- extract the "Materials & Methods" section from the full-text article
+  // -----------------------------------------------------------------------------
+  static String methods(String paper)
+  {
+    StringBuilder section = new StringBuilder();
+
+    int b, e = 0;
+
+    while ((b = paper.indexOf("<sec sec-type", e)) >= 0)
+    {
+      int type_b = paper.indexOf('"', b);
+      int type_e = paper.indexOf('"', ++type_b);
+      String sec_type = paper.substring(type_b, type_e);
+
+      e = b+1;
+
+      if (sec_type.compareTo("methods")           == 0 || 
+          sec_type.compareTo("materials")         == 0 || 
+          sec_type.compareTo("materials|methods") == 0 || 
+          sec_type.compareTo("methods|materials") == 0)
+      {
+        int stack = 1;
+
+        while (stack > 0)
+        {
+          int e1 = paper.indexOf("<sec",   e);
+          int e2 = paper.indexOf("</sec>", e);
+
+          if (e1 > 0 && e1 < e2) {stack++; e = e1 + 1;}
+          else                   {stack--; e = e2 + 6;}
+        }
+
+        section.append(paper, b, e);
+      }
+    }
+
+    return section.toString();
+  }
+  // -----------------------------------------------------------------------------
+
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*********************************************************************************
+ * R A T E   G O V E R N O R
+ * -------------------------
+ *
+ * EntrezTransport decorator that paces every request with a token bucket and
+ * retries throttled / failed requests:
+ *
+ * - NCBI allows 3 requests/s per IP, 10 requests/s with an API key; the key
+ *   (if any) is added to every E-utilities URL / form
+ * - callers reserve the next free slot and sleep outside the lock, so
+ *   concurrent callers are served in arrival order at the full allowed rate
+ * - HTTP 429 and 5xx are retried with full-jitter exponential backoff; a 429
+ *   also pushes the whole bucket back, so all callers slow down together
+ * - queue depth, retries & throttles are exposed as counters; retries & 429s
+ *   are also recorded per endpoint in EntrezMetrics
+ ********************************************************************************/
+class RateLimitedTransport implements EntrezTransport
+{
+  private static final RateLimitedTransport SHARED =
+    new RateLimitedTransport(HttpTransport.shared(), System.getenv("NCBI_API_KEY"));
+
+  private final EntrezTransport inner;
+  private final String          apiKey;
+
+  private double intervalNanos;              // --- 1 / rate
+  private double burst = 1;                  // --- tokens that may be saved up
+  private long   nextFree = System.nanoTime();
+
+  private int  maxRetries  = 5;
+  private long baseBackoff = 500;            // --- ms
+  private long maxBackoff  = 30000;          // --- ms
+
+  private final AtomicInteger waiting    = new AtomicInteger();
+  private final AtomicInteger maxWaiting = new AtomicInteger();
+  private final AtomicLong    requests   = new AtomicLong();
+  private final AtomicLong    retries    = new AtomicLong();
+  private final AtomicLong    throttled  = new AtomicLong();
+
+  private volatile EntrezMetrics metrics = EntrezMetrics.shared();
+
+
+  public RateLimitedTransport(EntrezTransport inner, String apiKey)
+  {
+    this.inner  = inner;
+    this.apiKey = (apiKey == null || apiKey.trim().length() == 0) ? null : apiKey.trim();
+    rate(this.apiKey == null ? 3 : 10);
+  }
+
+  // --- the governor in front of HttpTransport.shared(); key from $NCBI_API_KEY
+  static RateLimitedTransport shared() {return SHARED;}
+
+  public synchronized RateLimitedTransport rate(double perSecond)
+  {
+    this.intervalNanos = 1e9 / perSecond;
+    return this;
+  }
+
+  // --- requests an idle bucket may send at once (default 1: strict spacing)
+  public synchronized RateLimitedTransport burst(int tokens)
+  {
+    this.burst = Math.max(1, tokens);
+    return this;
+  }
+
+  public RateLimitedTransport retries(int max, long baseMillis, long maxMillis)
+  {
+    this.maxRetries  = max;
+    this.baseBackoff = baseMillis;
+    this.maxBackoff  = maxMillis;
+    return this;
+  }
+
+  public RateLimitedTransport metrics(EntrezMetrics metrics)
+  {
+    this.metrics = metrics;
+    return this;
+  }
+
+  // --- metrics
+  public int  queueDepth()    {return waiting.get();}
+  public int  maxQueueDepth() {return maxWaiting.get();}
+  public long requests()      {return requests.get();}
+  public long retries()       {return retries.get();}
+  public long throttled()     {return throttled.get();}
+
+
+
+  // * * * * * * * * * * * * * * *   T R A N S P O R T   * * * * * * * * * * * * * *
+
+  private interface Call<T> {T run() throws IOException;}
+
+  public EntrezResponse get(final String url) throws IOException
+  {
+    return call(url, () -> inner.get(withKey(url)));
+  }
+
+  public EntrezResponse post(final String url, final String form) throws IOException
+  {
+    return call(url, () -> inner.post(url, apiKey != null && url.contains("/eutils/") ? form + "&api_key=" + apiKey : form));
+  }
+
+  public InputStream open(final String url) throws IOException
+  {
+    return call(url, () -> inner.open(withKey(url)));
+  }
+
+  public EntrezStream request(final String url, final Map<String, String> headers) throws IOException
+  {
+    return call(url, () -> inner.request(withKey(url), headers));
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- acquire a token, run, retry 429 / 5xx with jittered exponential backoff
+  // -----------------------------------------------------------------------------
+  private <T> T call(String url, Call<T> call) throws IOException
+  {
+    for (int attempt = 0; ; attempt++)
+    {
+      acquire();
+      requests.incrementAndGet();
+
+      try
+      {
+        return call.run();
+      }
+      catch (EntrezHttpException e)
+      {
+        boolean retry = e.status == 429 || e.status >= 500;
+        if (!retry || attempt >= maxRetries) throw e;
+
+        long backoff = ThreadLocalRandom.current().nextLong(Math.min(maxBackoff, baseBackoff << attempt) + 1);
+        if (e.status == 429)
+        {
+          throttled.incrementAndGet();
+          metrics.throttled(url);
+          penalize(backoff);
+        }
+        retries.incrementAndGet();
+        metrics.retry(url);
+        sleep(backoff * 1000000L);
+      }
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- reserve the next slot of the bucket, then wait for it outside the lock
+  private void acquire() throws IOException
+  {
+    long wait;
+
+    synchronized (this)
+    {
+      long now = System.nanoTime();
+
+      // --- unused time gives back at most `burst` tokens
+      long earliest = now - (long) ((burst - 1) * intervalNanos);
+      if (nextFree < earliest) nextFree = earliest;
+
+      wait      = nextFree - now;
+      nextFree += (long) intervalNanos;
+    }
+
+    if (wait <= 0) return;
+
+    int depth = waiting.incrementAndGet();
+    maxWaiting.accumulateAndGet(depth, Math::max);
+    try     {sleep(wait);}
+    finally {waiting.decrementAndGet();}
+  }
+
+
+
+  // --- a token if one is free right now, without waiting (hedged requests
+  //     only use spare rate, see ncbi_entrez_hedge.java)
+  synchronized boolean tryAcquire()
+  {
+    long now      = System.nanoTime();
+    long earliest = now - (long) ((burst - 1) * intervalNanos);
+    if (nextFree < earliest) nextFree = earliest;
+    if (nextFree > now) return false;
+
+    nextFree += (long) intervalNanos;
+    requests.incrementAndGet();
+    return true;
+  }
+
+
+
+  // --- after a 429 no new request starts before now + millis
+  private synchronized void penalize(long millis)
+  {
+    long until = System.nanoTime() + millis * 1000000L;
+    if (nextFree < until) nextFree = until;
+  }
+
+
+
+  private String withKey(String url)
+  {
+    if (apiKey == null || !url.contains("/eutils/")) return url;
+    return url + (url.indexOf('?') >= 0 ? "&" : "?") + "api_key=" + apiKey;
+  }
+
+
+
+  private static void sleep(long nanos) throws IOException
+  {
+    try {Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));}
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the rate limit");
+    }
+  }
+
+}
@@ -0,0 +1,382 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/*********************************************************************************
+ * S E C T I O N   I N D E X
+ * -------------------------
+ *
+ * One pass over a JATS paper records where its structural elements are:
+ *
+ *   sec, abstract, trans-abstract, body, back, ack, app, ref-list, fig,
+ *   table-wrap, caption
+ *
+ * For each one: [start, end) char offsets of the whole element (tags
+ * included), the parent element, nesting depth, sec-type / abstract-type
+ * (or "") and the raw content of its own <title> (or ""). Comments, CDATA and
+ * processing instructions are skipped.
+ *
+ * Any element, or all elements matching a predicate, is then cut out of the
+ * paper by offset, without scanning again. The index is a few parallel arrays;
+ * toBytes() / fromBytes() store it next to the paper (e.g. in DocumentCache).
+ * Offsets refer to the exact text that was indexed; its length and CRC32 are
+ * kept, so matches(paper) tells a stale index from a current one (also for a
+ * revised paper of the same length).
+ ********************************************************************************/
+class SectionIndex
+{
+  private static final int MAGIC    = 0x53454332;   // --- "SEC2"
+  private static final int MAGIC_V1 = 0x53454331;   // --- "SEC1": no checksum, never matches
+
+  static final String[] KINDS = {"sec", "abstract", "trans-abstract", "body", "back", "ack", "app",
+                                 "ref-list", "fig", "table-wrap", "caption"};
+
+  private int      size, length;
+  private long     checksum = -1;                  // --- CRC32 of the paper, -1: unknown
+  private int[]    start, end, parent, depth;
+  private byte[]   kind;
+  private String[] type, title;
+
+
+  private SectionIndex(int capacity)
+  {
+    start  = new int[capacity];
+    end    = new int[capacity];
+    parent = new int[capacity];
+    depth  = new int[capacity];
+    kind   = new byte[capacity];
+    type   = new String[capacity];
+    title  = new String[capacity];
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   Q U E R Y   * * * * * * * * * * * * * * * * * *
+
+  public int    size()         {return size;}
+  public int    length()       {return length;}   // --- of the indexed paper
+  public int    start(int i)   {return start[i];}
+  public int    end(int i)     {return end[i];}
+  public int    parent(int i)  {return parent[i];}   // --- -1: top level
+  public int    depth(int i)   {return depth[i];}
+  public String kind(int i)    {return KINDS[kind[i]];}
+  public String type(int i)    {return type[i];}
+  public String title(int i)   {return title[i];}
+
+  // --- true if the index was built from exactly this text
+  public boolean matches(String paper)
+  {
+    return paper.length() == length && checksum == checksum(paper);
+  }
+
+  // --- CRC32 over the UTF-16 chars of the text
+  static long checksum(String paper)
+  {
+    CRC32  crc   = new CRC32();
+    byte[] block = new byte[16 * 1024];
+
+    for (int i = 0; i < paper.length(); )
+    {
+      int n = 0;
+      for (; n < block.length && i < paper.length(); i++)
+      {
+        char c = paper.charAt(i);
+        block[n++] = (byte) (c >> 8);
+        block[n++] = (byte) c;
+      }
+      crc.update(block, 0, n);
+    }
+    return crc.getValue();
+  }
+
+  // --- the element's text, tags included
+  public String slice(String paper, int i) {return paper.substring(start[i], end[i]);}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- elements matching `select` that have no matching ancestor, concatenated
+  //     in document order (an element inside a selected one is not repeated)
+  // -----------------------------------------------------------------------------
+  public String extract(String paper, Predicate<Integer> select)
+  {
+    StringBuilder out      = new StringBuilder();
+    int           coverEnd = -1;
+
+    for (int i = 0; i < size; i++)
+    {
+      if (start[i] < coverEnd || !select.test(i)) continue;
+      out.append(paper, start[i], end[i]);
+      coverEnd = end[i];
+    }
+    return out.toString();
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- <sec> elements with one of the sec-types, e.g. sections(paper, "results", "discussion")
+  public String sections(String paper, String... secTypes)
+  {
+    return extract(paper, i -> kind[i] == 0 && Arrays.asList(secTypes).contains(type[i]));
+  }
+
+  // --- "Materials & Methods" sections, as Entrez.MandM selects them
+  public String methods(String paper)
+  {
+    return extract(paper, i -> kind[i] == 0 && JatsSections.isMethods(type[i]));
+  }
+
+  // --- indexes of the elements of a kind ("sec", "fig", ...), in document order
+  public List<Integer> find(String kindName)
+  {
+    List<Integer> found = new ArrayList<Integer>();
+    for (int i = 0; i < size; i++) if (KINDS[kind[i]].equals(kindName)) found.add(i);
+    return found;
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   B U I L D   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- index the paper in one left-to-right scan
+  // -----------------------------------------------------------------------------
+  static SectionIndex build(String paper)
+  {
+    SectionIndex index  = new SectionIndex(16);
+    int[]        open   = new int[16];    // --- stack of open element indexes
+    int          top    = 0;
+    boolean      titled = true;           // --- innermost open element has its title (or a child)
+    int          n      = paper.length();
+    int          pos    = 0;
+
+    while ((pos = paper.indexOf('<', pos)) >= 0 && pos + 1 < n)
+    {
+      char c = paper.charAt(pos + 1);
+
+      if (c == '!' || c == '?')
+      {
+        pos = skipMarkup(paper, pos);
+        continue;
+      }
+
+      boolean closing = c == '/';
+      int     nameB   = closing ? pos + 2 : pos + 1;
+      int     nameE   = nameB;
+      while (nameE < n && !isNameEnd(paper.charAt(nameE))) nameE++;
+
+      int tagEnd = tagEnd(paper, nameE);
+      if (tagEnd < 0) break;
+
+      int k = kind(paper, nameB, nameE);
+
+      if (closing)
+      {
+        if (k >= 0)
+        {
+          // --- close the innermost open element of this kind (and anything unclosed inside it)
+          for (int t = top - 1; t >= 0; t--)
+            if (index.kind[open[t]] == k)
+            {
+              for (int u = t; u < top; u++) index.end[open[u]] = tagEnd + 1;
+              top    = t;
+              titled = true;
+              break;
+            }
+        }
+      }
+      else if (k >= 0)
+      {
+        boolean empty = paper.charAt(tagEnd - 1) == '/';
+        int     i     = index.add(pos, k, top == 0 ? -1 : open[top - 1], top,
+                                  attribute(paper, nameE, tagEnd, k == 1 || k == 2 ? "abstract-type" : "sec-type"));
+        if (empty) index.end[i] = tagEnd + 1;
+        else
+        {
+          if (top == open.length) open = Arrays.copyOf(open, 2 * top);
+          open[top++] = i;
+          titled = false;
+        }
+      }
+      else if (!titled && top > 0 && nameE - nameB == 5 && paper.startsWith("title", nameB))
+      {
+        int close = paper.indexOf("</title>", tagEnd);
+        if (close >= 0 && paper.charAt(tagEnd - 1) != '/') index.title[open[top - 1]] = paper.substring(tagEnd + 1, close).trim();
+        titled = true;
+      }
+
+      pos = tagEnd + 1;
+    }
+
+    // --- unclosed elements run to the end of the paper
+    for (int t = 0; t < top; t++) index.end[open[t]] = n;
+
+    index.length   = n;
+    index.checksum = checksum(paper);
+
+    return index;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private int add(int at, int k, int parentIndex, int level, String secType)
+  {
+    if (size == start.length)
+    {
+      int capacity = 2 * size;
+      start  = Arrays.copyOf(start, capacity);
+      end    = Arrays.copyOf(end, capacity);
+      parent = Arrays.copyOf(parent, capacity);
+      depth  = Arrays.copyOf(depth, capacity);
+      kind   = Arrays.copyOf(kind, capacity);
+      type   = Arrays.copyOf(type, capacity);
+      title  = Arrays.copyOf(title, capacity);
+    }
+
+    start[size]  = at;
+    end[size]    = at;
+    parent[size] = parentIndex;
+    depth[size]  = level;
+    kind[size]   = (byte) k;
+    type[size]   = secType;
+    title[size]  = "";
+    return size++;
+  }
+
+  private static boolean isNameEnd(char c)
+  {
+    return c == '>' || c == '/' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  // --- index of the KINDS entry named paper[b, e), -1 if none
+  private static int kind(String paper, int b, int e)
+  {
+    for (int k = 0; k < KINDS.length; k++)
+      if (KINDS[k].length() == e - b && paper.startsWith(KINDS[k], b)) return k;
+    return -1;
+  }
+
+  // --- position of the '>' ending the tag, quotes respected; -1 if none
+  private static int tagEnd(String paper, int from)
+  {
+    char quote = 0;
+    for (int i = from; i < paper.length(); i++)
+    {
+      char c = paper.charAt(i);
+      if (quote != 0)      {if (c == quote) quote = 0;}
+      else if (c == '"' || c == '\'') quote = c;
+      else if (c == '>')   return i;
+    }
+    return -1;
+  }
+
+  // --- value of attribute `name` within paper[from, to), "" if absent
+  private static String attribute(String paper, int from, int to, String name)
+  {
+    int at = from;
+    while ((at = paper.indexOf(name, at)) >= 0 && at < to)
+    {
+      int eq = at + name.length();
+      boolean word = Character.isWhitespace(paper.charAt(at - 1));
+      while (eq < to && Character.isWhitespace(paper.charAt(eq))) eq++;
+
+      if (word && eq < to && paper.charAt(eq) == '=')
+      {
+        int q = eq + 1;
+        while (q < to && Character.isWhitespace(paper.charAt(q))) q++;
+        if (q < to && (paper.charAt(q) == '"' || paper.charAt(q) == '\''))
+        {
+          int close = paper.indexOf(paper.charAt(q), q + 1);
+          if (close >= 0 && close < to) return paper.substring(q + 1, close);
+        }
+      }
+      at = eq;
+    }
+    return "";
+  }
+
+  // --- past "<!-- -->", "<![CDATA[ ]]>", "<! >" or "<? ?>"
+  private static int skipMarkup(String paper, int pos)
+  {
+    String close = paper.startsWith("<!--", pos)      ? "-->"
+                 : paper.startsWith("<![CDATA[", pos) ? "]]>"
+                 : paper.charAt(pos + 1) == '?'       ? "?>"
+                 :                                       ">";
+    int e = paper.indexOf(close, pos + 2);
+    return e < 0 ? paper.length() : e + close.length();
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   S T O R E   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- compact binary form: magic, paper length & checksum, size, then per
+  //     element start, end - start, parent, depth, kind, type, title
+  // -----------------------------------------------------------------------------
+  public byte[] toBytes()
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + size * 24);
+
+    try (DataOutputStream out = new DataOutputStream(bytes))
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(length);
+      out.writeLong(checksum);
+      out.writeInt(size);
+      for (int i = 0; i < size; i++)
+      {
+        out.writeInt(start[i]);
+        out.writeInt(end[i] - start[i]);
+        out.writeInt(parent[i]);
+        out.writeShort(depth[i]);
+        out.writeByte(kind[i]);
+        out.writeUTF(type[i]);
+        out.writeUTF(title[i].length() > 16000 ? title[i].substring(0, 16000) : title[i]);
+      }
+    }
+    catch (IOException e) {throw new IllegalStateException(e);}   // --- in-memory stream
+
+    return bytes.toByteArray();
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  static SectionIndex fromBytes(byte[] data) throws IOException
+  {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data)))
+    {
+      int magic = in.readInt();
+      if (magic != MAGIC && magic != MAGIC_V1) throw new IOException("not a section index");
+
+      int          paper = in.readInt();
+      long         crc   = magic == MAGIC ? in.readLong() : -1;
+      int          n     = in.readInt();
+      SectionIndex index = new SectionIndex(Math.max(1, n));
+      index.length   = paper;
+      index.checksum = crc;
+
+      for (int i = 0; i < n; i++)
+      {
+        int at = in.readInt(), length = in.readInt(), p = in.readInt(), d = in.readShort(), k = in.readByte();
+        if (k < 0 || k >= KINDS.length) throw new IOException("corrupt section index");
+
+        index.add(at, k, p, d, in.readUTF());
+        index.end[i]   = at + length;
+        index.title[i] = in.readUTF();
+      }
+      return index;
+    }
+  }
+
+}
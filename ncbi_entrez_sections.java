@@ -0,0 +1,167 @@
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/*********************************************************************************
+ * J A T S   S E C T I O N S
+ * -------------------------
+ *
+ * Streaming counterpart of Entrez.MandM(String): pulls the efetch XML from a
+ * Reader / InputStream with StAX and copies every outermost
+ *
+ *   <sec sec-type="methods|materials|materials|methods|methods|materials">
+ *
+ * subtree to a Writer in a single pass. Only the parser state is held in
+ * memory, so it can run straight off the network stream. Sections are
+ * re-serialized, so the markup is equivalent to, not byte-identical with, the
+ * substring returned by MandM(String).
+ ********************************************************************************/
+class JatsSections
+{
+  private static final XMLInputFactory  IN  = XMLInputFactory.newInstance();
+  private static final XMLOutputFactory OUT = XMLOutputFactory.newInstance();
+
+  static
+  {
+    // --- efetch output carries a DOCTYPE: never load the DTD over the network
+    IN.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    IN.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    IN.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+  }
+
+
+  // -----------------------------------------------------------------------------
+  // --- sec-type values that MandM treats as "Materials & Methods"
+  // -----------------------------------------------------------------------------
+  static boolean isMethods(String secType)
+  {
+    return "methods".equals(secType)           || "materials".equals(secType) ||
+           "materials|methods".equals(secType) || "methods|materials".equals(secType);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- extract the "Materials & Methods" sections
+  // -----------------------------------------------------------------------------
+  public static String methods(Reader in) throws XMLStreamException
+  {
+    StringWriter out = new StringWriter();
+    methods(IN.createXMLStreamReader(in), out);
+    return out.toString();
+  }
+
+  public static String methods(InputStream in) throws XMLStreamException
+  {
+    StringWriter out = new StringWriter();
+    methods(IN.createXMLStreamReader(in), out);
+    return out.toString();
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- copy the "Materials & Methods" sections from the parser to out
+  // -----------------------------------------------------------------------------
+  public static void methods(XMLStreamReader xml, Writer out) throws XMLStreamException
+  {
+    XMLStreamWriter copy  = OUT.createXMLStreamWriter(out);
+    int             depth = 0;   // --- depth inside the section being copied
+
+    try
+    {
+      while (xml.hasNext())
+      {
+        int event = xml.next();
+
+        if (depth == 0)
+        {
+          if (event != XMLStreamConstants.START_ELEMENT || !"sec".equals(xml.getLocalName())) continue;
+          if (!isMethods(xml.getAttributeValue(null, "sec-type")))                          continue;
+        }
+
+        switch (event)
+        {
+          case XMLStreamConstants.START_ELEMENT:
+            depth++;
+            copyStartElement(xml, copy);
+            break;
+
+          case XMLStreamConstants.END_ELEMENT:
+            depth--;
+            copy.writeEndElement();
+            break;
+
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+            copy.writeCharacters(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+            break;
+
+          case XMLStreamConstants.CDATA:
+            copy.writeCData(xml.getText());
+            break;
+
+          case XMLStreamConstants.ENTITY_REFERENCE:
+            copy.writeEntityRef(xml.getLocalName());
+            break;
+
+          case XMLStreamConstants.COMMENT:
+            copy.writeComment(xml.getText());
+            break;
+
+          case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            copy.writeProcessingInstruction(xml.getPITarget(), xml.getPIData());
+            break;
+
+          default:
+            break;
+        }
+
+        if (depth == 0) copy.flush();
+      }
+    }
+    finally
+    {
+      copy.flush();
+      xml.close();
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private static void copyStartElement(XMLStreamReader xml, XMLStreamWriter copy) throws XMLStreamException
+  {
+    String prefix = xml.getPrefix();
+    String ns     = xml.getNamespaceURI();
+
+    if (prefix == null || prefix.length() == 0) copy.writeStartElement(xml.getLocalName());
+    else                                        copy.writeStartElement(prefix, xml.getLocalName(), ns == null ? "" : ns);
+
+    for (int i = 0; i < xml.getNamespaceCount(); i++)
+    {
+      String p = xml.getNamespacePrefix(i);
+      if (p == null || p.length() == 0) copy.writeDefaultNamespace(xml.getNamespaceURI(i));
+      else                              copy.writeNamespace(p, xml.getNamespaceURI(i));
+    }
+
+    for (int i = 0; i < xml.getAttributeCount(); i++)
+    {
+      String p = xml.getAttributePrefix(i);
+      if (p == null || p.length() == 0)
+        copy.writeAttribute(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+      else
+        copy.writeAttribute(p, xml.getAttributeNamespace(i), xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+    }
+  }
+
+}
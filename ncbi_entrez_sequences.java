@@ -0,0 +1,483 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/*********************************************************************************
+ * S E Q U E N C E S
+ * -----------------
+ *
+ * Sequence efetch, following ncbi_entrez_cgi_efetch.pl:
+ *
+ *   efetch.fcgi?db=nucleotide&id=CY073775.1,U47817.1&rettype=gbwithparts&retmode=text
+ *
+ * - SequenceRecord   one GenBank entry or FASTA sequence
+ * - SequenceReader   parses GenBank flat files (rettype gb, gbwithparts) and
+ *                    FASTA straight off an InputStream, one record at a time;
+ *                    only the record being parsed is held in memory, the
+ *                    sequence as one byte per residue
+ * - SequenceFetch    splits an accession list into batches, fetches them
+ *                    concurrently & hands every record to a consumer as soon
+ *                    as it is parsed
+ ********************************************************************************/
+class SequenceRecord
+{
+  final String   format;       // --- "genbank" or "fasta"
+  final String   accession;    // --- ACCESSION (GenBank) / first word of the FASTA defline
+  final String   version;      // --- VERSION, e.g. "U47817.1" ("" for FASTA)
+  final String   definition;   // --- DEFINITION / rest of the FASTA defline
+  final String   locus;        // --- LOCUS line ("" for FASTA)
+  final String   organism;     // --- SOURCE / ORGANISM ("" for FASTA)
+  final List<Feature> features;
+  final byte[]   sequence;     // --- residues, upper or lower case as sent
+
+  // -----------------------------------------------------------------------------
+  // --- one entry of the GenBank feature table; qualifiers as name, value pairs
+  //     in file order (value "" for flags such as /pseudo)
+  // -----------------------------------------------------------------------------
+  static final class Feature
+  {
+    final String       key;
+    final String       location;
+    final List<String> qualifiers;
+
+    Feature(String key, String location, List<String> qualifiers)
+    {
+      this.key        = key;
+      this.location   = location;
+      this.qualifiers = qualifiers;
+    }
+
+    // --- first value of the qualifier, or null
+    public String qualifier(String name)
+    {
+      for (int i = 0; i < qualifiers.size(); i += 2)
+        if (qualifiers.get(i).equals(name)) return qualifiers.get(i + 1);
+      return null;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+  SequenceRecord(String format, String accession, String version, String definition, String locus,
+                 String organism, List<Feature> features, byte[] sequence)
+  {
+    this.format     = format;
+    this.accession  = accession;
+    this.version    = version;
+    this.definition = definition;
+    this.locus      = locus;
+    this.organism   = organism;
+    this.features   = features;
+    this.sequence   = sequence;
+  }
+
+  public int length() {return sequence.length;}
+
+  public String sequence() {return new String(sequence, StandardCharsets.US_ASCII);}
+}
+
+
+
+/*********************************************************************************
+ * Incremental GenBank / FASTA parser. Lines are scanned in a 64 KB byte buffer;
+ * sequence lines are copied byte by byte without creating Strings. The format
+ * is detected per record ("LOCUS" or ">"); anything between records (blank
+ * lines, efetch error text) is skipped.
+ ********************************************************************************/
+class SequenceReader implements Closeable
+{
+  private final InputStream in;
+
+  private byte[]  buf = new byte[64 * 1024];
+  private int     pos, lim;
+  private boolean eof;
+
+  // --- current line: buf[lineStart, lineEnd), without the line terminator
+  private int     lineStart, lineEnd;
+  private boolean pending;                 // --- current line not consumed yet
+
+  // --- growing sequence of the record being parsed
+  private byte[]  seq = new byte[64 * 1024];
+  private int     seqLength;
+
+
+  SequenceReader(InputStream in)
+  {
+    this.in = in;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- next record, null at the end of the stream
+  // -----------------------------------------------------------------------------
+  public SequenceRecord next() throws IOException
+  {
+    while (line())
+    {
+      if (startsWith("LOCUS"))           return genbank();
+      if (lineEnd > lineStart && buf[lineStart] == '>') return fasta();
+      pending = false;
+    }
+    return null;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- hand every remaining record to the consumer; returns their number
+  public long forEach(Consumer<SequenceRecord> consumer) throws IOException
+  {
+    long           n = 0;
+    SequenceRecord r;
+    while ((r = next()) != null) {consumer.accept(r); n++;}
+    return n;
+  }
+
+  public void close() throws IOException {in.close();}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- ">id description" followed by sequence lines up to the next ">"
+  // -----------------------------------------------------------------------------
+  private SequenceRecord fasta() throws IOException
+  {
+    String defline = text(lineStart + 1, lineEnd).trim();
+    pending   = false;
+    seqLength = 0;
+
+    while (line() && !(lineEnd > lineStart && buf[lineStart] == '>'))
+    {
+      residues(lineStart, lineEnd);
+      pending = false;
+    }
+
+    int    space = defline.indexOf(' ');
+    String id    = space < 0 ? defline : defline.substring(0, space);
+    String desc  = space < 0 ? ""      : defline.substring(space + 1).trim();
+
+    return new SequenceRecord("fasta", id, "", desc, "", "", Collections.<SequenceRecord.Feature>emptyList(),
+                              Arrays.copyOf(seq, seqLength));
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- LOCUS ... // ; header keywords start in column 1, continuation lines
+  //     are indented 12 columns, features 5 / 21 columns, ORIGIN holds the
+  //     numbered sequence lines
+  // -----------------------------------------------------------------------------
+  private SequenceRecord genbank() throws IOException
+  {
+    String locus = text(lineStart, lineEnd).trim();
+    String accession = "", version = "", organism = "";
+    StringBuilder definition = new StringBuilder();
+    List<SequenceRecord.Feature> features = new ArrayList<SequenceRecord.Feature>();
+
+    String section = "";
+    pending   = false;
+    seqLength = 0;
+
+    while (line())
+    {
+      pending = false;
+      if (startsWith("//")) break;
+
+      boolean continuation = lineEnd - lineStart > 0 && buf[lineStart] == ' ';
+
+      if (!continuation)
+      {
+        section = keyword();
+        String value = lineEnd - lineStart > 12 ? text(lineStart + 12, lineEnd).trim() : "";
+
+        if      (section.equals("DEFINITION")) definition.append(value);
+        else if (section.equals("ACCESSION"))  accession = firstWord(value);
+        else if (section.equals("VERSION"))    version   = firstWord(value);
+        else if (section.equals("FEATURES"))   {features(features); section = "";}
+        continue;
+      }
+
+      if (section.equals("ORIGIN"))          residues(lineStart, lineEnd);
+      else if (section.equals("DEFINITION")) definition.append(' ').append(text(lineStart, lineEnd).trim());
+      else if (section.equals("SOURCE") && startsWith("  ORGANISM"))
+        organism = text(lineStart + 12, lineEnd).trim();
+    }
+
+    String def = definition.toString();
+    if (def.endsWith(".")) def = def.substring(0, def.length() - 1);
+
+    return new SequenceRecord("genbank", accession, version, def, locus, organism, features,
+                              Arrays.copyOf(seq, seqLength));
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- feature table: "     key             location" + "/qualifier=value" lines;
+  //     stops at the first line starting in column 1 (left pending)
+  // -----------------------------------------------------------------------------
+  private void features(List<SequenceRecord.Feature> features) throws IOException
+  {
+    String        key = null;
+    StringBuilder location = new StringBuilder(), value = null;
+    String        name = null;
+    List<String>  qualifiers = null;
+
+    while (line() && lineEnd > lineStart && buf[lineStart] == ' ')
+    {
+      pending = false;
+
+      boolean newKey = lineEnd - lineStart > 5 && buf[lineStart + 5] != ' ';
+      String  text   = lineEnd - lineStart > 21 ? text(lineStart + 21, lineEnd).trim() : "";
+
+      if (newKey)
+      {
+        if (key != null) features.add(feature(key, location, qualifiers, name, value));
+        key        = text(lineStart + 5, Math.min(lineEnd, lineStart + 21)).trim();
+        location.setLength(0);
+        location.append(text);
+        qualifiers = new ArrayList<String>();
+        name       = null;
+        value      = null;
+      }
+      else if (key == null) continue;
+      else if (text.startsWith("/"))
+      {
+        if (name != null) qualifier(qualifiers, name, value);
+        int eq = text.indexOf('=');
+        name  = eq < 0 ? text.substring(1) : text.substring(1, eq);
+        value = new StringBuilder(eq < 0 ? "" : text.substring(eq + 1));
+      }
+      else if (name != null)
+      {
+        // --- translations are wrapped without separators; other values at word breaks
+        if (!name.equals("translation")) value.append(' ');
+        value.append(text);
+      }
+      else location.append(text);
+    }
+
+    if (key != null) features.add(feature(key, location, qualifiers, name, value));
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private static SequenceRecord.Feature feature(String key, StringBuilder location, List<String> qualifiers,
+                                                String name, StringBuilder value)
+  {
+    if (name != null) qualifier(qualifiers, name, value);
+    return new SequenceRecord.Feature(key, location.toString(), qualifiers);
+  }
+
+  private static void qualifier(List<String> qualifiers, String name, StringBuilder value)
+  {
+    String v = value.toString();
+    if (v.length() >= 2 && v.charAt(0) == '"' && v.charAt(v.length() - 1) == '"')
+      v = v.substring(1, v.length() - 1).replace("\"\"", "\"");
+    qualifiers.add(name);
+    qualifiers.add(v);
+  }
+
+
+
+  // --- append the letters of buf[b, e) to the sequence (digits & blanks skipped)
+  private void residues(int b, int e)
+  {
+    if (seqLength + (e - b) > seq.length) seq = Arrays.copyOf(seq, Math.max(2 * seq.length, seqLength + (e - b)));
+
+    for (int i = b; i < e; i++)
+    {
+      byte c = buf[i];
+      if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '*' || c == '-') seq[seqLength++] = c;
+    }
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   L I N E S   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- make the next line current (unless the current one is still pending);
+  //     false at the end of the stream
+  // -----------------------------------------------------------------------------
+  private boolean line() throws IOException
+  {
+    if (pending) return true;
+
+    int scan = pos;
+    for (;;)
+    {
+      for (int i = scan; i < lim; i++)
+        if (buf[i] == '\n')
+        {
+          lineStart = pos;
+          lineEnd   = i > pos && buf[i - 1] == '\r' ? i - 1 : i;
+          pos       = i + 1;
+          return pending = true;
+        }
+
+      if (eof)
+      {
+        if (pos >= lim) return false;
+        lineStart = pos;
+        lineEnd   = buf[lim - 1] == '\r' ? lim - 1 : lim;
+        pos       = lim;
+        return pending = true;
+      }
+
+      scan = lim - pos;
+      fill();
+      scan += pos;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- move the unread rest to the front (growing for very long lines), read more
+  private void fill() throws IOException
+  {
+    int rest = lim - pos;
+    if (rest == buf.length) buf = Arrays.copyOf(buf, 2 * buf.length);
+    System.arraycopy(buf, pos, buf, 0, rest);
+    pos = 0;
+    lim = rest;
+
+    int n = in.read(buf, lim, buf.length - lim);
+    if (n < 0) eof = true;
+    else       lim += n;
+  }
+
+  private boolean startsWith(String prefix)
+  {
+    if (lineEnd - lineStart < prefix.length()) return false;
+    for (int i = 0; i < prefix.length(); i++)
+      if (buf[lineStart + i] != prefix.charAt(i)) return false;
+    return true;
+  }
+
+  // --- first word of the current line
+  private String keyword()
+  {
+    int e = lineStart;
+    while (e < lineEnd && buf[e] != ' ') e++;
+    return text(lineStart, e);
+  }
+
+  private String text(int b, int e) {return new String(buf, b, Math.max(0, e - b), StandardCharsets.UTF_8);}
+
+  private static String firstWord(String s)
+  {
+    int space = s.indexOf(' ');
+    return space < 0 ? s : s.substring(0, space);
+  }
+}
+
+
+
+/*********************************************************************************
+ * Batched, concurrent sequence efetch. Each batch is one streamed efetch
+ * request parsed by a SequenceReader; records go to the consumer one at a
+ * time (calls are serialized, so the consumer need not be thread-safe).
+ * Records keep their order within a batch; batches finish in any order.
+ ********************************************************************************/
+class SequenceFetch
+{
+  private static final EntrezLog LOG = EntrezLog.get("SequenceFetch");
+
+  private final EntrezTransport transport;
+  private int                   batchSize   = 200;
+  private int                   parallelism = 3;
+
+
+  public SequenceFetch(EntrezTransport transport)
+  {
+    this.transport = transport;
+  }
+
+  public SequenceFetch batchSize(int n)   {this.batchSize = Math.max(1, n); return this;}
+
+  public SequenceFetch parallelism(int n) {this.parallelism = Math.max(1, n); return this;}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- fetch the accessions from db (e.g. "nucleotide", "protein") as rettype
+  //     ("gbwithparts", "gb" or "fasta"); returns the accessions of batches that
+  //     failed (records of such a batch parsed before the failure were already
+  //     delivered)
+  // -----------------------------------------------------------------------------
+  public List<String> fetch(final String db, Collection<String> accessions, final String rettype,
+                            final Consumer<SequenceRecord> consumer)
+  {
+    final List<String> all    = new ArrayList<String>(accessions);
+    final List<String> failed = new ArrayList<String>();
+    final Object       lock   = new Object();
+
+    ExecutorService pool  = Executors.newFixedThreadPool(parallelism);
+    List<Future<?>> tasks = new ArrayList<Future<?>>();
+
+    try
+    {
+      for (int b = 0; b < all.size(); b += batchSize)
+      {
+        final List<String> batch = all.subList(b, Math.min(all.size(), b + batchSize));
+
+        tasks.add(pool.submit(() ->
+        {
+          try (SequenceReader reader = new SequenceReader(transport.open(url(db, batch, rettype))))
+          {
+            SequenceRecord r;
+            while ((r = reader.next()) != null)
+              synchronized (lock) {consumer.accept(r);}
+          }
+          return null;
+        }));
+      }
+
+      for (int t = 0; t < tasks.size(); t++)
+      {
+        try {tasks.get(t).get();}
+        catch (InterruptedException e) {Thread.currentThread().interrupt(); break;}
+        catch (ExecutionException e)
+        {
+          int from = t * batchSize, to = Math.min(all.size(), from + batchSize);
+          LOG.warn("sequence batch " + all.get(from) + ".." + all.get(to - 1) + " failed", e.getCause());
+          failed.addAll(all.subList(from, to));
+        }
+      }
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+
+    return failed;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  static String url(String db, List<String> accessions, String rettype) throws UnsupportedEncodingException
+  {
+    return Entrez.EUTILS + "efetch.fcgi?db=" + db + "&id=" + URLEncoder.encode(CitationBatch.join(accessions), "UTF-8")
+         + "&rettype=" + rettype + "&retmode=text";
+  }
+
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*********************************************************************************
+ * S I N G L E   F L I G H T
+ * -------------------------
+ *
+ * Coalesces concurrent calls for the same key: the first caller (the leader)
+ * runs the call, callers arriving while it is in flight wait for it and get
+ * the same result, or the same failure. The key is dropped as soon as the
+ * call completes, so nothing is cached: a later call runs again (the
+ * DocumentCache is the place for keeping results).
+ *
+ * Entrez keys its fetches by (endpoint, db, id, format), so a burst of
+ * getCitation / getAbstract / cleanPMC calls for one popular paper costs
+ * one NCBI request (and one rate-limit slot) instead of one per thread.
+ *
+ * Counters: executed() calls run, coalesced() calls that shared another's
+ * result, waiting() callers blocked right now, peakWaiting() the most that
+ * ever waited on one call, inFlight() keys being fetched.
+ ********************************************************************************/
+class SingleFlight<K, V>
+{
+  interface Call<V>
+  {
+    V call() throws IOException;
+  }
+
+  private static final class Flight<V>
+  {
+    final CompletableFuture<V> result  = new CompletableFuture<V>();
+    final AtomicInteger        waiters = new AtomicInteger();
+  }
+
+  private final Map<K, Flight<V>> flights     = new ConcurrentHashMap<K, Flight<V>>();
+  private final LongAdder         executed    = new LongAdder();
+  private final LongAdder         coalesced   = new LongAdder();
+  private final AtomicInteger     waiting     = new AtomicInteger();
+  private final AtomicInteger     peakWaiting = new AtomicInteger();
+
+
+  public long executed()    {return executed.sum();}
+  public long coalesced()   {return coalesced.sum();}
+  public int  waiting()     {return waiting.get();}
+  public int  peakWaiting() {return peakWaiting.get();}
+  public int  inFlight()    {return flights.size();}
+
+  // --- callers waiting for the call in flight for key (0 if none)
+  public int waiters(K key)
+  {
+    Flight<V> f = flights.get(key);
+    return f == null ? 0 : f.waiters.get();
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- result of call, shared with concurrent callers of the same key
+  // -----------------------------------------------------------------------------
+  public V run(K key, Call<V> call) throws IOException
+  {
+    Flight<V> mine     = new Flight<V>();
+    Flight<V> existing = flights.putIfAbsent(key, mine);
+
+    if (existing != null) return await(existing);
+
+    executed.increment();
+    try
+    {
+      V value = call.call();
+      flights.remove(key, mine);
+      mine.result.complete(value);
+      return value;
+    }
+    catch (IOException | RuntimeException | Error e)
+    {
+      flights.remove(key, mine);
+      mine.result.completeExceptionally(e);
+      throw e;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private V await(Flight<V> flight) throws IOException
+  {
+    coalesced.increment();
+    peakWaiting.accumulateAndGet(flight.waiters.incrementAndGet(), Math::max);
+    waiting.incrementAndGet();
+
+    try {return flight.result.get();}
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for a coalesced request");
+    }
+    catch (ExecutionException e)
+    {
+      // --- rethrow the leader's failure, wrapped so this caller's stack shows too
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)      throw new IOException(cause.getMessage(), cause);
+      if (cause instanceof RuntimeException) throw new IllegalStateException(cause.getMessage(), cause);
+      throw (Error) cause;
+    }
+    finally
+    {
+      waiting.decrementAndGet();
+      flight.waiters.decrementAndGet();
+    }
+  }
+
+}
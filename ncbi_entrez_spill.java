@@ -0,0 +1,166 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*********************************************************************************
+ * S P I L L   T E X T
+ * -------------------
+ *
+ * Text read from a Reader in blocks of 64K chars. Up to `threshold` chars it stays in
+ * memory; beyond that everything is written to a temp file as UTF-16 and
+ * memory-mapped, so large documents cost page cache instead of heap. One
+ * mapping holds at most 2 GB, so documents over ~1G chars fail with an
+ * IOException.
+ *
+ * Either way the result is a CharSequence with a Reader view. The temp file is
+ * unlinked as soon as it is mapped (on POSIX); close() drops the reference to
+ * the mapping.
+ ********************************************************************************/
+class SpillText implements CharSequence, Closeable
+{
+  private CharSequence text;
+  private final boolean spilled;
+
+
+  private SpillText(CharSequence text, boolean spilled)
+  {
+    this.text    = text;
+    this.spilled = spilled;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- read the whole Reader; spill to a temp file in tmpDir (null: default)
+  //     once more than threshold chars have been read
+  // -----------------------------------------------------------------------------
+  public static SpillText read(Reader in, int threshold, Path tmpDir) throws IOException
+  {
+    char[]        block  = new char[64 * 1024];
+    StringBuilder memory = new StringBuilder(Math.min(threshold, 256 * 1024));
+    int           n;
+
+    while ((n = in.read(block)) >= 0)
+    {
+      if (memory.length() + n > threshold) return spill(in, memory, block, n, tmpDir);
+      memory.append(block, 0, n);
+    }
+
+    return new SpillText(memory, false);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- continue reading into a temp file, starting with memory + block[0, n)
+  private static SpillText spill(Reader in, StringBuilder memory, char[] block, int n, Path tmpDir) throws IOException
+  {
+    Path file = tmpDir == null ? Files.createTempFile("entrez", ".utf16")
+                               : Files.createTempFile(tmpDir, "entrez", ".utf16");
+
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+    {
+      ByteBuffer bytes = ByteBuffer.allocateDirect(block.length * 2);
+      long       size  = 0;
+
+      // --- what was kept in memory so far
+      char[] chunk = new char[block.length];
+      for (int i = 0; i < memory.length(); i += chunk.length)
+      {
+        int len = Math.min(chunk.length, memory.length() - i);
+        memory.getChars(i, i + len, chunk, 0);
+        size = write(ch, bytes, chunk, len, size);
+      }
+      memory.setLength(0);
+
+      // --- one mapping: FileChannel.map takes at most Integer.MAX_VALUE bytes
+      do
+      {
+        size = write(ch, bytes, block, n, size);
+        if (size > Integer.MAX_VALUE) throw new IOException("document too large: over " + size / 2 + " chars");
+      }
+      while ((n = in.read(block)) >= 0);
+
+      CharBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size).asCharBuffer();
+      return new SpillText(mapped, true);
+    }
+    finally
+    {
+      // --- the mapping stays valid after the file is unlinked
+      try {Files.delete(file);}
+      catch (IOException e) {file.toFile().deleteOnExit();}
+    }
+  }
+
+  private static long write(FileChannel ch, ByteBuffer bytes, char[] chars, int n, long at) throws IOException
+  {
+    bytes.clear();
+    bytes.asCharBuffer().put(chars, 0, n);
+    bytes.limit(n * 2);
+    while (bytes.hasRemaining()) at += ch.write(bytes, at);
+    return at;
+  }
+
+
+
+  // --- true if the text lives in a mapped temp file
+  public boolean spilled() {return spilled;}
+
+
+
+  // * * * * * * * * * * * * * * *   C H A R S E Q U E N C E   * * * * * * * * * * *
+
+  public int length()                           {return text.length();}
+
+  public char charAt(int index)                 {return text.charAt(index);}
+
+  public CharSequence subSequence(int b, int e) {return text.subSequence(b, e);}
+
+  public String toString()                      {return text.toString();}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- Reader over the text (independent position per call)
+  // -----------------------------------------------------------------------------
+  public Reader reader()
+  {
+    final CharSequence source = text;
+
+    return new Reader()
+    {
+      private int pos = 0;
+
+      @Override public int read(char[] buf, int off, int len)
+      {
+        if (pos >= source.length()) return -1;
+        int n = Math.min(len, source.length() - pos);
+
+        if (source instanceof CharBuffer)
+          ((CharBuffer) source).duplicate().position(pos).get(buf, off, n);
+        else
+          ((StringBuilder) source).getChars(pos, pos + n, buf, off);
+
+        pos += n;
+        return n;
+      }
+
+      @Override public void close() {}
+    };
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  public void close()
+  {
+    text = CharBuffer.allocate(0);
+  }
+
+}
@@ -0,0 +1,914 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*********************************************************************************
+ * T E X T   I N D E X
+ * -------------------
+ *
+ * Local full-text index over fetched abstracts & papers, so that
+ * Entrez.search() / response() can be answered without a network trip
+ * (see Entrez.setLocalIndex).
+ *
+ * Each document has an id (PMID, PMCID) and three fields: title, abstract and
+ * body. Text is lower-cased and split into letter/digit tokens; for every
+ * (field, term) the postings list is a varint byte sequence:
+ *
+ *   per document:  doc delta, frequency, position deltas
+ *
+ * Added documents are buffered and frozen into an immutable Segment (sorted
+ * term table + one postings array) every flushDocs documents. A search sees
+ * the buffered documents through a private frozen copy that is kept until the
+ * next add, so searching between adds does not publish tiny segments.
+ *
+ * Segments are merged log-structured: a segment's level is how many times
+ * mergeFactor its size exceeds flushDocs (flushDocs, 8x, 64x, ... documents
+ * with the default factor), and mergeFactor adjacent segments of one level
+ * are merged by a background thread into one of the next level. Every
+ * document is rewritten once per level, and there are at most
+ * mergeFactor - 1 segments per level (plus a run being merged). Readers keep
+ * using the old array until the merged segment is swapped in. Document
+ * numbers follow insertion order, so merging only rebases the first delta of
+ * each list and copies the rest.
+ *
+ * Queries use the ESearch syntax:
+ *
+ *   "breast cancer"[tiab] AND (tamoxifen OR raloxif*) NOT mouse[ti]
+ *
+ * AND / OR / NOT (left to right, AND binding tighter than OR, adjacent terms
+ * ANDed), parentheses, quoted phrases, trailing * for prefixes, and the tags
+ * [ti] / [title], [ab] / [abstract], [tiab], [body], [tw] / [all] (default:
+ * all fields). Other tags are rejected with IllegalArgumentException, so the
+ * caller can go to ESearch instead.
+ ********************************************************************************/
+class TextIndex
+{
+  static final int TITLE = 0, ABSTRACT = 1, BODY = 2;
+
+  private static final int ALL   = 7;
+  private static final int MAGIC    = 0x54495832;   // --- "TIX2": strings as length + UTF-8
+  private static final int MAGIC_V1 = 0x54495831;   // --- "TIX1": strings as writeUTF (< 64 KB)
+
+  private static final EntrezLog LOG = EntrezLog.get("TextIndex");
+
+  // --- immutable slice of the index: documents base .. base + ids.length - 1
+  static final class Segment
+  {
+    final String[] ids;        // --- local doc number -> document id
+    final String[] keys;       // --- sorted; field digit + term
+    final int[]    offsets;    // --- postings of keys[i]: [offsets[i], offsets[i + 1])
+    final byte[]   postings;
+
+    Segment(String[] ids, String[] keys, int[] offsets, byte[] postings)
+    {
+      this.ids      = ids;
+      this.keys     = keys;
+      this.offsets  = offsets;
+      this.postings = postings;
+    }
+
+    int size() {return ids.length;}
+  }
+
+  private volatile Segment[] segments = new Segment[0];
+
+  private final Object                 lock     = new Object();
+  private final Set<String>            known    = new HashSet<String>();
+  private final Map<String, ByteSink>  buffer   = new HashMap<String, ByteSink>();
+  private final List<String>           buffered = new ArrayList<String>();
+
+  private int             flushDocs   = 1000;
+  private int             mergeFactor = 8;
+  private boolean         merging, closed;
+  private ExecutorService merger;
+  private Segment         pending;     // --- frozen copy of the buffer for searches, null after an add
+
+
+  public TextIndex flushDocs(int n)   {this.flushDocs = Math.max(1, n);   return this;}
+  public TextIndex mergeFactor(int n) {this.mergeFactor = Math.max(2, n); return this;}
+
+  public int size()     {synchronized (lock) {return known.size();}}
+  public int segments() {return segments.length;}
+
+  public boolean contains(String id) {synchronized (lock) {return known.contains(id);}}
+
+
+
+  // * * * * * * * * * * * * * * *   W R I T E   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- index a document (any field may be null); false if the id is already in
+  // -----------------------------------------------------------------------------
+  public boolean add(String id, String title, String abstractText, String body)
+  {
+    synchronized (lock)
+    {
+      if (!known.add(id)) return false;
+
+      int doc = buffered.size();
+      buffered.add(id);
+      pending = null;
+
+      addField(doc, TITLE,    title);
+      addField(doc, ABSTRACT, abstractText);
+      addField(doc, BODY,     body);
+
+      if (buffered.size() >= flushDocs) flushLocked();
+    }
+    return true;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private void addField(int doc, int field, String text)
+  {
+    if (text == null || text.isEmpty()) return;
+
+    // --- positions of every term in this field
+    Map<String, int[]> terms = new HashMap<String, int[]>();   // --- {count, p0, p1, ...}
+    int position = 0;
+
+    for (String term : tokens(text))
+    {
+      int[] p = terms.get(term);
+      if (p == null) terms.put(term, p = new int[4]);
+      else if (p[0] + 1 == p.length) terms.put(term, p = Arrays.copyOf(p, 2 * p.length));
+      p[++p[0]] = position++;
+    }
+
+    for (Map.Entry<String, int[]> t : terms.entrySet())
+    {
+      String   key  = field + t.getKey();
+      ByteSink sink = buffer.get(key);
+      if (sink == null) buffer.put(key, sink = new ByteSink());
+
+      int[] p = t.getValue();
+      sink.varint(doc - sink.last);
+      sink.varint(p[0]);
+      for (int i = 1; i <= p[0]; i++) sink.varint(p[i] - (i == 1 ? 0 : p[i - 1]));
+      sink.last = doc;
+    }
+  }
+
+
+
+  // --- freeze the buffered documents into a segment
+  public void flush()
+  {
+    synchronized (lock) {flushLocked();}
+  }
+
+  private void flushLocked()
+  {
+    if (buffered.isEmpty()) return;
+
+    Segment[] next = Arrays.copyOf(segments, segments.length + 1);
+    next[segments.length] = pending != null ? pending : freeze();
+    segments = next;
+
+    buffer.clear();
+    buffered.clear();
+    pending = null;
+
+    scheduleMerge();
+  }
+
+
+
+  // --- the buffered documents as a segment (the buffer is left as it is)
+  private Segment freeze()
+  {
+    String[] keys    = buffer.keySet().toArray(new String[0]);
+    int[]    offsets = new int[keys.length + 1];
+    int      total   = 0;
+    Arrays.sort(keys);
+
+    for (int i = 0; i < keys.length; i++) total += buffer.get(keys[i]).size;
+
+    byte[] postings = new byte[total];
+    for (int i = 0; i < keys.length; i++)
+    {
+      ByteSink s = buffer.get(keys[i]);
+      System.arraycopy(s.bytes, 0, postings, offsets[i], s.size);
+      offsets[i + 1] = offsets[i] + s.size;
+    }
+
+    return new Segment(buffered.toArray(new String[0]), keys, offsets, postings);
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   M E R G E   * * * * * * * * * * * * * * * * * *
+
+  // --- called with the lock held
+  private void scheduleMerge()
+  {
+    if (merging || closed || mergeRun(segments) < 0) return;
+
+    if (merger == null) merger = Executors.newSingleThreadExecutor(r ->
+    {
+      Thread t = new Thread(r, "entrez-index-merge");
+      t.setDaemon(true);
+      return t;
+    });
+
+    merging = true;
+    merger.execute(this::mergeTail);
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- first of mergeFactor adjacent segments of one level, the newest such
+  //     run (lowest level, as levels only go down towards the end); -1 if none
+  // -----------------------------------------------------------------------------
+  private int mergeRun(Segment[] segs)
+  {
+    int end = segs.length;
+
+    while (end >= mergeFactor)
+    {
+      int level = level(segs[end - 1]), b = end - 1;
+      while (b > 0 && level(segs[b - 1]) == level) b--;
+
+      if (end - b >= mergeFactor) return b;
+      end = b;
+    }
+    return -1;
+  }
+
+  // --- 0 up to flushDocs documents, 1 up to mergeFactor x flushDocs, ...
+  private int level(Segment s)
+  {
+    int  level = 0;
+    long cap   = flushDocs;
+    while (s.size() > cap) {cap *= mergeFactor; level++;}
+    return level;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- merge one run of mergeFactor segments of a level; only this thread
+  //     replaces segments, flushes only append, so the run is still at the
+  //     same place when the result is swapped in
+  // -----------------------------------------------------------------------------
+  private void mergeTail()
+  {
+    try
+    {
+      Segment[] snapshot;
+      int       from;
+
+      synchronized (lock) {snapshot = segments; from = mergeRun(snapshot);}
+
+      if (from < 0)
+      {
+        synchronized (lock) {merging = false;}
+        return;
+      }
+
+      Segment merged = merge(Arrays.copyOfRange(snapshot, from, from + mergeFactor));
+
+      synchronized (lock)
+      {
+        Segment[] current = segments;
+        Segment[] next    = new Segment[current.length - mergeFactor + 1];
+
+        System.arraycopy(current, 0, next, 0, from);
+        next[from] = merged;
+        System.arraycopy(current, from + mergeFactor, next, from + 1, current.length - from - mergeFactor);
+
+        segments = next;
+        merging  = false;
+        scheduleMerge();
+      }
+    }
+    catch (RuntimeException e)
+    {
+      LOG.warn("segment merge failed", e);
+      synchronized (lock) {merging = false;}
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- one segment with the documents of `parts`, in order
+  // -----------------------------------------------------------------------------
+  static Segment merge(Segment[] parts)
+  {
+    int   docs = 0;
+    int[] base = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {base[i] = docs; docs += parts[i].size();}
+
+    String[] ids = new String[docs];
+    for (int i = 0; i < parts.length; i++) System.arraycopy(parts[i].ids, 0, ids, base[i], parts[i].size());
+
+    List<String> keys    = new ArrayList<String>();
+    ByteSink     out     = new ByteSink();
+    IntList      offsets = new IntList();
+    int[]        at      = new int[parts.length];   // --- next key of each part
+
+    offsets.add(0);
+
+    while (true)
+    {
+      // --- smallest pending key
+      String key = null;
+      for (int i = 0; i < parts.length; i++)
+        if (at[i] < parts[i].keys.length && (key == null || parts[i].keys[at[i]].compareTo(key) < 0)) key = parts[i].keys[at[i]];
+      if (key == null) break;
+
+      int last = -1;
+
+      for (int i = 0; i < parts.length; i++)
+      {
+        if (at[i] >= parts[i].keys.length || !parts[i].keys[at[i]].equals(key)) continue;
+
+        Segment s = parts[i];
+        int     k = at[i]++;
+
+        // --- rebase the first doc delta, the rest of the list is relative
+        VarReader r     = new VarReader(s.postings, s.offsets[k]);
+        int       first = r.next() - 1;
+        int       rest  = r.pos;
+
+        out.varint(base[i] + first - last);
+        out.write(s.postings, rest, s.offsets[k + 1] - rest);
+
+        last = base[i] + lastDoc(s.postings, s.offsets[k], s.offsets[k + 1]);
+      }
+
+      keys.add(key);
+      offsets.add(out.size);
+    }
+
+    return new Segment(ids, keys.toArray(new String[0]), offsets.toArray(), Arrays.copyOf(out.bytes, out.size));
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private static int lastDoc(byte[] postings, int from, int to)
+  {
+    VarReader r   = new VarReader(postings, from);
+    int       doc = -1;
+
+    while (r.pos < to)
+    {
+      doc += r.next();
+      for (int n = r.next(); n > 0; n--) r.next();
+    }
+    return doc;
+  }
+
+
+
+  // --- wait for a pending merge and stop merging (the index stays usable)
+  public void close() throws InterruptedException
+  {
+    ExecutorService m;
+    synchronized (lock) {m = merger; merger = null; closed = true;}
+    if (m == null) return;
+    m.shutdown();
+    m.awaitTermination(1, TimeUnit.MINUTES);
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   S E A R C H   * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- ids of the matching documents in index order, at most `max`
+  // -----------------------------------------------------------------------------
+  public List<String> search(String query, int max)
+  {
+    Query     q    = new Query(query);
+    Segment[] segs = snapshot();
+    List<String> hits = new ArrayList<String>();
+
+    for (Segment s : segs)
+    {
+      int[] docs = q.evaluate(s);
+      for (int i = 0; i < docs.length && hits.size() < max; i++) hits.add(s.ids[docs[i]]);
+      if (hits.size() >= max) break;
+    }
+    return hits;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- number of matching documents
+  public int count(String query)
+  {
+    Query q = new Query(query);
+    int   n = 0;
+    for (Segment s : snapshot()) n += q.evaluate(s).length;
+    return n;
+  }
+
+  // --- segments plus the buffered documents (not published as a segment)
+  private Segment[] snapshot()
+  {
+    synchronized (lock)
+    {
+      if (buffered.isEmpty()) return segments;
+      if (pending == null) pending = freeze();
+
+      Segment[] all = Arrays.copyOf(segments, segments.length + 1);
+      all[segments.length] = pending;
+      return all;
+    }
+  }
+
+  // --- segments including the documents added so far
+  private Segment[] current()
+  {
+    synchronized (lock) {flushLocked();}
+    return segments;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- lower-cased letter/digit runs
+  // -----------------------------------------------------------------------------
+  static List<String> tokens(String text)
+  {
+    List<String> tokens = new ArrayList<String>();
+    int          b      = -1;
+
+    for (int i = 0; i <= text.length(); i++)
+    {
+      boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (word && b < 0) b = i;
+      else if (!word && b >= 0)
+      {
+        tokens.add(text.substring(b, i).toLowerCase());
+        b = -1;
+      }
+    }
+    return tokens;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- parsed query, evaluated per segment into sorted local doc numbers
+  // -----------------------------------------------------------------------------
+  private static final class Query
+  {
+    private final List<String> tokens = new ArrayList<String>();
+    private int                at;
+    private Segment            segment;
+    private final Node         root;
+
+    interface Node {int[] eval(Query q);}
+
+    Query(String query)
+    {
+      lex(query);
+      root = or();
+      if (at < tokens.size()) throw new IllegalArgumentException("unexpected '" + tokens.get(at) + "' in " + query);
+    }
+
+    int[] evaluate(Segment s)
+    {
+      segment = s;
+      return root.eval(this);
+    }
+
+    // --- ( ) "phrase" [tag] word
+    private void lex(String query)
+    {
+      int i = 0, n = query.length();
+
+      while (i < n)
+      {
+        char c = query.charAt(i);
+        int  e;
+
+        if (Character.isWhitespace(c))     {i++; continue;}
+        if (c == '(' || c == ')')          e = i + 1;
+        else if (c == '"' || c == '[')
+        {
+          e = query.indexOf(c == '"' ? '"' : ']', i + 1);
+          if (e < 0) throw new IllegalArgumentException("unbalanced " + c + " in " + query);
+          e++;
+        }
+        else
+        {
+          e = i;
+          while (e < n && "()\"[".indexOf(query.charAt(e)) < 0 && !Character.isWhitespace(query.charAt(e))) e++;
+        }
+
+        tokens.add(query.substring(i, e));
+        i = e;
+      }
+    }
+
+    private String peek() {return at < tokens.size() ? tokens.get(at) : null;}
+
+    private Node or()
+    {
+      Node left = and();
+      while ("OR".equals(peek()))
+      {
+        at++;
+        Node a = left, b = and();
+        left = q -> union(a.eval(q), b.eval(q));
+      }
+      return left;
+    }
+
+    private Node and()
+    {
+      Node left = primary();
+      String t;
+
+      while ((t = peek()) != null && !t.equals("OR") && !t.equals(")"))
+      {
+        boolean not = t.equals("NOT");
+        if (not || t.equals("AND")) at++;
+
+        Node a = left, b = primary();
+        left = not ? q -> difference(a.eval(q), b.eval(q)) : q -> intersect(a.eval(q), b.eval(q));
+      }
+      return left;
+    }
+
+    private Node primary()
+    {
+      String t = peek();
+      if (t == null) throw new IllegalArgumentException("incomplete query");
+      at++;
+
+      if (t.equals("("))
+      {
+        Node inner = or();
+        if (!")".equals(peek())) throw new IllegalArgumentException("missing )");
+        at++;
+        return inner;
+      }
+      if (t.startsWith("[") || t.equals(")")) throw new IllegalArgumentException("unexpected " + t);
+
+      int fields = ALL;
+      if (peek() != null && peek().startsWith("[")) fields = fields(tokens.get(at++));
+
+      final int    mask   = fields;
+      boolean      prefix = !t.startsWith("\"") && t.endsWith("*");
+      List<String> words  = tokens(t);
+
+      if (words.isEmpty()) return q -> new int[0];
+      if (prefix && words.size() == 1)
+      {
+        String w = words.get(0);
+        return q -> q.prefix(w, mask);
+      }
+      if (words.size() == 1)
+      {
+        String w = words.get(0);
+        return q -> q.term(w, mask);
+      }
+      return q -> q.phrase(words, mask);
+    }
+
+    private static int fields(String tag)
+    {
+      switch (tag.substring(1, tag.length() - 1).trim().toLowerCase())
+      {
+        case "ti": case "title":                  return 1 << TITLE;
+        case "ab": case "abstract":               return 1 << ABSTRACT;
+        case "tiab": case "title/abstract":       return 1 << TITLE | 1 << ABSTRACT;
+        case "body":                              return 1 << BODY;
+        case "tw": case "all": case "all fields": return ALL;
+        default: throw new IllegalArgumentException("field " + tag + " is not indexed locally");
+      }
+    }
+
+
+
+    // --- documents with the term in any of the fields
+    private int[] term(String word, int mask)
+    {
+      int[] docs = new int[0];
+      for (int f = 0; f < 3; f++)
+        if ((mask & 1 << f) != 0) docs = union(docs, postings(find(f + word), false).docs);
+      return docs;
+    }
+
+    // --- documents with any term starting with `word`
+    private int[] prefix(String word, int mask)
+    {
+      int[] docs = new int[0];
+      for (int f = 0; f < 3; f++)
+      {
+        if ((mask & 1 << f) == 0) continue;
+        String p = f + word;
+        int    k = find(p);
+        for (k = k >= 0 ? k : -k - 1; k < segment.keys.length && segment.keys[k].startsWith(p); k++)
+          docs = union(docs, postings(k, false).docs);
+      }
+      return docs;
+    }
+
+    // --- documents with the words at consecutive positions of one field
+    private int[] phrase(List<String> words, int mask)
+    {
+      int[] docs = new int[0];
+
+      for (int f = 0; f < 3; f++)
+      {
+        if ((mask & 1 << f) == 0) continue;
+
+        Postings[] p = new Postings[words.size()];
+        int[]      candidates = null;
+        for (int w = 0; w < p.length; w++)
+        {
+          p[w] = postings(find(f + words.get(w)), true);
+          candidates = candidates == null ? p[w].docs : intersect(candidates, p[w].docs);
+        }
+
+        IntList hits = new IntList();
+        for (int doc : candidates) if (adjacent(p, doc)) hits.add(doc);
+        docs = union(docs, hits.toArray());
+      }
+      return docs;
+    }
+
+    private static boolean adjacent(Postings[] p, int doc)
+    {
+      int[] at = new int[p.length];
+      for (int w = 0; w < p.length; w++) at[w] = Arrays.binarySearch(p[w].docs, doc);
+
+      for (int i = p[0].start[at[0]]; i < p[0].start[at[0] + 1]; i++)
+      {
+        int     first = p[0].positions[i];
+        boolean all   = true;
+        for (int w = 1; w < p.length && all; w++)
+          all = Arrays.binarySearch(p[w].positions, p[w].start[at[w]], p[w].start[at[w] + 1], first + w) >= 0;
+        if (all) return true;
+      }
+      return false;
+    }
+
+    private int find(String key) {return Arrays.binarySearch(segment.keys, key);}
+
+    private Postings postings(int k, boolean positions)
+    {
+      return k < 0 ? Postings.EMPTY : Postings.decode(segment.postings, segment.offsets[k], segment.offsets[k + 1], positions);
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- decoded postings list: positions of docs[i] are positions[start[i] .. start[i + 1])
+  private static final class Postings
+  {
+    static final Postings EMPTY = new Postings(new int[0], new int[1], new int[0]);
+
+    final int[] docs, start, positions;
+
+    Postings(int[] docs, int[] start, int[] positions)
+    {
+      this.docs      = docs;
+      this.start     = start;
+      this.positions = positions;
+    }
+
+    static Postings decode(byte[] data, int from, int to, boolean withPositions)
+    {
+      VarReader r     = new VarReader(data, from);
+      IntList   docs  = new IntList(), start = new IntList(), pos = new IntList();
+      int       doc   = -1;
+
+      start.add(0);
+      while (r.pos < to)
+      {
+        docs.add(doc += r.next());
+        int n = r.next(), p = 0;
+        for (int i = 0; i < n; i++)
+        {
+          p += r.next();
+          if (withPositions) pos.add(p);
+        }
+        start.add(pos.size);
+      }
+      return new Postings(docs.toArray(), start.toArray(), pos.toArray());
+    }
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   S E T S   * * * * * * * * * * * * * * * * * * *
+
+  static int[] intersect(int[] a, int[] b)
+  {
+    int[] out = new int[Math.min(a.length, b.length)];
+    int   n = 0, i = 0, j = 0;
+    while (i < a.length && j < b.length)
+    {
+      if      (a[i] < b[j]) i++;
+      else if (a[i] > b[j]) j++;
+      else    {out[n++] = a[i++]; j++;}
+    }
+    return Arrays.copyOf(out, n);
+  }
+
+  static int[] union(int[] a, int[] b)
+  {
+    if (a.length == 0) return b;
+    if (b.length == 0) return a;
+
+    int[] out = new int[a.length + b.length];
+    int   n = 0, i = 0, j = 0;
+    while (i < a.length || j < b.length)
+    {
+      if      (j == b.length || (i < a.length && a[i] < b[j])) out[n++] = a[i++];
+      else if (i == a.length || b[j] < a[i])                   out[n++] = b[j++];
+      else    {out[n++] = a[i++]; j++;}
+    }
+    return Arrays.copyOf(out, n);
+  }
+
+  static int[] difference(int[] a, int[] b)
+  {
+    int[] out = new int[a.length];
+    int   n = 0, j = 0;
+    for (int x : a)
+    {
+      while (j < b.length && b[j] < x) j++;
+      if (j == b.length || b[j] != x) out[n++] = x;
+    }
+    return Arrays.copyOf(out, n);
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   S T O R E   * * * * * * * * * * * * * * * * * *
+
+  // -----------------------------------------------------------------------------
+  // --- write all segments to a file (replaced atomically)
+  // -----------------------------------------------------------------------------
+  public void save(Path file) throws IOException
+  {
+    Segment[] segs = current();
+    Path      tmp  = file.resolveSibling(file.getFileName() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)))
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(segs.length);
+      for (Segment s : segs)
+      {
+        out.writeInt(s.ids.length);
+        for (String id : s.ids) writeString(out, id);
+        out.writeInt(s.keys.length);
+        for (int i = 0; i < s.keys.length; i++)
+        {
+          writeString(out, s.keys[i]);
+          out.writeInt(s.offsets[i + 1]);
+        }
+        out.write(s.postings);
+      }
+    }
+    try {Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);}
+    catch (AtomicMoveNotSupportedException e) {Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  static TextIndex load(Path file) throws IOException
+  {
+    TextIndex index = new TextIndex();
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16)))
+    {
+      int magic = in.readInt();
+      if (magic != MAGIC && magic != MAGIC_V1) throw new IOException(file + ": not a text index");
+      boolean v1 = magic == MAGIC_V1;
+
+      Segment[] segs = new Segment[in.readInt()];
+      for (int s = 0; s < segs.length; s++)
+      {
+        String[] ids = new String[in.readInt()];
+        for (int i = 0; i < ids.length; i++) index.known.add(ids[i] = v1 ? in.readUTF() : readString(in));
+
+        String[] keys    = new String[in.readInt()];
+        int[]    offsets = new int[keys.length + 1];
+        for (int i = 0; i < keys.length; i++)
+        {
+          keys[i]        = v1 ? in.readUTF() : readString(in);
+          offsets[i + 1] = in.readInt();
+        }
+
+        byte[] postings = new byte[offsets[keys.length]];
+        in.readFully(postings);
+        segs[s] = new Segment(ids, keys, offsets, postings);
+      }
+      index.segments = segs;
+    }
+    return index;
+  }
+
+
+
+  // --- length (int) + UTF-8: keys & ids are not limited to writeUTF's 64 KB
+  private static void writeString(DataOutputStream out, String s) throws IOException
+  {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  private static String readString(DataInputStream in) throws IOException
+  {
+    byte[] b = new byte[in.readInt()];
+    in.readFully(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+
+
+  // * * * * * * * * * * * * * * *   B U F F E R S   * * * * * * * * * * * * * * * *
+
+  // --- growable varint byte array; `last` is the last doc written to a postings list
+  private static final class ByteSink
+  {
+    byte[] bytes = new byte[16];
+    int    size, last = -1;
+
+    void varint(int v)
+    {
+      if (size + 5 > bytes.length) bytes = Arrays.copyOf(bytes, 2 * bytes.length + 5);
+      while ((v & ~0x7F) != 0) {bytes[size++] = (byte) (v & 0x7F | 0x80); v >>>= 7;}
+      bytes[size++] = (byte) v;
+    }
+
+    void write(byte[] b, int off, int len)
+    {
+      if (size + len > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + len));
+      System.arraycopy(b, off, bytes, size, len);
+      size += len;
+    }
+  }
+
+  private static final class VarReader
+  {
+    final byte[] bytes;
+    int          pos;
+
+    VarReader(byte[] bytes, int pos) {this.bytes = bytes; this.pos = pos;}
+
+    int next()
+    {
+      int v = 0;
+      for (int shift = 0; ; shift += 7)
+      {
+        byte b = bytes[pos++];
+        v |= (b & 0x7F) << shift;
+        if (b >= 0) return v;
+      }
+    }
+  }
+
+  private static final class IntList
+  {
+    int[] values = new int[8];
+    int   size;
+
+    void add(int v)
+    {
+      if (size == values.length) values = Arrays.copyOf(values, 2 * size);
+      values[size++] = v;
+    }
+
+    int[] toArray() {return Arrays.copyOf(values, size);}
+  }
+
+}
@@ -0,0 +1,728 @@
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/*********************************************************************************
+ * T R A N S P O R T
+ * -----------------
+ *
+ * Every URL-based fetch in Entrez goes through an EntrezTransport:
+ *
+ * - EntrezResponse get(String url)                  body read into a byte buffer
+ * - EntrezResponse post(String url, String form)    form POST (epost, long ID lists)
+ * - InputStream    open(String url)                 body streamed (large downloads)
+ * - EntrezStream   request(String url, headers)     streamed, with status & headers
+ *                                                   (e.g. Range requests)
+ *
+ * HttpTransport is the default implementation on java.net.http.HttpClient: one
+ * client (connection pool, keep-alive, HTTP/2 where the server offers it) is
+ * shared by all Entrez instances. Timings of each request are handed to an
+ * optional Listener, and recorded per endpoint in EntrezMetrics (latency,
+ * bytes, errors by type, requests in flight).
+ *
+ * Requests advertise "Accept-Encoding: gzip, deflate" and bodies are decoded
+ * as they are read, so callers always see the plain document. Exceptions:
+ * requests with a Range header (byte offsets must refer to the document
+ * itself), and request() calls that set Accept-Encoding themselves - those get
+ * the body exactly as sent, Content-Encoding header included (e.g. to store
+ * the gzip bytes as they are).
+ *
+ * No request waits forever: HttpTransport enforces connect, read (longest
+ * pause between body bytes) and total timeouts, per endpoint if configured
+ * (setTimeouts), and fails with HttpTimeoutException when one runs out.
+ ********************************************************************************/
+interface EntrezTransport
+{
+  EntrezResponse get(String url) throws IOException;
+
+  EntrezResponse post(String url, String form) throws IOException;
+
+  InputStream open(String url) throws IOException;
+
+  EntrezStream request(String url, Map<String, String> headers) throws IOException;
+}
+
+
+
+/*********************************************************************************
+ * Error status (>= 400) returned by the server.
+ ********************************************************************************/
+class EntrezHttpException extends IOException
+{
+  private static final long serialVersionUID = 1L;
+
+  final int status;
+  final transient Map<String, List<String>> headers;
+
+  EntrezHttpException(int status, String url)
+  {
+    this(status, url, Collections.<String, List<String>>emptyMap());
+  }
+
+  EntrezHttpException(int status, String url, Map<String, List<String>> headers)
+  {
+    super("Server returned HTTP response code: " + status + " for URL: " + url);
+    this.status  = status;
+    this.headers = headers;
+  }
+
+  // --- first value of a response header (case-insensitive), or null
+  public String header(String name)
+  {
+    return EntrezStream.header(headers, name);
+  }
+}
+
+
+
+/*********************************************************************************
+ * Streamed response: status, headers & body; close() releases the connection.
+ ********************************************************************************/
+class EntrezStream implements Closeable
+{
+  final int                       status;
+  final Map<String, List<String>> headers;
+  final InputStream               body;
+
+  EntrezStream(int status, Map<String, List<String>> headers, InputStream body)
+  {
+    this.status  = status;
+    this.headers = headers;
+    this.body    = body;
+  }
+
+  // --- first value of the header (case-insensitive), or null
+  public String header(String name)
+  {
+    return header(headers, name);
+  }
+
+  static String header(Map<String, List<String>> headers, String name)
+  {
+    if (headers == null) return null;
+    for (Map.Entry<String, List<String>> h : headers.entrySet())
+      if (h.getKey().equalsIgnoreCase(name) && !h.getValue().isEmpty()) return h.getValue().get(0);
+    return null;
+  }
+
+  public void close() throws IOException {body.close();}
+}
+
+
+
+/*********************************************************************************
+ * Buffered response: status, body bytes & timings.
+ ********************************************************************************/
+class EntrezResponse
+{
+  final String url;
+  final int    status;
+  final byte[] body;
+  final int    length;
+  final long   wireLength;    // --- body bytes as received (compressed or not)
+  final long   headerNanos;   // --- request sent -> response headers received
+  final long   totalNanos;    // --- request sent -> body fully read
+
+  EntrezResponse(String url, int status, byte[] body, int length, long wireLength, long headerNanos, long totalNanos)
+  {
+    this.url         = url;
+    this.status      = status;
+    this.body        = body;
+    this.length      = length;
+    this.wireLength  = wireLength;
+    this.headerNanos = headerNanos;
+    this.totalNanos  = totalNanos;
+  }
+
+  // --- body decoded as UTF-8
+  public String text()
+  {
+    return new String(body, 0, length, StandardCharsets.UTF_8);
+  }
+
+  public byte[] bytes()
+  {
+    return body.length == length ? body : Arrays.copyOf(body, length);
+  }
+}
+
+
+
+/*********************************************************************************
+ * Default transport on java.net.http.HttpClient.
+ ********************************************************************************/
+class HttpTransport implements EntrezTransport
+{
+  // --- per-request timings & sizes (wireBytes as received, bytes decoded);
+  //     for open() reported when the stream is closed
+  interface Listener
+  {
+    void completed(String url, int status, long wireBytes, long bytes, long headerNanos, long totalNanos);
+  }
+
+  // --- limits in ms (0 = none): connect, longest pause between body bytes,
+  //     whole request (headers & body)
+  static final class Timeouts
+  {
+    final long connect, read, total;
+
+    Timeouts(long connect, long read, long total)
+    {
+      this.connect = connect;
+      this.read    = read;
+      this.total   = total;
+    }
+
+    // --- limit for the response headers: connect + first byte, within total
+    long headers()
+    {
+      long h = connect > 0 && read > 0 ? connect + read : 0;
+      return total > 0 && (h == 0 || total < h) ? total : h;
+    }
+  }
+
+  private static final HttpTransport SHARED = new HttpTransport();
+
+  // --- closes bodies whose read / total timeout ran out
+  private static final ScheduledThreadPoolExecutor WATCHDOG = watchdog();
+
+  static final String ACCEPT_ENCODING = "gzip, deflate";
+
+  static final long CONNECT_TIMEOUT = 10000;    // --- ms, defaults
+  static final long READ_TIMEOUT    = 60000;
+
+  private final HttpClient  client;
+  private volatile Listener listener;
+  private volatile boolean  compress = true;
+  private volatile EntrezMetrics metrics = EntrezMetrics.shared();
+
+  // --- per endpoint (EntrezMetrics.endpointName), else the defaults
+  private final Map<String, Timeouts> timeouts = new ConcurrentHashMap<String, Timeouts>();
+  private volatile Timeouts           defaults = new Timeouts(CONNECT_TIMEOUT, READ_TIMEOUT, 0);
+
+  // --- totals over all requests finished so far
+  private final AtomicLong wireBytes = new AtomicLong(), decodedBytes = new AtomicLong();
+  private final AtomicLong timedOut  = new AtomicLong();
+
+
+  public HttpTransport()
+  {
+    this(HttpClient.newBuilder()
+                   .version(HttpClient.Version.HTTP_2)
+                   .followRedirects(HttpClient.Redirect.NORMAL)
+                   .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT))
+                   .build());
+  }
+
+  public HttpTransport(HttpClient client)
+  {
+    this.client = client;
+  }
+
+  // --- the transport used by Entrez unless another one is given
+  static HttpTransport shared() {return SHARED;}
+
+  public void setListener(Listener listener) {this.listener = listener;}
+
+  public void setMetrics(EntrezMetrics metrics) {this.metrics = metrics;}
+
+  // --- ask for compressed bodies (default: on)
+  public void setCompression(boolean on) {this.compress = on;}
+
+  // -----------------------------------------------------------------------------
+  // --- timeouts in ms (0 = none) of endpoints without their own; default
+  //     connect 10 s, read 60 s, no total limit (large PMC downloads). The
+  //     client's own connect timeout is fixed when it is built, so a shorter
+  //     connect limit is enforced as part of the wait for the headers.
+  // -----------------------------------------------------------------------------
+  public void setTimeouts(long connectMillis, long readMillis, long totalMillis)
+  {
+    this.defaults = new Timeouts(connectMillis, readMillis, totalMillis);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- timeouts of one endpoint, named as in EntrezMetrics ("esearch",
+  //     "efetch", "pubmed", ...), e.g. setTimeouts("esearch", 5000, 10000, 30000)
+  // -----------------------------------------------------------------------------
+  public void setTimeouts(String endpoint, long connectMillis, long readMillis, long totalMillis)
+  {
+    timeouts.put(endpoint, new Timeouts(connectMillis, readMillis, totalMillis));
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  Timeouts timeouts(String url)
+  {
+    Timeouts t = timeouts.isEmpty() ? null : timeouts.get(EntrezMetrics.endpointName(url));
+    return t != null ? t : defaults;
+  }
+
+  public long wireBytes()    {return wireBytes.get();}
+  public long decodedBytes() {return decodedBytes.get();}
+  public long timeouts()     {return timedOut.get();}
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- GET & read the whole body into a byte buffer
+  // -----------------------------------------------------------------------------
+  public EntrezResponse get(String url) throws IOException
+  {
+    return read(url, null);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- POST an application/x-www-form-urlencoded body & read the response
+  // -----------------------------------------------------------------------------
+  public EntrezResponse post(String url, String form) throws IOException
+  {
+    return read(url, form);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private EntrezResponse read(String url, String form) throws IOException
+  {
+    EntrezMetrics.Span span   = metrics.endpoint(url);
+    InputStream        opened = null;   // --- body to release on failure
+
+    try
+    {
+      Timeouts t  = timeouts(url);
+      long     t0 = System.nanoTime();
+      HttpResponse<InputStream> res = send(url, Collections.<String, String>emptyMap(), form, t);
+      long t1 = System.nanoTime();
+
+      opened = res.body();
+
+      byte[]   buf  = new byte[64 * 1024];
+      int      len  = 0, n;
+      Counting wire = new Counting(watch(url, res.body(), t, t0));
+
+      opened = wire;
+
+      try (InputStream in = decode(wire, res.headers().firstValue("Content-Encoding").orElse(null)))
+      {
+        while ((n = in.read(buf, len, buf.length - len)) >= 0)
+        {
+          len += n;
+          if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+      }
+
+      long t2 = System.nanoTime();
+      report(url, res.statusCode(), wire.bytes, len, t1 - t0, t2 - t0);
+      span.bytes(wire.bytes, len);
+
+      return new EntrezResponse(url, res.statusCode(), buf, len, wire.bytes, t1 - t0, t2 - t0);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      release(opened, e);
+      span.error(e);
+      throw e;
+    }
+    finally {span.close();}
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- GET & stream the body; the caller must close the stream
+  // -----------------------------------------------------------------------------
+  public InputStream open(String url) throws IOException
+  {
+    return request(url, Collections.<String, String>emptyMap()).body;
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- GET with extra request headers; the caller must close the stream
+  // -----------------------------------------------------------------------------
+  public EntrezStream request(final String url, Map<String, String> headers) throws IOException
+  {
+    final EntrezMetrics.Span span   = metrics.endpoint(url);
+    final Timeouts           t      = timeouts(url);
+    final long               t0     = System.nanoTime();
+    InputStream              opened = null;   // --- body to release on failure
+
+    try
+    {
+      final HttpResponse<InputStream> res = send(url, headers, null, t);
+      final long                      t1  = System.nanoTime();
+
+      opened = res.body();
+
+      Map<String, List<String>> responseHeaders = res.headers().map();
+      String                    encoding        = res.headers().firstValue("Content-Encoding").orElse(null);
+      final Counting            wire            = new Counting(watch(url, res.body(), t, t0));
+      InputStream               body            = wire;
+
+      opened = wire;
+
+      // --- the caller asked for an encoding itself: hand the body over as sent
+      // --- (GZIPInputStream reads the header here: a bad body fails right away)
+      if (!has(headers, "Accept-Encoding") && encoding != null && !encoding.equalsIgnoreCase("identity"))
+      {
+        body            = decode(wire, encoding);
+        responseHeaders = new LinkedHashMap<String, List<String>>(responseHeaders);
+        responseHeaders.keySet().removeIf(h -> h.equalsIgnoreCase("Content-Encoding") || h.equalsIgnoreCase("Content-Length"));
+      }
+
+      return new EntrezStream(res.statusCode(), responseHeaders, new Counting(body)
+      {
+        private boolean closed = false, failed = false;
+
+        @Override public int read(byte[] b, int off, int len) throws IOException
+        {
+          try {return super.read(b, off, len);}
+          catch (IOException e)
+          {
+            if (!failed) span.error(e);
+            failed = true;
+            throw e;
+          }
+        }
+
+        @Override public void close() throws IOException
+        {
+          if (closed) return;
+          closed = true;
+          try {super.close();}
+          finally
+          {
+            report(url, res.statusCode(), wire.bytes, bytes, t1 - t0, System.nanoTime() - t0);
+            span.bytes(wire.bytes, bytes).close();
+          }
+        }
+      });
+    }
+    catch (IOException | RuntimeException e)
+    {
+      release(opened, e);
+      span.error(e).close();
+      throw e;
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private void report(String url, int status, long wire, long decoded, long headerNanos, long totalNanos)
+  {
+    wireBytes.addAndGet(wire);
+    decodedBytes.addAndGet(decoded);
+
+    Listener l = listener;
+    if (l != null) l.completed(url, status, wire, decoded, headerNanos, totalNanos);
+  }
+
+
+
+  // --- close a body the caller will never see (also stops its watchdog)
+  private static void release(InputStream body, Exception failure)
+  {
+    if (body == null) return;
+    try {body.close();}
+    catch (IOException e) {failure.addSuppressed(e);}
+  }
+
+
+
+  // --- counts the bytes read through it
+  private static class Counting extends FilterInputStream
+  {
+    long bytes = 0;
+
+    Counting(InputStream in) {super(in);}
+
+    @Override public int read() throws IOException
+    {
+      int c = super.read();
+      if (c >= 0) bytes++;
+      return c;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException
+    {
+      int n = super.read(b, off, len);
+      if (n > 0) bytes += n;
+      return n;
+    }
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- body that fails with HttpTimeoutException once a read() was blocked for
+  //     t.read ms, or t.total ms passed since t0: the watchdog closes the
+  //     stream, which also wakes up a read blocked on a stalled connection.
+  //     Time the caller spends between reads (a slow consumer) does not count
+  //     against the read timeout.
+  // -----------------------------------------------------------------------------
+  InputStream watch(String url, InputStream body, Timeouts t, long t0)
+  {
+    return t.read > 0 || t.total > 0 ? new Watched(url, body, t, t0) : body;
+  }
+
+  private final class Watched extends FilterInputStream implements Runnable
+  {
+    private static final long IDLE = Long.MIN_VALUE;
+
+    private final String   url;
+    private final Timeouts t;
+    private final long     t0;
+
+    private volatile long     blockedSince = IDLE;   // --- read() entered at, IDLE outside read()
+    private volatile boolean  expired, closed, scheduled;
+    private ScheduledFuture<?> check;
+
+    Watched(String url, InputStream in, Timeouts t, long t0)
+    {
+      super(in);
+      this.url = url;
+      this.t   = t;
+      this.t0  = t0;
+      if (t.total > 0) arm();
+    }
+
+    // --- next deadline (nanoTime), Long.MAX_VALUE if none is running
+    private long due()
+    {
+      long due   = Long.MAX_VALUE;
+      long since = blockedSince;
+      if (t.read  > 0 && since != IDLE) due = since + t.read * 1000000L;
+      if (t.total > 0) due = Math.min(due, t0 + t.total * 1000000L);
+      return due;
+    }
+
+    // --- make sure a check is pending; called on entering read()
+    private synchronized void arm()
+    {
+      if (closed || scheduled) return;
+      scheduled = true;
+      check     = WATCHDOG.schedule(this, Math.max(0, due() - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    // --- watchdog: expire, look again at the new deadline, or stop until the
+    //     next read() re-arms it
+    public void run()
+    {
+      synchronized (this)
+      {
+        scheduled = false;
+        if (closed) return;
+
+        long due = due();
+        if (due == Long.MAX_VALUE) return;
+
+        long wait = due - System.nanoTime();
+        if (wait > 0)
+        {
+          scheduled = true;
+          check     = WATCHDOG.schedule(this, wait, TimeUnit.NANOSECONDS);
+          return;
+        }
+      }
+
+      expired = true;
+      timedOut.incrementAndGet();
+      metrics.timeout(url);
+      try {in.close();} catch (IOException e) {}
+    }
+
+    @Override public int read() throws IOException
+    {
+      int n;
+      enter();
+      try {n = super.read();}
+      catch (IOException e) {throw expired ? timeout(e) : e;}
+      finally {blockedSince = IDLE;}
+      return done(n);
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException
+    {
+      int n;
+      enter();
+      try {n = super.read(b, off, len);}
+      catch (IOException e) {throw expired ? timeout(e) : e;}
+      finally {blockedSince = IDLE;}
+      return done(n);
+    }
+
+    // --- blockedSince is set before `scheduled` is looked at, so either this
+    //     read or a watchdog run that is just stopping arms the next check
+    private void enter()
+    {
+      if (t.read <= 0) return;
+      blockedSince = System.nanoTime();
+      if (!scheduled) arm();
+    }
+
+    private int done(int n) throws IOException
+    {
+      if (expired) throw timeout(null);   // --- closed under the reader: not a real EOF
+      return n;
+    }
+
+    private IOException timeout(IOException cause)
+    {
+      boolean total = t.total > 0 && System.nanoTime() - t0 >= t.total * 1000000L;
+      IOException e = new HttpTimeoutException(total ? "request took over " + t.total + " ms: " + url
+                                                     : "no data for " + t.read + " ms: " + url);
+      if (cause != null) e.initCause(cause);
+      return e;
+    }
+
+    @Override public void close() throws IOException
+    {
+      synchronized (this)
+      {
+        closed = true;
+        if (check != null) check.cancel(false);
+      }
+      super.close();
+    }
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  private static ScheduledThreadPoolExecutor watchdog()
+  {
+    ScheduledThreadPoolExecutor w = new ScheduledThreadPoolExecutor(1, r ->
+    {
+      Thread t = new Thread(r, "entrez-timeouts");
+      t.setDaemon(true);
+      return t;
+    });
+    w.setRemoveOnCancelPolicy(true);
+    return w;
+  }
+
+
+
+  // -----------------------------------------------------------------------------
+  // --- body decoded according to Content-Encoding; "deflate" is meant to be
+  //     zlib-wrapped but some servers send raw deflate, so the header is checked
+  // -----------------------------------------------------------------------------
+  static InputStream decode(InputStream in, String encoding) throws IOException
+  {
+    if (encoding == null) return in;
+    encoding = encoding.trim();
+
+    if (encoding.isEmpty() || encoding.equalsIgnoreCase("identity")) return in;
+    if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) return new GZIPInputStream(in, 64 * 1024);
+
+    if (encoding.equalsIgnoreCase("deflate"))
+    {
+      PushbackInputStream p  = new PushbackInputStream(in, 2);
+      int                 b0 = p.read(), b1 = b0 < 0 ? -1 : p.read();
+
+      if (b1 >= 0) p.unread(b1);
+      if (b0 >= 0) p.unread(b0);
+
+      boolean        zlib     = b1 >= 0 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+      final Inflater inflater = new Inflater(!zlib);
+
+      return new InflaterInputStream(p, inflater, 64 * 1024)
+      {
+        @Override public void close() throws IOException
+        {
+          try {super.close();} finally {inflater.end();}
+        }
+      };
+    }
+
+    throw new IOException("unsupported Content-Encoding: " + encoding);
+  }
+  // -----------------------------------------------------------------------------
+
+
+
+  // --- header present (case-insensitive)
+  private static boolean has(Map<String, String> headers, String name)
+  {
+    for (String h : headers.keySet()) if (h.equalsIgnoreCase(name)) return true;
+    return false;
+  }
+
+
+
+  // --- GET, or POST when form != null; headers within t.headers() ms
+  private HttpResponse<InputStream> send(String url, Map<String, String> headers, String form, Timeouts t) throws IOException
+  {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url));
+    if (form == null) builder.GET();
+    else              builder.header("Content-Type", "application/x-www-form-urlencoded")
+                             .POST(HttpRequest.BodyPublishers.ofString(form, StandardCharsets.UTF_8));
+    for (Map.Entry<String, String> h : headers.entrySet()) builder.header(h.getKey(), h.getValue());
+    if (compress && !has(headers, "Accept-Encoding") && !has(headers, "Range")) builder.header("Accept-Encoding", ACCEPT_ENCODING);
+
+    long limit = t.headers();
+    if (limit > 0) builder.timeout(Duration.ofMillis(limit));
+
+    HttpRequest req = builder.build();
+    HttpResponse<InputStream> res;
+
+    try {res = client.send(req, HttpResponse.BodyHandlers.ofInputStream());}
+    catch (HttpTimeoutException e)
+    {
+      timedOut.incrementAndGet();
+      metrics.timeout(url);
+      HttpTimeoutException te = new HttpTimeoutException(e.getMessage() + ": " + url);
+      te.initCause(e);
+      throw te;
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted: " + url);
+    }
+
+    // --- same contract as URL.openStream(): error statuses are exceptions
+    if (res.statusCode() >= 400)
+    {
+      res.body().close();
+      throw new EntrezHttpException(res.statusCode(), url, res.headers().map());
+    }
+
+    return res;
+  }
+
+}